@@ -0,0 +1,48 @@
+#!/bin/bash
+# this script must be run in the main directory of sparql-generate, with
+# GraalVM and its native-image component installed. it:
+# - packages the sparql-generate-jena jar
+# - runs the smoke queries on the jar with the native-image agent, which merges
+#   the reflection, resource and proxy configuration it observes into the
+#   configuration of sparql-generate-jena
+# - builds the native binary. If the build reports classes initialized at build
+#   time unexpectedly, run this script again with TRACE set to a comma separated
+#   list of these classes, and add the classes the trace reports to
+#   native-image.properties
+# - runs the smoke queries on the binary, and compares the output with the
+#   output of the jar
+# review and commit the changes to the configuration files afterwards.
+
+conf=sparql-generate-jena/src/main/resources/META-INF/native-image/fr.mines-stetienne.ci.sparql-generate/sparql-generate-jena
+tests=sparql-generate-jena/src/test/resources/generate
+smoke="regexeg2 bnode2 list"
+jar=sparql-generate-jena/target/sparql-generate.jar
+binary=sparql-generate-jena/target/sparql-generate
+out=$(pwd)/sparql-generate-jena/target/smoke
+
+# blank node labels differ between runs
+normalize() {
+  sed 's/_:[^ ]*/_:b/g' "$1" | sort
+}
+
+set -e
+mvn -B package -DskipTests --file sparql-generate-jena/pom.xml
+rm -rf $out && mkdir -p $out
+for test in $smoke; do
+  java -agentlib:native-image-agent=config-merge-dir=$conf -jar $jar -d $tests/$test -o $out/$test.jar.nt -fo NT
+done
+
+buildArgs=""
+if [ -n "$TRACE" ]; then
+  buildArgs="--trace-class-initialization=$TRACE"
+fi
+mvn -B package -P native -DskipTests -Dnative.buildArgs="$buildArgs" --file sparql-generate-jena/pom.xml
+
+for test in $smoke; do
+  $binary -d $tests/$test -o $out/$test.native.nt -fo NT
+  if [ ! -s $out/$test.native.nt ] || ! diff <(normalize $out/$test.jar.nt) <(normalize $out/$test.native.nt); then
+    echo "smoke test $test: the native binary and the jar have different outputs"
+    exit 1
+  fi
+  echo "smoke test $test: ok"
+done
@@ -21,26 +21,27 @@ import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorFunctionLoader;
 import org.apache.jena.sparql.function.FunctionRegistry;
 
 import fr.mines_stetienne.ci.sparql_generate.function.FunctionLoader;
+import fr.mines_stetienne.ci.sparql_generate.function.LazyFunctionFactory;
 
 /**
  *
  * @author Maxime Lefrançois
  */
 public class FunctionsLoader implements IteratorFunctionLoader, FunctionLoader {
-    
+
     @Override
     public void load(IteratorFunctionRegistry itereg) {
     }
     
     @Override
     public void load(FunctionRegistry funreg) {
-    	funreg.put(FUN_BitwiseNot.URI, FUN_BitwiseNot.class);
-    	funreg.put(FUN_BitwiseAnd.URI, FUN_BitwiseAnd.class);
-    	funreg.put(FUN_BitwiseOr.URI, FUN_BitwiseOr.class);
-    	funreg.put(FUN_BitwiseXOR.URI, FUN_BitwiseXOR.class);
-    	funreg.put(FUN_BitwiseLeftShift.URI, FUN_BitwiseLeftShift.class);
-    	funreg.put(FUN_BitwiseRightShift.URI, FUN_BitwiseRightShift.class);
-    	funreg.put(FUN_Base10.URI, FUN_Base10.class);
+    	funreg.put(FUN_BitwiseNot.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.binary.FUN_BitwiseNot"));
+    	funreg.put(FUN_BitwiseAnd.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.binary.FUN_BitwiseAnd"));
+    	funreg.put(FUN_BitwiseOr.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.binary.FUN_BitwiseOr"));
+    	funreg.put(FUN_BitwiseXOR.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.binary.FUN_BitwiseXOR"));
+    	funreg.put(FUN_BitwiseLeftShift.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.binary.FUN_BitwiseLeftShift"));
+    	funreg.put(FUN_BitwiseRightShift.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.binary.FUN_BitwiseRightShift"));
+    	funreg.put(FUN_Base10.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.binary.FUN_Base10"));
     }
     
 }
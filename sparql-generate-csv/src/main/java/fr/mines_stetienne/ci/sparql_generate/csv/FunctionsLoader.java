@@ -23,11 +23,11 @@ import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorFunctionLoader;
  * @author Maxime Lefrançois
  */
 public class FunctionsLoader implements IteratorFunctionLoader {
-    
+
     @Override
     public void load(IteratorFunctionRegistry itereg) {
-        itereg.put(ITER_CSV.URI, ITER_CSV.class);
-        itereg.put(ITER_CSVHeaders.URI, ITER_CSVHeaders.class);
+        itereg.put(ITER_CSV.URI, "fr.mines_stetienne.ci.sparql_generate.csv.ITER_CSV");
+        itereg.put(ITER_CSVHeaders.URI, "fr.mines_stetienne.ci.sparql_generate.csv.ITER_CSVHeaders");
     }
     
 }
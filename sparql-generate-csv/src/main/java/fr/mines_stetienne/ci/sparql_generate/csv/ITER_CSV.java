@@ -16,6 +16,7 @@
 package fr.mines_stetienne.ci.sparql_generate.csv;
 
 import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.iterator.BatchSize;
 import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorStreamFunctionBase;
 import fr.mines_stetienne.ci.sparql_generate.stream.LookUpRequest;
 import fr.mines_stetienne.ci.sparql_generate.stream.SPARQLExtStreamManager;
@@ -25,10 +26,12 @@ import com.univocity.parsers.common.processor.core.Processor;
 import com.univocity.parsers.csv.CsvParser;
 import com.univocity.parsers.csv.CsvParserSettings;
 import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.BitSet;
 
 import org.apache.jena.atlas.web.TypedInputStream;
 import org.apache.jena.sparql.expr.ExprEvalException;
@@ -39,7 +42,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
+import java.util.function.IntPredicate;
 import org.apache.commons.io.IOUtils;
 import org.apache.jena.riot.SysRIOT;
 
@@ -70,7 +75,9 @@ import org.apache.jena.riot.SysRIOT;
  * );</li>
  * </ul>
  * <li>(integer: batch) Optional number of rows per batch (by default, all the
- * CSV document is processed as one batch);</li>
+ * CSV document is processed as one batch). If a batch latency or memory
+ * target is set, the size of the batches adapts to it, starting from this
+ * number;</li>
  * <li>(string parameters: names) Names of the columns to select (by default,
  * all the columns are selected).</li>
  * </ul>
@@ -101,6 +108,14 @@ import org.apache.jena.riot.SysRIOT;
  * 1000 rows, and binds the cells of the rows named "PersonId" and "Name" to the
  * corresponding variables.
  * </li>
+ * </ul>
+ * <p>
+ * Large local CSV files may be parsed in parallel, by setting the parsing
+ * parallelism of the context to the number of threads to use (see
+ * {@link ContextUtils.Builder#setParsingParallelism(int)}). The file is then
+ * memory-mapped, split at record boundaries, and its chunks are parsed
+ * concurrently on the parsing executor of the context. Rows are emitted in the
+ * order of the file.
  *
  * @author Maxime Lefrançois
  * @since 2019-03-23
@@ -117,6 +132,11 @@ public class ITER_CSV extends IteratorStreamFunctionBase {
      */
     public static final String URI = SPARQLExt.ITER + "CSV";
 
+    /**
+     * Local CSV files smaller than this size are never parsed in parallel.
+     */
+    private static final long PARALLEL_THRESHOLD = 64L << 20;
+
     @Override
     public void exec(
             final List<NodeValue> args,
@@ -133,14 +153,29 @@ public class ITER_CSV extends IteratorStreamFunctionBase {
             LOG.debug(msg);
         	throw new ExprEvalException(msg);
         }
-        try (InputStream in = getInputStream(csv)) {
+        try {
             final CsvParserSettings parserSettings = new CsvParserSettings();
             parserSettings.setHeaderExtractionEnabled(true);
             setFormatInformation(args, parserSettings);
-            setProcessor(args, parserSettings, collectionListNodeValue);
-            setSelectedColumns(args, parserSettings);
-            CsvParser parser = new CsvParser(parserSettings);
-            parser.parse(in, StandardCharsets.UTF_8);
+            final BatchSize batchSize = getBatchSize(getRowsInABatch(args), collectionListNodeValue);
+            final String[] selectedFields = getSelectedColumns(args);
+            final File file = getLocalFile(csv);
+            final int parallelism = ContextUtils.getParsingParallelism(getContext());
+            if (file != null && parallelism > 1 && file.length() >= PARALLEL_THRESHOLD
+                    && ParallelCSVParser.isSupported(parserSettings, parserSettings.isHeaderExtractionEnabled(), selectedFields)
+                    && execParallel(file, parallelism, parserSettings, batchSize, selectedFields)) {
+                return;
+            }
+            try (InputStream in = getInputStream(csv)) {
+                setProcessor(batchSize, parserSettings);
+                if (selectedFields != null) {
+                    parserSettings.selectFields(selectedFields);
+                } else {
+                    selectUsedColumns(parserSettings);
+                }
+                CsvParser parser = new CsvParser(parserSettings);
+                parser.parse(in, StandardCharsets.UTF_8);
+            }
         } catch (ExprEvalException | IOException ex) {
             LOG.warn("Exception while fetching or parsing CSV document", ex);
         } catch (Exception ex) {
@@ -148,29 +183,89 @@ public class ITER_CSV extends IteratorStreamFunctionBase {
         }
     }
 
+    private boolean execParallel(
+            final File file,
+            final int parallelism,
+            final CsvParserSettings parserSettings,
+            final BatchSize batchSize,
+            final String[] selectedFields) throws IOException {
+        LOG.trace("  In parallel with " + parallelism + " threads");
+        final ParallelCSVParser parser = new ParallelCSVParser(file, parserSettings,
+                parserSettings.isHeaderExtractionEnabled(), selectedFields, this::isOutputUsed);
+        final ExecutorService executor = ContextUtils.getParsingExecutor(getContext());
+        final List<List<NodeValue>> nodeValues = new ArrayList<>();
+        try {
+            final boolean parsed = parser.parse(executor, parallelism, (ordinal, rows) -> {
+                LOG.trace("Chunk " + ordinal + " has " + rows.size() + " rows");
+                if (batchSize.get() <= 0) {
+                    nodeValues.addAll(rows);
+                    return;
+                }
+                for (List<NodeValue> row : rows) {
+                    nodeValues.add(row);
+                    if (batchSize.isFull(nodeValues.size())) {
+                        batchSize.emit(new ArrayList<>(nodeValues));
+                        nodeValues.clear();
+                    }
+                }
+            });
+            if (!parsed) {
+                return false;
+            }
+            batchSize.emit(nodeValues);
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ExprEvalException("Parsing of CSV document " + file + " interrupted");
+        }
+    }
+
+    static List<NodeValue> toNodeValues(String[] row, IntPredicate isUsed) {
+        final List<NodeValue> list = new ArrayList<>(row.length);
+        for (int i = 0; i < row.length; i++) {
+            final String cell = row[i];
+            if (cell == null || !isUsed.test(i)) {
+                list.add(null);
+            } else {
+                list.add(new NodeValueString(cell));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Only parses the columns bound to variables used in the query. The other
+     * columns are null.
+     */
+    private void selectUsedColumns(final CsvParserSettings parserSettings) {
+        final BitSet usedOutputs = getUsedOutputs();
+        if (usedOutputs == null || usedOutputs.isEmpty()) {
+            return;
+        }
+        LOG.trace("  Only parsing columns " + usedOutputs);
+        parserSettings.setColumnReorderingEnabled(false);
+        parserSettings.selectIndexes(usedOutputs.stream().boxed().toArray(Integer[]::new));
+    }
+
     @Override
     public void checkBuild(ExprList args) {
     }
 
-    private void setProcessor(
-            final List<NodeValue> args,
-            final CsvParserSettings parserSettings,
-            final Consumer<List<List<NodeValue>>> collectionListNodeValue) {
-        
-        final int rowsInABatch;
+    private int getRowsInABatch(final List<NodeValue> args) {
         if (!args.isEmpty() && args.get(0).isInteger()) {
             int batch = args.remove(0).getInteger().intValue();
             if (batch > 0) {
-                rowsInABatch = batch;
-                LOG.trace("  With batches of " + rowsInABatch + " lines.");
-            } else {
-                rowsInABatch = 0;
-                LOG.trace("  As one batch");
+                LOG.trace("  With batches of " + batch + " lines.");
+                return batch;
             }
-        } else {
-            rowsInABatch = 0;
-            LOG.trace("  As one batch");
         }
+        LOG.trace("  As one batch");
+        return 0;
+    }
+
+    private void setProcessor(
+            final BatchSize batchSize,
+            final CsvParserSettings parserSettings) {
 
         final Processor processor = new AbstractRowProcessor() {
             private int rowsInThisBatch = 0;
@@ -185,18 +280,10 @@ public class ITER_CSV extends IteratorStreamFunctionBase {
             
             @Override
             public void rowProcessed(String[] row, ParsingContext context) {
-                final List<NodeValue> list = new ArrayList<>();
-                for (String cell : row) {
-                    if (cell == null) {
-                        list.add(null);
-                    } else {
-                        list.add(new NodeValueString(cell));
-                    }
-                }
-                nodeValues.add(list);
+                nodeValues.add(toNodeValues(row, ITER_CSV.this::isOutputUsed));
                 rowsInThisBatch++;
                 total++;
-                if (rowsInABatch > 0 && rowsInThisBatch >= rowsInABatch) {
+                if (batchSize.isFull(rowsInThisBatch)) {
                     LOG.trace("New batch of " + rowsInThisBatch + " rows, " + total + " total");
                     send();
                     rowsInThisBatch = 0;
@@ -210,7 +297,7 @@ public class ITER_CSV extends IteratorStreamFunctionBase {
             }
 
             private void send() {
-                collectionListNodeValue.accept(nodeValues);
+                batchSize.emit(nodeValues);
                 nodeValues = new ArrayList<>();
             }
 
@@ -265,14 +352,24 @@ public class ITER_CSV extends IteratorStreamFunctionBase {
         }
     }
 
-    private void setSelectedColumns(List<NodeValue> args, CsvParserSettings parserSettings) {
+    private String[] getSelectedColumns(List<NodeValue> args) {
         if (!args.isEmpty()) {
             if (args.stream().anyMatch(col -> col == null || !col.isString())) {
                 LOG.debug("Columns names must strings, got: " + args);
                 throw new ExprEvalException("Columns names must be strings, got: " + args);
             }
-            parserSettings.selectFields(args.stream().map(NodeValue::asString).toArray(String[]::new));
+            return args.stream().map(NodeValue::asString).toArray(String[]::new);
+        }
+        return null;
+    }
+
+    private File getLocalFile(NodeValue csv) {
+        if (!csv.isIRI()) {
+            return null;
         }
+        LookUpRequest req = new LookUpRequest(csv.asNode().getURI(), "text/csv");
+        final SPARQLExtStreamManager sm = (SPARQLExtStreamManager) getContext().get(SysRIOT.sysStreamManager);
+        return sm == null ? null : sm.getLocalFile(req);
     }
 
 }
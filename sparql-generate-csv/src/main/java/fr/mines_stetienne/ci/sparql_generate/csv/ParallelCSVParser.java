@@ -0,0 +1,462 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntPredicate;
+
+import org.apache.jena.sparql.expr.NodeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.univocity.parsers.csv.CsvParser;
+import com.univocity.parsers.csv.CsvParserSettings;
+
+/**
+ * Parses a local CSV file in parallel. The file is memory-mapped, split in
+ * chunks, and the chunks are parsed concurrently.
+ * <p>
+ * Split points are sampled at regular offsets, and moved forward locally to the
+ * next line start. Such a split point may fall inside a quoted value, so the
+ * split is speculative: while a chunk is parsed, its bytes are tracked to know
+ * whether it ends inside a quoted value. Chunks are validated in the order of
+ * the file, and if a chunk does not end at a record boundary, the rest of the
+ * file is parsed sequentially from the start of that chunk. This assumes the
+ * quote character is ASCII, escaped quotes are doubled, and records end with a
+ * line feed.
+ *
+ * @author Maxime Lefrançois
+ */
+class ParallelCSVParser {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelCSVParser.class);
+
+    /**
+     * Maximal size of a mapped region.
+     */
+    private static final long MAX_MAPPED = 1L << 30;
+
+    /**
+     * Target size of a chunk.
+     */
+    private static final long CHUNK_SIZE = 16L << 20;
+
+    /**
+     * Size of the region scanned at a time to find the next line start.
+     */
+    private static final long SCAN_SIZE = 64L << 10;
+
+    private final File file;
+
+    private final CsvParserSettings template;
+
+    private final boolean header;
+
+    private final String[] selectedFields;
+
+    private final IntPredicate usedColumns;
+
+    private final byte quote;
+
+    /**
+     * The comment character, or 0 if comments are disabled.
+     */
+    private final byte comment;
+
+    /**
+     * Constructor.
+     *
+     * @param file the local CSV file.
+     * @param template the settings for the CSV format.
+     * @param header true if the first record is the header.
+     * @param selectedFields the names of the selected columns, or null.
+     * @param usedColumns the positions of the columns whose values are used,
+     * the others are null.
+     */
+    ParallelCSVParser(
+            final File file,
+            final CsvParserSettings template,
+            final boolean header,
+            final String[] selectedFields,
+            final IntPredicate usedColumns) {
+        this.file = file;
+        this.template = template;
+        this.header = header;
+        this.selectedFields = selectedFields;
+        this.usedColumns = usedColumns;
+        this.quote = (byte) template.getFormat().getQuote();
+        this.comment = (byte) template.getFormat().getComment();
+    }
+
+    /**
+     * Checks if a file with this format can be split safely.
+     *
+     * @param settings the settings for the CSV format.
+     * @param header true if the first record is the header.
+     * @param selectedFields the names of the selected columns, or null.
+     * @return true if the file can be parsed in parallel.
+     */
+    static boolean isSupported(
+            final CsvParserSettings settings,
+            final boolean header,
+            final String[] selectedFields) {
+        final char q = settings.getFormat().getQuote();
+        final char[] lineSeparator = settings.getFormat().getLineSeparator();
+        return q < 128
+                && settings.getFormat().getQuoteEscape() == q
+                && settings.getFormat().getComment() < 128
+                && lineSeparator.length > 0
+                && lineSeparator[lineSeparator.length - 1] == '\n'
+                && (selectedFields == null || header);
+    }
+
+    /**
+     * Parses the file. Chunks are emitted on the calling thread, in the order
+     * of the file, with their ordinal.
+     *
+     * @param executor the executor that parses the chunks.
+     * @param parallelism the maximal number of chunks being parsed at the same
+     * time.
+     * @param chunkStream where to emit the rows of each chunk.
+     * @return false if the header starts with the comment character, and
+     * nothing was parsed.
+     * @throws IOException if the file cannot be read.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    boolean parse(
+            final ExecutorService executor,
+            final int parallelism,
+            final ChunkConsumer chunkStream) throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long start = skipByteOrderMark(channel, size);
+            String[] headers = null;
+            if (header) {
+                if (isComment(channel, start, size)) {
+                    return false;
+                }
+                final long headerEnd = findRecordEnd(channel, start, size);
+                final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, headerEnd - start);
+                final String headerLine = StandardCharsets.UTF_8.decode(buffer).toString();
+                headers = new CsvParser(newSettings(null)).parseLine(headerLine);
+                start = headerEnd;
+            }
+            final long chunks = Math.max(parallelism, (size - start + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            final List<Long> offsets = split(channel, start, size, chunks);
+            LOG.debug("Parsing " + file + " in " + (offsets.size() - 1) + " chunks");
+            final String[] chunkHeaders = headers;
+            final int window = 2 * parallelism;
+            final CompletionService<Chunk> completion = new ExecutorCompletionService<>(executor);
+            final List<Future<Chunk>> futures = new ArrayList<>();
+            final Map<Integer, Chunk> parsed = new HashMap<>();
+            int submitted = 0;
+            int emitted = 0;
+            try {
+                while (emitted < offsets.size() - 1) {
+                    while (submitted < offsets.size() - 1 && submitted - emitted < window) {
+                        final int ordinal = submitted;
+                        // chunks are mapped on the calling thread, the workers
+                        // never use the channel
+                        final ByteBuffer buffer = map(channel, offsets.get(ordinal), offsets.get(ordinal + 1));
+                        futures.add(completion.submit(() -> parseSpeculatively(ordinal, buffer, chunkHeaders)));
+                        submitted++;
+                    }
+                    final Chunk chunk = parsed.remove(emitted);
+                    if (chunk == null) {
+                        final Chunk next = get(completion.take());
+                        parsed.put(next.ordinal, next);
+                    } else if (!chunk.atRecordEnd) {
+                        LOG.debug("Chunk " + emitted + " of " + file
+                                + " does not end at a record boundary, parsing the rest sequentially");
+                        final ByteBuffer buffer = map(channel, offsets.get(emitted), size);
+                        chunkStream.accept(emitted, parseChunk(emitted, buffer, chunkHeaders).rows);
+                        return true;
+                    } else {
+                        chunkStream.accept(emitted++, chunk.rows);
+                    }
+                }
+            } finally {
+                futures.forEach((future) -> future.cancel(false));
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer map(final FileChannel channel, final long from, final long to) throws IOException {
+        if (to - from > Integer.MAX_VALUE) {
+            throw new IOException("Record too large between offsets " + from + " and " + to);
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+    }
+
+    /**
+     * Returns the offset after the UTF-8 byte order mark, if any.
+     */
+    private long skipByteOrderMark(final FileChannel channel, final long size) throws IOException {
+        if (size < 3) {
+            return 0;
+        }
+        final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, 3);
+        if (buffer.get(0) == (byte) 0xEF && buffer.get(1) == (byte) 0xBB && buffer.get(2) == (byte) 0xBF) {
+            return 3;
+        }
+        return 0;
+    }
+
+    private boolean isComment(final FileChannel channel, final long position, final long size) throws IOException {
+        if (comment == 0 || position >= size) {
+            return false;
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, 1).get(0) == comment;
+    }
+
+    private static <T> T get(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Error while parsing a chunk", ex.getCause());
+        }
+    }
+
+    /**
+     * Returns the offset after the end of the record that starts at position
+     * start.
+     */
+    private long findRecordEnd(final FileChannel channel, final long start, final long size) throws IOException {
+        boolean quoted = false;
+        long position = start;
+        while (position < size) {
+            final long length = Math.min(MAX_MAPPED, size - position);
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            for (int i = 0; i < length; i++) {
+                final byte b = buffer.get(i);
+                if (b == quote) {
+                    quoted = !quoted;
+                } else if (b == '\n' && !quoted) {
+                    return position + i + 1;
+                }
+            }
+            position += length;
+        }
+        return size;
+    }
+
+    /**
+     * Splits the file at the first line start after each of the sampled
+     * offsets.
+     *
+     * @return the offsets of the chunks, starting with start and ending with
+     * size.
+     */
+    private List<Long> split(
+            final FileChannel channel,
+            final long start,
+            final long size,
+            final long chunks) throws IOException {
+        final List<Long> offsets = new ArrayList<>();
+        offsets.add(start);
+        for (long k = 1; k < chunks; k++) {
+            final long target = start + (size - start) / chunks * k;
+            if (target <= offsets.get(offsets.size() - 1)) {
+                continue;
+            }
+            final long lineStart = findLineStart(channel, target, size);
+            if (lineStart > offsets.get(offsets.size() - 1) && lineStart < size) {
+                offsets.add(lineStart);
+            }
+        }
+        offsets.add(size);
+        return offsets;
+    }
+
+    /**
+     * Returns the offset after the first line feed at or after position, or
+     * size.
+     */
+    private static long findLineStart(final FileChannel channel, final long position, final long size)
+            throws IOException {
+        long from = position;
+        while (from < size) {
+            final long length = Math.min(SCAN_SIZE, size - from);
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(i) == '\n') {
+                    return from + i + 1;
+                }
+            }
+            from += length;
+        }
+        return size;
+    }
+
+    /**
+     * Parses a chunk whose boundaries may be wrong. Parsing errors are then
+     * expected, and the chunk is marked as not ending at a record boundary, so
+     * that it is parsed again sequentially.
+     */
+    private Chunk parseSpeculatively(final int ordinal, final ByteBuffer buffer, final String[] headers) {
+        try {
+            return parseChunk(ordinal, buffer, headers);
+        } catch (RuntimeException ex) {
+            LOG.debug("Chunk " + ordinal + " could not be parsed: " + ex.getMessage());
+            return new Chunk(ordinal, null, false);
+        }
+    }
+
+    private Chunk parseChunk(final int ordinal, final ByteBuffer buffer, final String[] headers) {
+        final CsvParser parser = new CsvParser(newSettings(headers));
+        final List<List<NodeValue>> rows = new ArrayList<>();
+        final ChunkInputStream in = new ChunkInputStream(buffer);
+        parser.beginParsing(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String[] row;
+        while ((row = parser.parseNext()) != null) {
+            rows.add(ITER_CSV.toNodeValues(row, usedColumns));
+        }
+        parser.stopParsing();
+        return new Chunk(ordinal, rows, !in.quoted);
+    }
+
+    private CsvParserSettings newSettings(final String[] headers) {
+        final CsvParserSettings settings = new CsvParserSettings();
+        settings.getFormat().setQuote(template.getFormat().getQuote());
+        settings.getFormat().setQuoteEscape(template.getFormat().getQuoteEscape());
+        settings.getFormat().setDelimiter(template.getFormat().getDelimiter());
+        settings.getFormat().setLineSeparator(template.getFormat().getLineSeparator());
+        settings.getFormat().setComment(template.getFormat().getComment());
+        settings.setMaxColumns(template.getMaxColumns());
+        settings.setHeaderExtractionEnabled(false);
+        if (headers != null) {
+            settings.setHeaders(headers);
+            if (selectedFields != null) {
+                settings.selectFields(selectedFields);
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Receives the rows of a chunk with its ordinal.
+     */
+    interface ChunkConsumer {
+
+        void accept(int ordinal, List<List<NodeValue>> rows);
+    }
+
+    private static class Chunk {
+
+        final int ordinal;
+        final List<List<NodeValue>> rows;
+        /**
+         * True if the chunk does not end inside a quoted value.
+         */
+        final boolean atRecordEnd;
+
+        Chunk(int ordinal, List<List<NodeValue>> rows, boolean atRecordEnd) {
+            this.ordinal = ordinal;
+            this.rows = rows;
+            this.atRecordEnd = atRecordEnd;
+        }
+    }
+
+    /**
+     * Reads a chunk, and tracks whether the bytes read so far end inside a
+     * quoted value. The chunk is assumed to start at a record boundary, and
+     * quotes in comment lines are ignored.
+     */
+    private class ChunkInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private boolean quoted = false;
+
+        private boolean recordStart = true;
+
+        private boolean inComment = false;
+
+        ChunkInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final byte b = buffer.get();
+            track(b);
+            return b & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int n = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, n);
+            for (int i = off; i < off + n; i++) {
+                track(bytes[i]);
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        private void track(final byte b) {
+            if (inComment) {
+                if (b == '\n') {
+                    inComment = false;
+                    recordStart = true;
+                }
+                return;
+            }
+            if (recordStart && comment != 0 && b == comment) {
+                inComment = true;
+                recordStart = false;
+                return;
+            }
+            recordStart = false;
+            if (b == quote) {
+                quoted = !quoted;
+            } else if (b == '\n' && !quoted) {
+                recordStart = true;
+            }
+        }
+    }
+
+}
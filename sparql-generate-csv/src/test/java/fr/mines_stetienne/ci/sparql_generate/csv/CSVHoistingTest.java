@@ -0,0 +1,95 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.csv;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.atlas.web.TypedInputStream;
+import org.apache.jena.rdf.model.Model;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.engine.PlanFactory;
+import fr.mines_stetienne.ci.sparql_generate.engine.RootPlan;
+import fr.mines_stetienne.ci.sparql_generate.stream.LocatorStringMap;
+import fr.mines_stetienne.ci.sparql_generate.stream.LookUpRequest;
+import fr.mines_stetienne.ci.sparql_generate.stream.SPARQLExtStreamManager;
+import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+
+/**
+ *
+ * @author Maxime Lefrançois
+ */
+public class CSVHoistingTest {
+
+	private static final String LOOKUP = "http://example.org/lookup.csv";
+
+	private final AtomicInteger lookups = new AtomicInteger();
+
+	private SPARQLExtStreamManager streamManager;
+
+	@BeforeClass
+	public static void init() {
+		SPARQLExt.init();
+	}
+
+	@Before
+	public void setUp() {
+		final LocatorStringMap locator = new LocatorStringMap() {
+			@Override
+			public TypedInputStream open(LookUpRequest request) {
+				final TypedInputStream in = super.open(request);
+				if (in != null) {
+					lookups.incrementAndGet();
+				}
+				return in;
+			}
+		};
+		locator.put(LOOKUP, "id,name\n1,Alice\n2,Bob\n", "text/csv");
+		streamManager = SPARQLExtStreamManager.makeStreamManager(locator);
+	}
+
+	@Test
+	public void lookupIRIIsParsedOncePerExecution() {
+		final RootPlan plan = PlanFactory.create("PREFIX iter: <http://w3id.org/sparql-generate/iter/>\n"
+				+ "GENERATE { <http://example.org/{?id}/{STR(?i)}> <http://example.org/name> ?name . }\n"
+				+ "ITERATOR iter:for(1, 1, 4) AS ?i\n"
+				+ "ITERATOR iter:CSV(<" + LOOKUP + ">) AS ?id ?name");
+		assertEquals(6, exec(plan).size());
+		assertEquals(1, lookups.get());
+		assertEquals(6, exec(plan).size());
+		assertEquals(2, lookups.get());
+	}
+
+	@Test
+	public void hoistedSourceIsParsedOncePerExecution() {
+		final RootPlan plan = PlanFactory.create("PREFIX iter: <http://w3id.org/sparql-generate/iter/>\n"
+				+ "GENERATE { <http://example.org/{?id}/{STR(?i)}> <http://example.org/name> ?name . }\n"
+				+ "ITERATOR iter:for(1, 1, 4) AS ?i\n"
+				+ "SOURCE <" + LOOKUP + "> AS ?doc\n"
+				+ "ITERATOR iter:CSV(?doc) AS ?id ?name");
+		assertEquals(6, exec(plan).size());
+		assertEquals(1, lookups.get());
+	}
+
+	private Model exec(final RootPlan plan) {
+		return plan.execGenerate(ContextUtils.build().setStreamManager(streamManager).build());
+	}
+}
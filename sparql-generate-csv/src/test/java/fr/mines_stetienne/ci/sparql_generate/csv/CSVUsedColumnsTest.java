@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.csv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.engine.PlanFactory;
+import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+
+/**
+ *
+ * @author Maxime Lefrançois
+ */
+public class CSVUsedColumnsTest {
+
+	private static final String PREFIX = "PREFIX iter: <http://w3id.org/sparql-generate/iter/>\n"
+			+ "PREFIX ex: <http://example.org/>\n";
+
+	private static final String DOCUMENT = "\"\"\"a,b,c\n1,2,3\n4,5,6\n\"\"\"";
+
+	@BeforeClass
+	public static void init() {
+		SPARQLExt.init();
+	}
+
+	@Test
+	public void unusedColumnsDoNotChangeTheOutput() {
+		final Model model = generate("GENERATE { <http://example.org/{?b}> ex:p ?c . }\n"
+				+ "ITERATOR iter:CSV(" + DOCUMENT + ") AS ?a ?b ?c");
+		assertTrue(model.isIsomorphicWith(expected()));
+	}
+
+	@Test
+	public void unusedSelectedColumnsDoNotChangeTheOutput() {
+		final Model model = generate("GENERATE { <http://example.org/{?b}> ex:p ?c . }\n"
+				+ "ITERATOR iter:CSV(" + DOCUMENT + ", \"c\", \"a\", \"b\") AS ?c ?a ?b");
+		assertTrue(model.isIsomorphicWith(expected()));
+	}
+
+	@Test
+	public void columnsMentionedByFiltersAreBound() {
+		final Model model = generate("GENERATE { <http://example.org/{?b}> ex:p ?c . }\n"
+				+ "ITERATOR iter:CSV(" + DOCUMENT + ") AS ?a ?b ?c\n"
+				+ "WHERE { FILTER(!BOUND(?a)) }");
+		// ?a is mentioned by the filter, so it is parsed and bound
+		assertEquals(0, model.size());
+	}
+
+	private static Model expected() {
+		final Model model = ModelFactory.createDefaultModel();
+		model.add(model.createResource("http://example.org/2"), model.createProperty("http://example.org/p"), "3");
+		model.add(model.createResource("http://example.org/5"), model.createProperty("http://example.org/p"), "6");
+		return model;
+	}
+
+	private static Model generate(final String query) {
+		return PlanFactory.create(PREFIX + query).execGenerate(ContextUtils.build().build());
+	}
+}
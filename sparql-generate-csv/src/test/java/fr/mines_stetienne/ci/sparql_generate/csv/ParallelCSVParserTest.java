@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.csv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.jena.sparql.expr.NodeValue;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.univocity.parsers.csv.CsvParser;
+import com.univocity.parsers.csv.CsvParserSettings;
+
+/**
+ *
+ * @author Maxime Lefrançois
+ */
+public class ParallelCSVParserTest {
+
+	private static ExecutorService executor;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void init() {
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@AfterClass
+	public static void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void parallelOutputEqualsSerialOutput() throws Exception {
+		final StringBuilder sb = new StringBuilder("id,text,note\n");
+		for (int i = 0; i < 500; i++) {
+			sb.append(i).append(',');
+			if (i % 3 == 0) {
+				sb.append("\"line one\nline \"\"two\"\"\n\",");
+			} else {
+				sb.append("plain ").append(i).append(',');
+			}
+			sb.append(i % 7 == 0 ? "" : "\"a, b\"").append('\n');
+		}
+		assertSameAsSerial(sb.toString());
+	}
+
+	@Test
+	public void quotedNewlinesAcrossSplitPoints() throws Exception {
+		// the sampled split points fall inside a long quoted value
+		final StringBuilder sb = new StringBuilder("id,text\n1,short\n2,\"");
+		for (int i = 0; i < 200; i++) {
+			sb.append("quoted line ").append(i).append('\n');
+		}
+		sb.append("\"\n3,short\n");
+		assertSameAsSerial(sb.toString());
+	}
+
+	@Test
+	public void quotesInCommentLinesAreIgnored() throws Exception {
+		final StringBuilder sb = new StringBuilder("id,text\n");
+		for (int i = 0; i < 200; i++) {
+			sb.append(i).append(",\"a\nb\"\n");
+			if (i % 10 == 0) {
+				sb.append("# a \"comment\n");
+			}
+		}
+		assertSameAsSerial(sb.toString());
+	}
+
+	private void assertSameAsSerial(final String csv) throws Exception {
+		final File file = folder.newFile();
+		Files.write(file.toPath(), csv.getBytes(StandardCharsets.UTF_8));
+		final List<List<String>> serial = parseSerially(csv);
+		for (int parallelism = 2; parallelism <= 8; parallelism++) {
+			final ParallelCSVParser parser = new ParallelCSVParser(file, newSettings(), true, null, (i) -> true);
+			final List<List<String>> parallel = new ArrayList<>();
+			final List<Integer> ordinals = new ArrayList<>();
+			assertTrue(parser.parse(executor, parallelism, (ordinal, rows) -> {
+				ordinals.add(ordinal);
+				rows.forEach((row) -> parallel.add(toStrings(row)));
+			}));
+			assertEquals("parallelism " + parallelism, serial, parallel);
+			for (int i = 0; i < ordinals.size(); i++) {
+				assertEquals(i, (int) ordinals.get(i));
+			}
+		}
+	}
+
+	private static List<List<String>> parseSerially(final String csv) throws IOException {
+		final CsvParserSettings settings = newSettings();
+		settings.setHeaderExtractionEnabled(true);
+		final CsvParser parser = new CsvParser(settings);
+		final List<List<String>> rows = new ArrayList<>();
+		parser.beginParsing(new StringReader(csv));
+		String[] row;
+		while ((row = parser.parseNext()) != null) {
+			rows.add(toStrings(ITER_CSV.toNodeValues(row, (i) -> true)));
+		}
+		parser.stopParsing();
+		return rows;
+	}
+
+	private static CsvParserSettings newSettings() {
+		final CsvParserSettings settings = new CsvParserSettings();
+		settings.getFormat().setLineSeparator("\n");
+		return settings;
+	}
+
+	private static List<String> toStrings(final List<NodeValue> row) {
+		final List<String> strings = new ArrayList<>(row.size());
+		for (NodeValue nodeValue : row) {
+			strings.add(nodeValue == null ? null : nodeValue.asString());
+		}
+		return strings;
+	}
+}
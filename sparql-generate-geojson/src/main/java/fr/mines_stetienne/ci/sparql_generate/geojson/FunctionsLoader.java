@@ -16,6 +16,7 @@
 package fr.mines_stetienne.ci.sparql_generate.geojson;
 
 import fr.mines_stetienne.ci.sparql_generate.function.FunctionLoader;
+import fr.mines_stetienne.ci.sparql_generate.function.LazyFunctionFactory;
 import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorFunctionRegistry;
 import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorFunctionLoader;
 import org.apache.jena.sparql.function.FunctionRegistry;
@@ -25,15 +26,15 @@ import org.apache.jena.sparql.function.FunctionRegistry;
  * @author Maxime Lefrançois
  */
 public class FunctionsLoader implements IteratorFunctionLoader, FunctionLoader {
-    
+
     @Override
     public void load(FunctionRegistry fnreg) {
-        fnreg.put(FUN_GeoJSONGeometry.URI, FUN_GeoJSONGeometry.class);
+        fnreg.put(FUN_GeoJSONGeometry.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.geojson.FUN_GeoJSONGeometry"));
     }
     
     @Override
     public void load(IteratorFunctionRegistry itereg) {
-        itereg.put(ITER_GeoJSON.URI, ITER_GeoJSON.class);
+        itereg.put(ITER_GeoJSON.URI, "fr.mines_stetienne.ci.sparql_generate.geojson.ITER_GeoJSON");
     }
     
 }
@@ -53,6 +53,18 @@ public class FileConfigurations {
         debugTemplate = false;
         hdt = false;
         outputAppend = false;
+        checkpointInterval = 1;
+        resume = false;
+        parallelSubQueries = false;
+        pinPlans = false;
+        sourceParallelism = 1;
+        parsingParallelism = 1;
+        memoryBudget = 0;
+        batchLatency = 0;
+        batchMemory = 0;
+        memoize = 0;
+        subQueryBatch = 0;
+        subQueryDelay = 1000;
     }
 
     /**
@@ -83,6 +95,26 @@ public class FileConfigurations {
     public boolean outputAppend;
 
     public String logFile;
+
+    /**
+     * Location of the checkpoint file, for streaming GENERATE queries with an output file
+     */
+    public String checkpoint;
+
+    /**
+     * Location of the directory where the normalized form of queries is cached between runs
+     */
+    public String planCache;
+
+    /**
+     * number of batches of the first iterator between two checkpoints
+     */
+    public int checkpointInterval;
+
+    /**
+     * when true, the execution resumes from the checkpoint, if any
+     */
+    public boolean resume;
     
     /**
      * log level for the query execution, ERROR=1 WARN=2 INFO=3 DEBUG=4 TRACE=5
@@ -139,6 +171,56 @@ public class FileConfigurations {
      */
     public boolean debugTemplate;
 
+    /**
+     * when true, sibling sub-queries of GENERATE clauses are executed concurrently
+     */
+    public boolean parallelSubQueries;
+
+    /**
+     * when true, the plans of the called queries are loaded at start and never expire
+     */
+    public boolean pinPlans;
+
+    /**
+     * maximal number of documents fetched concurrently by SOURCE clauses
+     */
+    public int sourceParallelism;
+
+    /**
+     * number of threads used to parse large local documents, such as CSV files
+     */
+    public int parsingParallelism;
+
+    /**
+     * estimated size in MB of a batch above which it is processed in chunks, 0 to disable
+     */
+    public long memoryBudget;
+
+    /**
+     * targeted time in ms to process a batch of a streaming iterator, 0 to disable
+     */
+    public long batchLatency;
+
+    /**
+     * targeted heap growth in MB while processing a batch of a streaming iterator, 0 to disable
+     */
+    public long batchMemory;
+
+    /**
+     * estimated size in MB of the memoized outputs of TEMPLATE and GENERATE sub-calls, 0 to disable
+     */
+    public long memoize;
+
+    /**
+     * number of calls to a named GENERATE sub-query that are executed together, 0 to disable
+     */
+    public int subQueryBatch;
+
+    /**
+     * maximal time in ms a call to a named GENERATE sub-query is delayed
+     */
+    public long subQueryDelay;
+
     
     public class NamedQuery {
         public String uri;
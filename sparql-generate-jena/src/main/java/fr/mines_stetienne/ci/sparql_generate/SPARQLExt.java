@@ -40,6 +40,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fr.mines_stetienne.ci.sparql_generate.function.FunctionLoader;
+import fr.mines_stetienne.ci.sparql_generate.function.LazyFunctionFactory;
 import fr.mines_stetienne.ci.sparql_generate.function.library.FUN_CamelCase;
 import fr.mines_stetienne.ci.sparql_generate.function.library.FUN_Log;
 import fr.mines_stetienne.ci.sparql_generate.function.library.FUN_MixedCase;
@@ -140,35 +141,35 @@ public final class SPARQLExt {
 		SYNTAX = new SPARQLGenerateSyntax(SYNTAX_URI);
 
 		FunctionRegistry fnreg = FunctionRegistry.get();
-		fnreg.put(FUN_SplitAtPostion.URI, FUN_SplitAtPostion.class);
-		fnreg.put(FUN_regex.URI, FUN_regex.class);
-		fnreg.put(FUN_dateTime.URI, FUN_dateTime.class);
-		fnreg.put(FUN_Property.URI, FUN_Property.class);
-		fnreg.put(FUN_CamelCase.URI, FUN_CamelCase.class);
-		fnreg.put(FUN_MixedCase.URI, FUN_MixedCase.class);
-		fnreg.put(FUN_TitleCase.URI, FUN_TitleCase.class);
-		fnreg.put(FUN_PrefixedIRI.URI, FUN_PrefixedIRI.class);
-		fnreg.put(FUN_Select_Call_Template.URI, FUN_Select_Call_Template.class);
-		fnreg.put(FUN_Log.URI, FUN_Log.class);
+		fnreg.put(FUN_SplitAtPostion.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.function.library.FUN_SplitAtPostion"));
+		fnreg.put(FUN_regex.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.function.library.FUN_regex"));
+		fnreg.put(FUN_dateTime.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.function.library.FUN_dateTime"));
+		fnreg.put(FUN_Property.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.function.library.FUN_Property"));
+		fnreg.put(FUN_CamelCase.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.function.library.FUN_CamelCase"));
+		fnreg.put(FUN_MixedCase.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.function.library.FUN_MixedCase"));
+		fnreg.put(FUN_TitleCase.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.function.library.FUN_TitleCase"));
+		fnreg.put(FUN_PrefixedIRI.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.function.library.FUN_PrefixedIRI"));
+		fnreg.put(FUN_Select_Call_Template.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.function.library.FUN_Select_Call_Template"));
+		fnreg.put(FUN_Log.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.function.library.FUN_Log"));
 
 		final ServiceLoader<FunctionLoader> functionLoaders = ServiceLoader.load(FunctionLoader.class);
 		functionLoaders.forEach((loader) -> {
 			loader.load(fnreg);
 		});
 
-		fnreg.put(ST_Call_Template.URI, ST_Call_Template.class);
-		fnreg.put(ST_Decr.URI, ST_Decr.class);
-		fnreg.put(ST_Incr.URI, ST_Incr.class);
-		fnreg.put(ST_Concat.URI, ST_Concat.class);
-		fnreg.put(ST_Format.URI, ST_Format.class);
+		fnreg.put(ST_Call_Template.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.function.library.ST_Call_Template"));
+		fnreg.put(ST_Decr.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.function.library.ST_Decr"));
+		fnreg.put(ST_Incr.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.function.library.ST_Incr"));
+		fnreg.put(ST_Concat.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.function.library.ST_Concat"));
+		fnreg.put(ST_Format.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.function.library.ST_Format"));
 
 		IteratorFunctionRegistry itereg = IteratorFunctionRegistry.get();
-		itereg.put(ITER_regex.URI, ITER_regex.class);
-		itereg.put(ITER_Split.URI, ITER_Split.class);
-		itereg.put(ITER_for.URI, ITER_for.class);
-		itereg.put(ITER_HTTPGet.URI, ITER_HTTPGet.class);
-		itereg.put(ITER_DefaultGraphNamespaces.URI, ITER_DefaultGraphNamespaces.class);
-		itereg.put(ITER_Call_Select.URI, ITER_Call_Select.class);
+		itereg.put(ITER_regex.URI, "fr.mines_stetienne.ci.sparql_generate.iterator.library.ITER_regex");
+		itereg.put(ITER_Split.URI, "fr.mines_stetienne.ci.sparql_generate.iterator.library.ITER_Split");
+		itereg.put(ITER_for.URI, "fr.mines_stetienne.ci.sparql_generate.iterator.library.ITER_for");
+		itereg.put(ITER_HTTPGet.URI, "fr.mines_stetienne.ci.sparql_generate.iterator.library.ITER_HTTPGet");
+		itereg.put(ITER_DefaultGraphNamespaces.URI, "fr.mines_stetienne.ci.sparql_generate.iterator.library.ITER_DefaultGraphNamespaces");
+		itereg.put(ITER_Call_Select.URI, "fr.mines_stetienne.ci.sparql_generate.iterator.library.ITER_Call_Select");
 
 		final ServiceLoader<IteratorFunctionLoader> iteratorFunctionLoaders = ServiceLoader
 				.load(IteratorFunctionLoader.class);
@@ -140,6 +140,112 @@ public class CMDConfigurations {
 	 */
 	public static final String ARG_DEBUG_TEMPLATE_MAN = "Debug the template output: insert warning identifiers that refer to the log.";
 
+	/** cp */
+	public static final String ARG_CHECKPOINT = "cp";
+	/** checkpoint */
+	public static final String ARG_CHECKPOINT_LONG = "checkpoint";
+	/**
+	 * Location of the checkpoint file for long-running streaming GENERATE
+	 * queries.
+	 */
+	public static final String ARG_CHECKPOINT_MAN = "Location of the checkpoint file where the progress of a streaming GENERATE query with an output file is periodically recorded.";
+	/** pc */
+	public static final String ARG_PLAN_CACHE = "pc";
+	/** plan-cache */
+	public static final String ARG_PLAN_CACHE_LONG = "plan-cache";
+	/** Location of the directory where normalized queries are cached. */
+	public static final String ARG_PLAN_CACHE_MAN = "Location of a directory where the normalized form of the queries is cached, so that the next runs do not normalize them again.";
+	/** r */
+	public static final String ARG_RESUME = "r";
+	/** resume */
+	public static final String ARG_RESUME_LONG = "resume";
+	/** Resume the execution from the last checkpoint. */
+	public static final String ARG_RESUME_MAN = "Resume the execution from the last checkpoint, if any.";
+
+	/** ps */
+	public static final String ARG_PARALLEL_SUBQUERIES = "ps";
+	/** parallel-subqueries */
+	public static final String ARG_PARALLEL_SUBQUERIES_LONG = "parallel-subqueries";
+	/** Execute sibling sub-queries concurrently. */
+	public static final String ARG_PARALLEL_SUBQUERIES_MAN = "Execute sibling sub-queries of GENERATE clauses concurrently. The output order is preserved.";
+
+	/** pp */
+	public static final String ARG_PIN_PLANS = "pp";
+	/** pin-plans */
+	public static final String ARG_PIN_PLANS_LONG = "pin-plans";
+	/** Keep the plans of called queries. */
+	public static final String ARG_PIN_PLANS_MAN = "Load the queries called with a constant IRI when the execution starts, and keep the plans of all the called queries for the whole execution instead of reloading them when they have not been used for a while. Use it for long-running streaming jobs.";
+
+	/** sp */
+	public static final String ARG_SOURCE_PARALLELISM = "sp";
+	/** source-parallelism */
+	public static final String ARG_SOURCE_PARALLELISM_LONG = "source-parallelism";
+	/** Maximal number of documents fetched concurrently by SOURCE clauses. */
+	public static final String ARG_SOURCE_PARALLELISM_MAN = "Maximal number of documents fetched concurrently by SOURCE clauses, at most 2 per host. Default is 1.";
+
+	/** pa */
+	public static final String ARG_PARSING_PARALLELISM = "pa";
+	/** parsing-parallelism */
+	public static final String ARG_PARSING_PARALLELISM_LONG = "parsing-parallelism";
+	/** Number of threads used to parse large local documents. */
+	public static final String ARG_PARSING_PARALLELISM_MAN = "Number of threads used to parse large local documents, such as CSV files of at least 64 MB read by iter:CSV. The output order is preserved. Default is 1.";
+
+	/** mb */
+	public static final String ARG_MEMORY_BUDGET = "mb";
+	/** memory-budget */
+	public static final String ARG_MEMORY_BUDGET_LONG = "memory-budget";
+	/** Size of the batches above which they are processed in chunks. */
+	public static final String ARG_MEMORY_BUDGET_MAN = "Estimated size in MB of a batch of bindings above which it is processed in chunks. 0 disables chunking, which is the default.";
+
+	/** bl */
+	public static final String ARG_BATCH_LATENCY = "bl";
+	/** batch-latency */
+	public static final String ARG_BATCH_LATENCY_LONG = "batch-latency";
+	/** Targeted time to process a batch of a streaming iterator. */
+	public static final String ARG_BATCH_LATENCY_MAN = "Targeted time in ms to process a batch emitted by a streaming iterator such as iter:CSV or iter:JSONSurfer. If set, the size of the batches adapts to it, starting from the batch size given to the iterator. Iterators given no batch size are not affected.";
+
+	/** bm */
+	public static final String ARG_BATCH_MEMORY = "bm";
+	/** batch-memory */
+	public static final String ARG_BATCH_MEMORY_LONG = "batch-memory";
+	/** Targeted heap growth while processing a batch of a streaming iterator. */
+	public static final String ARG_BATCH_MEMORY_MAN = "Targeted heap growth in MB while processing a batch emitted by a streaming iterator such as iter:CSV or iter:JSONSurfer. If set, the size of the batches adapts to it, starting from the batch size given to the iterator. Iterators given no batch size are not affected.";
+
+	/** mz */
+	public static final String ARG_MEMOIZE = "mz";
+	/** memoize */
+	public static final String ARG_MEMOIZE_LONG = "memoize";
+	/** Size of the memoized outputs of sub-calls. */
+	public static final String ARG_MEMOIZE_MAN = "Estimated size in MB of the outputs of TEMPLATE and GENERATE sub-calls that are memoized, and reused when a query is called again with the same arguments. Only use it if sub-queries only depend on their arguments. 0 disables memoization, which is the default.";
+
+	/** sb */
+	public static final String ARG_SUBQUERY_BATCH = "sb";
+	/** subquery-batch */
+	public static final String ARG_SUBQUERY_BATCH_LONG = "subquery-batch";
+	/** Number of calls to a named sub-query executed together. */
+	public static final String ARG_SUBQUERY_BATCH_MAN = "Number of calls to a named GENERATE sub-query that are accumulated across the batches of a streaming iterator, and executed together. 0 disables accumulation, which is the default.";
+
+	/** sd */
+	public static final String ARG_SUBQUERY_DELAY = "sd";
+	/** subquery-delay */
+	public static final String ARG_SUBQUERY_DELAY_LONG = "subquery-delay";
+	/** Delay of an accumulated call. */
+	public static final String ARG_SUBQUERY_DELAY_MAN = "Time in ms after which the accumulated calls to a named GENERATE sub-query are executed, when the next batch arrives. They are executed at the end of the execution in any case. Default is 1000.";
+
+	/** dm */
+	public static final String ARG_DAEMON = "dm";
+	/** daemon */
+	public static final String ARG_DAEMON_LONG = "daemon";
+	/** Execute the jobs read on the standard input. */
+	public static final String ARG_DAEMON_MAN = "Keep running, and execute the jobs read on the standard input, one JSON object per line, e.g., {\"id\": \"1\", \"dir\": \"path/to/dir\", \"query\": \"query.rqg\", \"output\": \"out.ttl\", \"bindings\": {\"param\": \"<http://example.org/>\"}}. The other options are the defaults of the jobs. A JSON report with the timings of each job is written on the standard output, and the log on the standard error. Stops at the end of the input.";
+
+	/** dj */
+	public static final String ARG_DAEMON_JOBS = "dj";
+	/** daemon-jobs */
+	public static final String ARG_DAEMON_JOBS_LONG = "daemon-jobs";
+	/** Maximal number of jobs executed concurrently by the daemon. */
+	public static final String ARG_DAEMON_JOBS_MAN = "Maximal number of jobs executed concurrently in daemon mode. Default is the number of processors.";
+
 	/** bind */
 	public static final String ARG_BIND_LONG = "B";
 	/**
@@ -180,6 +286,21 @@ public class CMDConfigurations {
 				.addOption(ARG_BASE, ARG_BASE_LONG, true, ARG_BASE_MAN)
 				.addOption(ARG_DEBUG_TEMPLATE, ARG_DEBUG_TEMPLATE_LONG, false, ARG_DEBUG_TEMPLATE_MAN)
 				.addOption(ARG_SYNTAX, ARG_SYNTAX_LONG, false, ARG_SYNTAX_MAN)
+				.addOption(ARG_CHECKPOINT, ARG_CHECKPOINT_LONG, true, ARG_CHECKPOINT_MAN)
+				.addOption(ARG_PLAN_CACHE, ARG_PLAN_CACHE_LONG, true, ARG_PLAN_CACHE_MAN)
+				.addOption(ARG_RESUME, ARG_RESUME_LONG, false, ARG_RESUME_MAN)
+				.addOption(ARG_PARALLEL_SUBQUERIES, ARG_PARALLEL_SUBQUERIES_LONG, false, ARG_PARALLEL_SUBQUERIES_MAN)
+				.addOption(ARG_PIN_PLANS, ARG_PIN_PLANS_LONG, false, ARG_PIN_PLANS_MAN)
+				.addOption(ARG_SOURCE_PARALLELISM, ARG_SOURCE_PARALLELISM_LONG, true, ARG_SOURCE_PARALLELISM_MAN)
+				.addOption(ARG_PARSING_PARALLELISM, ARG_PARSING_PARALLELISM_LONG, true, ARG_PARSING_PARALLELISM_MAN)
+				.addOption(ARG_MEMORY_BUDGET, ARG_MEMORY_BUDGET_LONG, true, ARG_MEMORY_BUDGET_MAN)
+				.addOption(ARG_BATCH_LATENCY, ARG_BATCH_LATENCY_LONG, true, ARG_BATCH_LATENCY_MAN)
+				.addOption(ARG_BATCH_MEMORY, ARG_BATCH_MEMORY_LONG, true, ARG_BATCH_MEMORY_MAN)
+				.addOption(ARG_MEMOIZE, ARG_MEMOIZE_LONG, true, ARG_MEMOIZE_MAN)
+				.addOption(ARG_SUBQUERY_BATCH, ARG_SUBQUERY_BATCH_LONG, true, ARG_SUBQUERY_BATCH_MAN)
+				.addOption(ARG_SUBQUERY_DELAY, ARG_SUBQUERY_DELAY_LONG, true, ARG_SUBQUERY_DELAY_MAN)
+				.addOption(ARG_DAEMON, ARG_DAEMON_LONG, false, ARG_DAEMON_MAN)
+				.addOption(ARG_DAEMON_JOBS, ARG_DAEMON_JOBS_LONG, true, ARG_DAEMON_JOBS_MAN)
 				.addOption(sourcesOpt)
 				.addOption(bindingsOpt);
 	}
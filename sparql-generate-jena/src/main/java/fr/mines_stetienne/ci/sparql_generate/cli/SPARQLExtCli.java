@@ -16,6 +16,11 @@
 package fr.mines_stetienne.ci.sparql_generate.cli;
 
 import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_BASE;
+import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_BATCH_LATENCY;
+import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_BATCH_MEMORY;
+import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_CHECKPOINT;
+import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_DAEMON;
+import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_DAEMON_JOBS;
 import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_DEBUG_TEMPLATE;
 import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_DIRECTORY;
 import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_DIRECTORY_DEFAULT;
@@ -23,10 +28,20 @@ import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_HD
 import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_HELP;
 import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_LOG_FILE;
 import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_LOG_LEVEL;
+import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_MEMOIZE;
+import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_MEMORY_BUDGET;
+import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_PARSING_PARALLELISM;
 import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_OUTPUT;
 import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_OUTPUT_APPEND;
 import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_OUTPUT_FORMAT;
+import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_PARALLEL_SUBQUERIES;
+import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_PIN_PLANS;
+import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_PLAN_CACHE;
+import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_SOURCE_PARALLELISM;
+import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_SUBQUERY_BATCH;
+import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_SUBQUERY_DELAY;
 import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_QUERY;
+import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_RESUME;
 import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_SOURCE_LONG;
 import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_STREAM;
 import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_SYNTAX;
@@ -48,6 +63,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import org.apache.commons.cli.CommandLine;
@@ -73,6 +90,8 @@ import org.apache.jena.sparql.engine.binding.BindingHashMap;
 import org.apache.jena.sparql.resultset.ResultsFormat;
 import org.apache.jena.sparql.syntax.Element;
 import org.apache.jena.sparql.util.Context;
+import org.apache.log4j.Appender;
+import org.apache.log4j.ConsoleAppender;
 import org.apache.log4j.Layout;
 import org.apache.log4j.Level;
 import org.apache.log4j.PatternLayout;
@@ -88,6 +107,7 @@ import com.google.gson.JsonSyntaxException;
 import fr.mines_stetienne.ci.sparql_generate.FileConfigurations;
 import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
 import fr.mines_stetienne.ci.sparql_generate.SPARQLExtException;
+import fr.mines_stetienne.ci.sparql_generate.engine.Checkpoint;
 import fr.mines_stetienne.ci.sparql_generate.engine.PlanFactory;
 import fr.mines_stetienne.ci.sparql_generate.engine.RootPlan;
 import fr.mines_stetienne.ci.sparql_generate.query.SPARQLExtQuery;
@@ -110,7 +130,7 @@ public class SPARQLExtCli {
 
 	private static final Layout LAYOUT = new PatternLayout("%d{mm:ss,SSS} %t %-5p %c:%L - %m%n");
 	private static final org.apache.log4j.Logger ROOT_LOGGER = org.apache.log4j.Logger.getRootLogger();
-	private static final String CONF_FILE = "sparql-generate-conf.json";
+	static final String CONF_FILE = "sparql-generate-conf.json";
 	private static final Level[] LOG_LEVELS = new Level[] { Level.OFF, Level.ERROR, Level.WARN, Level.INFO, Level.DEBUG,
 			Level.TRACE };
 
@@ -160,6 +180,24 @@ public class SPARQLExtCli {
 				throw new RuntimeException("Exception while initializing the log file", ex);
 			}
 		}
+		if (cl.hasOption(ARG_DAEMON)) {
+			// the standard output is used for the job reports
+			final Appender appender = ROOT_LOGGER.getAppender("stdout");
+			if (appender instanceof ConsoleAppender) {
+				((ConsoleAppender) appender).setTarget(ConsoleAppender.SYSTEM_ERR);
+				((ConsoleAppender) appender).activateOptions();
+			}
+			int jobs = Runtime.getRuntime().availableProcessors();
+			if (cl.hasOption(ARG_DAEMON_JOBS)) {
+				try {
+					jobs = Math.max(1, Integer.parseInt(cl.getOptionValue(ARG_DAEMON_JOBS)));
+				} catch (NumberFormatException ex) {
+					LOG.warn("Invalid number of jobs " + cl.getOptionValue(ARG_DAEMON_JOBS) + ", using " + jobs);
+				}
+			}
+			new SPARQLExtDaemon(cl, jobs).run(System.in, System.out);
+			return;
+		}
 		try {
 
 //			exec(dirFile, r);
@@ -190,6 +228,10 @@ public class SPARQLExtCli {
 		Objects.nonNull(workingDir);
 		Objects.nonNull(rq);
 
+		if (rq.planCache != null) {
+			PlanFactory.setCacheDirectory(new File(rq.planCache));
+		}
+
 		final SPARQLExtStreamManager sm = prepareStreamManager(workingDir, rq);
 		final SPARQLExtQuery q = getQueryOrDie(rq, cl, sm);
 
@@ -211,22 +253,54 @@ public class SPARQLExtCli {
 
 		final Dataset ds = getDataset(workingDir, rq);
 
-		if (!q.isGenerateType() && rq.hdt) {
-			LOG.error("Option HDT is only for queries of type GENERATE");
-			return;
-		}
-		if (q.isTemplateType() && rq.outputFormat != null) {
-			LOG.error("Option outputFormat is only for queries of type GENERATE or SELECT");
-			return;
-		}
-
 		// prepare context
-		final ContextUtils.Builder contextBuilder = ContextUtils.build().setBase(rq.base).setPrefixMapping(q)
-				.setInputDataset(ds).setStreamManager(sm).setDebugTemplate(rq.debugTemplate);
+		final ContextUtils.Builder contextBuilder = prepareContext(rq, q, ds, sm);
+		if (rq.parallelSubQueries) {
+			contextBuilder.setParallelSubQueries(true).setOrderedSubQueries(true);
+		}
 		
 		// prepare initial binding
 		List<Binding> bindings = getBinding(cl);
 
+		try {
+			execPlan(plan, rq, contextBuilder, bindings);
+		} catch (SPARQLExtException ex) {
+			LOG.error(ex.getMessage(), ex.getCause());
+		}
+	}
+
+	static ContextUtils.Builder prepareContext(CliRequest rq, SPARQLExtQuery q, Dataset ds,
+			SPARQLExtStreamManager sm) {
+		final ContextUtils.Builder contextBuilder = ContextUtils.build().setBase(rq.base).setPrefixMapping(q)
+				.setInputDataset(ds).setStreamManager(sm).setDebugTemplate(rq.debugTemplate)
+				.setSourceParallelism(rq.sourceParallelism).setParsingParallelism(rq.parsingParallelism)
+				.setBatchLatencyTarget(rq.batchLatency)
+				.setBatchMemoryTarget(rq.batchMemory * 1_000_000).setMemoizationBudget(rq.memoize * 1_000_000)
+				.setSubQueryBatchSize(rq.subQueryBatch).setSubQueryBatchDelay(rq.subQueryDelay)
+				.setMemoryBudget(rq.memoryBudget * 1_000_000).setPinnedPlans(rq.pinPlans);
+		return contextBuilder;
+	}
+
+	/**
+	 * Executes the plan of a query, and writes its output as requested.
+	 * 
+	 * @param plan
+	 * @param rq
+	 * @param contextBuilder
+	 * @param bindings
+	 * @throws SPARQLExtException if the plan cannot be executed, or the output
+	 *                            cannot be written
+	 */
+	static void execPlan(RootPlan plan, CliRequest rq, ContextUtils.Builder contextBuilder, List<Binding> bindings)
+			throws SPARQLExtException {
+		final SPARQLExtQuery q = plan.getQuery();
+		if (!q.isGenerateType() && rq.hdt) {
+			throw new SPARQLExtException("Option HDT is only for queries of type GENERATE");
+		}
+		if (q.isTemplateType() && rq.outputFormat != null) {
+			throw new SPARQLExtException("Option outputFormat is only for queries of type GENERATE or SELECT");
+		}
+
 		if (q.isTemplateType()) {
 			if (rq.output == null) {
 				try (IndentedWriter output = IndentedWriter.stdout) {
@@ -234,7 +308,7 @@ public class SPARQLExtCli {
 					plan.execTemplateStream(bindings, context);
 					output.flush();
 				} catch (Exception ex) {
-					LOG.error("Error while executing the plan.", ex);
+					throw new SPARQLExtException("Error while executing the plan.", ex);
 				}
 			} else {
 				try (IndentedWriter output = new IndentedWriter(new FileOutputStream(rq.output, rq.outputAppend));) {
@@ -242,7 +316,7 @@ public class SPARQLExtCli {
 					plan.execTemplateStream(bindings, context);
 					output.flush();
 				} catch (Exception ex) {
-					LOG.error("Error while executing the plan.", ex);
+					throw new SPARQLExtException("Error while executing the plan.", ex);
 				}
 			}
 		} else if (q.isGenerateType() && !rq.stream && !rq.hdt) {
@@ -258,18 +332,34 @@ public class SPARQLExtCli {
 		} else if (q.isSelectType()) {
 			execSelectStream(bindings, plan, contextBuilder, rq);
 		} else {
-			LOG.error("Error: unsupported query type");
+			throw new SPARQLExtException("Error: unsupported query type");
 		}
 	}
 
+	static ExecutorService newDaemonThreadPool() {
+		return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), (runnable) -> {
+			Thread thread = new Thread(runnable);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
 	private static List<Binding> getBinding(CommandLine cl) {
-		final BindingHashMap binding = new BindingHashMap();
-		if(!cl.hasOption(CMDConfigurations.ARG_BIND_LONG)) {
-			ArrayList<Binding> bindings = new ArrayList<Binding>();
-			bindings.add(binding);
-			return bindings;
+		if(cl == null || !cl.hasOption(CMDConfigurations.ARG_BIND_LONG)) {
+			return getBinding(new Properties());
 		}
-		Properties properties = cl.getOptionProperties(CMDConfigurations.ARG_BIND_LONG);
+		return getBinding(cl.getOptionProperties(CMDConfigurations.ARG_BIND_LONG));
+	}
+
+	/**
+	 * Parses the values of query parameters, written as RDF terms in Turtle.
+	 * 
+	 * @param properties the values, by parameter name
+	 * @return the initial binding
+	 * @throws SPARQLExtException if a value cannot be parsed
+	 */
+	static List<Binding> getBinding(Properties properties) throws SPARQLExtException {
+		final BindingHashMap binding = new BindingHashMap();
 		if(properties.isEmpty()) {
 			ArrayList<Binding> bindings = new ArrayList<Binding>();
 			bindings.add(binding);
@@ -308,7 +398,7 @@ public class SPARQLExtCli {
 
 	private static void execGenerateHDT(List<Binding> bindings, RootPlan plan, ContextUtils.Builder builder, CliRequest request) {
 		if (request.output == null) {
-			LOG.error("Output needs to be set with the option HDT.");
+			throw new SPARQLExtException("Output needs to be set with the option HDT.");
 		}
 		final String baseURI = plan.getQuery().getBaseURI();
 		HDTStreamRDF hdtStreamRDF = new HDTStreamRDF(baseURI);
@@ -319,7 +409,7 @@ public class SPARQLExtCli {
 			// Save generated HDT to a file
 			hdt.saveToHDT(out, null);
 		} catch (IOException ex) {
-			LOG.error("Error while opening the output file.", ex);
+			throw new SPARQLExtException("Error while opening the output file.", ex);
 		}
 		try {
 			hdt.close();
@@ -330,20 +420,49 @@ public class SPARQLExtCli {
 
 	private static void execGenerateStream(List<Binding> bindings, RootPlan plan, ContextUtils.Builder builder, CliRequest request) {
 		final PrefixMapping pm = plan.getQuery().getPrefixMapping();
-		final ConsoleStreamRDF consoleStreamRDF;
-		if (request.output == null) {
-			consoleStreamRDF = new ConsoleStreamRDF(System.out, pm);
+		PrintStream out;
+		if (request.checkpoint != null) {
+			if (request.output == null) {
+				throw new SPARQLExtException("Output needs to be set with the option checkpoint.");
+			}
+			try {
+				final Checkpoint checkpoint = Checkpoint.create(new File(request.checkpoint),
+						request.checkpointInterval, request.resume);
+				final FileOutputStream fos = new FileOutputStream(request.output,
+						request.outputAppend || checkpoint.isResumed());
+				if (checkpoint.isResumed()) {
+					// drop the output that was generated after the last checkpoint
+					fos.getChannel().truncate(checkpoint.getResumedOutputOffset());
+				}
+				final PrintStream checkpointOut = new PrintStream(fos);
+				checkpoint.setOutput(() -> {
+					checkpointOut.flush();
+					try {
+						return fos.getChannel().position();
+					} catch (IOException ex) {
+						throw new SPARQLExtException("Error while reading the output offset.", ex);
+					}
+				});
+				out = checkpointOut;
+				builder.setCheckpoint(checkpoint);
+			} catch (IOException ex) {
+				throw new SPARQLExtException("Error while opening the output file.", ex);
+			}
+		} else if (request.output == null) {
+			out = System.out;
 		} else {
 			try {
-				consoleStreamRDF = new ConsoleStreamRDF(
-						new PrintStream(new FileOutputStream(request.output, request.outputAppend)), pm);
+				out = new PrintStream(new FileOutputStream(request.output, request.outputAppend));
 			} catch (IOException ex) {
-				LOG.error("Error while opening the output file.", ex);
-				return;
+				throw new SPARQLExtException("Error while opening the output file.", ex);
 			}
 		}
+		final ConsoleStreamRDF consoleStreamRDF = new ConsoleStreamRDF(out, pm);
 		Context context = builder.setGenerateOutput(consoleStreamRDF).build();
 		plan.execGenerateStream(bindings, context);
+		if (request.output != null) {
+			out.close();
+		}
 	}
 
 	private static void execGenerate(List<Binding> bindings, RootPlan plan, Context context, CliRequest request) {
@@ -356,14 +475,16 @@ public class SPARQLExtCli {
 			if (request.output == null) {
 				model.write(System.out, lang.getLabel());
 			} else {
-				try {
-					model.write(new FileOutputStream(request.output, request.outputAppend), lang.getLabel());
+				try (OutputStream out = new FileOutputStream(request.output, request.outputAppend)) {
+					model.write(out, lang.getLabel());
 				} catch (IOException ex) {
-					LOG.error("Error while opening the output file.", ex);
+					throw new SPARQLExtException("Error while opening the output file.", ex);
 				}
 			}
+		} catch (SPARQLExtException ex) {
+			throw ex;
 		} catch (Exception ex) {
-			LOG.error("Error while executing the plan.", ex);
+			throw new SPARQLExtException("Error while executing the plan.", ex);
 		}
 	}
 
@@ -383,11 +504,17 @@ public class SPARQLExtCli {
 				} else {
 					ResultSetFormatter.output(out, result, format);
 				}
+				out.flush();
+				if (request.output != null) {
+					out.close();
+				}
 			} catch (IOException ex) {
-				LOG.error("Error while opening the output file.", ex);
+				throw new SPARQLExtException("Error while opening the output file.", ex);
 			}
+		} catch (SPARQLExtException ex) {
+			throw ex;
 		} catch (Exception ex) {
-			LOG.error("Error while executing the plan.", ex);
+			throw new SPARQLExtException("Error while executing the plan.", ex);
 		}
 	}
 
@@ -410,12 +537,15 @@ public class SPARQLExtCli {
 				LOG.info("exiting accept");
 			}).build();
 			plan.execSelectStream(bindings, context);
+			if (request.output != null) {
+				out.close();
+			}
 		} catch (IOException ex) {
-			LOG.error("Error while opening the output file.", ex);
+			throw new SPARQLExtException("Error while opening the output file.", ex);
 		}
 	}
 
-	private static Dataset getDataset(File dir, FileConfigurations request) {
+	static Dataset getDataset(File dir, FileConfigurations request) {
 		try {
 			return request.loadDataset(dir);
 		} catch (Exception ex) {
@@ -447,7 +577,7 @@ public class SPARQLExtCli {
 		query.setBindingClauses(updatedSources);
 	}
 
-	private static SPARQLExtStreamManager prepareStreamManager(File dirFile, CliRequest request) {
+	static SPARQLExtStreamManager prepareStreamManager(File dirFile, CliRequest request) {
 		Path dirPath = Paths.get(dirFile.toURI());
 		// initialize stream manager
 		LocatorFileAccept locator = new LocatorFileAccept(dirFile.toURI().getPath());
@@ -514,7 +644,7 @@ public class SPARQLExtCli {
 		}
 	}
 
-	private static CliRequest createRequest(File dirFile, CommandLine cl) {
+	static CliRequest createRequest(File dirFile, CommandLine cl) {
 		CliRequest request;
 		try {
 			String conf = IOUtils.toString(new FileInputStream(new File(dirFile, CONF_FILE)), StandardCharsets.UTF_8);
@@ -536,6 +666,77 @@ public class SPARQLExtCli {
 		request.stream = cl.hasOption(ARG_STREAM) || request.stream;
 		request.hdt = cl.hasOption(ARG_HDT) || request.hdt;
 		request.debugTemplate = cl.hasOption(ARG_DEBUG_TEMPLATE) || request.debugTemplate;
+		request.parallelSubQueries = cl.hasOption(ARG_PARALLEL_SUBQUERIES) || request.parallelSubQueries;
+		request.pinPlans = cl.hasOption(ARG_PIN_PLANS) || request.pinPlans;
+		if (cl.hasOption(ARG_SOURCE_PARALLELISM)) {
+			try {
+				request.sourceParallelism = Integer.parseInt(cl.getOptionValue(ARG_SOURCE_PARALLELISM));
+			} catch (NumberFormatException ex) {
+				LOG.warn("Invalid source parallelism " + cl.getOptionValue(ARG_SOURCE_PARALLELISM) + ", using "
+						+ request.sourceParallelism);
+			}
+		}
+		request.sourceParallelism = Math.max(1, request.sourceParallelism);
+		if (cl.hasOption(ARG_PARSING_PARALLELISM)) {
+			try {
+				request.parsingParallelism = Integer.parseInt(cl.getOptionValue(ARG_PARSING_PARALLELISM));
+			} catch (NumberFormatException ex) {
+				LOG.warn("Invalid parsing parallelism " + cl.getOptionValue(ARG_PARSING_PARALLELISM) + ", using "
+						+ request.parsingParallelism);
+			}
+		}
+		request.parsingParallelism = Math.max(1, request.parsingParallelism);
+		if (cl.hasOption(ARG_MEMORY_BUDGET)) {
+			try {
+				request.memoryBudget = Long.parseLong(cl.getOptionValue(ARG_MEMORY_BUDGET));
+			} catch (NumberFormatException ex) {
+				LOG.warn("Invalid memory budget " + cl.getOptionValue(ARG_MEMORY_BUDGET) + ", ignoring it");
+			}
+		}
+		if (cl.hasOption(ARG_BATCH_LATENCY)) {
+			try {
+				request.batchLatency = Long.parseLong(cl.getOptionValue(ARG_BATCH_LATENCY));
+			} catch (NumberFormatException ex) {
+				LOG.warn("Invalid batch latency " + cl.getOptionValue(ARG_BATCH_LATENCY) + ", ignoring it");
+			}
+		}
+		if (cl.hasOption(ARG_BATCH_MEMORY)) {
+			try {
+				request.batchMemory = Long.parseLong(cl.getOptionValue(ARG_BATCH_MEMORY));
+			} catch (NumberFormatException ex) {
+				LOG.warn("Invalid batch memory " + cl.getOptionValue(ARG_BATCH_MEMORY) + ", ignoring it");
+			}
+		}
+		if (cl.hasOption(ARG_MEMOIZE)) {
+			try {
+				request.memoize = Long.parseLong(cl.getOptionValue(ARG_MEMOIZE));
+			} catch (NumberFormatException ex) {
+				LOG.warn("Invalid memoization size " + cl.getOptionValue(ARG_MEMOIZE) + ", ignoring it");
+			}
+		}
+		if (cl.hasOption(ARG_SUBQUERY_BATCH)) {
+			try {
+				request.subQueryBatch = Integer.parseInt(cl.getOptionValue(ARG_SUBQUERY_BATCH));
+			} catch (NumberFormatException ex) {
+				LOG.warn("Invalid sub-query batch size " + cl.getOptionValue(ARG_SUBQUERY_BATCH) + ", ignoring it");
+			}
+		}
+		if (cl.hasOption(ARG_SUBQUERY_DELAY)) {
+			try {
+				request.subQueryDelay = Long.parseLong(cl.getOptionValue(ARG_SUBQUERY_DELAY));
+			} catch (NumberFormatException ex) {
+				LOG.warn("Invalid sub-query delay " + cl.getOptionValue(ARG_SUBQUERY_DELAY) + ", ignoring it");
+			}
+		}
+		request.checkpoint = cl.getOptionValue(ARG_CHECKPOINT, request.checkpoint);
+		if (request.checkpoint != null) {
+			request.checkpoint = new File(dirFile, request.checkpoint).getAbsolutePath();
+		}
+		request.resume = cl.hasOption(ARG_RESUME) || request.resume;
+		request.planCache = cl.getOptionValue(ARG_PLAN_CACHE, request.planCache);
+		if (request.planCache != null) {
+			request.planCache = new File(dirFile, request.planCache).getAbsolutePath();
+		}
 		if (request.logFile != null) {
 			request.logFile = new File(dirFile, cl.getOptionValue(ARG_LOG_FILE, request.logFile)).getAbsolutePath();
 		}
@@ -550,8 +751,7 @@ public class SPARQLExtCli {
 	private static SPARQLExtQuery getQueryOrDie(CliRequest request, CommandLine cl, SPARQLExtStreamManager sm) {
 		String query;
 		try {
-			query = IOUtils.toString(sm.open(new LookUpRequest(request.query, SPARQLExt.MEDIA_TYPE)),
-					StandardCharsets.UTF_8);
+			query = readQuery(request, sm);
 		} catch (IOException | NullPointerException ex) {
 			throw new RuntimeException(
 					String.format("No file named %s was found in the directory that contains the query to be executed.",
@@ -560,11 +760,7 @@ public class SPARQLExtCli {
 		}
 
 		try {
-			SPARQLExtQuery q = (SPARQLExtQuery) QueryFactory.create(query, request.base, SPARQLExt.SYNTAX);
-			if (!q.explicitlySetBaseURI()) {
-				q.setBaseURI(request.base);
-			}
-			return q;
+			return parseQuery(query, request.base);
 		} catch (Exception ex) {
 			if(cl != null && cl.hasOption(CMDConfigurations.ARG_SYNTAX_LONG)) {
 				System.out.println(ex.getMessage());
@@ -576,4 +772,17 @@ public class SPARQLExtCli {
 		}
 	}
 
+	static String readQuery(CliRequest request, SPARQLExtStreamManager sm) throws IOException {
+		return IOUtils.toString(sm.open(new LookUpRequest(request.query, SPARQLExt.MEDIA_TYPE)),
+				StandardCharsets.UTF_8);
+	}
+
+	static SPARQLExtQuery parseQuery(String query, String base) {
+		SPARQLExtQuery q = (SPARQLExtQuery) QueryFactory.create(query, base, SPARQLExt.SYNTAX);
+		if (!q.explicitlySetBaseURI()) {
+			q.setBaseURI(base);
+		}
+		return q;
+	}
+
 }
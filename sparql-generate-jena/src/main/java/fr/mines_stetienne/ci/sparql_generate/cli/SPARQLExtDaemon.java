@@ -0,0 +1,411 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.cli;
+
+import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_DIRECTORY;
+import static fr.mines_stetienne.ci.sparql_generate.cli.CMDConfigurations.ARG_DIRECTORY_DEFAULT;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.jena.graph.Graph;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExtException;
+import fr.mines_stetienne.ci.sparql_generate.engine.PlanFactory;
+import fr.mines_stetienne.ci.sparql_generate.engine.QueryExecutor;
+import fr.mines_stetienne.ci.sparql_generate.engine.RootPlan;
+import fr.mines_stetienne.ci.sparql_generate.stream.SPARQLExtStreamManager;
+import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+
+/**
+ * Executes the jobs read on an input stream, one JSON object per line, in a
+ * single process. Jobs are executed concurrently, and the jobs that use the
+ * same directory share the stream manager, the input dataset, the plans of
+ * the queries and the loaded graphs of that directory. They are reloaded when
+ * the configuration file, a query file or a file of the dataset of the
+ * directory changes. The outputs and the checkpoints of the jobs, the log file
+ * and the plan cache are not watched. The query files are listed when the
+ * directory is loaded. The loaded graphs also expire after a minute, as they
+ * may come from the web. The plan cache directory is set once, from the
+ * command line and the configuration file of the default directory.
+ * <p>
+ * A job has the form
+ * <code>{"id": "1", "dir": "path/to/dir", "query": "query.rqg", "output": "out.ttl", "bindings": {"param": "&lt;http://example.org/&gt;"}}</code>.
+ * The other parameters come from the configuration file of the directory, and
+ * the command line. One report with the timings of the job is written on the
+ * output stream for each job, when it is finished.
+ *
+ * @author Maxime Lefrançois
+ */
+public class SPARQLExtDaemon {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SPARQLExtDaemon.class);
+
+	private final CommandLine cl;
+	private final ThreadPoolExecutor executor;
+	private final ExecutorService subQueryExecutor = SPARQLExtCli.newDaemonThreadPool();
+	private final Cache<String, Workspace> workspaces = CacheBuilder.newBuilder().maximumSize(100).build();
+	/**
+	 * The output files of the jobs, that do not invalidate the workspaces.
+	 */
+	private final Set<Path> outputs = ConcurrentHashMap.newKeySet();
+	private final Path planCache;
+	private final Gson gson = new Gson();
+
+	/**
+	 * @param cl
+	 *            the command line, that holds the default parameters of the
+	 *            jobs
+	 * @param jobs
+	 *            the maximal number of jobs executed concurrently
+	 */
+	public SPARQLExtDaemon(CommandLine cl, int jobs) {
+		this.cl = cl;
+		// when the queue is full, the reading thread executes the job, so no
+		// more jobs are read until one is finished
+		this.executor = new ThreadPoolExecutor(jobs, jobs, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(jobs), new ThreadPoolExecutor.CallerRunsPolicy());
+		final File dir = new File(cl.getOptionValue(ARG_DIRECTORY, ARG_DIRECTORY_DEFAULT)).getAbsoluteFile();
+		final CliRequest rq = SPARQLExtCli.createRequest(dir, cl);
+		if (rq.planCache != null) {
+			PlanFactory.setCacheDirectory(new File(rq.planCache));
+			planCache = new File(rq.planCache).toPath().normalize();
+		} else {
+			planCache = null;
+		}
+	}
+
+	/**
+	 * Reads jobs until the end of the input, and waits for them to finish.
+	 *
+	 * @param in
+	 *            the jobs, one JSON object per line
+	 * @param out
+	 *            where the reports are written, one JSON object per line
+	 */
+	public void run(InputStream in, PrintStream out) {
+		LOG.info("Waiting for jobs");
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+				final long received = System.nanoTime();
+				final Job job;
+				try {
+					job = gson.fromJson(line, Job.class);
+				} catch (JsonSyntaxException ex) {
+					LOG.warn("Invalid job " + line, ex);
+					reportInvalid(out, ex.getMessage());
+					continue;
+				}
+				if (job == null) {
+					LOG.warn("Invalid job " + line);
+					reportInvalid(out, "the job must be a JSON object");
+					continue;
+				}
+				executor.execute(() -> report(out, exec(job, received)));
+			}
+		} catch (IOException ex) {
+			LOG.error("Error while reading the jobs.", ex);
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		subQueryExecutor.shutdownNow();
+		LOG.info("No more jobs");
+	}
+
+	private Report exec(Job job, long received) {
+		final Report report = new Report(job.id);
+		final long start = System.nanoTime();
+		report.queuedMillis = toMillis(start - received);
+		try {
+			final String dirName = job.dir != null ? job.dir : cl.getOptionValue(ARG_DIRECTORY, ARG_DIRECTORY_DEFAULT);
+			final File dir = new File(dirName).getAbsoluteFile();
+			final CliRequest rq = SPARQLExtCli.createRequest(dir, cl);
+			if (job.query != null) {
+				rq.query = new File(dir, job.query).getAbsolutePath();
+			}
+			if (job.output != null) {
+				rq.output = new File(dir, job.output).getAbsolutePath();
+			}
+			if (rq.output == null) {
+				throw new SPARQLExtException("The output of the job must be set, the standard output is used for the reports.");
+			}
+			outputs.add(new File(rq.output).toPath().normalize());
+			if (job.base != null) {
+				rq.base = job.base;
+			}
+			if (job.outputFormat != null) {
+				rq.outputFormat = job.outputFormat;
+			}
+			rq.outputAppend = job.append || rq.outputAppend;
+
+			final Workspace workspace = getWorkspace(dir, rq);
+			final RootPlan plan = workspace.getPlan(rq);
+			final Properties properties = new Properties();
+			if (job.bindings != null) {
+				properties.putAll(job.bindings);
+			}
+			final List<Binding> bindings = SPARQLExtCli.getBinding(properties);
+			final ContextUtils.Builder contextBuilder = SPARQLExtCli
+					.prepareContext(rq, plan.getQuery(), workspace.dataset, workspace.sm)
+					.setQueryExecutor(workspace.queryExecutor).setLoadedGraphs(workspace.loadedGraphs);
+			if (rq.parallelSubQueries) {
+				contextBuilder.setSubQueryExecutor(subQueryExecutor).setParallelSubQueries(true)
+						.setOrderedSubQueries(true);
+			}
+			final long prepared = System.nanoTime();
+			report.prepareMillis = toMillis(prepared - start);
+
+			SPARQLExtCli.execPlan(plan, rq, contextBuilder, bindings);
+			report.execMillis = toMillis(System.nanoTime() - prepared);
+			report.status = "ok";
+		} catch (Exception ex) {
+			LOG.error("Error while executing job " + job.id, ex);
+			report.status = "error";
+			report.message = ex.getMessage();
+		}
+		report.totalMillis = toMillis(System.nanoTime() - received);
+		return report;
+	}
+
+	private Workspace getWorkspace(File dir, CliRequest rq) throws ExecutionException {
+		final String key = dir.getPath() + "\n" + rq.base;
+		Workspace workspace = workspaces.getIfPresent(key);
+		if (workspace != null && workspace.isModified()) {
+			LOG.debug("Reloading the directory " + dir);
+			workspaces.invalidate(key);
+		}
+		return workspaces.get(key, () -> new Workspace(dir, rq, getWatchedFiles(dir, rq)));
+	}
+
+	/**
+	 * Returns the files that the workspace of a directory is loaded from: the
+	 * configuration file, the query files and the files of the dataset. The
+	 * outputs and the checkpoints of the jobs, the log file and the plan cache
+	 * are ignored.
+	 */
+	private Set<Path> getWatchedFiles(File dir, CliRequest rq) {
+		final Set<Path> files = new HashSet<>();
+		files.add(new File(dir, SPARQLExtCli.CONF_FILE).toPath());
+		files.add(new File(dir, rq.graph != null ? rq.graph : "dataset/default.ttl").toPath());
+		if (rq.namedgraphs != null) {
+			rq.namedgraphs.forEach((doc) -> files.add(new File(dir, doc.path).toPath()));
+		}
+		if (rq.namedqueries != null) {
+			rq.namedqueries.forEach((doc) -> files.add(new File(dir, doc.path).toPath()));
+		}
+		try (Stream<Path> paths = Files.walk(dir.toPath())) {
+			paths.filter((path) -> path.toString().endsWith(SPARQLExt.EXT)).forEach(files::add);
+		} catch (IOException | UncheckedIOException ex) {
+			LOG.debug("Could not list the queries of the directory " + dir, ex);
+		}
+		final Set<Path> watched = new HashSet<>();
+		for (Path file : files) {
+			final Path path = file.toAbsolutePath().normalize();
+			if (!outputs.contains(path) && !startsWith(path, rq.checkpoint) && !startsWith(path, rq.logFile)
+					&& (planCache == null || !path.startsWith(planCache))) {
+				watched.add(path);
+			}
+		}
+		return watched;
+	}
+
+	/**
+	 * Checks if a path starts with a file name, so that the temporary files of
+	 * checkpoints and the rolled log files are ignored too.
+	 */
+	private static boolean startsWith(Path path, String fileName) {
+		return fileName != null && path.toString().startsWith(new File(fileName).toPath().normalize().toString());
+	}
+
+	private void reportInvalid(PrintStream out, String message) {
+		final Report report = new Report(null);
+		report.status = "error";
+		report.message = "Invalid job: " + message;
+		report(out, report);
+	}
+
+	private void report(PrintStream out, Report report) {
+		final String json = gson.toJson(report);
+		synchronized (out) {
+			out.println(json);
+			out.flush();
+		}
+	}
+
+	private static long toMillis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	/**
+	 * What is shared by the jobs that use the same directory.
+	 */
+	private static final class Workspace {
+
+		/**
+		 * The watched files, and the time they were last modified when the
+		 * workspace was loaded.
+		 */
+		private final Map<Path, Long> modified = new HashMap<>();
+		private final SPARQLExtStreamManager sm;
+		private final Dataset dataset;
+		private final QueryExecutor queryExecutor = new QueryExecutor();
+		private final Cache<Object, Graph> loadedGraphs = CacheBuilder.newBuilder().maximumSize(1_000).softValues()
+				.expireAfterWrite(1, TimeUnit.MINUTES).build();
+		private final Cache<String, RootPlan> plans = CacheBuilder.newBuilder().maximumSize(100).build();
+
+		private Workspace(File dir, CliRequest rq, Set<Path> watched) {
+			// read before loading, so that a change while loading reloads
+			watched.forEach((path) -> modified.put(path, path.toFile().lastModified()));
+			this.sm = SPARQLExtCli.prepareStreamManager(dir, rq);
+			this.dataset = SPARQLExtCli.getDataset(dir, rq);
+		}
+
+		/**
+		 * Checks if one of the watched files was modified, created or deleted
+		 * since the workspace was loaded.
+		 */
+		private boolean isModified() {
+			for (Map.Entry<Path, Long> entry : modified.entrySet()) {
+				if (entry.getKey().toFile().lastModified() != entry.getValue()) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Get the plan of the query of the request. Plans are cached by query
+		 * text, so a changed query file gets a new plan.
+		 */
+		private RootPlan getPlan(CliRequest rq) throws IOException {
+			final String query = SPARQLExtCli.readQuery(rq, sm);
+			try {
+				return plans.get(rq.base + "\n" + query,
+						() -> PlanFactory.create(SPARQLExtCli.parseQuery(query, rq.base)));
+			} catch (ExecutionException | UncheckedExecutionException ex) {
+				throw new SPARQLExtException("Error while creating the plan for the query.", ex.getCause());
+			}
+		}
+	}
+
+	/**
+	 * A job, read as JSON.
+	 */
+	private static final class Job {
+
+		/**
+		 * identifies the job in the report
+		 */
+		private String id;
+
+		/**
+		 * the directory of the job, as with the option -d
+		 */
+		private String dir;
+
+		/**
+		 * the query, relative to the directory
+		 */
+		private String query;
+
+		/**
+		 * the output file, relative to the directory
+		 */
+		private String output;
+
+		/**
+		 * the output format
+		 */
+		private String outputFormat;
+
+		/**
+		 * the base IRI
+		 */
+		private String base;
+
+		/**
+		 * when true, the output is appended to the output file
+		 */
+		private boolean append;
+
+		/**
+		 * the values of the query parameters, as RDF terms in Turtle
+		 */
+		private Map<String, String> bindings;
+	}
+
+	/**
+	 * The report of a job, written as JSON.
+	 */
+	@SuppressWarnings("unused")
+	private static final class Report {
+
+		private final String id;
+		private String status;
+		private String message;
+		private long queuedMillis;
+		private long prepareMillis;
+		private long execMillis;
+		private long totalMillis;
+
+		private Report(String id) {
+			this.id = id;
+		}
+	}
+
+}
@@ -15,11 +15,13 @@
  */
 package fr.mines_stetienne.ci.sparql_generate.engine;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import org.apache.jena.graph.Node;
 import org.apache.jena.sparql.core.Var;
 import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
 import org.apache.jena.sparql.util.Context;
 
 
@@ -43,16 +45,46 @@ public abstract class BindOrSourcePlan implements BindingsClausePlan {
      * 
      * @return the new binding
      */
-    final public List<Binding> exec(
+    public List<Binding> exec(
             final List<Binding> values,
             final Context context) {
-        return values
-                .stream()
-                .map((binding) -> exec(binding, context))
-                .collect(Collectors.toList());
+        final Node[] column = new Node[values.size()];
+        for (int i = 0; i < column.length; i++) {
+            column[i] = exec(values.get(i), context);
+        }
+        return bind(values, column);
     }
 
-    abstract protected Binding exec(
+    /**
+     * Binds the variable in each binding. A batch of bindings is extended
+     * with a new column, other lists get one new binding per row.
+     *
+     * @param values the values.
+     * @param column the node of each binding, or null to leave it unbound.
+     * @return the new values.
+     */
+    protected final List<Binding> bind(
+            final List<Binding> values,
+            final Node[] column) {
+        if (values instanceof BindingBatch) {
+            return ((BindingBatch) values).extend(var, column);
+        }
+        final List<Binding> newValues = new ArrayList<>(values.size());
+        for (int i = 0; i < column.length; i++) {
+            final Binding binding = values.get(i);
+            newValues.add(column[i] == null ? binding : BindingFactory.binding(binding, var, column[i]));
+        }
+        return newValues;
+    }
+
+    /**
+     * Evaluates the clause for one binding.
+     *
+     * @param binding the binding.
+     * @param context the execution context.
+     * @return the node to bind, or null if the variable stays unbound.
+     */
+    abstract protected Node exec(
             final Binding binding,
             final Context context);
 
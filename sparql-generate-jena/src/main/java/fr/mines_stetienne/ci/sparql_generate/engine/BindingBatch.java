@@ -0,0 +1,241 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.engine;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingBase;
+
+/**
+ * A batch of bindings stored column-wise: a dictionary of variables, and one
+ * array of nodes per variable. Each row extends a parent binding.
+ * <p>
+ * The batch is seen as a list of lightweight {@link Binding} views, that are
+ * created when they are first accessed, and then reused. Batches are merged
+ * with {@link #concat(List, List)}, and BIND and SOURCE clauses add a column
+ * with {@link #extend(Var, Node[])}, so that no per-row binding is created
+ * between the iterators and the consumers of the values block.
+ *
+ * @author Maxime Lefrançois
+ */
+public class BindingBatch extends AbstractList<Binding> {
+
+	/**
+	 * The parent binding of each row.
+	 */
+	private final Binding[] parents;
+
+	/**
+	 * The variables.
+	 */
+	private final Var[] vars;
+
+	/**
+	 * The column of each variable.
+	 */
+	private final Map<Var, Integer> index;
+
+	/**
+	 * One column per variable. A null cell means the variable is unbound.
+	 */
+	private final Node[][] columns;
+
+	private final int size;
+
+	/**
+	 * The row views that have already been accessed.
+	 */
+	private final Row[] rows;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param parent
+	 *            the parent binding of every row.
+	 * @param vars
+	 *            the variables.
+	 * @param columns
+	 *            one column per variable, all having the same size.
+	 */
+	public BindingBatch(final Binding parent, final List<Var> vars, final Node[][] columns) {
+		this(parents(parent, columns), vars.toArray(new Var[vars.size()]), columns);
+	}
+
+	private BindingBatch(final Binding[] parents, final Var[] vars, final Node[][] columns) {
+		if (vars.length != columns.length) {
+			throw new IllegalArgumentException("Expected " + vars.length + " columns, got " + columns.length);
+		}
+		this.parents = parents;
+		this.vars = vars;
+		this.index = new HashMap<>(vars.length * 2);
+		for (int i = 0; i < vars.length; i++) {
+			index.putIfAbsent(vars[i], i);
+		}
+		this.columns = columns;
+		this.size = parents.length;
+		this.rows = new Row[size];
+	}
+
+	private static Binding[] parents(final Binding parent, final Node[][] columns) {
+		Objects.requireNonNull(parent, "parent must not be null");
+		final Binding[] parents = new Binding[columns.length == 0 ? 0 : columns[0].length];
+		Arrays.fill(parents, parent);
+		return parents;
+	}
+
+	/**
+	 * Merges batches that have the same variables. The rows keep their order
+	 * and their parent.
+	 *
+	 * @param vars
+	 *            the variables of the batches.
+	 * @param batches
+	 *            the batches.
+	 * @return the merged batch.
+	 */
+	public static BindingBatch concat(final List<Var> vars, final List<BindingBatch> batches) {
+		final Var[] varArray = vars.toArray(new Var[vars.size()]);
+		int size = 0;
+		for (BindingBatch batch : batches) {
+			if (!Arrays.equals(varArray, batch.vars)) {
+				throw new IllegalArgumentException(
+						"Expected variables " + vars + ", got " + Arrays.toString(batch.vars));
+			}
+			size += batch.size;
+		}
+		if (batches.size() == 1) {
+			return batches.get(0);
+		}
+		final Binding[] parents = new Binding[size];
+		final Node[][] columns = new Node[varArray.length][size];
+		int offset = 0;
+		for (BindingBatch batch : batches) {
+			System.arraycopy(batch.parents, 0, parents, offset, batch.size);
+			for (int i = 0; i < varArray.length; i++) {
+				System.arraycopy(batch.columns[i], 0, columns[i], offset, batch.size);
+			}
+			offset += batch.size;
+		}
+		return new BindingBatch(parents, varArray, columns);
+	}
+
+	/**
+	 * Returns a batch with one more column. The existing columns are shared,
+	 * not copied.
+	 *
+	 * @param var
+	 *            the variable.
+	 * @param column
+	 *            the node of each row, or null if the variable is unbound.
+	 * @return the new batch.
+	 */
+	public BindingBatch extend(final Var var, final Node[] column) {
+		if (column.length != size) {
+			throw new IllegalArgumentException("Expected " + size + " rows, got " + column.length);
+		}
+		final Var[] newVars = new Var[vars.length + 1];
+		final Node[][] newColumns = new Node[vars.length + 1][];
+		// the new column comes first, so that it shadows the existing ones
+		newVars[0] = var;
+		newColumns[0] = column;
+		System.arraycopy(vars, 0, newVars, 1, vars.length);
+		System.arraycopy(columns, 0, newColumns, 1, vars.length);
+		return new BindingBatch(parents, newVars, newColumns);
+	}
+
+	@Override
+	public Binding get(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+		}
+		Row view = rows[row];
+		if (view == null) {
+			// rows are immutable views, so a concurrent access at worst
+			// creates the same view twice
+			view = new Row(row);
+			rows[row] = view;
+		}
+		return view;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * A view over a row of the batch.
+	 */
+	private final class Row extends BindingBase {
+
+		private final int row;
+
+		private Row(final int row) {
+			super(parents[row]);
+			this.row = row;
+		}
+
+		@Override
+		protected Iterator<Var> vars1() {
+			final List<Var> bound = new ArrayList<>(vars.length);
+			for (int i = 0; i < vars.length; i++) {
+				if (columns[i][row] != null) {
+					bound.add(vars[i]);
+				}
+			}
+			return bound.iterator();
+		}
+
+		@Override
+		protected int size1() {
+			int n = 0;
+			for (int i = 0; i < vars.length; i++) {
+				if (columns[i][row] != null) {
+					n++;
+				}
+			}
+			return n;
+		}
+
+		@Override
+		protected boolean isEmpty1() {
+			return size1() == 0;
+		}
+
+		@Override
+		public boolean contains1(final Var var) {
+			return get1(var) != null;
+		}
+
+		@Override
+		public Node get1(final Var var) {
+			final Integer i = index.get(var);
+			return i == null ? null : columns[i][row];
+		}
+
+	}
+
+}
@@ -16,7 +16,8 @@
 package fr.mines_stetienne.ci.sparql_generate.engine;
 
 /**
- * Executes a BIND or SOURCE or ITERATOR clause.
+ * Executes a BIND or SOURCE or ITERATOR clause, or FILTER clauses moved right
+ * after them.
  *
  * @author Maxime Lefrançois
  */
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.engine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExtException;
+
+/**
+ * Periodically records the progress of a long-running execution, so that it
+ * can be resumed after a failure.
+ * <p>
+ * The progress is the number of batches of the first ITERATOR clause of the
+ * root query that have been fully processed, together with the offset of the
+ * output sink after it has been flushed. When an execution is resumed, the
+ * batches that were already processed are skipped, and the output is expected
+ * to be truncated to the recorded offset, so no output is duplicated.
+ * <p>
+ * Resuming assumes the iterator emits the same batches in the same order,
+ * which is the case of iterators over files such as iter:CSV or
+ * iter:JSONSurfer.
+ *
+ * @author Maxime Lefrançois
+ */
+public class Checkpoint {
+
+	private static final Logger LOG = LoggerFactory.getLogger(Checkpoint.class);
+
+	private static final String KEY_BATCHES = "batches";
+
+	private static final String KEY_OUTPUT_OFFSET = "output.offset";
+
+	/**
+	 * The file where the checkpoint is stored.
+	 */
+	private final File file;
+
+	/**
+	 * The number of batches between two checkpoints.
+	 */
+	private final int interval;
+
+	/**
+	 * The number of batches that were processed before the resumed checkpoint.
+	 */
+	private final long resumedBatches;
+
+	/**
+	 * The output offset of the resumed checkpoint.
+	 */
+	private final long resumedOutputOffset;
+
+	/**
+	 * Flushes the output and returns its offset.
+	 */
+	private LongSupplier output = () -> -1;
+
+	private long batches = 0;
+
+	private long savedBatches = 0;
+
+	private Checkpoint(final File file, final int interval, final long resumedBatches,
+			final long resumedOutputOffset) {
+		this.file = file;
+		this.interval = interval;
+		this.resumedBatches = resumedBatches;
+		this.resumedOutputOffset = resumedOutputOffset;
+	}
+
+	/**
+	 * Creates a checkpoint.
+	 *
+	 * @param file
+	 *            the file where the checkpoint is stored.
+	 * @param interval
+	 *            the number of batches between two checkpoints.
+	 * @param resume
+	 *            if true, and the file exists, resume from the checkpoint it
+	 *            contains.
+	 * @return the checkpoint
+	 */
+	public static Checkpoint create(final File file, final int interval, final boolean resume) {
+		Objects.requireNonNull(file, "file must not be null");
+		if (interval <= 0) {
+			throw new IllegalArgumentException("Checkpoint interval must be positive, got " + interval);
+		}
+		if (!resume || !file.exists()) {
+			return new Checkpoint(file, interval, 0, 0);
+		}
+		final Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+			final long batches = Long.parseLong(properties.getProperty(KEY_BATCHES, "0"));
+			final long outputOffset = Long.parseLong(properties.getProperty(KEY_OUTPUT_OFFSET, "0"));
+			LOG.info("Resuming from checkpoint " + file + ": " + batches + " batches, output offset " + outputOffset);
+			return new Checkpoint(file, interval, batches, outputOffset);
+		} catch (IOException | NumberFormatException ex) {
+			throw new SPARQLExtException("Error while reading the checkpoint " + file, ex);
+		}
+	}
+
+	/**
+	 * Sets the output sink.
+	 *
+	 * @param output
+	 *            flushes the output and returns its offset.
+	 */
+	public void setOutput(final LongSupplier output) {
+		Objects.requireNonNull(output, "output must not be null");
+		this.output = output;
+	}
+
+	/**
+	 * @return the output offset recorded in the resumed checkpoint, or 0.
+	 */
+	public long getResumedOutputOffset() {
+		return resumedOutputOffset;
+	}
+
+	/**
+	 * @return true if the execution resumes from a checkpoint.
+	 */
+	public boolean isResumed() {
+		return resumedBatches > 0;
+	}
+
+	/**
+	 * Called for every batch of the checkpointed iterator.
+	 *
+	 * @return true if this batch was processed before the resumed checkpoint,
+	 *         and must be skipped.
+	 */
+	public synchronized boolean isReplayed() {
+		if (batches < resumedBatches) {
+			batches++;
+			savedBatches = batches;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Called when a batch of the checkpointed iterator has been fully
+	 * processed.
+	 */
+	public synchronized void batchCompleted() {
+		batches++;
+		if (batches - savedBatches >= interval) {
+			save();
+		}
+	}
+
+	/**
+	 * Called when the execution completes normally. The checkpoint file is
+	 * deleted.
+	 */
+	public synchronized void finish() {
+		try {
+			Files.deleteIfExists(file.toPath());
+		} catch (IOException ex) {
+			LOG.warn("Could not delete the checkpoint " + file, ex);
+		}
+	}
+
+	private void save() {
+		final long outputOffset = output.getAsLong();
+		final Properties properties = new Properties();
+		properties.setProperty(KEY_BATCHES, Long.toString(batches));
+		properties.setProperty(KEY_OUTPUT_OFFSET, Long.toString(outputOffset));
+		final File tmp = new File(file.getAbsolutePath() + ".tmp");
+		try (OutputStream out = new FileOutputStream(tmp)) {
+			properties.store(out, "SPARQL-Generate checkpoint");
+		} catch (IOException ex) {
+			LOG.warn("Could not write the checkpoint " + file, ex);
+			return;
+		}
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			savedBatches = batches;
+			LOG.debug("Checkpoint after " + batches + " batches, output offset " + outputOffset);
+		} catch (IOException ex) {
+			LOG.warn("Could not write the checkpoint " + file, ex);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Checkpoint " + file + " after " + batches + " batches";
+	}
+
+}
@@ -1,12 +1,15 @@
 package fr.mines_stetienne.ci.sparql_generate.engine;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import org.apache.jena.graph.Graph;
-import org.apache.jena.graph.GraphUtil;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.compose.MultiUnion;
 import org.apache.jena.query.Dataset;
 import org.apache.jena.query.DatasetFactory;
 import org.apache.jena.riot.system.IRIResolver;
@@ -79,23 +82,26 @@ public class DatasetDeclarationPlan {
 		if (fromClauses == null || fromClauses.isEmpty()) {
 			return context;
 		}
-		final DatasetGraph dsg = DatasetGraphFactory.createGeneral();
+		final List<Graph> defaultGraphs = new ArrayList<>();
+		final Map<Node, List<Graph>> namedGraphs = new LinkedHashMap<>();
 		fromClauses.forEach((fromClause) -> {
+			final Graph graph;
 			if (fromClause.getGenerate() == null) {
-				if (!fromClause.isNamed()) {
-					addDefaultGraph(binding, context, dsg, fromClause.getName());
-				} else {
-					addNamedGraph(binding, context, dsg, fromClause.getName());
-				}
+				graph = getGraph(binding, context, fromClause.getName());
 			} else {
-				SPARQLExtQuery generate = fromClause.getGenerate();
-				if (!fromClause.isNamed()) {
-					addDefaultGraph(binding, context, dsg, generate);
-				} else {
-					addNamedGraph(binding, context, dsg, generate, fromClause.getName());
-				}
+				graph = getGraph(binding, context, fromClause.getGenerate());
+			}
+			if (!fromClause.isNamed()) {
+				defaultGraphs.add(graph);
+			} else {
+				String sourceURI = evalSourceURI(binding, context, fromClause.getName());
+				Node n = NodeFactory.createURI(baseURI(sourceURI, baseURI));
+				namedGraphs.computeIfAbsent(n, (k) -> new ArrayList<>()).add(graph);
 			}
 		});
+		// graphs are linked, not copied
+		final DatasetGraph dsg = DatasetGraphFactory.create(union(defaultGraphs));
+		namedGraphs.forEach((n, graphs) -> dsg.addGraph(n, union(graphs)));
 		Dataset newDataset = DatasetFactory.wrap(dsg);
 		return ContextUtils.fork(context).setDataset(newDataset).fork();
 	}
@@ -108,57 +114,50 @@ public class DatasetDeclarationPlan {
 		}
 	}
 
-	private void addDefaultGraph(Binding binding, Context context, DatasetGraph dsg, Expr sourceExpr) {
-		String sourceURI = evalSourceURI(binding, context, sourceExpr);
-		final String absURI = baseURI(sourceURI, baseURI);
-		// default: check the dataset
-		Dataset dataset = ContextUtils.getDataset(context);
-		if (dataset.containsNamedModel(absURI)) {
-//			Node n = NodeFactory.createURI(absURI);
-			Graph g = dataset.getNamedModel(absURI).getGraph();
-			GraphUtil.addInto(dsg.getDefaultGraph(), g);
-			return;
+	/**
+	 * Returns a read-only view that is the union of the graphs.
+	 */
+	private static Graph union(List<Graph> graphs) {
+		if (graphs.isEmpty()) {
+			return GraphFactory.createJenaDefaultGraph();
 		}
-		// fallback: load as RDF graph
-		StreamRDF dest = StreamRDFLib.graph(dsg.getDefaultGraph());
-		ContextUtils.loadGraph(context, sourceURI, absURI, dest);
+		if (graphs.size() == 1) {
+			return graphs.get(0);
+		}
+		return new MultiUnion(graphs.toArray(new Graph[graphs.size()]));
 	}
 
-	private void addNamedGraph(Binding binding, Context context, DatasetGraph dsg, Expr sourceExpr) {
+	/**
+	 * Returns the graph of the input dataset with the given name, or loads it.
+	 * Loaded graphs are cached for the rest of the execution.
+	 */
+	private Graph getGraph(Binding binding, Context context, Expr sourceExpr) {
 		String sourceURI = evalSourceURI(binding, context, sourceExpr);
 		final String absURI = baseURI(sourceURI, baseURI);
-		Dataset dataset = ContextUtils.getDataset(context);
-		Node n = NodeFactory.createURI(absURI);
-		Graph g = dsg.getGraph(n);
-		if (g == null) {
-			g = GraphFactory.createJenaDefaultGraph();
-			dsg.addGraph(n, g);
-		}
 		// default: check the dataset
+		Dataset dataset = ContextUtils.getDataset(context);
 		if (dataset.containsNamedModel(absURI)) {
-			Graph dg = dataset.getNamedModel(absURI).getGraph();
-			GraphUtil.addInto(g, dg);
-			return;
+			return dataset.getNamedModel(absURI).getGraph();
 		}
 		// fallback: load as RDF graph
-		StreamRDF dest = StreamRDFLib.graph(g);
-		ContextUtils.loadGraph(context, sourceURI, absURI, dest);
-	}
-
-	private void addDefaultGraph(Binding binding, Context context, DatasetGraph dsg, SPARQLExtQuery generate) {
-		loadGraph(binding, context, generate, dsg.getDefaultGraph());
+		return ContextUtils.getOrLoadGraph(context, new GraphKey(absURI, dataset), () -> {
+			LOG.debug("Loading graph " + absURI);
+			Graph g = GraphFactory.createJenaDefaultGraph();
+			ContextUtils.loadGraph(context, sourceURI, absURI, StreamRDFLib.graph(g));
+			return g;
+		});
 	}
 
-	private void addNamedGraph(Binding binding, Context context, DatasetGraph dsg, SPARQLExtQuery generate, Expr name) {
-		String sourceURI = evalSourceURI(binding, context, name);
-		final String absURI = baseURI(sourceURI, baseURI);
-		Node n = NodeFactory.createURI(absURI);
-		Graph g = dsg.getGraph(n);
-		if (g == null) {
-			g = GraphFactory.createJenaDefaultGraph();
-			dsg.addGraph(n, g);
-		}
-		loadGraph(binding, context, generate, g);
+	/**
+	 * Returns the graph generated by the sub-query for this binding. Generated
+	 * graphs are cached for the rest of the execution.
+	 */
+	private Graph getGraph(Binding binding, Context context, SPARQLExtQuery generate) {
+		return ContextUtils.getOrLoadGraph(context, new GraphKey(binding, generate), () -> {
+			Graph g = GraphFactory.createJenaDefaultGraph();
+			loadGraph(binding, context, generate, g);
+			return g;
+		});
 	}
 
 	private String evalSourceURI(Binding binding, Context context, Expr sourceExpr) {
@@ -183,4 +182,34 @@ public class DatasetDeclarationPlan {
 		Context newContext = ContextUtils.fork(context).setGenerateOutput(dest).fork();
 		queryExecutor.execGenerateFromQuery(generate, binding, newContext);
 	}
+
+	/**
+	 * Key for a loaded graph: the source is compared by value, the scope by
+	 * identity.
+	 */
+	private static final class GraphKey {
+
+		private final Object source;
+		private final Object scope;
+
+		GraphKey(Object source, Object scope) {
+			this.source = source;
+			this.scope = scope;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof GraphKey)) {
+				return false;
+			}
+			GraphKey other = (GraphKey) obj;
+			return scope == other.scope && Objects.equals(source, other.source);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(scope) + Objects.hashCode(source);
+		}
+
+	}
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprList;
+import org.apache.jena.sparql.function.FunctionEnv;
+import org.apache.jena.sparql.function.FunctionEnvBase;
+import org.apache.jena.sparql.util.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes the {@code FILTER} clauses of the WHERE clause that only mention
+ * variables bound by the binding clauses. They are evaluated right after the
+ * clause that binds their last variable, so that the bindings they reject are
+ * not carried through the next clauses.
+ *
+ * @author Maxime Lefrançois
+ */
+public class FilterPlan implements BindingsClausePlan {
+
+    /**
+     * The logger.
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(FilterPlan.class);
+
+    /**
+     * The filter expressions.
+     */
+    private final ExprList exprs;
+
+    /**
+     * The plan of a set of filters.
+     *
+     * @param exprs The filter expressions. Must not be null.
+     */
+    public FilterPlan(final ExprList exprs) {
+        Objects.requireNonNull(exprs, "Expressions must not be null");
+        this.exprs = exprs;
+    }
+
+    /**
+     * Filters the values block.
+     *
+     * @param values the values.
+     * @param context the execution context.
+     * @return the bindings that satisfy all the filter expressions.
+     */
+    public List<Binding> exec(
+            final List<Binding> values,
+            final Context context) {
+        final FunctionEnv env = new FunctionEnvBase(context);
+        final List<Binding> newValues = new ArrayList<>(values.size());
+        for (Binding binding : values) {
+            if (isSatisfied(binding, env)) {
+                newValues.add(binding);
+            }
+        }
+        LOG.debug(this + " kept " + newValues.size() + " out of " + values.size() + " bindings");
+        return newValues;
+    }
+
+    private boolean isSatisfied(
+            final Binding binding,
+            final FunctionEnv env) {
+        for (Expr expr : exprs) {
+            if (!expr.isSatisfied(binding, env)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "FILTER" + exprs;
+    }
+
+}
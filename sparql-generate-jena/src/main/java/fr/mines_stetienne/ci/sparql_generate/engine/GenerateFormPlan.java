@@ -15,27 +15,40 @@
  */
 package fr.mines_stetienne.ci.sparql_generate.engine;
 
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExtException;
 import fr.mines_stetienne.ci.sparql_generate.utils.LogUtils;
 import fr.mines_stetienne.ci.sparql_generate.graph.Node_List;
 import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.graph.Triple;
 import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.riot.system.StreamRDFWrapper;
 import org.apache.jena.sparql.core.BasicPattern;
-import org.apache.jena.sparql.core.Substitute;
 import org.apache.jena.sparql.core.Var;
 import org.apache.jena.sparql.engine.binding.Binding;
-import org.apache.jena.sparql.modify.TemplateLib;
 import org.apache.jena.sparql.util.Context;
 import org.apache.jena.vocabulary.RDF;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Executes a GENERATE { ... } clause.
+ * <p>
+ * The basic graph pattern is compiled once: constant positions are kept as is,
+ * variables are mapped to an index in the array of values of the current
+ * binding, and blank nodes are mapped to an index in the array of blank nodes
+ * that are allocated for the current binding.
  *
  * @author Maxime Lefrançois
  */
@@ -56,6 +69,21 @@ public class GenerateFormPlan implements GeneratePlan {
      */
     private final List<RootPlan> subQueries;
 
+    /**
+     * The compiled triples of the basic pattern.
+     */
+    private final CompiledTriple[] triples;
+
+    /**
+     * The variables used in the basic pattern.
+     */
+    private final Var[] vars;
+
+    /**
+     * The number of blank nodes in the basic pattern.
+     */
+    private final int nbBlankNodes;
+
     private static final Node FIRST = RDF.first.asNode();
     private static final Node REST = RDF.rest.asNode();
 
@@ -68,6 +96,60 @@ public class GenerateFormPlan implements GeneratePlan {
     public GenerateFormPlan(final BasicPattern basicGraphPattern, List<RootPlan> subQueries) {
         this.bgp = basicGraphPattern;
         this.subQueries = subQueries;
+        final Map<Var, Integer> varIndexes = new LinkedHashMap<>();
+        final Map<Node, Integer> blankNodeIndexes = new HashMap<>();
+        final List<Triple> list = bgp.getList();
+        this.triples = new CompiledTriple[list.size()];
+        for (int i = 0; i < triples.length; i++) {
+            final Triple t = list.get(i);
+            final Slot subject = compile(t.getSubject(), varIndexes, blankNodeIndexes);
+            final Slot predicate = compile(t.getPredicate(), varIndexes, blankNodeIndexes);
+            if (t.getObject() instanceof Node_List) {
+                final Node_List nodeList = (Node_List) t.getObject();
+                final Slot object = compile(nodeList.getExpr().asVar(), varIndexes, blankNodeIndexes);
+                triples[i] = new CompiledTriple(subject, predicate, object, nodeList);
+            } else {
+                final Slot object = compile(t.getObject(), varIndexes, blankNodeIndexes);
+                triples[i] = new CompiledTriple(subject, predicate, object, null);
+            }
+        }
+        this.vars = varIndexes.keySet().toArray(new Var[varIndexes.size()]);
+        this.nbBlankNodes = blankNodeIndexes.size();
+    }
+
+    /**
+     * @return true if the GENERATE clause has sub-queries.
+     */
+    public boolean hasSubQueries() {
+        return !subQueries.isEmpty();
+    }
+
+    /**
+     * @return true if the GENERATE clause has lists, whose elements are taken
+     * from all the bindings of a batch.
+     */
+    public boolean hasLists() {
+        for (CompiledTriple t : triples) {
+            if (t.list != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Slot compile(
+            final Node n,
+            final Map<Var, Integer> varIndexes,
+            final Map<Node, Integer> blankNodeIndexes) {
+        if (n.isBlank() || Var.isBlankNodeVar(n)) {
+            final Integer index = blankNodeIndexes.computeIfAbsent(n, (k) -> blankNodeIndexes.size());
+            return new Slot(Slot.BLANK, index, null);
+        }
+        if (n.isVariable()) {
+            final Integer index = varIndexes.computeIfAbsent(Var.alloc(n), (k) -> varIndexes.size());
+            return new Slot(Slot.VARIABLE, index, null);
+        }
+        return new Slot(Slot.CONSTANT, -1, n);
     }
 
     @Override
@@ -82,15 +164,24 @@ public class GenerateFormPlan implements GeneratePlan {
                 .setSize(size)
                 .fork();
 
+        final Node[] varValues = new Node[vars.length];
+        final Node[] blankNodes = new Node[nbBlankNodes];
         for (int i = 0; i < size; i++) {
-            final Map<Node, Node> bNodeMap = new HashMap<>();
             final Binding binding = values.get(i);
-            for (Triple t : bgp.getList()) {
-                if (t.getObject() instanceof Node_List) {
-                    substAndOutputForList(t.getSubject(), t.getPredicate(), (Node_List) t.getObject(), sb, binding, outputStream, newContext, i, bNodeMap);
-                } else {
-                    Triple t2 = TemplateLib.subst(t, binding, bNodeMap);
-                    outputIfConcrete(sb, outputStream, t2);
+            for (int v = 0; v < vars.length; v++) {
+                varValues[v] = binding.get(vars[v]);
+            }
+            Arrays.fill(blankNodes, null);
+            for (CompiledTriple t : triples) {
+                if (t.list != null) {
+                    substAndOutputForList(t, sb, varValues, blankNodes, outputStream, newContext, i);
+                    continue;
+                }
+                final Node s = t.subject.resolve(varValues, blankNodes);
+                final Node p = t.predicate.resolve(varValues, blankNodes);
+                final Node o = t.object.resolve(varValues, blankNodes);
+                if (s != null && p != null && o != null) {
+                    output(sb, outputStream, new Triple(s, p, o));
                 }
             }
 
@@ -99,64 +190,177 @@ public class GenerateFormPlan implements GeneratePlan {
             LOG.trace(sb.toString());
         }
 
-        for (int i = 0; i < subQueries.size(); i++) {
-            RootPlan subPlan = subQueries.get(i);
-            subPlan.execGenerateStream(values, newContext);
+        if (subQueries.size() > 1 && ContextUtils.isParallelSubQueries(context)) {
+            execSubQueriesConcurrently(values, newContext, outputStream);
+        } else {
+            for (int i = 0; i < subQueries.size(); i++) {
+                RootPlan subPlan = subQueries.get(i);
+                subPlan.execGenerateStream(values, newContext);
+            }
+        }
+    }
+
+    /**
+     * Executes the sub queries on the sub-query executor of the context. If
+     * ordered, the output of each sub query is buffered, then emitted in the
+     * order of the sub queries. Else, it is emitted directly through a
+     * synchronized stream.
+     * <p>
+     * The calling thread runs the sub queries that did not start yet, so that
+     * nested sub queries cannot exhaust the executor.
+     */
+    private void execSubQueriesConcurrently(
+            final List<Binding> values,
+            final Context context,
+            final StreamRDF outputStream) {
+        final boolean ordered = ContextUtils.isOrderedSubQueries(context);
+        final ExecutorService executor = ContextUtils.getSubQueryExecutor(context);
+        final StreamRDF synchronizedOutput = new SynchronizedStreamRDF(outputStream);
+        final List<FutureTask<List<Triple>>> tasks = new ArrayList<>(subQueries.size());
+        for (RootPlan subPlan : subQueries) {
+            final List<Triple> buffer = ordered ? new ArrayList<>() : null;
+            final StreamRDF output = ordered ? new StreamRDFBase() {
+                @Override
+                public void triple(Triple triple) {
+                    buffer.add(triple);
+                }
+            } : synchronizedOutput;
+            final Context subContext = ContextUtils.fork(context).setGenerateOutput(output).fork();
+            final FutureTask<List<Triple>> task = new FutureTask<>(() -> {
+                subPlan.execGenerateStream(values, subContext);
+                return buffer;
+            });
+            tasks.add(task);
+            executor.execute(task);
+        }
+        for (FutureTask<List<Triple>> task : tasks) {
+            task.run();
+            try {
+                final List<Triple> buffer = task.get();
+                if (buffer != null) {
+                    buffer.forEach(outputStream::triple);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SPARQLExtException(ex);
+            } catch (ExecutionException ex) {
+                throw new SPARQLExtException("Error while executing a sub query", ex.getCause());
+            }
         }
     }
 
-    private synchronized void outputIfConcrete(
+    private synchronized void output(
             final StringBuilder sb,
             final StreamRDF outputStream,
             final Triple t) {
-        if (t.isConcrete()) {
-            if (LOG.isTraceEnabled()) {
-                Triple t2 = LogUtils.compress(t);
-                sb.append("\n  ").append(t2);
-            }
-            outputStream.triple(t);
+        if (LOG.isTraceEnabled()) {
+            Triple t2 = LogUtils.compress(t);
+            sb.append("\n  ").append(t2);
         }
+        outputStream.triple(t);
     }
 
     private void substAndOutputForList(
-            final Node subject,
-            final Node predicate,
-            final Node_List list,
+            final CompiledTriple t,
             final StringBuilder sb,
-            final Binding binding,
+            final Node[] varValues,
+            final Node[] blankNodes,
             final StreamRDF outputStream,
             final Context context,
-            final int position,
-            final Map<Node, Node> bNodeMap) {
+            final int position) {
 
-        final Node first = ContextUtils.getNode(context, list, 0);
-        final Node current = ContextUtils.getNode(context, list, position);
-        final Node next = ContextUtils.getNode(context, list, position + 1);
-        final Node var = list.getExpr().asVar();
+        final Node first = ContextUtils.getNode(context, t.list, 0);
+        final Node current = ContextUtils.getNode(context, t.list, position);
+        final Node next = ContextUtils.getNode(context, t.list, position + 1);
         // potentially substitute subject and predicate
-        Node s2 = subst(subject, bNodeMap);
-        Node p2 = subst(predicate, bNodeMap);
-        Triple t = new Triple(s2, p2, first);
-        Triple t2 = Substitute.substitute(t, binding);
-        outputIfConcrete(sb, outputStream, t2);
+        final Node s = t.subject.resolve(varValues, blankNodes);
+        final Node p = t.predicate.resolve(varValues, blankNodes);
+        if (s != null && p != null) {
+            output(sb, outputStream, new Triple(s, p, first));
+        }
         // potentially substitute var
-        Node var2 = subst(var, bNodeMap);
-        Node var2sub = Substitute.substitute(var2, binding);
-        Triple tfirst = new Triple(current, FIRST, var2sub);
-        outputIfConcrete(sb, outputStream, tfirst);
+        final Node o = t.object.resolve(varValues, blankNodes);
+        if (o != null) {
+            output(sb, outputStream, new Triple(current, FIRST, o));
+        }
         // nothing to substitute here
-        Triple tRest = new Triple(current, REST, next);
-        outputIfConcrete(sb, outputStream, tRest);
+        output(sb, outputStream, new Triple(current, REST, next));
     }
 
-    private Node subst(Node n, Map<Node, Node> bNodeMap) {
-        if (n.isBlank() || Var.isBlankNodeVar(n)) {
-            if (!bNodeMap.containsKey(n)) {
-                bNodeMap.put(n, NodeFactory.createBlankNode());
+    /**
+     * Emits the triples of concurrent sub queries one at a time.
+     */
+    private static final class SynchronizedStreamRDF extends StreamRDFWrapper {
+
+        SynchronizedStreamRDF(final StreamRDF other) {
+            super(other);
+        }
+
+        @Override
+        public void triple(final Triple triple) {
+            synchronized (other) {
+                other.triple(triple);
+            }
+        }
+    }
+
+    /**
+     * A position in a triple of the basic pattern.
+     */
+    private static final class Slot {
+
+        static final int CONSTANT = 0;
+        static final int VARIABLE = 1;
+        static final int BLANK = 2;
+
+        final int kind;
+        final int index;
+        final Node node;
+
+        Slot(final int kind, final int index, final Node node) {
+            this.kind = kind;
+            this.index = index;
+            this.node = node;
+        }
+
+        /**
+         * @return the node at this position for the current binding, or null
+         * if the variable is unbound.
+         */
+        Node resolve(final Node[] varValues, final Node[] blankNodes) {
+            switch (kind) {
+                case VARIABLE:
+                    return varValues[index];
+                case BLANK:
+                    Node n = blankNodes[index];
+                    if (n == null) {
+                        n = NodeFactory.createBlankNode();
+                        blankNodes[index] = n;
+                    }
+                    return n;
+                default:
+                    return node;
             }
-            return bNodeMap.get(n);
         }
-        return n;
+    }
+
+    /**
+     * A triple of the basic pattern. If list is not null, the object is the
+     * variable of the list.
+     */
+    private static final class CompiledTriple {
+
+        final Slot subject;
+        final Slot predicate;
+        final Slot object;
+        final Node_List list;
+
+        CompiledTriple(final Slot subject, final Slot predicate, final Slot object, final Node_List list) {
+            this.subject = subject;
+            this.predicate = predicate;
+            this.object = object;
+            this.list = list;
+        }
     }
 
 }
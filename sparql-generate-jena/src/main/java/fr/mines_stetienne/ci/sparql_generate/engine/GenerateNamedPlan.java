@@ -15,11 +15,16 @@
  */
 package fr.mines_stetienne.ci.sparql_generate.engine;
 
+import static fr.mines_stetienne.ci.sparql_generate.SPARQLExt.NS;
+
 import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
 import fr.mines_stetienne.ci.sparql_generate.utils.EvalUtils;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import org.apache.jena.graph.Node;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,10 +35,24 @@ import org.apache.jena.sparql.expr.Expr;
 import org.apache.jena.sparql.expr.ExprList;
 import org.apache.jena.sparql.function.FunctionEnv;
 import org.apache.jena.sparql.function.FunctionEnvBase;
+import org.apache.jena.sparql.SystemARQ;
 import org.apache.jena.sparql.util.Context;
+import org.apache.jena.sparql.util.Symbol;
 
 /**
  * Executes a named sub-query in the GENERATE clause.
+ * <p>
+ * If a sub-query batch size is set, the calls are accumulated across the
+ * batches of an execution, and executed together when the batch size or the
+ * delay is reached, and at the end of the execution. The delay is counted from
+ * the first accumulated call, and checked when a batch arrives, so the calls
+ * are always executed by the thread that executes the query, and never
+ * concurrently with it: the output does not need to be thread-safe. The plan of each
+ * called query is resolved once per execution.
+ * <p>
+ * The calls are accumulated per execution of the query, not across the
+ * executions of a parent query, as they are executed in the context of the
+ * execution that made them, with its dataset.
  *
  * @author Maxime Lefrançois
  */
@@ -44,6 +63,11 @@ public class GenerateNamedPlan implements GeneratePlan {
      */
     private static final Logger LOG = LoggerFactory.getLogger(GenerateNamedPlan.class);
 
+    /**
+     * The calls accumulated by the current execution.
+     */
+    private static final Symbol PENDING_CALLS = SystemARQ.allocSymbol(NS, "pending_calls");
+
     private final Expr name;
 
     private final ExprList callParameters;
@@ -65,11 +89,126 @@ public class GenerateNamedPlan implements GeneratePlan {
         final QueryExecutor queryExecutor = ContextUtils.getQueryExecutor(context);
         final FunctionEnv env = new FunctionEnvBase(context);
         final Map<String, List<Binding>> splitValues = EvalUtils.splitBindingsForQuery(name, values, env);
-        for (String queryName : splitValues.keySet()) {
-            final List<Binding> queryValues = splitValues.get(queryName);
-            final List<List<Node>> queryCall = EvalUtils.eval(callParameters, queryValues, env);
-            queryExecutor.execGenerateFromName(queryName, queryCall, context);
+        final PendingCalls pending = context.get(PENDING_CALLS);
+        if (pending == null || pending.plan != this) {
+            for (String queryName : splitValues.keySet()) {
+                final List<Binding> queryValues = splitValues.get(queryName);
+                final List<List<Node>> queryCall = EvalUtils.eval(callParameters, queryValues, env);
+                queryExecutor.execGenerateFromName(queryName, queryCall, context);
+            }
+            return;
+        }
+        synchronized (pending) {
+            for (String queryName : splitValues.keySet()) {
+                final List<Binding> queryValues = splitValues.get(queryName);
+                final List<List<Node>> queryCall = EvalUtils.eval(callParameters, queryValues, env);
+                if (pending.size == 0) {
+                    pending.since = System.nanoTime();
+                }
+                final Calls calls = pending.calls.computeIfAbsent(queryName,
+                        (n) -> new Calls(queryExecutor.getPlanFromName(n, context)));
+                calls.values.addAll(queryExecutor.getCallValues(queryName, calls.plan, queryCall));
+                pending.size += queryCall.size();
+            }
+            if (pending.size == 0) {
+                return;
+            }
+            final long delay = TimeUnit.MILLISECONDS.toNanos(ContextUtils.getSubQueryBatchDelay(context));
+            if (pending.size >= ContextUtils.getSubQueryBatchSize(context)
+                    || System.nanoTime() - pending.since >= delay) {
+                flush(pending, context);
+            }
+        }
+    }
+
+    /**
+     * Prepares an execution of the query this plan belongs to. If a sub-query
+     * batch size is set, returns a fork of the context where the calls are
+     * accumulated. Calls are not accumulated if the execution is checkpointed,
+     * as a checkpointed batch must have been fully processed.
+     *
+     * @param context the execution context
+     * @return the context to execute the query with
+     */
+    public Context prepareCalls(
+            final Context context) {
+        if (ContextUtils.getSubQueryBatchSize(context) <= 1
+                || ContextUtils.getCheckpoint(context) != null) {
+            return context;
         }
+        final Context newContext = ContextUtils.fork(context).fork();
+        newContext.set(PENDING_CALLS, new PendingCalls(this));
+        return newContext;
+    }
+
+    /**
+     * Executes the calls accumulated so far. Must be called at the end of the
+     * execution, with the context returned by {@link #prepareCalls(Context)}.
+     *
+     * @param context the execution context
+     */
+    public void flushCalls(
+            final Context context) {
+        final PendingCalls pending = context.get(PENDING_CALLS);
+        if (pending == null || pending.plan != this) {
+            return;
+        }
+        synchronized (pending) {
+            flush(pending, context);
+        }
+    }
+
+    private void flush(
+            final PendingCalls pending,
+            final Context context) {
+        if (pending.size == 0) {
+            return;
+        }
+        LOG.debug("Executing " + pending.size + " accumulated calls");
+        final QueryExecutor queryExecutor = ContextUtils.getQueryExecutor(context);
+        for (Calls calls : pending.calls.values()) {
+            if (calls.values.isEmpty()) {
+                continue;
+            }
+            final List<Binding> callValues = calls.values;
+            calls.values = new ArrayList<>();
+            queryExecutor.execGeneratePlan(calls.plan, callValues, context);
+        }
+        pending.size = 0;
+    }
+
+    /**
+     * The calls accumulated by an execution, per query name.
+     */
+    private static class PendingCalls {
+
+        private final GenerateNamedPlan plan;
+        private final Map<String, Calls> calls = new LinkedHashMap<>();
+        private int size = 0;
+
+        /**
+         * When the first of the accumulated calls was made, in nanoseconds.
+         */
+        private long since;
+
+        private PendingCalls(final GenerateNamedPlan plan) {
+            this.plan = plan;
+        }
+
+    }
+
+    /**
+     * The accumulated calls to one query, and its plan.
+     */
+    private static class Calls {
+
+        private final RootPlan plan;
+        private List<Binding> values = new ArrayList<>();
+
+        private Calls(final RootPlan plan) {
+            this.plan = plan;
+        }
+
     }
 
 }
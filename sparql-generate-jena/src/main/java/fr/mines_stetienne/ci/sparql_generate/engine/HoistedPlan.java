@@ -0,0 +1,319 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.util.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+
+/**
+ * Wraps a binding clause whose expressions do not depend on the bindings it is
+ * evaluated on, such as {@code ITERATOR iter:CSV(<lookup.csv>) AS ?code ?label}.
+ * <p>
+ * The clause is evaluated once per execution and dataset, its results are
+ * recorded, and they are replayed and joined with the bindings of every
+ * subsequent evaluation. The join is a cross product, or a hash join if the clause binds
+ * variables that are already bound.
+ * <p>
+ * If the results exceed {@link #MAX_ROWS} rows, they are dropped and the clause
+ * is evaluated normally.
+ *
+ * @author Maxime Lefrançois
+ */
+public class HoistedPlan implements BindingsClausePlan {
+
+	private static final Logger LOG = LoggerFactory.getLogger(HoistedPlan.class);
+
+	/**
+	 * The maximal number of rows recorded for a clause.
+	 */
+	public static final int MAX_ROWS = 100_000;
+
+	/**
+	 * The hoisted plan.
+	 */
+	private final BindingsClausePlan plan;
+
+	/**
+	 * The variables bound by the hoisted plan.
+	 */
+	private final List<Var> vars;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param plan
+	 *            an {@link IteratorPlan} or a {@link BindOrSourcePlan}.
+	 */
+	public HoistedPlan(final BindingsClausePlan plan) {
+		this.plan = plan;
+		if (plan instanceof IteratorPlan) {
+			this.vars = ((IteratorPlan) plan).getVars();
+		} else {
+			this.vars = Collections.singletonList(((BindOrSourcePlan) plan).getVar());
+		}
+	}
+
+	public BindingsClausePlan getPlan() {
+		return plan;
+	}
+
+	public List<Var> getVars() {
+		return vars;
+	}
+
+	/**
+	 * Evaluates the clause, or replays its results.
+	 *
+	 * @param variables
+	 *            the current variables.
+	 * @param values
+	 *            the existing bindings.
+	 * @param context
+	 *            the execution context.
+	 * @param listBindingStream
+	 *            where new bindings are emited.
+	 */
+	public void exec(final List<Var> variables, final List<Binding> values, final Context context,
+			final Consumer<List<Binding>> listBindingStream) {
+		if (values.isEmpty()) {
+			execPlan(variables, values, context, listBindingStream);
+			return;
+		}
+		final Results results = ContextUtils.getExecutionState(context, new StateKey(this, context),
+				(k) -> new Results());
+		if (results.isReplayable()) {
+			LOG.debug("Replaying the results of " + plan);
+			for (Node[][] columns : results.batches) {
+				listBindingStream.accept(join(variables, values, columns));
+			}
+			return;
+		}
+		if (!results.start()) {
+			// results are being recorded by another evaluation, or were dropped
+			execPlan(variables, values, context, listBindingStream);
+			return;
+		}
+		execPlan(variables, Collections.singletonList(values.get(0)), context, (bindings) -> {
+			final Node[][] columns = toColumns(bindings);
+			results.record(columns);
+			listBindingStream.accept(join(variables, values, columns));
+		});
+		results.complete();
+	}
+
+	/**
+	 * Drops the results recorded for the dataset of the context. This is
+	 * called at the end of a sub-execution that has its own dataset, as no
+	 * other evaluation can replay them.
+	 *
+	 * @param context
+	 *            the execution context.
+	 */
+	public void release(final Context context) {
+		ContextUtils.removeExecutionState(context, new StateKey(this, context));
+	}
+
+	private void execPlan(final List<Var> variables, final List<Binding> values, final Context context,
+			final Consumer<List<Binding>> listBindingStream) {
+		if (plan instanceof IteratorPlan) {
+			((IteratorPlan) plan).exec(variables, values, context, listBindingStream);
+		} else {
+			listBindingStream.accept(((BindOrSourcePlan) plan).exec(values, context));
+		}
+	}
+
+	private Node[][] toColumns(final List<Binding> bindings) {
+		final Node[][] columns = new Node[vars.size()][bindings.size()];
+		for (int r = 0; r < bindings.size(); r++) {
+			final Binding binding = bindings.get(r);
+			for (int i = 0; i < vars.size(); i++) {
+				columns[i][r] = binding.get(vars.get(i));
+			}
+		}
+		return columns;
+	}
+
+	private List<Binding> join(final List<Var> variables, final List<Binding> values, final Node[][] columns) {
+		final int size = columns.length == 0 ? 0 : columns[0].length;
+		final List<Integer> shared = new ArrayList<>();
+		for (int i = 0; i < vars.size(); i++) {
+			if (variables.contains(vars.get(i))) {
+				shared.add(i);
+			}
+		}
+		if (shared.isEmpty()) {
+			final List<BindingBatch> batches = new ArrayList<>(values.size());
+			for (Binding binding : values) {
+				batches.add(new BindingBatch(binding, vars, columns));
+			}
+			return BindingBatch.concat(vars, batches);
+		}
+		final List<Binding> joined = new ArrayList<>(values.size() * size);
+		// rows are indexed by the values of the shared variables. Rows where a
+		// shared variable is unbound are compatible with every binding.
+		final Map<List<Node>, List<Integer>> index = new HashMap<>();
+		final List<Integer> partialRows = new ArrayList<>();
+		final List<Integer> allRows = new ArrayList<>(size);
+		for (int r = 0; r < size; r++) {
+			allRows.add(r);
+			final List<Node> key = new ArrayList<>(shared.size());
+			for (int i : shared) {
+				key.add(columns[i][r]);
+			}
+			if (key.contains(null)) {
+				partialRows.add(r);
+			} else {
+				index.computeIfAbsent(key, (k) -> new ArrayList<>()).add(r);
+			}
+		}
+		for (Binding binding : values) {
+			final List<Node> key = new ArrayList<>(shared.size());
+			for (int i : shared) {
+				key.add(binding.get(vars.get(i)));
+			}
+			if (key.contains(null)) {
+				addCompatibleRows(binding, columns, allRows, joined);
+			} else {
+				addCompatibleRows(binding, columns, index.getOrDefault(key, Collections.emptyList()), joined);
+				addCompatibleRows(binding, columns, partialRows, joined);
+			}
+		}
+		return joined;
+	}
+
+	private void addCompatibleRows(final Binding binding, final Node[][] columns, final List<Integer> rows,
+			final List<Binding> joined) {
+		for (int r : rows) {
+			final BindingMap row = BindingFactory.create(binding);
+			boolean compatible = true;
+			for (int i = 0; i < vars.size() && compatible; i++) {
+				final Node node = columns[i][r];
+				if (node == null) {
+					continue;
+				}
+				final Node bound = binding.get(vars.get(i));
+				if (bound == null) {
+					row.add(vars.get(i), node);
+				} else {
+					compatible = bound.equals(node);
+				}
+			}
+			if (compatible) {
+				joined.add(row);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "HOISTED " + plan;
+	}
+
+	/**
+	 * Identifies the results of a plan for a dataset. Both are compared by
+	 * identity.
+	 */
+	private static final class StateKey {
+
+		private final HoistedPlan plan;
+
+		private final Dataset dataset;
+
+		StateKey(final HoistedPlan plan, final Context context) {
+			this.plan = plan;
+			this.dataset = ContextUtils.getDataset(context);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(plan) + System.identityHashCode(dataset);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof StateKey)) {
+				return false;
+			}
+			final StateKey other = (StateKey) obj;
+			return plan == other.plan && dataset == other.dataset;
+		}
+
+	}
+
+	/**
+	 * The results recorded during an execution.
+	 */
+	private static final class Results {
+
+		private final AtomicBoolean started = new AtomicBoolean();
+
+		private final List<Node[][]> batches = new ArrayList<>();
+
+		private int rows = 0;
+
+		private boolean overflow = false;
+
+		private volatile boolean complete = false;
+
+		/**
+		 * @return true if the caller must record the results.
+		 */
+		boolean start() {
+			return started.compareAndSet(false, true);
+		}
+
+		synchronized void record(final Node[][] columns) {
+			if (overflow) {
+				return;
+			}
+			rows += columns.length == 0 ? 0 : columns[0].length;
+			if (rows > MAX_ROWS) {
+				LOG.debug("More than " + MAX_ROWS + " rows, the results will not be replayed");
+				overflow = true;
+				batches.clear();
+				return;
+			}
+			batches.add(columns);
+		}
+
+		void complete() {
+			complete = true;
+		}
+
+		boolean isReplayable() {
+			return complete && !overflow;
+		}
+
+	}
+
+}
@@ -17,21 +17,27 @@ package fr.mines_stetienne.ci.sparql_generate.engine;
 
 import fr.mines_stetienne.ci.sparql_generate.utils.LogUtils;
 import fr.mines_stetienne.ci.sparql_generate.SPARQLExtException;
+import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorEmitter;
 import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorFunction;
 import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorFunctionFactory;
 import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorFunctionRegistry;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.Consumer;
 import org.apache.jena.graph.Node;
 import org.apache.jena.sparql.ARQConstants;
 import org.apache.jena.sparql.core.Var;
 import org.apache.jena.sparql.engine.binding.Binding;
-import org.apache.jena.sparql.engine.binding.BindingFactory;
-import org.apache.jena.sparql.engine.binding.BindingMap;
 import org.apache.jena.sparql.expr.ExprEvalException;
 import org.apache.jena.sparql.expr.ExprList;
 import org.apache.jena.sparql.expr.NodeValue;
@@ -56,9 +62,10 @@ public class IteratorPlan implements BindingsClausePlan {
     private final String iri;
 
     /**
-     * The SPARQL-Generate iterator.
+     * The SPARQL-Generate iterator. It is built once, and shared by the
+     * concurrent executions of this plan.
      */
-    private IteratorFunction iterator;
+    private volatile IteratorFunction iterator;
 
     /**
      * The list of expressions on which to evaluate the iterator.
@@ -71,6 +78,12 @@ public class IteratorPlan implements BindingsClausePlan {
      */
     private final List<Var> vars;
 
+    /**
+     * The positions of the variables that are used elsewhere in the query, or
+     * null if they all are.
+     */
+    private final BitSet usedOutputs;
+
     /**
      * The constructor.
      *
@@ -84,23 +97,53 @@ public class IteratorPlan implements BindingsClausePlan {
             final String iri,
             final ExprList e,
             final List<Var> vars) {
+        this(iri, e, vars, null);
+    }
+
+    /**
+     * The constructor.
+     *
+     * @param iri - The SPARQL-Generate iterator iri.
+     * @param e - The list of expressions on which to evaluate the iterator
+     * function.
+     * @param vars - The list of variables that will be bound to each result of
+     * the iterator function evaluation.
+     * @param usedOutputs - The positions of the variables that are used
+     * elsewhere in the query, or null if they all are.
+     */
+    public IteratorPlan(
+            final String iri,
+            final ExprList e,
+            final List<Var> vars,
+            final BitSet usedOutputs) {
         this.iri = iri;
         this.exprList = e;
         this.vars = vars;
+        this.usedOutputs = usedOutputs;
     }
 
     public IteratorFunction getIterator(Context context) {
-        if (iterator != null) {
-            return iterator;
+        IteratorFunction result = iterator;
+        if (result != null) {
+            return result;
         }
-        final IteratorFunctionRegistry sr = IteratorFunctionRegistry.get(context);
-        IteratorFunctionFactory factory = sr.get(iri);
-        if (factory == null) {
-            throw new SPARQLExtException("Unknown Iterator Function: " + iri);
+        synchronized (this) {
+            if (iterator != null) {
+                return iterator;
+            }
+            final IteratorFunctionRegistry sr = IteratorFunctionRegistry.get(context);
+            IteratorFunctionFactory factory = sr.get(iri);
+            if (factory == null) {
+                throw new SPARQLExtException("Unknown Iterator Function: " + iri);
+            }
+            result = factory.create(iri);
+            result.build(exprList);
+            if (usedOutputs != null) {
+                result.setUsedOutputs(usedOutputs);
+            }
+            iterator = result;
+            return result;
         }
-        iterator = factory.create(iri);
-        iterator.build(exprList);
-        return iterator;
     }
 
     public List<Var> getVars() {
@@ -124,105 +167,149 @@ public class IteratorPlan implements BindingsClausePlan {
         final IteratorFunction iterator = getIterator(context);
         final FunctionEnv env = new FunctionEnvBase(context);
         final IteratorPlan.Batches batches = new IteratorPlan.Batches(values, listBindingStream);
-        for (Binding binding : values) {
+        // values emitted asynchronously are processed on this thread
+        final IteratorEmitter emitter = new IteratorEmitter();
+        final List<CompletableFuture<Void>> executions = new ArrayList<>();
+        for (int i = 0; i < values.size(); i++) {
+            final int execution = i;
+            final Binding binding = values.get(i);
             try {
-            	iterator.exec(binding, exprList, env, (nodeValues) -> batches.add(binding, nodeValues));
+                executions.add(iterator.execAsync(binding, exprList, env,
+                        emitter.stream((nodeValues) -> batches.add(execution, binding, nodeValues))));
             } catch (ExprEvalException ex) {
                 LOG.debug("No evaluation for " + this + ", caused by " + ex.getMessage());
             } catch (Exception ex) {
                 LOG.warn("Unanticipated exception for " + toString(), ex);
             }
         }
+        awaitExecutions(emitter, executions);
         LOG.trace("some batches are incomplete ?");
         batches.allExecutionComplete();
     }
+
+    /**
+     * Waits for the asynchronous executions of the iterator, and processes the
+     * values they emit. If the thread is interrupted, or processing the values
+     * fails, they are cancelled.
+     */
+    private void awaitExecutions(
+            final IteratorEmitter emitter,
+            final List<CompletableFuture<Void>> executions) {
+        boolean completed = false;
+        try {
+            emitter.await(CompletableFuture.allOf(executions.toArray(new CompletableFuture<?>[executions.size()])));
+            completed = true;
+        } catch (InterruptedException ex) {
+            LOG.debug("Interrupted " + this);
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            if (!completed) {
+                executions.forEach((e) -> e.cancel(false));
+            }
+        }
+        for (CompletableFuture<Void> execution : executions) {
+            try {
+                execution.get();
+            } catch (InterruptedException ex) {
+                LOG.debug("Interrupted " + this);
+                executions.forEach((e) -> e.cancel(false));
+                Thread.currentThread().interrupt();
+                return;
+            } catch (CancellationException ex) {
+                LOG.debug("Cancelled " + this);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof ExprEvalException) {
+                    LOG.debug("No evaluation for " + this + ", caused by " + ex.getCause().getMessage());
+                } else {
+                    LOG.warn("Unanticipated exception for " + toString(), ex.getCause());
+                }
+            }
+        }
+    }
+    /**
+     * Aligns the batches emitted by the executions of the iterator: the k-th
+     * batch emitted by every execution are merged in the k-th batch, which is
+     * emitted as soon as all the executions contributed to it, or when all the
+     * executions are complete.
+     * <p>
+     * Executions are identified by their index, and each batch counts the
+     * executions it still waits for, so adding a batch is O(1).
+     */
     protected class Batches {
 
         final Consumer<List<Binding>> listBindingStream;
-        final List<Binding> uncompleteExecutions = Collections.synchronizedList(new ArrayList<>());
-        final List<Batch> uncompleteBatches = Collections.synchronizedList(new ArrayList<>());
-        final Map<Binding, Batch> lastBatch = Collections.synchronizedMap(new HashMap<>());
+        final int executions;
+        /**
+         * The number of batches emitted by each execution.
+         */
+        final AtomicIntegerArray emitted;
+        /**
+         * The incomplete batches, by number.
+         */
+        final Map<Integer, Batch> uncompleteBatches = new ConcurrentHashMap<>();
 
         Batches(final List<Binding> executions,
                 final Consumer<List<Binding>> listBindingStream) {
-            uncompleteExecutions.addAll(executions);
+            this.executions = executions.size();
+            this.emitted = new AtomicIntegerArray(executions.size());
             this.listBindingStream = listBindingStream;
         }
 
         void add(
+                final int execution,
                 final Binding binding,
                 final List<List<NodeValue>> nodeValues) {
-            final List<Binding> bindings = getListBinding(binding, nodeValues);
-            final Batch batch = getNextBatch(binding);
-            lastBatch.put(binding, batch);
-            if (batch.addAndCheckIfEmpty(binding, bindings)) {
+            final BindingBatch bindings = getListBinding(binding, nodeValues);
+            final int number = emitted.getAndIncrement(execution);
+            final Batch batch = uncompleteBatches.computeIfAbsent(number, (n) -> new Batch(n, executions));
+            if (batch.addAndCheckIfComplete(execution, bindings)) {
+                uncompleteBatches.remove(number);
                 batchComplete(batch);
             }
         }
 
-        List<Binding> getListBinding(
+        BindingBatch getListBinding(
                 final Binding binding,
                 final List<List<NodeValue>> nodeValues) {
-            final List<Binding> listBindings = new ArrayList<>();
-            nodeValues.forEach((listNodeValues) -> {
-                if (vars.size() > listNodeValues.size()) {
+            final int size = vars.size();
+            final List<List<NodeValue>> rows = new ArrayList<>(nodeValues.size());
+            for (List<NodeValue> listNodeValues : nodeValues) {
+                if (size > listNodeValues.size()) {
                     LOG.warn("Too many variables, some will not be bound: " + listNodeValues);
-                    return;
-                }
-                final BindingMap b = BindingFactory.create(binding);
-                for (int i = 0; i < vars.size(); i++) {
-                    if (listNodeValues.get(i) != null) {
-                        Node n = listNodeValues.get(i).asNode();
-                        b.add(vars.get(i), n);
-                    }
-                }
-                listBindings.add(b);
-            });
-            return listBindings;
-        }
-
-        synchronized Batch getNextBatch(final Binding execution) {
-            Batch last = lastBatch.get(execution);
-            if (last == null) {
-                if (uncompleteBatches.isEmpty()) {
-                    final Batch batch = new Batch(uncompleteExecutions);
-                    uncompleteBatches.add(batch);
-                    return batch;
                 } else {
-                    return uncompleteBatches.get(0);
+                    rows.add(listNodeValues);
                 }
-            } else {
-                int index = uncompleteBatches.indexOf(last);
-                if (index == uncompleteBatches.size() - 1) {
-                    final Batch batch = new Batch(uncompleteExecutions);
-                    uncompleteBatches.add(batch);
-                    return batch;
-                } else {
-                    return uncompleteBatches.get(index + 1);
+            }
+            final Node[][] columns = new Node[size][rows.size()];
+            for (int r = 0; r < rows.size(); r++) {
+                final List<NodeValue> listNodeValues = rows.get(r);
+                for (int i = 0; i < size; i++) {
+                    final NodeValue nodeValue = listNodeValues.get(i);
+                    if (nodeValue != null) {
+                        columns[i][r] = nodeValue.asNode();
+                    }
                 }
             }
+            return new BindingBatch(binding, vars, columns);
         }
 
         void allExecutionComplete() {
             if (!uncompleteBatches.isEmpty()) {
                 LOG.info("Forcing completion of remaining batches");
             }
-            for (Batch batch : uncompleteBatches) {
-                batch.expectedExecutions.clear();
-                LOG.trace("A batch is complete " + batch);
-                listBindingStream.accept(batch.bindings);
+            final List<Integer> numbers = new ArrayList<>(uncompleteBatches.keySet());
+            Collections.sort(numbers);
+            for (int number : numbers) {
+                batchComplete(uncompleteBatches.remove(number));
             }
-            uncompleteExecutions.clear();
-            uncompleteBatches.clear();
-            lastBatch.clear();
         }
 
         private void batchComplete(final Batch batch) {
-            uncompleteBatches.remove(batch);
             if (LOG.isTraceEnabled()) {
                 LOG.trace("A batch is complete " + batch);
             }
-            listBindingStream.accept(batch.bindings);
+            listBindingStream.accept(batch.getBindings());
         }
 
         @Override
@@ -234,33 +321,52 @@ public class IteratorPlan implements BindingsClausePlan {
 
     private class Batch {
 
-        final List<Binding> expectedExecutions = new ArrayList<>();
-        final List<Binding> bindings = new ArrayList<>();
+        final int number;
+        /**
+         * The bindings of each execution.
+         */
+        final AtomicReferenceArray<BindingBatch> parts;
+        final AtomicInteger expectedExecutions;
+
+        Batch(final int number, final int executions) {
+            this.number = number;
+            this.parts = new AtomicReferenceArray<>(executions);
+            this.expectedExecutions = new AtomicInteger(executions);
+        }
 
-        Batch(final List<Binding> uncompleteExecutions) {
-            expectedExecutions.addAll(uncompleteExecutions);
+        boolean addAndCheckIfComplete(
+                final int execution,
+                final BindingBatch bindings) {
+            parts.set(execution, bindings);
+            return expectedExecutions.decrementAndGet() == 0;
         }
 
-        synchronized boolean addAndCheckIfEmpty(
-                final Binding iterator,
-                final List<Binding> bindings) {
-            expectedExecutions.remove(iterator);
-            this.bindings.addAll(bindings);
-            return expectedExecutions.isEmpty();
+        /**
+         * @return the bindings, in the order of the executions.
+         */
+        BindingBatch getBindings() {
+            final List<BindingBatch> batches = new ArrayList<>(parts.length());
+            for (int i = 0; i < parts.length(); i++) {
+                final BindingBatch part = parts.get(i);
+                if (part != null) {
+                    batches.add(part);
+                }
+            }
+            return BindingBatch.concat(vars, batches);
         }
 
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder("Batch ");
-            sb.append(System.identityHashCode(this));
-            if (expectedExecutions.isEmpty()) {
+            sb.append(number);
+            if (expectedExecutions.get() == 0) {
                 sb.append(" complete with ");
             } else {
                 sb.append(" still waiting for ");
-                sb.append(expectedExecutions.size());
+                sb.append(expectedExecutions.get());
                 sb.append(" and has ");
             }
-            sb.append(LogUtils.log(bindings));
+            sb.append(LogUtils.log(getBindings()));
             return sb.toString();
         }
 
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.jena.query.QueryException;
+import org.apache.jena.query.QueryFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.lang.ParserSPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.query.SPARQLExtQuery;
+
+/**
+ * Stores the normalized form of queries in a directory, so that the next runs
+ * parse the normalized form directly instead of normalizing the query again.
+ * Files are named after the SHA-256 hash of the serialized query, so a changed
+ * query gets a new entry.
+ * <p>
+ * A normalized form is only stored if parsing it back gives the same query,
+ * without embedded expressions.
+ *
+ * @author Maxime Lefrançois
+ */
+final class NormalizedQueryCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NormalizedQueryCache.class);
+
+    /**
+     * Changes when the normalizers change, so that old entries are not read.
+     */
+    private static final String VERSION = "1";
+
+    private static volatile File directory = null;
+
+    private NormalizedQueryCache() {
+    }
+
+    static void setDirectory(final File dir) {
+        directory = dir;
+    }
+
+    static boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * Reads the normalized form of a query.
+     *
+     * @param query the query, with embedded expressions
+     * @param queryString the serialized query
+     * @return the normalized query, or null if it is not in the cache
+     */
+    static SPARQLExtQuery get(
+            final SPARQLExtQuery query,
+            final String queryString) {
+        final File dir = directory;
+        if (dir == null) {
+            return null;
+        }
+        final Path path = getPath(dir, query, queryString);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try {
+            final String normalized = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+            final SPARQLExtQuery query2 = parse(query, normalized);
+            if (query2.hasEmbeddedExpressions()) {
+                return null;
+            }
+            LOG.debug("Read the normalized query from " + path);
+            return query2;
+        } catch (IOException | QueryException ex) {
+            LOG.debug("Could not read the normalized query from " + path, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the normalized form of a query.
+     *
+     * @param query the query, with embedded expressions
+     * @param queryString the serialized query
+     * @param normalized the normalized query
+     */
+    static void put(
+            final SPARQLExtQuery query,
+            final String queryString,
+            final SPARQLExtQuery normalized) {
+        final File dir = directory;
+        if (dir == null) {
+            return;
+        }
+        final String normalizedString = normalized.toString();
+        try {
+            final SPARQLExtQuery query2 = parse(query, normalizedString);
+            if (query2.hasEmbeddedExpressions() || !query2.equals(normalized)) {
+                LOG.debug("The normalized query cannot be parsed back, it is not cached");
+                return;
+            }
+        } catch (QueryException ex) {
+            LOG.debug("The normalized query cannot be parsed back, it is not cached", ex);
+            return;
+        }
+        final Path path = getPath(dir, query, queryString);
+        try {
+            Files.createDirectories(dir.toPath());
+            final Path tmp = Files.createTempFile(dir.toPath(), "query", ".tmp");
+            Files.write(tmp, normalizedString.getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            LOG.debug("Wrote the normalized query to " + path);
+        } catch (IOException ex) {
+            LOG.warn("Could not write the normalized query to " + path, ex);
+        }
+    }
+
+    private static SPARQLExtQuery parse(
+            final SPARQLExtQuery query,
+            final String queryString) {
+        if (query.isSubQuery()) {
+            return (SPARQLExtQuery) ParserSPARQLExt.parseSubQuery(query, queryString);
+        } else {
+            return (SPARQLExtQuery) QueryFactory.create(queryString, SPARQLExt.SYNTAX);
+        }
+    }
+
+    private static Path getPath(
+            final File dir,
+            final SPARQLExtQuery query,
+            final String queryString) {
+        final StringBuilder key = new StringBuilder(VERSION).append('\n')
+                .append(query.isSubQuery() ? "sub" : "root").append('\n')
+                .append(query.getBaseURI()).append('\n')
+                .append(queryString);
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest(key.toString().getBytes(StandardCharsets.UTF_8));
+            final StringBuilder name = new StringBuilder();
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return new File(dir, name.append(".rqg").toString()).toPath();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+}
@@ -15,9 +15,18 @@
  */
 package fr.mines_stetienne.ci.sparql_generate.engine;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
 
 import org.apache.jena.graph.Node;
@@ -25,11 +34,17 @@ import org.apache.jena.query.QueryFactory;
 import org.apache.jena.query.QueryParseException;
 import org.apache.jena.sparql.core.BasicPattern;
 import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.expr.E_BNode;
 import org.apache.jena.sparql.expr.E_Function;
+import org.apache.jena.sparql.expr.E_Now;
+import org.apache.jena.sparql.expr.E_Random;
 import org.apache.jena.sparql.expr.E_Str;
+import org.apache.jena.sparql.expr.E_StrUUID;
+import org.apache.jena.sparql.expr.E_UUID;
 import org.apache.jena.sparql.expr.Expr;
 import org.apache.jena.sparql.expr.ExprAggregator;
 import org.apache.jena.sparql.expr.ExprFunction;
+import org.apache.jena.sparql.expr.ExprFunctionOp;
 import org.apache.jena.sparql.expr.ExprList;
 import org.apache.jena.sparql.expr.aggregate.AggGroupConcat;
 import org.apache.jena.sparql.expr.aggregate.AggGroupConcatDistinct;
@@ -37,12 +52,17 @@ import org.apache.jena.sparql.expr.aggregate.Aggregator;
 import org.apache.jena.sparql.expr.nodevalue.NodeValueString;
 import org.apache.jena.sparql.syntax.Element;
 import org.apache.jena.sparql.syntax.ElementBind;
+import org.apache.jena.sparql.syntax.ElementFilter;
+import org.apache.jena.sparql.syntax.ElementGroup;
+import org.apache.jena.sparql.syntax.PatternVars;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
 import fr.mines_stetienne.ci.sparql_generate.SPARQLExtException;
-import fr.mines_stetienne.ci.sparql_generate.lang.ParserSPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.iterator.library.ITER_Split;
+import fr.mines_stetienne.ci.sparql_generate.iterator.library.ITER_for;
+import fr.mines_stetienne.ci.sparql_generate.iterator.library.ITER_regex;
 import fr.mines_stetienne.ci.sparql_generate.normalizer.xexpr.TemplateUtils;
 import fr.mines_stetienne.ci.sparql_generate.query.SPARQLExtQuery;
 import fr.mines_stetienne.ci.sparql_generate.syntax.ElementBox;
@@ -78,10 +98,38 @@ public class PlanFactory {
      */
     private static final Logger LOG = LoggerFactory.getLogger(PlanFactory.class);
 
+    /**
+     * The iterators whose results only depend on their arguments.
+     */
+    private static final Set<String> PURE_ITERATORS = new HashSet<>(Arrays.asList(
+            ITER_Split.URI, ITER_regex.URI, ITER_for.URI));
+
+    /**
+     * The iterators that parse the document given as first argument. Their
+     * results only depend on their arguments if the document is a literal, an
+     * IRI, or a variable bound once per execution, such as the variable of a
+     * hoisted SOURCE clause. A hoisted clause is evaluated once per execution,
+     * so a document given by its IRI is looked up once per execution, as for
+     * hoisted SOURCE clauses.
+     */
+    private static final Set<String> PARSING_ITERATORS = new HashSet<>(Arrays.asList(
+            SPARQLExt.ITER + "CSV", SPARQLExt.ITER + "CSVHeaders", SPARQLExt.ITER + "JSONPath",
+            SPARQLExt.ITER + "JSONListKeys", SPARQLExt.ITER + "JSONSurfer"));
+
     private PlanFactory() {
 
     }
 
+    /**
+     * Sets the directory where the normalized form of queries is stored, so
+     * that the queries do not need to be normalized again in the next runs.
+     *
+     * @param directory the directory, or null to disable the cache
+     */
+    public static void setCacheDirectory(final File directory) {
+        NormalizedQueryCache.setDirectory(directory);
+    }
+
     /**
      * A factory that creates a {@link RootPlan} from a query.
      * <p>
@@ -150,17 +198,22 @@ public class PlanFactory {
         Objects.requireNonNull(query, "The query must not be null");
         if (query.hasEmbeddedExpressions()) {
             LOG.debug("Query has embedded expressions:\n" + query);
-            String qs = query.toString();
-            SPARQLExtQuery query2;
-            if (query.isSubQuery()) {
-                query2 = (SPARQLExtQuery) ParserSPARQLExt.parseSubQuery(query, qs);
-                query2.normalizeXExpr();
-                query2.normalizeAggregates();
-            } else {
-                query2 = (SPARQLExtQuery) QueryFactory.create(qs, SPARQLExt.SYNTAX);
-                query2.normalizeXExpr();
+            // the serialized query is only needed as the key of the cache
+            final String qs = NormalizedQueryCache.isEnabled() ? query.toString() : null;
+            SPARQLExtQuery query2 = qs == null ? null : NormalizedQueryCache.get(query, qs);
+            if (query2 != null) {
+                return make(query2);
+            }
+            // the normalizers modify the query, the original query is kept
+            // unchanged as it may be the key of cached plans
+            query2 = query.copy();
+            query2.normalizeXExpr();
+            if (!query.isSubQuery()) {
                 query2.normalizeBNode();
-                query2.normalizeAggregates();
+            }
+            query2.normalizeAggregates();
+            if (qs != null) {
+                NormalizedQueryCache.put(query, qs, query2);
             }
             return make(query2);
         }
@@ -170,11 +223,27 @@ public class PlanFactory {
 
         List<BindingsClausePlan> iteratorAndSourcePlans = new ArrayList<>();
         if (query.hasBindingClauses()) {
+            // variables bound by invariant BIND and SOURCE clauses have the
+            // same value in every binding
+            final Set<Var> constantVars = new HashSet<>();
+            // sub-queries and clauses after an ITERATOR are evaluated repeatedly
+            boolean repeated = query.isSubQuery();
+            // the mentions of the variables are used to find the variables of
+            // the ITERATOR clauses that are used elsewhere
+            Map<Var, Integer> mentions = null;
             for (Element el : query.getBindingClauses()) {
                 BindingsClausePlan iteratorOrSourcePlan;
                 if (el instanceof ElementIterator) {
                     ElementIterator elementIterator = (ElementIterator) el;
-                    iteratorOrSourcePlan = makeIteratorPlan(elementIterator);
+                    if (mentions == null) {
+                        mentions = QueryVariables.collect(query);
+                        if (mentions == null) {
+                            mentions = Collections.emptyMap();
+                        }
+                    }
+                    final BitSet usedOutputs = mentions.isEmpty() ? null
+                            : getUsedOutputs(query, mentions, elementIterator);
+                    iteratorOrSourcePlan = makeIteratorPlan(elementIterator, usedOutputs);
                 } else if (el instanceof ElementSource) {
                     ElementSource elementSource = (ElementSource) el;
                     iteratorOrSourcePlan = makeSourcePlan(elementSource);
@@ -185,6 +254,17 @@ public class PlanFactory {
                     throw new UnsupportedOperationException("should not reach"
                             + " this point");
                 }
+                final boolean invariant = isInvariant(el, constantVars);
+                if (invariant && iteratorOrSourcePlan instanceof BindOrSourcePlan) {
+                    constantVars.add(((BindOrSourcePlan) iteratorOrSourcePlan).getVar());
+                }
+                if (invariant && repeated) {
+                    LOG.debug("Hoisting invariant clause " + iteratorOrSourcePlan);
+                    iteratorOrSourcePlan = new HoistedPlan(iteratorOrSourcePlan);
+                }
+                if (el instanceof ElementIterator) {
+                    repeated = true;
+                }
                 iteratorAndSourcePlans.add(iteratorOrSourcePlan);
             }
         }
@@ -193,7 +273,20 @@ public class PlanFactory {
         * TEMPLATE queries are translated into a SELECT with project 
         * variable ?out.
          */
-        final SelectPlan selectPlan = makeSelectPlan(query);
+        final ElementGroup pattern = pushFilters(query, iteratorAndSourcePlans);
+        final SelectPlan selectPlan;
+        if (pattern == null) {
+            selectPlan = makeSelectPlan(query);
+        } else {
+            // the SELECT query is made without the pushed filters
+            final Element queryPattern = query.getQueryPattern();
+            query.setQueryPattern(pattern);
+            try {
+                selectPlan = makeSelectPlan(query);
+            } finally {
+                query.setQueryPattern(queryPattern);
+            }
+        }
 
         if (query.isTemplateType()) {
 	        final TemplatePlan templatePlan = makeTemplatePlan(query);
@@ -215,14 +308,252 @@ public class PlanFactory {
         return new RootPlan(query, datasetDeclarationPlan, iteratorAndSourcePlans, selectPlan);
     }
 
+    /**
+     * Checks if a binding clause only uses constants and variables bound to
+     * constants, so that it evaluates the same for every binding. ITERATOR
+     * clauses must also call an iterator that has no side effect and does not
+     * depend on the time or on the dataset.
+     *
+     * @param el the binding clause.
+     * @param constantVars the variables that are bound to constants.
+     * @return true if the clause is loop-invariant.
+     */
+    private static boolean isInvariant(
+            final Element el,
+            final Set<Var> constantVars) {
+        if (el instanceof ElementIterator) {
+            final Expr expr = ((ElementIterator) el).getExpr();
+            return isPure(expr) && isDeterministic(expr) && constantVars.containsAll(expr.getVarsMentioned());
+        } else if (el instanceof ElementBind) {
+            final Expr expr = ((ElementBind) el).getExpr();
+            return isDeterministic(expr) && constantVars.containsAll(expr.getVarsMentioned());
+        } else if (el instanceof ElementSource) {
+            final ElementSource elementSource = (ElementSource) el;
+            final Node source = elementSource.getSource();
+            final Node accept = elementSource.getAccept();
+            return (!source.isVariable() || constantVars.contains(source))
+                    && (accept == null || !accept.isVariable() || constantVars.contains(accept));
+        }
+        return false;
+    }
+
+    private static boolean isPure(final Expr expr) {
+        if (!expr.isFunction()) {
+            return false;
+        }
+        final ExprFunction function = expr.getFunction();
+        final String iri = function.getFunctionIRI();
+        if (PURE_ITERATORS.contains(iri)) {
+            return true;
+        }
+        if (PARSING_ITERATORS.contains(iri)) {
+            final List<Expr> args = function.getArgs();
+            if (args.isEmpty()) {
+                return false;
+            }
+            final Expr document = args.get(0);
+            // variables must be constant, which the caller checks
+            return document.isVariable() || document.isConstant()
+                    && (document.getConstant().isLiteral() || document.getConstant().isIRI());
+        }
+        return false;
+    }
+
+    /**
+     * Checks that an iterator only reads its arguments, so that the calls of
+     * a query that uses it can be memoized. Unlike for hoisting, a document
+     * given by its IRI is not accepted, as it may change between calls.
+     *
+     * @param expr the iterator function call.
+     * @return true if the iterator is pure, or parses a literal document or
+     * the document bound to a variable.
+     */
+    static boolean isMemoizable(final Expr expr) {
+        if (!isPure(expr)) {
+            return false;
+        }
+        final ExprFunction function = expr.getFunction();
+        if (PARSING_ITERATORS.contains(function.getFunctionIRI())) {
+            final Expr document = function.getArgs().get(0);
+            return !document.isConstant() || !document.getConstant().isIRI();
+        }
+        return true;
+    }
+
+    /**
+     * Finds the positions of the variables of an ITERATOR clause that are
+     * mentioned elsewhere in the query, including its sub-queries and the
+     * templates passed to st:call-template. Each variable is mentioned once in
+     * the {@code AS} part of the clause.
+     *
+     * @param query the query.
+     * @param mentions the number of mentions of each variable of the query.
+     * @param elementIterator the ITERATOR clause.
+     * @return the positions of the used variables, or null if they all are.
+     */
+    private static BitSet getUsedOutputs(
+            final SPARQLExtQuery query,
+            final Map<Var, Integer> mentions,
+            final ElementIterator elementIterator) {
+        if (query.isSelectType() && query.isQueryResultStar()) {
+            return null;
+        }
+        final List<Var> vars = elementIterator.getVars();
+        final BitSet usedOutputs = new BitSet(vars.size());
+        for (int i = 0; i < vars.size(); i++) {
+            if (mentions.getOrDefault(vars.get(i), 0) > 1) {
+                usedOutputs.set(i);
+            } else {
+                LOG.debug("Variable " + vars.get(i) + " of " + elementIterator.getExpr() + " is not used");
+            }
+        }
+        if (usedOutputs.cardinality() == vars.size()) {
+            return null;
+        }
+        return usedOutputs;
+    }
+
+    /**
+     * Moves the FILTER clauses at the top of the WHERE clause that only
+     * mention variables bound by the binding clauses to a {@link FilterPlan}
+     * right after the clause that binds their last variable, so that the
+     * rejected bindings are not carried through the next clauses.
+     * <p>
+     * For queries other than GENERATE, a filter is not moved before an
+     * ITERATOR clause, as an empty batch would not be emitted at all.
+     *
+     * @param query the query.
+     * @param plans the plans of the binding clauses, to which the filter plans
+     * are added.
+     * @return the WHERE clause without the moved filters, or null if no filter
+     * was moved.
+     */
+    private static ElementGroup pushFilters(
+            final SPARQLExtQuery query,
+            final List<BindingsClausePlan> plans) {
+        if (!query.hasBindingClauses() || !(query.getQueryPattern() instanceof ElementGroup)) {
+            return null;
+        }
+        final ElementGroup group = (ElementGroup) query.getQueryPattern();
+        final List<Element> clauses = query.getBindingClauses();
+        // the position of the clause that binds each variable, -1 for the
+        // parameters of the query
+        final Map<Var, Integer> positions = new HashMap<>();
+        if (query.hasSignature()) {
+            query.getSignature().forEach((var) -> positions.put(var, -1));
+        }
+        for (int i = 0; i < clauses.size(); i++) {
+            for (Var var : getBoundVars(clauses.get(i))) {
+                positions.put(var, i);
+            }
+        }
+        final Set<Var> patternVars = new HashSet<>();
+        for (Element el : group.getElements()) {
+            if (!(el instanceof ElementFilter)) {
+                patternVars.addAll(PatternVars.vars(el));
+            }
+        }
+        final Map<Integer, ExprList> pushed = new TreeMap<>(Collections.reverseOrder());
+        final ElementGroup remaining = new ElementGroup();
+        for (Element el : group.getElements()) {
+            if (el instanceof ElementFilter) {
+                final Expr expr = ((ElementFilter) el).getExpr();
+                final Integer position = getFilterPosition(query, expr, positions, patternVars);
+                if (position != null) {
+                    pushed.computeIfAbsent(position, (p) -> new ExprList()).add(expr);
+                    continue;
+                }
+            }
+            remaining.addElement(el);
+        }
+        if (pushed.isEmpty()) {
+            return null;
+        }
+        // from the last position to the first, so that positions remain valid
+        pushed.forEach((position, exprs) -> {
+            final FilterPlan filterPlan = new FilterPlan(exprs);
+            LOG.debug("Pushing " + filterPlan + " after binding clause " + position);
+            plans.add(position + 1, filterPlan);
+        });
+        return remaining;
+    }
+
+    /**
+     * Finds the position of the binding clause after which a filter can be
+     * evaluated.
+     *
+     * @return the position, -1 if the filter only mentions parameters of the
+     * query, or null if it cannot be moved.
+     */
+    private static Integer getFilterPosition(
+            final SPARQLExtQuery query,
+            final Expr expr,
+            final Map<Var, Integer> positions,
+            final Set<Var> patternVars) {
+        final Set<Var> vars = expr.getVarsMentioned();
+        if (vars.isEmpty() || !isDeterministic(expr)) {
+            return null;
+        }
+        int position = -1;
+        for (Var var : vars) {
+            if (!positions.containsKey(var) || patternVars.contains(var)) {
+                return null;
+            }
+            position = Math.max(position, positions.get(var));
+        }
+        if (!query.isGenerateType()) {
+            final List<Element> clauses = query.getBindingClauses();
+            for (int i = position + 1; i < clauses.size(); i++) {
+                if (clauses.get(i) instanceof ElementIterator) {
+                    return null;
+                }
+            }
+        }
+        return position;
+    }
+
+    private static List<Var> getBoundVars(final Element el) {
+        if (el instanceof ElementIterator) {
+            return ((ElementIterator) el).getVars();
+        } else if (el instanceof ElementBind) {
+            return Collections.singletonList(((ElementBind) el).getVar());
+        } else if (el instanceof ElementSource) {
+            return Collections.singletonList(((ElementSource) el).getVar());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Checks that an expression returns the same value every time it is
+     * evaluated on the same binding.
+     */
+    private static boolean isDeterministic(final Expr expr) {
+        if (expr instanceof E_BNode || expr instanceof E_Random || expr instanceof E_UUID
+                || expr instanceof E_StrUUID || expr instanceof E_Now
+                || expr instanceof ExprFunctionOp) {
+            return false;
+        }
+        if (expr.isFunction()) {
+            for (Expr arg : expr.getFunction().getArgs()) {
+                if (!isDeterministic(arg)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     /**
      * Makes the plan for a SPARQL ITERATOR clause.
      *
      * @param elementIterator the SPARQL ITERATOR
+     * @param usedOutputs the positions of the variables that are used, or null
+     * if they all are.
      * @return -
      */
     static IteratorPlan makeIteratorPlan(
-            final ElementIterator elementIterator)
+            final ElementIterator elementIterator,
+            final BitSet usedOutputs)
             throws SPARQLExtException {
         Objects.requireNonNull(elementIterator, "The Iterator must not be null");
 
@@ -237,7 +568,7 @@ public class PlanFactory {
         ExprFunction function = expr.getFunction();
         String iri = function.getFunctionIRI();
         ExprList exprList = new ExprList(function.getArgs());
-        return new IteratorPlan(iri, exprList, vars);
+        return new IteratorPlan(iri, exprList, vars, usedOutputs);
     }
 
     /**
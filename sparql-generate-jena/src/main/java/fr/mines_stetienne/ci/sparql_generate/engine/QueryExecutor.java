@@ -19,19 +19,32 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.jena.atlas.io.IndentedLineBuffer;
 import org.apache.jena.atlas.web.TypedInputStream;
 import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
 import org.apache.jena.query.QueryFactory;
 import org.apache.jena.query.QueryParseException;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.query.ResultSetFactory;
 import org.apache.jena.query.ResultSetRewindable;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.core.Quad;
 import org.apache.jena.sparql.core.Var;
 import org.apache.jena.sparql.engine.binding.Binding;
 import org.apache.jena.sparql.engine.binding.BindingHashMap;
@@ -63,8 +76,25 @@ public class QueryExecutor {
 
     private final Cache<String, SPARQLExtQuery> loadedQueries = CacheBuilder.newBuilder().expireAfterAccess(1, TimeUnit.MINUTES).maximumSize(200_000).build();
     private final Cache<SPARQLExtQuery, RootPlan> loadedPlans = CacheBuilder.newBuilder().expireAfterAccess(1, TimeUnit.MINUTES).maximumSize(200_000).build();
-    private final Cache<ExecutionKey, String> templateExecutions = CacheBuilder.newBuilder().expireAfterAccess(10, TimeUnit.SECONDS).maximumSize(200_000).recordStats().build();
+    /**
+     * The plans of the queries loaded by name, if plans are pinned.
+     */
+    private final Map<String, RootPlan> pinnedPlans = new ConcurrentHashMap<>();
     private final Cache<ExecutionKey, ResultSetRewindable> selectExecutions = CacheBuilder.newBuilder().expireAfterAccess(10, TimeUnit.SECONDS).maximumSize(200_000).recordStats().build();
+
+    /**
+     * The memoized outputs of TEMPLATE and GENERATE sub-calls. It is sized
+     * once, with the memoization budget of the first context that enables
+     * memoization, and shared by all the contexts that use this executor. The
+     * budget of another context only enables or disables memoization.
+     */
+    private volatile Memo memo;
+
+    /**
+     * Whether the calls of each plan may be memoized, given the queries it
+     * calls.
+     */
+    private final Cache<RootPlan, Boolean> memoizablePlans = CacheBuilder.newBuilder().weakKeys().build();
     static int nbselect = 0, nbtemplate = 0, nbgenerate = 0;
 
     /**
@@ -142,7 +172,60 @@ public class QueryExecutor {
     public RootPlan getPlanFromName(
             final String queryName,
             final Context context) {
-        return getPlan(getQueryFromName(queryName, context));
+        final RootPlan pinnedPlan = pinnedPlans.get(queryName);
+        if (pinnedPlan != null) {
+            return pinnedPlan;
+        }
+        final RootPlan plan = getPlan(getQueryFromName(queryName, context));
+        if (ContextUtils.isPinnedPlans(context)) {
+            pinnedPlans.putIfAbsent(queryName, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Loads and pins the plans of the queries that are called with a constant
+     * IRI, directly or indirectly, by a query. A query that cannot be loaded is
+     * skipped, the error will be raised if it is actually called.
+     *
+     * @param query the root query
+     * @param context the execution context
+     */
+    public void warmUp(
+            final SPARQLExtQuery query,
+            final Context context) {
+        final Set<String> visited = new HashSet<>();
+        final Deque<String> toVisit = new ArrayDeque<>(QueryReferences.collect(query));
+        while (!toVisit.isEmpty()) {
+            final String queryName = toVisit.poll();
+            if (!visited.add(queryName)) {
+                continue;
+            }
+            final SPARQLExtQuery calledQuery;
+            try {
+                calledQuery = getQueryFromName(queryName, context);
+                final RootPlan plan = getPlan(calledQuery);
+                pinnedPlans.putIfAbsent(queryName, plan);
+            } catch (RuntimeException ex) {
+                LOG.warn("Could not load " + queryName + " before the execution: " + ex.getMessage());
+                continue;
+            }
+            toVisit.addAll(QueryReferences.collect(calledQuery));
+        }
+        LOG.info("Warmed up " + visited.size() + " queries, " + getResidentPlans() + " plans resident");
+    }
+
+    /**
+     * Returns the number of plans that are currently resident, i.e., pinned or
+     * cached.
+     *
+     * @return the number of resident plans
+     */
+    public int getResidentPlans() {
+        final Set<RootPlan> plans = Collections.newSetFromMap(new IdentityHashMap<>());
+        plans.addAll(pinnedPlans.values());
+        plans.addAll(loadedPlans.asMap().values());
+        return plans.size();
     }
 
     /**
@@ -207,11 +290,25 @@ public class QueryExecutor {
         Objects.nonNull(callParameters);
         Objects.nonNull(context);
         final RootPlan plan = getPlanFromName(queryName, context);
-        final SPARQLExtQuery query = plan.getQuery();
-        final List<Var> signature = getSignature(query);
-        final List<Binding> newValues = getNewValues(queryName, query, signature, callParameters);
+        final List<Binding> newValues = getCallValues(queryName, plan, callParameters);
         execGeneratePlan(plan, newValues, context);
     }
+
+    /**
+     * Binds the parameters of calls to the signature of a query.
+     *
+     * @param queryName the name of the query, for error messages
+     * @param plan the plan of the query
+     * @param callParameters the parameters of each call
+     * @return one binding per call
+     */
+    public List<Binding> getCallValues(
+            final String queryName,
+            final RootPlan plan,
+            final List<List<Node>> callParameters) {
+        final SPARQLExtQuery query = plan.getQuery();
+        return getNewValues(queryName, query, getSignature(query), callParameters);
+    }
     
     public void execGeneratePlan(
             final RootPlan plan,
@@ -221,7 +318,36 @@ public class QueryExecutor {
         if (++nbgenerate % 2000 == 00) {
             LOG.info(String.format("Called generates %s times.", nbgenerate));
         }
-        plan.execGenerateStream(values, context);
+        final Memo memo = getMemo(context);
+        if (memo == null || !isMemoizable(plan, context)) {
+            plan.execGenerateStream(values, context);
+            return;
+        }
+        final StreamRDF output = ContextUtils.getGenerateOutput(context);
+        final ExecutionKey key = new ExecutionKey(plan, values, ContextUtils.getDataset(context));
+        final List<Object> generated = memo.generateExecutions.getIfPresent(key);
+        if (generated != null) {
+            LOG.trace("Replaying a memoized GENERATE output");
+            for (Object o : generated) {
+                if (o instanceof Triple) {
+                    output.triple((Triple) o);
+                } else {
+                    output.quad((Quad) o);
+                }
+            }
+            return;
+        }
+        final Recorder recorder = new Recorder(output, memo.maxEntryWeight - key.estimateSize());
+        final Context newContext = ContextUtils.fork(context).setGenerateOutput(recorder).fork();
+        plan.execGenerateStream(values, newContext);
+        if (recorder.hasBlankNodes) {
+            // blank nodes are fresh at every call, the output cannot be replayed
+            LOG.trace("Not memoizing a GENERATE output with blank nodes");
+        } else if (recorder.generated == null) {
+            LOG.trace("Not memoizing a GENERATE output larger than the cache");
+        } else {
+            memo.generateExecutions.put(key, recorder.generated);
+        }
     }
     /**
      *
@@ -361,7 +487,225 @@ public class QueryExecutor {
         if (++nbtemplate % 2000 == 00) {
             LOG.info(String.format("Called templates %s times.", nbtemplate));
         }
-        plan.execTemplateStream(newValues, context);
+        final Memo memo = getMemo(context);
+        if (memo == null || !isMemoizable(plan, context)) {
+            plan.execTemplateStream(newValues, context);
+            return;
+        }
+        final ExecutionKey key = new ExecutionKey(plan, newValues, ContextUtils.getDataset(context));
+        String output = memo.templateExecutions.getIfPresent(key);
+        if (output == null) {
+            final IndentedLineBuffer buffer = new IndentedLineBuffer();
+            final Context newContext = ContextUtils.fork(context).setTemplateOutput(buffer).fork();
+            plan.execTemplateStream(newValues, newContext);
+            output = buffer.asString();
+            if (templateSize(key, output) <= memo.maxEntryWeight) {
+                memo.templateExecutions.put(key, output);
+            } else {
+                LOG.trace("Not memoizing a TEMPLATE output larger than the cache");
+            }
+        } else {
+            LOG.trace("Printing a memoized TEMPLATE output");
+        }
+        ContextUtils.getTemplateOutput(context).print(output);
+    }
+
+    private Memo getMemo(final Context context) {
+        final long budget = ContextUtils.getMemoizationBudget(context);
+        if (budget <= 0) {
+            return null;
+        }
+        Memo m = memo;
+        if (m == null) {
+            synchronized (this) {
+                m = memo;
+                if (m == null) {
+                    LOG.debug("Memoizing sub-calls up to " + budget + " bytes");
+                    m = new Memo(budget);
+                    memo = m;
+                }
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Checks that the calls of a plan may be memoized, i.e., that the plan
+     * and the queries it calls, recursively, only depend on their bindings
+     * and dataset.
+     */
+    private boolean isMemoizable(final RootPlan plan, final Context context) {
+        Boolean result = memoizablePlans.getIfPresent(plan);
+        if (result == null) {
+            result = isMemoizable(plan, context, Collections.newSetFromMap(new IdentityHashMap<>()));
+            memoizablePlans.put(plan, result);
+        }
+        return result;
+    }
+
+    /**
+     * A plan met again while it is being checked is not checked twice. A
+     * query that cannot be loaded makes its callers not memoizable.
+     */
+    private boolean isMemoizable(
+            final RootPlan plan,
+            final Context context,
+            final Set<RootPlan> visited) {
+        if (!visited.add(plan)) {
+            return true;
+        }
+        if (!plan.isMemoizable()) {
+            LOG.debug("Not memoizing the calls of " + plan.getQuery().getName());
+            return false;
+        }
+        for (Node callee : plan.getCallees()) {
+            final RootPlan calleePlan;
+            try {
+                if (callee.isURI()) {
+                    calleePlan = getPlanFromName(callee.getURI(), context);
+                } else {
+                    calleePlan = getPlanFromString(callee.getLiteralLexicalForm(), ContextUtils.getBase(context));
+                }
+            } catch (RuntimeException ex) {
+                LOG.debug("Not memoizing calls that call " + callee + ": " + ex.getMessage());
+                return false;
+            }
+            if (calleePlan == null || !isMemoizable(calleePlan, context, visited)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long nodeSize(final Node node) {
+        if (node == null) {
+            return 0;
+        } else if (node.isLiteral()) {
+            return 64 + 2 * node.getLiteralLexicalForm().length();
+        } else if (node.isURI()) {
+            return 48 + 2 * node.getURI().length();
+        } else {
+            return 64;
+        }
+    }
+
+    private static long tripleSize(final Triple t) {
+        return 40 + nodeSize(t.getSubject()) + nodeSize(t.getPredicate()) + nodeSize(t.getObject());
+    }
+
+    private static long quadSize(final Quad q) {
+        return 48 + nodeSize(q.getGraph()) + nodeSize(q.getSubject()) + nodeSize(q.getPredicate()) + nodeSize(q.getObject());
+    }
+
+    private static long templateSize(final ExecutionKey key, final String output) {
+        return key.estimateSize() + 40 + 2L * output.length();
+    }
+
+    private static long generateSize(final ExecutionKey key, final List<Object> generated) {
+        long size = key.estimateSize() + 40;
+        for (Object o : generated) {
+            size += o instanceof Triple ? tripleSize((Triple) o) : quadSize((Quad) o);
+        }
+        return size;
+    }
+
+    private static int toWeight(final long size) {
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    /**
+     * The memoized outputs of sub-calls. Half of the budget goes to each
+     * cache, and entries are evicted by estimated heap size.
+     */
+    private static class Memo {
+
+        /**
+         * The caches are split in segments that each hold an equal part of
+         * the weight.
+         */
+        private static final int CONCURRENCY_LEVEL = 4;
+
+        /**
+         * The weight of the largest entry a segment of a cache can hold.
+         */
+        private final long maxEntryWeight;
+
+        private final Cache<ExecutionKey, String> templateExecutions;
+        private final Cache<ExecutionKey, List<Object>> generateExecutions;
+
+        private Memo(final long budget) {
+            this.maxEntryWeight = budget / 2 / CONCURRENCY_LEVEL;
+            templateExecutions = CacheBuilder.newBuilder()
+                    .concurrencyLevel(CONCURRENCY_LEVEL)
+                    .maximumWeight(budget / 2)
+                    .weigher((ExecutionKey key, String output) -> toWeight(templateSize(key, output)))
+                    .recordStats()
+                    .build();
+            generateExecutions = CacheBuilder.newBuilder()
+                    .concurrencyLevel(CONCURRENCY_LEVEL)
+                    .maximumWeight(budget / 2)
+                    .weigher((ExecutionKey key, List<Object> generated) -> toWeight(generateSize(key, generated)))
+                    .recordStats()
+                    .build();
+        }
+
+    }
+
+    /**
+     * Passes the triples and quads generated by a sub-call to the output, and
+     * records them so that they can be replayed. Recording stops once the
+     * recorded triples and quads exceed the given size.
+     */
+    private static class Recorder extends StreamRDFBase {
+
+        private final StreamRDF output;
+        private final long maxSize;
+        private long size = 0;
+        private List<Object> generated = new ArrayList<>();
+        private boolean hasBlankNodes = false;
+
+        private Recorder(final StreamRDF output, final long maxSize) {
+            this.output = output;
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public void triple(final Triple triple) {
+            output.triple(triple);
+            hasBlankNodes |= triple.getSubject().isBlank() || triple.getObject().isBlank();
+            if (generated != null) {
+                record(triple, tripleSize(triple));
+            }
+        }
+
+        @Override
+        public void quad(final Quad quad) {
+            output.quad(quad);
+            hasBlankNodes |= quad.getGraph().isBlank() || quad.getSubject().isBlank() || quad.getObject().isBlank();
+            if (generated != null) {
+                record(quad, quadSize(quad));
+            }
+        }
+
+        private void record(final Object o, final long objectSize) {
+            size += objectSize;
+            if (hasBlankNodes || size > maxSize) {
+                generated = null;
+            } else {
+                generated.add(o);
+            }
+        }
+
+        @Override
+        public void base(final String base) {
+            output.base(base);
+        }
+
+        @Override
+        public void prefix(final String prefix, final String iri) {
+            output.prefix(prefix, iri);
+        }
+
     }
 
     private List<Var> getSignature(SPARQLExtQuery query) {
@@ -390,14 +734,34 @@ public class QueryExecutor {
         return bindings;
     }
 
-    private class ExecutionKey {
+    private static class ExecutionKey {
 
         RootPlan plan;
         List<Binding> binding;
+        /**
+         * The dataset the call is executed against, compared by identity.
+         */
+        Object scope;
 
         public ExecutionKey(RootPlan plan, List<Binding> binding) {
+            this(plan, binding, null);
+        }
+
+        public ExecutionKey(RootPlan plan, List<Binding> binding, Object scope) {
             this.plan = plan;
             this.binding = binding;
+            this.scope = scope;
+        }
+
+        long estimateSize() {
+            long size = 48;
+            for (Binding b : binding) {
+                size += 48;
+                for (Iterator<Var> it = b.vars(); it.hasNext();) {
+                    size += nodeSize(b.get(it.next()));
+                }
+            }
+            return size;
         }
 
         @Override
@@ -406,7 +770,7 @@ public class QueryExecutor {
                 return false;
             }
             ExecutionKey other = (ExecutionKey) obj;
-            if (plan != other.plan) {
+            if (plan != other.plan || scope != other.scope) {
                 return false;
             }
             boolean eq = binding.equals(other.binding);
@@ -415,7 +779,7 @@ public class QueryExecutor {
 
         @Override
         public int hashCode() {
-            return 3 * Objects.hashCode(this.plan) + 17 * Objects.hashCode(binding);
+            return 3 * Objects.hashCode(this.plan) + 17 * Objects.hashCode(binding) + 31 * System.identityHashCode(scope);
         }
 
     }
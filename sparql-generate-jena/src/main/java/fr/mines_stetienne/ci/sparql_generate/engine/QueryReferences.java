@@ -0,0 +1,201 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.engine;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.jena.query.SortCondition;
+import org.apache.jena.sparql.expr.E_Function;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprFunction;
+import org.apache.jena.sparql.expr.ExprFunctionOp;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.syntax.Element;
+import org.apache.jena.sparql.syntax.ElementAssign;
+import org.apache.jena.sparql.syntax.ElementBind;
+import org.apache.jena.sparql.syntax.ElementFilter;
+import org.apache.jena.sparql.syntax.ElementGroup;
+import org.apache.jena.sparql.syntax.ElementMinus;
+import org.apache.jena.sparql.syntax.ElementNamedGraph;
+import org.apache.jena.sparql.syntax.ElementOptional;
+import org.apache.jena.sparql.syntax.ElementSubQuery;
+import org.apache.jena.sparql.syntax.ElementUnion;
+
+import fr.mines_stetienne.ci.sparql_generate.function.library.FUN_Select_Call_Template;
+import fr.mines_stetienne.ci.sparql_generate.query.SPARQLExtQuery;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementBox;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementExpr;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementFormat;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementIterator;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementSubExtQuery;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementTGroup;
+import fr.mines_stetienne.ci.sparql_generate.syntax.FromClause;
+import fr.mines_stetienne.ci.sparql_generate.utils.ST;
+
+/**
+ * Collects the names of the queries a query calls with a constant IRI, i.e.,
+ * in {@code GENERATE <name>(...)}, {@code st:call-template(<name>, ...)} and
+ * {@code fun:select-call-template(..., <name>, ...)}. Queries called with a
+ * computed name are not found.
+ *
+ * @author Maxime Lefrançois
+ */
+final class QueryReferences {
+
+    private final Set<String> names = new LinkedHashSet<>();
+
+    private QueryReferences() {
+    }
+
+    /**
+     * Collects the names of the queries a query calls with a constant IRI.
+     *
+     * @param query the query
+     * @return the names, in the order they appear
+     */
+    static Set<String> collect(final SPARQLExtQuery query) {
+        final QueryReferences references = new QueryReferences();
+        references.visit(query);
+        return references.names;
+    }
+
+    private void visit(final SPARQLExtQuery query) {
+        if (query.isSubQuery() && query.hasName()) {
+            visitName(query.getName());
+        }
+        if (query.hasCallParameters()) {
+            query.getCallParameters().forEach(this::visit);
+        }
+        if (query.getFromClauses() != null) {
+            for (FromClause fromClause : query.getFromClauses()) {
+                if (fromClause.getGenerate() != null) {
+                    visit(fromClause.getGenerate());
+                }
+                visit(fromClause.getName());
+            }
+        }
+        if (query.hasBindingClauses()) {
+            visit(query.getBindingClauses());
+        }
+        if (query.hasGenerateClause()) {
+            visit(query.getGenerateClause());
+        }
+        if (query.hasTemplateClause()) {
+            visit(query.getTemplateClause());
+        }
+        visit(query.getTemplateClauseBefore());
+        visit(query.getTemplateClauseSeparator());
+        visit(query.getTemplateClauseAfter());
+        if (query.hasFunctionExpression()) {
+            visit(query.getFunctionExpression());
+        }
+        visit(query.getQueryPattern());
+        query.getProject().getExprs().values().forEach(this::visit);
+        if (query.hasPostSelect()) {
+            query.getPostSelect().getExprs().values().forEach(this::visit);
+        }
+        if (query.hasGroupBy()) {
+            query.getGroupBy().getExprs().values().forEach(this::visit);
+        }
+        if (query.hasHaving()) {
+            query.getHavingExprs().forEach(this::visit);
+        }
+        if (query.hasOrderBy()) {
+            for (SortCondition condition : query.getOrderBy()) {
+                visit(condition.getExpression());
+            }
+        }
+    }
+
+    private void visit(final List<Element> elements) {
+        for (Element element : elements) {
+            visit(element);
+        }
+    }
+
+    private void visit(final Element element) {
+        if (element == null) {
+            return;
+        }
+        if (element instanceof ElementSubExtQuery) {
+            visit(((ElementSubExtQuery) element).getQuery());
+        } else if (element instanceof ElementSubQuery) {
+            final ElementSubQuery subQuery = (ElementSubQuery) element;
+            if (subQuery.getQuery() instanceof SPARQLExtQuery) {
+                visit((SPARQLExtQuery) subQuery.getQuery());
+            }
+        } else if (element instanceof ElementExpr) {
+            visit(((ElementExpr) element).getExpr());
+        } else if (element instanceof ElementBox) {
+            visit(((ElementBox) element).getTExpressions());
+        } else if (element instanceof ElementFormat) {
+            visit(((ElementFormat) element).getExpr());
+            visit(((ElementFormat) element).getTExpressions());
+        } else if (element instanceof ElementTGroup) {
+            visit(((ElementTGroup) element).getTExpressions());
+        } else if (element instanceof ElementIterator) {
+            visit(((ElementIterator) element).getExpr());
+        } else if (element instanceof ElementBind) {
+            visit(((ElementBind) element).getExpr());
+        } else if (element instanceof ElementAssign) {
+            visit(((ElementAssign) element).getExpr());
+        } else if (element instanceof ElementFilter) {
+            visit(((ElementFilter) element).getExpr());
+        } else if (element instanceof ElementGroup) {
+            visit(((ElementGroup) element).getElements());
+        } else if (element instanceof ElementUnion) {
+            visit(((ElementUnion) element).getElements());
+        } else if (element instanceof ElementOptional) {
+            visit(((ElementOptional) element).getOptionalElement());
+        } else if (element instanceof ElementMinus) {
+            visit(((ElementMinus) element).getMinusElement());
+        } else if (element instanceof ElementNamedGraph) {
+            visit(((ElementNamedGraph) element).getElement());
+        }
+    }
+
+    private void visit(final Expr expr) {
+        if (expr == null) {
+            return;
+        }
+        if (expr instanceof ExprFunctionOp) {
+            visit(((ExprFunctionOp) expr).getElement());
+            return;
+        }
+        if (!(expr instanceof ExprFunction)) {
+            return;
+        }
+        final ExprFunction function = (ExprFunction) expr;
+        if (function instanceof E_Function) {
+            final String iri = ((E_Function) function).getFunctionIRI();
+            if (ST.callTemplate.equals(iri) && function.numArgs() > 0) {
+                visitName(function.getArg(1));
+            } else if (FUN_Select_Call_Template.URI.equals(iri) && function.numArgs() > 1) {
+                visitName(function.getArg(2));
+            }
+        }
+        function.getArgs().forEach(this::visit);
+    }
+
+    private void visitName(final Expr name) {
+        if (name instanceof NodeValue && ((NodeValue) name).isIRI()) {
+            names.add(((NodeValue) name).asNode().getURI());
+        }
+    }
+
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.engine;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.SortCondition;
+import org.apache.jena.sparql.core.TriplePath;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.core.VarExprList;
+import org.apache.jena.sparql.expr.E_BNode;
+import org.apache.jena.sparql.expr.E_Function;
+import org.apache.jena.sparql.expr.E_Now;
+import org.apache.jena.sparql.expr.E_Random;
+import org.apache.jena.sparql.expr.E_StrUUID;
+import org.apache.jena.sparql.expr.E_UUID;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprAggregator;
+import org.apache.jena.sparql.expr.ExprFunction;
+import org.apache.jena.sparql.expr.ExprFunctionOp;
+import org.apache.jena.sparql.expr.ExprList;
+import org.apache.jena.sparql.expr.ExprVar;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.syntax.Element;
+import org.apache.jena.sparql.syntax.ElementAssign;
+import org.apache.jena.sparql.syntax.ElementBind;
+import org.apache.jena.sparql.syntax.ElementData;
+import org.apache.jena.sparql.syntax.ElementExists;
+import org.apache.jena.sparql.syntax.ElementFilter;
+import org.apache.jena.sparql.syntax.ElementGroup;
+import org.apache.jena.sparql.syntax.ElementMinus;
+import org.apache.jena.sparql.syntax.ElementNamedGraph;
+import org.apache.jena.sparql.syntax.ElementNotExists;
+import org.apache.jena.sparql.syntax.ElementOptional;
+import org.apache.jena.sparql.syntax.ElementPathBlock;
+import org.apache.jena.sparql.syntax.ElementService;
+import org.apache.jena.sparql.syntax.ElementSubQuery;
+import org.apache.jena.sparql.syntax.ElementTriplesBlock;
+import org.apache.jena.sparql.syntax.ElementUnion;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.function.library.FUN_Log;
+import fr.mines_stetienne.ci.sparql_generate.function.library.FUN_Select_Call_Template;
+import fr.mines_stetienne.ci.sparql_generate.graph.Node_Expr;
+import fr.mines_stetienne.ci.sparql_generate.graph.Node_ExprList;
+import fr.mines_stetienne.ci.sparql_generate.graph.Node_List;
+import fr.mines_stetienne.ci.sparql_generate.graph.Node_Template;
+import fr.mines_stetienne.ci.sparql_generate.query.SPARQLExtQuery;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementBox;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementExpr;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementFormat;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementGenerateTriplesBlock;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementIterator;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementPerform;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementSource;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementSubExtQuery;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementTGroup;
+import fr.mines_stetienne.ci.sparql_generate.syntax.FromClause;
+import fr.mines_stetienne.ci.sparql_generate.utils.ST;
+
+/**
+ * Counts how many times each variable is mentioned in a query, including its
+ * clauses, templates and sub-queries.
+ * <p>
+ * The normalizer embeds the TEMPLATE sub-queries of a query as literals, so
+ * the variable names in the text of these literals are counted too. This may
+ * count more mentions than there are, never less.
+ * <p>
+ * The same walk tells if the output of the query only depends on its bindings
+ * and dataset, apart from the queries it calls, so that it can be memoized:
+ * the query must call no function that returns a different value or has side
+ * effects at every call, such as NOW, RAND, BNODE, STRUUID or fun:log, read
+ * no document that may change between calls, with SOURCE clauses or
+ * iterators that are not pure, perform no action, and call queries by a
+ * constant name or embed them as literals.
+ *
+ * @author Maxime Lefrançois
+ */
+final class QueryVariables {
+
+    private static final Pattern VARIABLE = Pattern.compile("[?$](\\w+)");
+
+    private final Map<Var, Integer> mentions = new HashMap<>();
+
+    /**
+     * False if the query has elements whose variables are not known.
+     */
+    private boolean complete = true;
+
+    /**
+     * False if the query calls functions that are not deterministic.
+     */
+    private boolean deterministic = true;
+
+    /**
+     * False if the query reads documents that may change between calls,
+     * performs actions, or calls queries by a computed name.
+     */
+    private boolean memoizable = true;
+
+    /**
+     * The IRIs of the queries called by name, and the literals of the queries
+     * embedded in calls.
+     */
+    private final Set<Node> callees = new LinkedHashSet<>();
+
+    private QueryVariables() {
+    }
+
+    /**
+     * Counts the mentions of the variables of a query.
+     *
+     * @param query the query
+     * @return the counts, or null if the query has elements whose variables
+     * are not known
+     */
+    static Map<Var, Integer> collect(final SPARQLExtQuery query) {
+        final QueryVariables variables = new QueryVariables();
+        variables.visit(query);
+        return variables.complete ? variables.mentions : null;
+    }
+
+    /**
+     * Checks that the output of a query only depends on its bindings and
+     * dataset, apart from the queries it calls, so that it can be memoized.
+     * The queries it calls must be checked too.
+     *
+     * @param query the query
+     * @param callees where the IRIs of the queries called by name, and the
+     * literals of the queries embedded in calls, are added
+     * @return false if the query cannot be memoized, or has elements whose
+     * expressions are not known
+     */
+    static boolean isMemoizable(final SPARQLExtQuery query, final Set<Node> callees) {
+        final QueryVariables variables = new QueryVariables();
+        variables.visit(query);
+        callees.addAll(variables.callees);
+        return variables.complete && variables.deterministic && variables.memoizable;
+    }
+
+    private void visit(final Query query) {
+        if (!(query instanceof SPARQLExtQuery)) {
+            visitSelect(query);
+            return;
+        }
+        final SPARQLExtQuery extQuery = (SPARQLExtQuery) query;
+        if (extQuery.isSubQuery() && extQuery.hasName()) {
+            visitCallee(extQuery.getName());
+        }
+        if (extQuery.hasSignature()) {
+            extQuery.getSignature().forEach(this::visit);
+        }
+        visit(extQuery.getName());
+        if (extQuery.hasCallParameters()) {
+            visit(extQuery.getCallParameters());
+        }
+        if (extQuery.getFromClauses() != null) {
+            for (FromClause fromClause : extQuery.getFromClauses()) {
+                if (fromClause.getGenerate() != null) {
+                    visit(fromClause.getGenerate());
+                }
+                visit(fromClause.getName());
+            }
+        }
+        if (extQuery.hasBindingClauses()) {
+            visit(extQuery.getBindingClauses());
+        }
+        if (extQuery.hasGenerateClause()) {
+            visit(extQuery.getGenerateClause());
+        }
+        if (extQuery.hasTemplateClause()) {
+            visit(extQuery.getTemplateClause());
+        }
+        if (extQuery.hasPerformClause()) {
+            visit(extQuery.getPerformClause());
+        }
+        visit(extQuery.getTemplateClauseBefore());
+        visit(extQuery.getTemplateClauseSeparator());
+        visit(extQuery.getTemplateClauseAfter());
+        if (extQuery.hasFunctionExpression()) {
+            visit(extQuery.getFunctionExpression());
+        }
+        if (extQuery.hasPostSelect()) {
+            visit(extQuery.getPostSelect());
+        }
+        visitSelect(extQuery);
+    }
+
+    private void visitSelect(final Query query) {
+        visit(query.getQueryPattern());
+        visit(query.getProject());
+        if (query.hasGroupBy()) {
+            visit(query.getGroupBy());
+        }
+        if (query.hasHaving()) {
+            query.getHavingExprs().forEach(this::visit);
+        }
+        if (query.hasOrderBy()) {
+            for (SortCondition condition : query.getOrderBy()) {
+                visit(condition.getExpression());
+            }
+        }
+        if (query.hasValues()) {
+            query.getValuesVariables().forEach(this::visit);
+        }
+    }
+
+    private void visit(final List<Element> elements) {
+        for (Element element : elements) {
+            visit(element);
+        }
+    }
+
+    private void visit(final Element element) {
+        if (element == null) {
+            return;
+        }
+        if (element instanceof ElementGroup) {
+            visit(((ElementGroup) element).getElements());
+        } else if (element instanceof ElementPathBlock) {
+            for (TriplePath path : ((ElementPathBlock) element).getPattern().getList()) {
+                visit(path.getSubject());
+                if (path.isTriple()) {
+                    visit(path.getPredicate());
+                }
+                visit(path.getObject());
+            }
+        } else if (element instanceof ElementTriplesBlock) {
+            ((ElementTriplesBlock) element).getPattern().forEach(this::visit);
+        } else if (element instanceof ElementGenerateTriplesBlock) {
+            ((ElementGenerateTriplesBlock) element).getPattern().forEach(this::visit);
+        } else if (element instanceof ElementIterator) {
+            final ElementIterator iterator = (ElementIterator) element;
+            if (!PlanFactory.isMemoizable(iterator.getExpr())) {
+                memoizable = false;
+            }
+            visit(iterator.getExpr());
+            iterator.getVars().forEach(this::visit);
+        } else if (element instanceof ElementSource) {
+            final ElementSource source = (ElementSource) element;
+            memoizable = false;
+            visit(source.getSource());
+            visit(source.getAccept());
+            visit(source.getVar());
+        } else if (element instanceof ElementBind) {
+            visit(((ElementBind) element).getVar());
+            visit(((ElementBind) element).getExpr());
+        } else if (element instanceof ElementAssign) {
+            visit(((ElementAssign) element).getVar());
+            visit(((ElementAssign) element).getExpr());
+        } else if (element instanceof ElementFilter) {
+            visit(((ElementFilter) element).getExpr());
+        } else if (element instanceof ElementData) {
+            ((ElementData) element).getVars().forEach(this::visit);
+        } else if (element instanceof ElementUnion) {
+            visit(((ElementUnion) element).getElements());
+        } else if (element instanceof ElementOptional) {
+            visit(((ElementOptional) element).getOptionalElement());
+        } else if (element instanceof ElementMinus) {
+            visit(((ElementMinus) element).getMinusElement());
+        } else if (element instanceof ElementExists) {
+            visit(((ElementExists) element).getElement());
+        } else if (element instanceof ElementNotExists) {
+            visit(((ElementNotExists) element).getElement());
+        } else if (element instanceof ElementNamedGraph) {
+            visit(((ElementNamedGraph) element).getGraphNameNode());
+            visit(((ElementNamedGraph) element).getElement());
+        } else if (element instanceof ElementService) {
+            visit(((ElementService) element).getServiceNode());
+            visit(((ElementService) element).getElement());
+        } else if (element instanceof ElementSubQuery) {
+            visit(((ElementSubQuery) element).getQuery());
+        } else if (element instanceof ElementSubExtQuery) {
+            visit(((ElementSubExtQuery) element).getQuery());
+        } else if (element instanceof ElementExpr) {
+            visit(((ElementExpr) element).getExpr());
+        } else if (element instanceof ElementBox) {
+            visit(((ElementBox) element).getTExpressions());
+        } else if (element instanceof ElementFormat) {
+            visit(((ElementFormat) element).getExpr());
+            visit(((ElementFormat) element).getTExpressions());
+        } else if (element instanceof ElementTGroup) {
+            visit(((ElementTGroup) element).getTExpressions());
+        } else if (element instanceof ElementPerform) {
+            memoizable = false;
+            visit(((ElementPerform) element).getName());
+            visit(((ElementPerform) element).getParams());
+        } else {
+            complete = false;
+        }
+    }
+
+    private void visit(final VarExprList varExprList) {
+        for (Var var : varExprList.getVars()) {
+            visit(var);
+            visit(varExprList.getExpr(var));
+        }
+    }
+
+    private void visit(final ExprList exprList) {
+        if (exprList != null) {
+            exprList.forEach(this::visit);
+        }
+    }
+
+    private void visit(final Expr expr) {
+        if (expr == null || expr == Expr.NONE) {
+            return;
+        }
+        if (expr instanceof ExprVar) {
+            visit(((ExprVar) expr).asVar());
+        } else if (expr instanceof NodeValue) {
+            visit(((NodeValue) expr).asNode());
+        } else if (expr instanceof ExprAggregator) {
+            visit(((ExprAggregator) expr).getAggregator().getExprList());
+        } else if (expr instanceof ExprFunctionOp) {
+            visit(((ExprFunctionOp) expr).getElement());
+        } else if (expr instanceof ExprFunction) {
+            if (!isDeterministic((ExprFunction) expr)) {
+                deterministic = false;
+            }
+            if (expr instanceof E_Function) {
+                visitCall((E_Function) expr);
+            }
+            ((ExprFunction) expr).getArgs().forEach(this::visit);
+        } else {
+            complete = false;
+        }
+    }
+
+    private static boolean isDeterministic(final ExprFunction function) {
+        if (function instanceof E_BNode
+                || function instanceof E_Random
+                || function instanceof E_UUID
+                || function instanceof E_StrUUID
+                || function instanceof E_Now) {
+            return false;
+        }
+        return !(function instanceof E_Function)
+                || !((E_Function) function).getFunctionIRI().equals(FUN_Log.URI);
+    }
+
+    private void visitCall(final E_Function function) {
+        final String iri = function.getFunctionIRI();
+        if (ST.callTemplate.equals(iri) && function.numArgs() > 0) {
+            visitCallee(function.getArg(1));
+        } else if (FUN_Select_Call_Template.URI.equals(iri) && function.numArgs() > 1) {
+            // the SELECT query may be omitted
+            if (function.getArg(1) != null) {
+                visitCallee(function.getArg(1));
+            }
+            visitCallee(function.getArg(2));
+        }
+    }
+
+    /**
+     * Records a called query, given by its IRI or embedded as a literal. A
+     * query called by a computed name cannot be checked.
+     */
+    private void visitCallee(final Expr name) {
+        if (name instanceof NodeValue) {
+            final Node node = ((NodeValue) name).asNode();
+            if (node.isURI() || node.isLiteral() && SPARQLExt.MEDIA_TYPE_URI.equals(node.getLiteralDatatypeURI())) {
+                callees.add(node);
+                return;
+            }
+        }
+        memoizable = false;
+    }
+
+    private void visit(final Triple triple) {
+        visit(triple.getSubject());
+        visit(triple.getPredicate());
+        visit(triple.getObject());
+    }
+
+    private void visit(final Node node) {
+        if (node == null) {
+            return;
+        }
+        if (node.isVariable()) {
+            mentions.merge(Var.alloc(node), 1, Integer::sum);
+        } else if (node instanceof Node_Expr) {
+            visit(((Node_Expr) node).getExpr());
+        } else if (node instanceof Node_ExprList) {
+            ((Node_ExprList) node).getComponents().forEach(this::visit);
+        } else if (node instanceof Node_List) {
+            visit(((Node_List) node).getExpr());
+        } else if (node instanceof Node_Template) {
+            visit(((Node_Template) node).getQuery());
+        } else {
+            visitConstant(node);
+        }
+    }
+
+    private void visitConstant(final Node node) {
+        if (node.isLiteral() && SPARQLExt.MEDIA_TYPE_URI.equals(node.getLiteralDatatypeURI())) {
+            final Matcher matcher = VARIABLE.matcher(node.getLiteralLexicalForm());
+            while (matcher.find()) {
+                mentions.merge(Var.alloc(matcher.group(1)), 1, Integer::sum);
+            }
+        }
+    }
+
+}
@@ -17,8 +17,10 @@ package fr.mines_stetienne.ci.sparql_generate.engine;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -26,6 +28,7 @@ import java.util.stream.Collectors;
 
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.jena.atlas.io.IndentedWriter;
+import org.apache.jena.graph.Node;
 import org.apache.jena.query.ResultSet;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
@@ -56,6 +59,12 @@ public class RootPlan {
 	 */
 	private static final Logger LOG = LoggerFactory.getLogger(RootPlan.class);
 
+	/**
+	 * The minimal number of bindings in a chunk of a batch that exceeds the
+	 * memory budget.
+	 */
+	private static final int MIN_CHUNK_SIZE = 1_000;
+
 	/**
 	 * query.
 	 */
@@ -86,10 +95,59 @@ public class RootPlan {
 	 */
 	private final TemplatePlan templatePlan;
 
+	/**
+	 * Whether the calls of the plan may be memoized, apart from the queries it
+	 * calls, computed on first use.
+	 */
+	private volatile Boolean memoizable;
+
+	/**
+	 * The IRIs of the queries the plan calls by name, and the literals of the
+	 * queries it embeds in calls.
+	 */
+	private Set<Node> callees;
+
 	public SPARQLExtQuery getQuery() {
 		return query;
 	}
 
+	/**
+	 * Checks that the output of the plan only depends on its bindings and
+	 * dataset, apart from the queries it calls, so that it can be memoized.
+	 *
+	 * @return false if the query calls functions such as NOW or RAND, has
+	 *         SOURCE or PERFORM clauses, iterators that are not pure, or calls
+	 *         queries by a computed name
+	 */
+	public boolean isMemoizable() {
+		analyzeCalls();
+		return memoizable;
+	}
+
+	/**
+	 * @return the IRIs of the queries the plan calls by name, and the literals
+	 *         of the queries it embeds in calls
+	 */
+	public Set<Node> getCallees() {
+		analyzeCalls();
+		return callees;
+	}
+
+	private void analyzeCalls() {
+		if (memoizable != null) {
+			return;
+		}
+		synchronized (this) {
+			if (memoizable == null) {
+				final Set<Node> found = new LinkedHashSet<>();
+				final boolean result = QueryVariables.isMemoizable(query, found);
+				callees = Collections.unmodifiableSet(found);
+				// written last, the callees are visible once it is set
+				memoizable = result;
+			}
+		}
+	}
+
 	/**
 	 * Constructor
 	 *
@@ -362,6 +420,9 @@ public class RootPlan {
 		}
 		if (ContextUtils.isRootContext(context)) {
 			LOG.info("Starting execution");
+			if (ContextUtils.isPinnedPlans(context)) {
+				ContextUtils.getQueryExecutor(context).warmUp(query, context);
+			}
 			StreamRDF outputGenerate = ContextUtils.getGenerateOutput(context);
 			if (outputGenerate != null) {
 				outputGenerate.start();
@@ -376,15 +437,30 @@ public class RootPlan {
 			LOG.trace("Starting sub-execution");
 		}
 
+		final Checkpoint checkpoint = ContextUtils.isRootContext(context) ? ContextUtils.getCheckpoint(context) : null;
 		Binding binding = values.size() > 0 ? values.get(0) : null;
-		Context newContext = datasetDeclarationPlan.prepareDataset(binding, context);
-		execIteratorAndSourcePlans(variables, values, newContext, 0);
+		final Context datasetContext = datasetDeclarationPlan.prepareDataset(binding, context);
+		Context newContext = datasetContext;
+		if (generatePlan instanceof GenerateNamedPlan) {
+			newContext = ((GenerateNamedPlan) generatePlan).prepareCalls(newContext);
+		}
+		execIteratorAndSourcePlans(variables, values, newContext, 0, checkpoint);
+		if (generatePlan instanceof GenerateNamedPlan) {
+			((GenerateNamedPlan) generatePlan).flushCalls(newContext);
+		}
+		if (datasetContext != context) {
+			// the dataset of this execution is not used by other executions
+			releaseHoistedPlans(datasetContext);
+		}
 
 		if (ContextUtils.isRootContext(context)) {
 			StreamRDF outputGenerate = ContextUtils.getGenerateOutput(context);
 			if (outputGenerate != null) {
 				outputGenerate.finish();
 			}
+			if (checkpoint != null) {
+				checkpoint.finish();
+			}
 			ContextUtils.close(context);
 			LOG.info("End of execution");
 		} else {
@@ -392,22 +468,60 @@ public class RootPlan {
 		}
 	}
 
+	private void releaseHoistedPlans(final Context context) {
+		for (BindingsClausePlan plan : iteratorAndSourcePlans) {
+			if (plan instanceof HoistedPlan) {
+				((HoistedPlan) plan).release(context);
+			}
+		}
+	}
+
+	/**
+	 * Executes the binding clauses from position i.
+	 *
+	 * @param checkpoint
+	 *            the checkpoint to update after each batch of the next ITERATOR
+	 *            clause, or null.
+	 */
 	private void execIteratorAndSourcePlans(final List<Var> variables, final List<Binding> values,
-			final Context context, final int i) {
+			final Context context, final int i, final Checkpoint checkpoint) {
 		if (i < iteratorAndSourcePlans.size()) {
-			final BindingsClausePlan plan = iteratorAndSourcePlans.get(i);
-			if (plan instanceof BindOrSourcePlan) {
+			BindingsClausePlan plan = iteratorAndSourcePlans.get(i);
+			if (plan instanceof HoistedPlan && checkpoint != null) {
+				// batches of the checkpointed iterator must be counted
+				plan = ((HoistedPlan) plan).getPlan();
+			}
+			if (plan instanceof HoistedPlan) {
+				final HoistedPlan hoistedPlan = (HoistedPlan) plan;
+				final List<Var> newVariables = new ArrayList<>(variables);
+				newVariables.addAll(hoistedPlan.getVars());
+				hoistedPlan.exec(variables, values, context, (newValues) -> {
+					execBatch(new ArrayList<>(newVariables), newValues, context, i + 1);
+				});
+				LOG.debug("Finished plan " + hoistedPlan);
+			} else if (plan instanceof BindOrSourcePlan) {
 				final BindOrSourcePlan bindOrSourcePlan = (BindOrSourcePlan) plan;
 				variables.add(bindOrSourcePlan.getVar());
 				final List<Binding> newValues = bindOrSourcePlan.exec(values, context);
-				execIteratorAndSourcePlans(variables, newValues, context, i + 1);
+				execIteratorAndSourcePlans(variables, newValues, context, i + 1, checkpoint);
 				LOG.debug("Finished plan " + bindOrSourcePlan);
+			} else if (plan instanceof FilterPlan) {
+				final FilterPlan filterPlan = (FilterPlan) plan;
+				final List<Binding> newValues = filterPlan.exec(values, context);
+				execIteratorAndSourcePlans(variables, newValues, context, i + 1, checkpoint);
 			} else {
 				IteratorPlan iteratorPlan = (IteratorPlan) plan;
 				iteratorPlan.exec(variables, values, context, (newValues) -> {
+					if (checkpoint != null && checkpoint.isReplayed()) {
+						LOG.debug("Skipped batch for " + iteratorPlan + ", already processed before the checkpoint");
+						return;
+					}
 					final List<Var> newVariables = new ArrayList<>(variables);
 					newVariables.addAll(iteratorPlan.getVars());
-					execIteratorAndSourcePlans(newVariables, newValues, context, i + 1);
+					execBatch(newVariables, newValues, context, i + 1);
+					if (checkpoint != null) {
+						checkpoint.batchCompleted();
+					}
 					LOG.debug("Finished batch for " + iteratorPlan);
 				});
 				LOG.debug("Finished plan " + iteratorPlan);
@@ -417,6 +531,82 @@ public class RootPlan {
 		}
 	}
 
+	/**
+	 * Executes the binding clauses from position i on a batch emitted by an
+	 * ITERATOR clause. A batch that exceeds the memory budget is processed in
+	 * chunks, if the rest of the query processes bindings independently, so
+	 * that the copies of the batch made by the next clauses and the SELECT
+	 * stage are bounded by the size of a chunk.
+	 */
+	private void execBatch(final List<Var> variables, final List<Binding> values, final Context context,
+			final int i) {
+		final long budget = ContextUtils.getMemoryBudget(context);
+		if (budget <= 0 || values.size() < 2 * MIN_CHUNK_SIZE || !isChunkable()) {
+			execIteratorAndSourcePlans(variables, values, context, i, null);
+			return;
+		}
+		final long size = estimateSize(variables, values);
+		if (size <= budget) {
+			execIteratorAndSourcePlans(variables, values, context, i, null);
+			return;
+		}
+		final int chunkSize = (int) Math.max(MIN_CHUNK_SIZE, values.size() * (budget / 8) / size);
+		LOG.info("Batch of " + values.size() + " bindings exceeds the memory budget, processing it in chunks of "
+				+ chunkSize);
+		for (int from = 0; from < values.size(); from += chunkSize) {
+			final List<Binding> chunk = values.subList(from, Math.min(values.size(), from + chunkSize));
+			execIteratorAndSourcePlans(new ArrayList<>(variables), chunk, context, i, null);
+		}
+	}
+
+	/**
+	 * Estimates the heap size of a batch of bindings, in bytes.
+	 */
+	private static long estimateSize(final List<Var> variables, final List<Binding> values) {
+		long size = 0;
+		for (Binding binding : values) {
+			size += 48;
+			for (Var var : variables) {
+				final Node node = binding.get(var);
+				if (node == null) {
+					continue;
+				} else if (node.isLiteral()) {
+					size += 64 + 2 * node.getLiteralLexicalForm().length();
+				} else if (node.isURI()) {
+					size += 48 + 2 * node.getURI().length();
+				} else {
+					size += 64;
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Checks if the output for a batch is the union of the outputs for the
+	 * parts of the batch.
+	 */
+	private boolean isChunkable() {
+		if (query.isTemplateType()) {
+			// separators are inserted between the results of a batch
+			return false;
+		}
+		if (selectPlan != null && !selectPlan.isPerBinding()) {
+			return false;
+		}
+		if (generatePlan instanceof GenerateNamedPlan) {
+			return false;
+		}
+		if (generatePlan instanceof GenerateFormPlan && ((GenerateFormPlan) generatePlan).hasSubQueries()) {
+			return false;
+		}
+		if (generatePlan instanceof GenerateFormPlan && ((GenerateFormPlan) generatePlan).hasLists()) {
+			// a list spans all the bindings of a batch
+			return false;
+		}
+		return true;
+	}
+
 	private void execSelectPlan(final List<Var> variables, final List<Binding> values, final Context context) {
 		if (selectPlan == null) {
 			if (query.isSelectType()) {
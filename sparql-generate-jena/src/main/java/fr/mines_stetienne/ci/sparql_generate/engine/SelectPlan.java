@@ -87,6 +87,17 @@ public class SelectPlan {
 		return select.getProjectVars();
 	}
 
+	/**
+	 * Checks if the results for a list of bindings are the union of the results
+	 * for each binding, so that the bindings may be processed in chunks.
+	 *
+	 * @return true if the query has no aggregate and no solution modifier.
+	 */
+	public boolean isPerBinding() {
+		return !select.hasAggregators() && !select.hasGroupBy() && !select.hasHaving() && !select.isDistinct()
+				&& !select.isReduced() && !select.hasOrderBy() && !select.hasLimit() && !select.hasOffset();
+	}
+
 	/**
 	 * Updates a values block with the execution of a SPARQL SELECT query.
 	 *
@@ -17,7 +17,17 @@ package fr.mines_stetienne.ci.sparql_generate.engine;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,7 +41,6 @@ import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.riot.SysRIOT;
 import org.apache.jena.sparql.core.Var;
 import org.apache.jena.sparql.engine.binding.Binding;
-import org.apache.jena.sparql.engine.binding.BindingFactory;
 import org.apache.jena.sparql.util.Context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,6 +48,7 @@ import org.slf4j.LoggerFactory;
 import fr.mines_stetienne.ci.sparql_generate.SPARQLExtException;
 import fr.mines_stetienne.ci.sparql_generate.stream.LookUpRequest;
 import fr.mines_stetienne.ci.sparql_generate.stream.SPARQLExtStreamManager;
+import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
 import fr.mines_stetienne.ci.sparql_generate.utils.LogUtils;
 
 /**
@@ -93,7 +103,7 @@ public class SourcePlan extends BindOrSourcePlan {
 		this.accept = accept;
 	}
 
-	final protected Binding exec(final Binding binding, final Context context) {
+	final protected Node exec(final Binding binding, final Context context) {
 
 		LOG.debug("Start " + this);
 		Objects.nonNull(binding);
@@ -102,16 +112,96 @@ public class SourcePlan extends BindOrSourcePlan {
 		final String acceptHeader = getAcceptHeader(binding);
 		LOG.trace("... resolved to SOURCE <" + sourceUri + "> ACCEPT " + acceptHeader + " AS " + var);
 		if (sourceUri == null) {
-			return BindingFactory.binding(binding, var, null);
+			return null;
 		}
 		final LookUpRequest request = new LookUpRequest(sourceUri, acceptHeader);
+		return fetch(request, context);
+	}
+
+	/**
+	 * Fetches the distinct documents of the batch once, concurrently if the
+	 * context has a source executor, and shares each document between all the
+	 * bindings that need it.
+	 */
+	@Override
+	public List<Binding> exec(final List<Binding> values, final Context context) {
+		final Map<LookUpRequest, List<Integer>> lookups = new LinkedHashMap<>();
+		final Node[] column = new Node[values.size()];
+		for (int i = 0; i < values.size(); i++) {
+			final Binding binding = values.get(i);
+			final String sourceUri = getActualSource(binding);
+			if (sourceUri == null) {
+				continue;
+			}
+			final LookUpRequest request = new LookUpRequest(sourceUri, getAcceptHeader(binding));
+			lookups.computeIfAbsent(request, (r) -> new ArrayList<>()).add(i);
+		}
+		LOG.debug("Start " + this + " with " + lookups.size() + " distinct lookups for " + values.size()
+				+ " bindings");
+		final ExecutorService executor = ContextUtils.getSourceExecutor(context);
+		final Map<LookUpRequest, Future<Node>> documents = new HashMap<>();
+		if (executor != null && lookups.size() > 1) {
+			final int perHost = ContextUtils.getSourceParallelismPerHost(context);
+			for (LookUpRequest request : lookups.keySet()) {
+				final Semaphore hostPermits = ContextUtils.getExecutionState(context,
+						"SOURCE host " + getHost(request), (k) -> new Semaphore(perHost));
+				documents.put(request, executor.submit(() -> {
+					hostPermits.acquire();
+					try {
+						return fetch(request, context);
+					} finally {
+						hostPermits.release();
+					}
+				}));
+			}
+		}
+		for (Map.Entry<LookUpRequest, List<Integer>> entry : lookups.entrySet()) {
+			final Node document = getDocument(entry.getKey(), documents.get(entry.getKey()), context);
+			for (int i : entry.getValue()) {
+				column[i] = document;
+			}
+		}
+		return bind(values, column);
+	}
+
+	private Node getDocument(final LookUpRequest request, final Future<Node> future, final Context context) {
+		if (future == null) {
+			return fetch(request, context);
+		}
+		try {
+			return future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new SPARQLExtException("Interrupted while looking up " + request.getFilenameOrURI(), ex);
+		} catch (ExecutionException ex) {
+			throw new SPARQLExtException("Exception while looking up " + request.getFilenameOrURI(), ex.getCause());
+		}
+	}
+
+	private static String getHost(final LookUpRequest request) {
+		try {
+			final String host = URI.create(request.getFilenameOrURI()).getHost();
+			return host == null ? "" : host;
+		} catch (IllegalArgumentException ex) {
+			return "";
+		}
+	}
+
+	/**
+	 * Fetches a document.
+	 *
+	 * @return the document as a literal, or null if it could not be found.
+	 */
+	private Node fetch(final LookUpRequest request, final Context context) {
+		final String sourceUri = request.getFilenameOrURI();
+		final String acceptHeader = request.getAccept();
 		final SPARQLExtStreamManager sm = (SPARQLExtStreamManager) context.get(SysRIOT.sysStreamManager);
 		Objects.requireNonNull(sm);
 		try (TypedInputStream stream = sm.open(request)) {
 			if (stream == null) {
 				LOG.info(
 						"Exec SOURCE <" + sourceUri + "> ACCEPT " + acceptHeader + " AS " + var + " returned nothing.");
-				return BindingFactory.binding(binding);
+				return null;
 			}
 			try (InputStream in = stream.getInputStream()) {
 				final String literal = IOUtils.toString(in, "UTF-8");
@@ -127,13 +217,12 @@ public class SourcePlan extends BindOrSourcePlan {
 				if (LOG.isTraceEnabled()) {
 					LOG.trace("Exec " + this + " returned\n" + LogUtils.compress(n));
 				}
-				return BindingFactory.binding(binding, var, n);
+				return n;
 			}
 		} catch (IOException | DatatypeFormatException ex) {
 			LOG.warn("Exception while looking up " + sourceUri + ":", ex);
-			return BindingFactory.binding(binding);
+			return null;
 		}
-
 	}
 
 	/**
@@ -31,6 +31,7 @@ import org.apache.jena.sparql.util.Context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import fr.mines_stetienne.ci.sparql_generate.function.library.TemplatePrinter;
 import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
 
 public class TemplatePlan {
@@ -57,28 +58,39 @@ public class TemplatePlan {
 		final IndentedWriter writer = ContextUtils.getTemplateOutput(context);
 		boolean first = true;
 		final FunctionEnv env = new FunctionEnvBase(context);
-		String result;
 		for(Iterator<Binding> it=values.iterator(); it.hasNext();) {
 			Binding binding = it.next();
 			if (first && before != null) {
-				result = getExprEval(before, binding, context, env);
-				writer.print(result);
+				print(before, binding, context, env, writer);
 			}
 			if (!first && separator != null) {
-				result = getExprEval(separator, binding, context, env);
-				writer.print(result);
+				print(separator, binding, context, env, writer);
 			}
-			result = getExprEval(expr, binding, context, env);
-			writer.print(result);
+			print(expr, binding, context, env, writer);
 			first = false;
 			if (!it.hasNext() && after != null) {
-				result = getExprEval(after, binding, context, env);
-				writer.print(result);
+				print(after, binding, context, env, writer);
 			}
 			writer.flush();
 		}
 	}
 
+	/**
+	 * Prints the output of an expression. Calls to st:concat and to templates
+	 * print directly to the writer, instead of returning a string.
+	 */
+	private void print(Expr expr, Binding binding, Context context, FunctionEnv env, IndentedWriter writer) {
+		if (!TemplatePrinter.isStreamable(expr)) {
+			writer.print(getExprEval(expr, binding, context, env));
+			return;
+		}
+		try {
+			TemplatePrinter.print(expr, binding, env, writer);
+		} catch (ExprEvalException ex) {
+			LOG.debug("Could not evaluate expression " + expr, ex);
+		}
+	}
+
 	private String getExprEval(Expr expr, Binding binding, Context context, FunctionEnv env) {
 		NodeValue nv = null;
 		try {
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.function;
+
+import java.util.Objects;
+
+import org.apache.jena.query.QueryBuildException;
+import org.apache.jena.sparql.function.Function;
+import org.apache.jena.sparql.function.FunctionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A function factory that knows the name of the function class, and only loads
+ * the class when a function is first created. Registering the functions of a
+ * library with this factory does not load the library.
+ *
+ * @author Maxime Lefrançois
+ */
+public class LazyFunctionFactory implements FunctionFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LazyFunctionFactory.class);
+
+    private final String className;
+
+    private volatile Class<?> extClass;
+
+    /**
+     * @param className the fully qualified name of the function class
+     */
+    public LazyFunctionFactory(final String className) {
+        Objects.requireNonNull(className, "className must not be null");
+        this.className = className;
+    }
+
+    @Override
+    public Function create(final String uri) {
+        try {
+            return (Function) getFunctionClass(uri).newInstance();
+        } catch (QueryBuildException e) {
+            throw e;
+        } catch (Exception e) {
+            LOG.debug("Can't instantiate function for " + uri, e);
+            throw new QueryBuildException("Can't instantiate function for " + uri, e);
+        }
+    }
+
+    private Class<?> getFunctionClass(final String uri) {
+        Class<?> result = extClass;
+        if (result != null) {
+            return result;
+        }
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            classLoader = LazyFunctionFactory.class.getClassLoader();
+        }
+        try {
+            result = Class.forName(className, true, classLoader);
+        } catch (ClassNotFoundException | LinkageError e) {
+            throw new QueryBuildException("Can't load class " + className + " for function " + uri, e);
+        }
+        if (!Function.class.isAssignableFrom(result)) {
+            throw new QueryBuildException("Class " + className + " is not a Function");
+        }
+        LOG.trace("Loaded " + className + " for function " + uri);
+        extClass = result;
+        return result;
+    }
+
+}
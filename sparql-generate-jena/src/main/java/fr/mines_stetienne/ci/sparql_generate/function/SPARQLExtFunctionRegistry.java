@@ -21,12 +21,12 @@ import fr.mines_stetienne.ci.sparql_generate.stream.LookUpRequest;
 import fr.mines_stetienne.ci.sparql_generate.stream.SPARQLExtStreamManager;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.io.IOUtils;
 import org.apache.jena.atlas.logging.Log;
 
@@ -42,6 +42,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Registry of functions for a context. It does not copy the parent registry,
+ * it is an overlay that only holds the entries that are put or removed in this
+ * registry. The parent registry is not changed.
  *
  * @author Maxime Lefrançois
  */
@@ -50,15 +53,13 @@ public class SPARQLExtFunctionRegistry extends FunctionRegistry {
     private static final Logger LOG = LoggerFactory.getLogger(SPARQLExtFunctionRegistry.class);
 
     private final Context context;
-    private final Map<String, FunctionFactory> registry = new HashMap<>();
-    private final Set<String> attemptedLoads = new HashSet<>();
+    private final FunctionRegistry parent;
+    private final Map<String, FunctionFactory> registry = new ConcurrentHashMap<>();
+    private final Set<String> removed = ConcurrentHashMap.newKeySet();
+    private final Set<String> attemptedLoads = ConcurrentHashMap.newKeySet();
 
     public SPARQLExtFunctionRegistry(FunctionRegistry parent, Context context) {
-        Iterator<String> uris = parent.keys();
-        while (uris.hasNext()) {
-            String uri = uris.next();
-            registry.put(uri, parent.get(uri));
-        }
+        this.parent = parent;
         this.context = context;
     }
 
@@ -77,6 +78,22 @@ public class SPARQLExtFunctionRegistry extends FunctionRegistry {
         put(uri, new FunctionFactoryAuto(funcClass));
     }
 
+    /**
+     * Insert the name of a class that is the function implementation. The
+     * class is only loaded when the function is first created, so registering
+     * the functions of a library this way does not load the library. An
+     * unknown class is only reported then, as a QueryBuildException. The
+     * loaders given a Jena FunctionRegistry register a
+     * {@link LazyFunctionFactory} of the class name instead.
+     *
+     * @param uri String URI
+     * @param className Fully qualified name of the class for the function (new
+     * instance called).
+     */
+    public void put(String uri, String className) {
+        put(uri, new LazyFunctionFactory(className));
+    }
+
     /**
      * Insert a function. Re-inserting with the same URI overwrites the old
      * entry.
@@ -87,11 +104,26 @@ public class SPARQLExtFunctionRegistry extends FunctionRegistry {
     @Override
     public void put(String uri, FunctionFactory f) {
         registry.put(uri, f);
+        removed.remove(uri);
     }
 
     @Override
     public boolean isRegistered(String uri) {
-        return registry.containsKey(uri);
+        return getRegistered(uri) != null;
+    }
+
+    /**
+     * Iterate over URIs
+     */
+    @Override
+    public Iterator<String> keys() {
+        final Set<String> keys = new LinkedHashSet<>();
+        if (parent != null) {
+            parent.keys().forEachRemaining(keys::add);
+            keys.removeAll(removed);
+        }
+        keys.addAll(registry.keySet());
+        return keys.iterator();
     }
 
     /**
@@ -102,7 +134,33 @@ public class SPARQLExtFunctionRegistry extends FunctionRegistry {
      */
     @Override
     public FunctionFactory remove(String uri) {
-        return registry.remove(uri);
+        final FunctionFactory f = getRegistered(uri);
+        registry.remove(uri);
+        if (parent != null) {
+            removed.add(uri);
+        }
+        return f;
+    }
+
+    /**
+     * Lookup by URI among the registered functions, in this registry then in
+     * the parent registry. Does not look up the function with the stream
+     * manager.
+     *
+     * @return the function, or null
+     */
+    private FunctionFactory getRegistered(String uri) {
+        final FunctionFactory f = registry.get(uri);
+        if (f != null) {
+            return f;
+        }
+        if (parent == null || removed.contains(uri)) {
+            return null;
+        }
+        if (parent instanceof SPARQLExtFunctionRegistry) {
+            return ((SPARQLExtFunctionRegistry) parent).getRegistered(uri);
+        }
+        return parent.get(uri);
     }
 
     /**
@@ -112,8 +170,9 @@ public class SPARQLExtFunctionRegistry extends FunctionRegistry {
      */
     @Override
     public FunctionFactory get(String uri) {
-        if (registry.get(uri) != null) {
-            return registry.get(uri);
+        final FunctionFactory f = getRegistered(uri);
+        if (f != null) {
+            return f;
         }
         if (attemptedLoads.contains(uri)) {
             return null;
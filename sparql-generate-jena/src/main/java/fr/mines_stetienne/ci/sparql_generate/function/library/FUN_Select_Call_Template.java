@@ -15,11 +15,10 @@
  */
 package fr.mines_stetienne.ci.sparql_generate.function.library;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.jena.atlas.io.IndentedLineBuffer;
 import org.apache.jena.atlas.io.IndentedWriter;
 import org.apache.jena.graph.Node;
 import org.apache.jena.query.ResultSet;
@@ -52,7 +51,7 @@ public class FUN_Select_Call_Template implements Function {
 
     private static final Logger LOG = LoggerFactory.getLogger(FUN_Select_Call_Template.class);
 
-    public static String URI = SPARQLExt.FUN + "select-call-template";
+    public static final String URI = SPARQLExt.FUN + "select-call-template";
 
     @Override
     public final void build(String uri, ExprList args) {
@@ -78,6 +77,25 @@ public class FUN_Select_Call_Template implements Function {
         if (args == null) {
             throw new ARQInternalErrorException("FunctionBase: Null args list");
         }
+        final IndentedLineBuffer buffer = new IndentedLineBuffer();
+        print(binding, args, env, buffer);
+        return new NodeValueString(buffer.asString());
+    }
+
+    /**
+     * Executes the template for each result of the select query, and prints
+     * the output directly to the writer.
+     *
+     * @param binding the current binding
+     * @param args the arguments
+     * @param env the function environment
+     * @param writer where the output is printed
+     */
+    public static void print(
+            final Binding binding,
+            final ExprList args,
+            final FunctionEnv env,
+            final IndentedWriter writer) {
         if (args.size() < 2) {
             throw new ExprEvalException("Expecting at least two arguments");
         }
@@ -112,16 +130,13 @@ public class FUN_Select_Call_Template implements Function {
             callParameters.add(EvalUtils.eval(callArgs, binding, env));
         }
         String templateQueryName = templateQueryNode.asNode().getURI();
-        try(ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        		IndentedWriter writer = new IndentedWriter(baos);) {
+        final int indent = writer.getAbsoluteIndent();
+        try {
 	        Context newContext = ContextUtils.fork(context).setTemplateOutput(writer).fork();
 	        queryExecutor.execTemplateFromName(templateQueryName, callParameters, newContext);
-	        String result = new String(baos.toByteArray());
-	        writer.close(); // need to flush. One before the other isn't important. boas.close is the only variant that doesn't work.
-	        return new NodeValueString(result);
-        } catch (IOException ex) {
-        	throw new ExprEvalException(ex);
-		}
+        } finally {
+            writer.setAbsoluteIndent(indent);
+        }
 
     }
 }
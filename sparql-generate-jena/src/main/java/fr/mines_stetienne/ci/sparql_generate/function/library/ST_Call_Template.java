@@ -21,11 +21,10 @@ import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
 import fr.mines_stetienne.ci.sparql_generate.utils.EvalUtils;
 import fr.mines_stetienne.ci.sparql_generate.utils.ST;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.jena.atlas.io.IndentedLineBuffer;
 import org.apache.jena.atlas.io.IndentedWriter;
 import org.apache.jena.graph.Node;
 import org.apache.jena.sparql.ARQInternalErrorException;
@@ -51,7 +50,7 @@ public class ST_Call_Template implements Function {
 
     private static final Logger LOG = LoggerFactory.getLogger(ST_Call_Template.class);
 
-    public static String URI = ST.callTemplate;
+    public static final String URI = ST.callTemplate;
 
     @Override
     public final void build(String uri, ExprList args) {
@@ -77,6 +76,24 @@ public class ST_Call_Template implements Function {
         if (args == null) {
             throw new ARQInternalErrorException("FunctionBase: Null args list");
         }
+        final IndentedLineBuffer buffer = new IndentedLineBuffer();
+        print(binding, args, env, buffer);
+        return new NodeValueString(buffer.asString());
+    }
+
+    /**
+     * Executes the template, and prints its output directly to the writer.
+     *
+     * @param binding the current binding
+     * @param args the arguments
+     * @param env the function environment
+     * @param writer where the output is printed
+     */
+    public static void print(
+            final Binding binding,
+            final ExprList args,
+            final FunctionEnv env,
+            final IndentedWriter writer) {
         if (args.size() < 1) {
             throw new ExprEvalException("Expecting at least one argument");
         }
@@ -91,24 +108,21 @@ public class ST_Call_Template implements Function {
 
         final Context context = env.getContext();
         final QueryExecutor queryExecutor = ContextUtils.getQueryExecutor(context);
-        try(ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        		IndentedWriter writer = new IndentedWriter(baos);) {
+        final int indent = writer.getAbsoluteIndent();
+        try {
         	Context newContext = ContextUtils.fork(context).setTemplateOutput(writer).fork();
             if (queryNode.isIRI()) {
                 String queryName = queryNode.asNode().getURI();
                 List<List<Node>> callParameters = new ArrayList<>();
                 callParameters.add(EvalUtils.eval(args.subList(1, args.size()), binding, env));
                 queryExecutor.execTemplateFromName(queryName, callParameters, newContext);
-                return new NodeValueString(new String(baos.toByteArray()));
+                return;
             }
             String queryString = queryNode.asNode().getLiteralLexicalForm();
         	queryExecutor.execTemplateFromString(queryString, binding, newContext);
-            String result = new String(baos.toByteArray());
-	        writer.close(); // need to flush. One before the other isn't important. boas.close is the only variant that doesn't work.
-            return new NodeValueString(result);
-        } catch (IOException ex) {
-        	throw new ExprEvalException(ex);
-		}
+        } finally {
+            writer.setAbsoluteIndent(indent);
+        }
     }
 
 }
@@ -19,11 +19,10 @@ import fr.mines_stetienne.ci.sparql_generate.utils.LogUtils;
 import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
 import fr.mines_stetienne.ci.sparql_generate.utils.ST;
 
-import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 
-import org.apache.commons.io.output.ByteArrayOutputStream;
+import org.apache.jena.atlas.io.IndentedLineBuffer;
 import org.apache.jena.atlas.io.IndentedWriter;
 import org.apache.jena.sparql.ARQInternalErrorException;
 import org.apache.jena.sparql.engine.binding.Binding;
@@ -70,19 +69,34 @@ public class ST_Concat implements Function {
      */
     @Override
     public NodeValue exec(Binding binding, ExprList args, String uri, FunctionEnv env) {
-        final boolean isDebugStConcat = ContextUtils.isDebugStConcat(env.getContext());
         if (args == null) {
             throw new ARQInternalErrorException("FunctionBase: Null args list");
         }
-        try(ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        		IndentedWriter writer = new IndentedWriter(baos);) {
+        final IndentedLineBuffer buffer = new IndentedLineBuffer();
+        print(binding, args, env, buffer);
+        return new NodeValueString(buffer.asString());
+    }
+
+    /**
+     * Prints the concatenation of the arguments to the writer. Nested calls
+     * to st:concat and to templates print directly to the same writer. The
+     * indentation of the writer is restored at the end.
+     *
+     * @param binding the current binding
+     * @param args the arguments
+     * @param env the function environment
+     * @param writer where the output is printed
+     */
+    public static void print(Binding binding, ExprList args, FunctionEnv env, IndentedWriter writer) {
+        final boolean isDebugStConcat = ContextUtils.isDebugStConcat(env.getContext());
+        final int indent = writer.getAbsoluteIndent();
+        try {
 	        Context newContext = ContextUtils.fork(env.getContext()).setTemplateOutput(writer).fork();
 	        FunctionEnv newEnv = new FunctionEnvBase(newContext);
 	        for (int i = 0; i < args.size(); i++) {
 	            Expr expr = args.get(i);
 	            try {
-	                NodeValue arg = expr.eval(binding, newEnv);
-	                writer.print(arg.asString());
+	                TemplatePrinter.print(expr, binding, newEnv, writer);
 	            } catch (Exception ex) {
 	                StringWriter sw = new StringWriter();
 	                ex.printStackTrace(new PrintWriter(sw));
@@ -95,12 +109,9 @@ public class ST_Concat implements Function {
 	                }
 	            }
 	        }
-	        writer.close(); // need to flush. One before the other isn't important. boas.close is the only variant that doesn't work.
-	        String result = new String(baos.toByteArray());
-	        return new NodeValueString(result);
-        } catch (IOException ex) {
-        	throw new ExprEvalException(ex);
-		}
+        } finally {
+            writer.setAbsoluteIndent(indent);
+        }
     }
 
 }
@@ -38,7 +38,7 @@ public class ST_Decr implements Function {
 
     private static final Logger LOG = LoggerFactory.getLogger(ST_Decr.class);
 
-    public static String URI = ST.decr;
+    public static final String URI = ST.decr;
 
     private static NodeValue EMPTY_NODE = new NodeValueString("");
 
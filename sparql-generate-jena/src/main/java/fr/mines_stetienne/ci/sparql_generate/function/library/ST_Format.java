@@ -55,7 +55,7 @@ public class ST_Format implements Function {
 
     private static final Logger LOG = LoggerFactory.getLogger(ST_Format.class);
 
-    public static String URI = ST.format;
+    public static final String URI = ST.format;
 
     @Override
     public final void build(String uri, ExprList args) {
@@ -38,7 +38,7 @@ public class ST_Incr implements Function {
 
     private static final Logger LOG = LoggerFactory.getLogger(ST_Incr.class);
 
-    public static String URI = ST.incr;
+    public static final String URI = ST.incr;
     
     private static NodeValue EMPTY_NODE = new NodeValueString("");
 
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.function.library;
+
+import org.apache.jena.atlas.io.IndentedWriter;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.expr.E_Function;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprList;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.function.FunctionEnv;
+
+import fr.mines_stetienne.ci.sparql_generate.utils.ST;
+
+/**
+ * Prints template expressions to a writer. Calls to st:concat, st:call-template
+ * and fun:select-call-template print their output directly to the writer, so
+ * that the text of nested templates is written once, instead of being copied
+ * into a string at every level.
+ *
+ * @author Maxime Lefrançois
+ */
+public final class TemplatePrinter {
+
+    private TemplatePrinter() {
+    }
+
+    /**
+     * Checks if an expression is a call that prints its output directly.
+     *
+     * @param expr the expression
+     * @return true if the expression is a call to st:concat, st:call-template
+     * or fun:select-call-template
+     */
+    public static boolean isStreamable(final Expr expr) {
+        if (!(expr instanceof E_Function)) {
+            return false;
+        }
+        final String iri = ((E_Function) expr).getFunctionIRI();
+        return ST.concat.equals(iri)
+                || ST.callTemplate.equals(iri)
+                || FUN_Select_Call_Template.URI.equals(iri);
+    }
+
+    /**
+     * Evaluates an expression, and prints its output to the writer.
+     *
+     * @param expr the expression
+     * @param binding the current binding
+     * @param env the function environment
+     * @param writer where the output is printed
+     */
+    public static void print(
+            final Expr expr,
+            final Binding binding,
+            final FunctionEnv env,
+            final IndentedWriter writer) {
+        if (isStreamable(expr)) {
+            final E_Function function = (E_Function) expr;
+            final String iri = function.getFunctionIRI();
+            final ExprList args = new ExprList(function.getArgs());
+            if (ST.concat.equals(iri)) {
+                ST_Concat.print(binding, args, env, writer);
+            } else if (ST.callTemplate.equals(iri)) {
+                ST_Call_Template.print(binding, args, env, writer);
+            } else {
+                FUN_Select_Call_Template.print(binding, args, env, writer);
+            }
+            return;
+        }
+        final NodeValue nv = expr.eval(binding, env);
+        writer.print(nv.asString());
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.iterator;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.apache.jena.sparql.expr.NodeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The number of rows in the batches emitted by one execution of a streaming
+ * iterator, and the stream where they are emitted.
+ * <p>
+ * In adaptive mode, the time spent and the heap growth while the rest of the
+ * query processes each batch are measured, and the size of the next batch is
+ * moved toward a latency or memory target. The size at most halves or doubles
+ * from one batch to the next.
+ *
+ * @author Maxime Lefrançois
+ */
+public class BatchSize {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchSize.class);
+
+    static final int MIN_SIZE = 16;
+
+    static final int MAX_SIZE = 1_000_000;
+
+    /**
+     * The weight of the last batch in the per-row cost estimates.
+     */
+    private static final double SMOOTHING = 0.5;
+
+    private final Consumer<List<List<NodeValue>>> stream;
+
+    private final boolean adaptive;
+
+    private final long latencyTargetNanos;
+
+    private final long memoryTarget;
+
+    private int size;
+
+    private double nanosPerRow = -1;
+
+    private double bytesPerRow = -1;
+
+    private BatchSize(
+            final Consumer<List<List<NodeValue>>> stream,
+            final int size,
+            final boolean adaptive,
+            final long latencyTargetNanos,
+            final long memoryTarget) {
+        this.stream = stream;
+        this.size = size;
+        this.adaptive = adaptive;
+        this.latencyTargetNanos = latencyTargetNanos;
+        this.memoryTarget = memoryTarget;
+    }
+
+    /**
+     * Batches of a fixed size.
+     *
+     * @param stream where the batches are emitted.
+     * @param size the number of rows per batch, or 0 to emit everything as one
+     * batch.
+     * @return the batch size.
+     */
+    public static BatchSize fixed(
+            final Consumer<List<List<NodeValue>>> stream,
+            final int size) {
+        return new BatchSize(stream, Math.max(0, size), false, 0, 0);
+    }
+
+    /**
+     * Batches whose size adapts to the cost of processing them.
+     *
+     * @param stream where the batches are emitted.
+     * @param initialSize the number of rows of the first batch, must be
+     * positive.
+     * @param latencyTargetMillis the targeted time to process a batch, or 0.
+     * @param memoryTarget the targeted heap growth in bytes while processing a
+     * batch, or 0.
+     * @return the batch size.
+     */
+    public static BatchSize adaptive(
+            final Consumer<List<List<NodeValue>>> stream,
+            final int initialSize,
+            final long latencyTargetMillis,
+            final long memoryTarget) {
+        if (initialSize <= 0) {
+            throw new IllegalArgumentException("Initial batch size must be positive, got " + initialSize);
+        }
+        return new BatchSize(stream, clamp(initialSize), true, latencyTargetMillis * 1_000_000L, memoryTarget);
+    }
+
+    /**
+     * @return the number of rows of the next batch, or 0 if everything is
+     * emitted as one batch.
+     */
+    public int get() {
+        return size;
+    }
+
+    /**
+     * @param rows the number of rows buffered so far.
+     * @return true if the buffered rows should be emitted now.
+     */
+    public boolean isFull(final int rows) {
+        return size > 0 && rows >= size;
+    }
+
+    /**
+     * Emits a batch, and adapts the size of the next batch.
+     *
+     * @param rows the batch.
+     */
+    public void emit(final List<List<NodeValue>> rows) {
+        if (!adaptive || rows.isEmpty()) {
+            stream.accept(rows);
+            return;
+        }
+        final int n = rows.size();
+        final Runtime runtime = Runtime.getRuntime();
+        final long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+        final long start = System.nanoTime();
+        stream.accept(rows);
+        final long elapsed = System.nanoTime() - start;
+        final long growth = runtime.totalMemory() - runtime.freeMemory() - usedBefore;
+        adapt(n, elapsed, growth);
+    }
+
+    private void adapt(final int n, final long elapsed, final long growth) {
+        double target = MAX_SIZE;
+        if (latencyTargetNanos > 0) {
+            nanosPerRow = smooth(nanosPerRow, (double) elapsed / n);
+            target = Math.min(target, latencyTargetNanos / Math.max(nanosPerRow, 1));
+        }
+        // a negative growth means the garbage collector ran, the batch tells nothing
+        if (memoryTarget > 0 && growth > 0) {
+            bytesPerRow = smooth(bytesPerRow, (double) growth / n);
+        }
+        if (memoryTarget > 0 && bytesPerRow > 0) {
+            target = Math.min(target, memoryTarget / bytesPerRow);
+        }
+        final int previous = size;
+        size = clamp((int) Math.max(previous / 2, Math.min(2L * previous, (long) target)));
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Batch of " + n + " rows took " + elapsed / 1_000_000 + " ms and " + growth
+                    + " bytes, next batch has " + size + " rows");
+        }
+    }
+
+    private static double smooth(final double estimate, final double measure) {
+        if (estimate < 0) {
+            return measure;
+        }
+        return SMOOTHING * measure + (1 - SMOOTHING) * estimate;
+    }
+
+    private static int clamp(final int size) {
+        return Math.max(MIN_SIZE, Math.min(MAX_SIZE, size));
+    }
+
+    @Override
+    public String toString() {
+        return (adaptive ? "Adaptive batches of " : "Batches of ") + size + " rows";
+    }
+
+}
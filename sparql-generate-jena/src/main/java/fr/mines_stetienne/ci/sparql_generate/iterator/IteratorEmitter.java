@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.iterator;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+import org.apache.jena.sparql.expr.NodeValue;
+
+/**
+ * Hands the values emitted by asynchronous executions of iterator functions
+ * back to the thread that awaits them.
+ * <p>
+ * The emitter is created by the awaiting thread. Values emitted and tasks
+ * executed from that thread are processed immediately. Those from other
+ * threads are queued, and processed by the awaiting thread in
+ * {@link #await(CompletableFuture)}. So the rest of the query never runs on
+ * the threads of the scheduler or of the executors.
+ *
+ * @author Maxime Lefrançois
+ */
+public class IteratorEmitter implements Executor {
+
+    /**
+     * Marks the completion of the awaited executions in the queue.
+     */
+    private static final Runnable DONE = () -> {
+    };
+
+    private final Thread caller = Thread.currentThread();
+
+    private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+
+    /**
+     * Runs the task on the awaiting thread.
+     *
+     * @param task the task.
+     */
+    @Override
+    public void execute(final Runnable task) {
+        if (Thread.currentThread() == caller) {
+            task.run();
+        } else {
+            tasks.add(task);
+        }
+    }
+
+    /**
+     * Returns a stream that emits the values to the given stream, on the
+     * awaiting thread.
+     *
+     * @param nodeValuesStream the stream.
+     * @return the stream to pass to the iterator function.
+     */
+    public Stream stream(final Consumer<List<List<NodeValue>>> nodeValuesStream) {
+        return new Stream(nodeValuesStream);
+    }
+
+    /**
+     * Processes the values and tasks handed over by other threads, until the
+     * executions complete. Must be called by the thread that created the
+     * emitter.
+     *
+     * @param completion completes when the executions are complete.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    public void await(final CompletableFuture<?> completion) throws InterruptedException {
+        completion.whenComplete((r, ex) -> tasks.add(DONE));
+        Runnable task;
+        while ((task = tasks.take()) != DONE) {
+            task.run();
+        }
+        // tasks handed over after the completion
+        while ((task = tasks.poll()) != null) {
+            if (task != DONE) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * A stream of values that are processed on the awaiting thread.
+     */
+    public final class Stream implements Consumer<List<List<NodeValue>>> {
+
+        private final Consumer<List<List<NodeValue>>> nodeValuesStream;
+
+        private Stream(final Consumer<List<List<NodeValue>>> nodeValuesStream) {
+            this.nodeValuesStream = nodeValuesStream;
+        }
+
+        @Override
+        public void accept(final List<List<NodeValue>> nodeValues) {
+            execute(() -> nodeValuesStream.accept(nodeValues));
+        }
+
+        /**
+         * @return the emitter, which runs tasks on the awaiting thread.
+         */
+        public IteratorEmitter getEmitter() {
+            return IteratorEmitter.this;
+        }
+
+    }
+
+}
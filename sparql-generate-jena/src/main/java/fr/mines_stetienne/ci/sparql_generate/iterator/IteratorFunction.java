@@ -15,7 +15,9 @@
  */
 package fr.mines_stetienne.ci.sparql_generate.iterator;
 
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import org.apache.jena.sparql.engine.binding.Binding;
 import org.apache.jena.sparql.expr.ExprList;
@@ -26,6 +28,10 @@ import org.apache.jena.sparql.function.FunctionEnv;
  * The interface of SPARQL-Generate iterator functions. SPARQL-Generate
  * iterators are similar to SPARQL functions, except they return a list of list
  * of RDF terms or SPARQL variables.
+ * <p>
+ * An instance is built once per query plan, and then executed by all the
+ * executions of the plan, possibly concurrently. Implementations must not keep
+ * the state of an execution in instance fields.
  */
 public interface IteratorFunction {
 
@@ -38,6 +44,18 @@ public interface IteratorFunction {
      */
     void build(ExprList args);
 
+    /**
+     * Called during query plan construction after {@link #build(ExprList)},
+     * with the positions of the outputs that are bound to variables used
+     * elsewhere in the query. The other outputs may be emitted as null, so
+     * that the iterator does not spend time computing them. By default, all
+     * the outputs are computed.
+     *
+     * @param usedOutputs the positions of the used outputs
+     */
+    default void setUsedOutputs(BitSet usedOutputs) {
+    }
+
     /**
      * Test a list of values - argument will not be null but may have the wrong
      * number of arguments. FunctionBase provides a more convenient way to
@@ -50,4 +68,22 @@ public interface IteratorFunction {
      * @param nodeValuesStream where to emit new values
      */
     void exec(Binding binding, ExprList args, FunctionEnv env, Consumer<List<List<NodeValue>>> nodeValuesStream);
+
+    /**
+     * Same as {@link #exec(Binding, ExprList, FunctionEnv, Consumer)}, but may
+     * return before all the values are emitted. By default, the execution is
+     * blocking. The stream may be an {@link IteratorEmitter.Stream}, which
+     * processes the values on the thread that awaits the execution, whatever
+     * the thread that emits them.
+     *
+     * @param binding The current solution
+     * @param args A list of unevaluated expressions
+     * @param env The execution context
+     * @param nodeValuesStream where to emit new values
+     * @return a future that completes when all the values are emitted
+     */
+    default CompletableFuture<Void> execAsync(Binding binding, ExprList args, FunctionEnv env, Consumer<List<List<NodeValue>>> nodeValuesStream) {
+        exec(binding, args, env, nodeValuesStream);
+        return CompletableFuture.completedFuture(null);
+    }
 }
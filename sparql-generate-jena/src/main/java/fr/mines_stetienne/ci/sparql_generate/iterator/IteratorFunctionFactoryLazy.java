@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.iterator;
+
+import org.apache.jena.query.QueryBuildException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Extension factory that knows the name of the iterator function class, and
+ * only loads the class when an iterator function is first created.
+ */
+class IteratorFunctionFactoryLazy implements IteratorFunctionFactory {
+
+    static final Logger LOG = LoggerFactory.getLogger(IteratorFunctionFactoryLazy.class);
+
+    private final String className;
+
+    private volatile Class<?> extClass;
+
+    IteratorFunctionFactoryLazy(String className) {
+        this.className = className;
+    }
+
+    @Override
+    public IteratorFunction create(String uri) {
+        try {
+            return (IteratorFunction) getIteratorClass(uri).newInstance();
+        } catch (QueryBuildException e) {
+            throw e;
+        } catch (Exception e) {
+            LOG.debug("Can't instantiate iterator function"
+                    + " for " + uri, e);
+            throw new QueryBuildException("Can't instantiate iterator function"
+                    + " for " + uri, e);
+        }
+    }
+
+    private Class<?> getIteratorClass(String uri) {
+        Class<?> result = extClass;
+        if (result != null) {
+            return result;
+        }
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            classLoader = IteratorFunctionFactoryLazy.class.getClassLoader();
+        }
+        try {
+            result = Class.forName(className, true, classLoader);
+        } catch (ClassNotFoundException | LinkageError e) {
+            throw new QueryBuildException("Can't load class " + className
+                    + " for iterator function " + uri, e);
+        }
+        if (!IteratorFunction.class.isAssignableFrom(result)) {
+            throw new QueryBuildException("Class " + className + " is not a Iterator");
+        }
+        LOG.trace("Loaded " + className + " for iterator function " + uri);
+        extClass = result;
+        return result;
+    }
+}
@@ -21,10 +21,10 @@ import fr.mines_stetienne.ci.sparql_generate.stream.LookUpRequest;
 import fr.mines_stetienne.ci.sparql_generate.stream.SPARQLExtStreamManager;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.jena.query.ARQ;
 import org.apache.jena.sparql.util.Context;
@@ -39,6 +39,10 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Registry of iterator functions.
+ * <p>
+ * A registry created with a parent registry does not copy it, it is an overlay
+ * that only holds the entries that are put or removed in this registry. The
+ * parent registry is not changed.
  *
  * @author Maxime Lefrançois
  */
@@ -49,8 +53,10 @@ public class IteratorFunctionRegistry // extends HashMap<String, Iterator>
 
 	// Extract a Registry class and do casting and initialization here.
 	private final Context context;
-	private final Map<String, IteratorFunctionFactory> registry = new HashMap<>();
-	private final Set<String> failedAttempts = new HashSet<>();
+	private final IteratorFunctionRegistry parent;
+	private final Map<String, IteratorFunctionFactory> registry = new ConcurrentHashMap<>();
+	private final Set<String> removed = ConcurrentHashMap.newKeySet();
+	private final Set<String> failedAttempts = ConcurrentHashMap.newKeySet();
 
 	public synchronized static IteratorFunctionRegistry standardRegistry() {
 		IteratorFunctionRegistry reg = new IteratorFunctionRegistry(ARQ.getContext());
@@ -85,18 +91,12 @@ public class IteratorFunctionRegistry // extends HashMap<String, Iterator>
 
 	public IteratorFunctionRegistry(Context context) {
 		this.context = context;
+		this.parent = null;
 	}
 
 	public IteratorFunctionRegistry(IteratorFunctionRegistry parent, Context context) {
-		this(context);
-		if (parent == null) {
-			parent = standardRegistry();
-		}
-		Iterator<String> uris = parent.keys();
-		while (uris.hasNext()) {
-			String uri = uris.next();
-			registry.put(uri, parent.get(uri));
-		}
+		this.context = context;
+		this.parent = parent;
 	}
 
 	/**
@@ -112,7 +112,24 @@ public class IteratorFunctionRegistry // extends HashMap<String, Iterator>
 			LOG.warn("Class " + funcClass.getName() + " is not a Iterator");
 			return;
 		}
-		registry.put(uri, new IteratorFunctionFactoryAuto(funcClass));
+		put(uri, new IteratorFunctionFactoryAuto(funcClass));
+	}
+
+	/**
+	 * Insert the name of a class that is the iterator function implementation.
+	 * The class is only loaded when the iterator function is first created, so
+	 * registering the iterator functions of a library this way does not load
+	 * the library. An unknown class is only reported then, as a
+	 * QueryBuildException.
+	 *
+	 * @param uri
+	 *            String URI
+	 * @param className
+	 *            Fully qualified name of the class for the function (new
+	 *            instance called).
+	 */
+	public void put(String uri, String className) {
+		put(uri, new IteratorFunctionFactoryLazy(className));
 	}
 
 	/**
@@ -123,17 +140,24 @@ public class IteratorFunctionRegistry // extends HashMap<String, Iterator>
 	 */
 	public void put(String uri, IteratorFunctionFactory f) {
 		registry.put(uri, f);
+		removed.remove(uri);
 	}
 
 	public boolean isRegistered(String uri) {
-		return registry.containsKey(uri);
+		return getRegistered(uri) != null;
 	}
 
 	/**
 	 * Iterate over URIs
 	 */
 	public Iterator<String> keys() {
-		return registry.keySet().iterator();
+		final Set<String> keys = new LinkedHashSet<>();
+		if (parent != null) {
+			parent.keys().forEachRemaining(keys::add);
+			keys.removeAll(removed);
+		}
+		keys.addAll(registry.keySet());
+		return keys.iterator();
 	}
 
 	/**
@@ -143,7 +167,29 @@ public class IteratorFunctionRegistry // extends HashMap<String, Iterator>
 	 * @return
 	 */
 	public IteratorFunctionFactory remove(String uri) {
-		return registry.remove(uri);
+		final IteratorFunctionFactory f = getRegistered(uri);
+		registry.remove(uri);
+		if (parent != null) {
+			removed.add(uri);
+		}
+		return f;
+	}
+
+	/**
+	 * Lookup by URI among the registered iterators, in this registry then in the
+	 * parent registry. Does not look up the iterator with the stream manager.
+	 *
+	 * @return the iterator, or null
+	 */
+	private IteratorFunctionFactory getRegistered(String uri) {
+		final IteratorFunctionFactory f = registry.get(uri);
+		if (f != null) {
+			return f;
+		}
+		if (parent == null || removed.contains(uri)) {
+			return null;
+		}
+		return parent.getRegistered(uri);
 	}
 
 	/**
@@ -152,8 +198,9 @@ public class IteratorFunctionRegistry // extends HashMap<String, Iterator>
 	 * @return the iterator, or null
 	 */
 	public IteratorFunctionFactory get(String uri) {
-		if (registry.get(uri) != null) {
-			return registry.get(uri);
+		final IteratorFunctionFactory f = getRegistered(uri);
+		if (f != null) {
+			return f;
 		}
 		if (failedAttempts.contains(uri)) {
 			return null;
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.iterator;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.expr.ExprEvalException;
+import org.apache.jena.sparql.expr.ExprList;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.function.FunctionEnv;
+import org.apache.jena.sparql.util.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+
+/**
+ * The base implementation of iterator functions that periodically poll a
+ * resource.
+ * <p>
+ * Polls are triggered by the scheduler of the execution context, so polling
+ * many resources does not park one thread per resource. The scheduler only
+ * triggers them: the resource is fetched on the source executor of the
+ * context, or else on the thread that awaits the execution, and the values are
+ * emitted on the thread that awaits the execution (see
+ * {@link IteratorEmitter}). A poll is skipped if the previous one is still
+ * running. A poll may return null if the resource did not change, in which
+ * case nothing is emitted. Pending polls are cancelled when the context is
+ * closed.
+ *
+ * @author Maxime Lefrançois
+ */
+public abstract class IteratorPollingFunctionBase extends IteratorStreamFunctionBase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IteratorPollingFunctionBase.class);
+
+    /**
+     * The key of the pending polls in the execution state.
+     */
+    private static final String PENDING_POLLS = "pending iterator polls";
+
+    /**
+     * Creates the poll for the evaluated arguments.
+     *
+     * @param args the evaluated arguments.
+     * @return the poll.
+     * @throws ExprEvalException if the arguments are not valid.
+     */
+    protected abstract Poll createPoll(List<NodeValue> args);
+
+    @Override
+    public CompletableFuture<Void> execAsync(
+            final Binding binding,
+            final ExprList args,
+            final FunctionEnv env,
+            final Consumer<List<List<NodeValue>>> nodeValuesStream) {
+        return inEnvironment(env, () -> {
+            final Poll poll = createPoll(evalArgs(binding, args, env));
+            return schedule(poll, getContext(), nodeValuesStream);
+        });
+    }
+
+    @Override
+    public void exec(
+            final List<NodeValue> args,
+            final Consumer<List<List<NodeValue>>> nodeValuesStream) {
+        final IteratorEmitter emitter = new IteratorEmitter();
+        final CompletableFuture<Void> completion = schedule(createPoll(args), getContext(),
+                emitter.stream(nodeValuesStream));
+        try {
+            emitter.await(completion);
+            completion.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ExprEvalException("Polling interrupted", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof ExprEvalException) {
+                throw (ExprEvalException) ex.getCause();
+            }
+            throw new ExprEvalException("Polling failed", ex.getCause());
+        } finally {
+            completion.cancel(false);
+        }
+    }
+
+    private CompletableFuture<Void> schedule(
+            final Poll poll,
+            final Context context,
+            final Consumer<List<List<NodeValue>>> nodeValuesStream) {
+        final ScheduledExecutorService scheduler = ContextUtils.getScheduler(context);
+        final Set<CompletableFuture<Void>> pending = ContextUtils.getExecutionState(context, PENDING_POLLS, (k) -> {
+            final Set<CompletableFuture<Void>> polls = ConcurrentHashMap.newKeySet();
+            ContextUtils.addTaskOnClose(context, () -> polls.forEach((f) -> f.cancel(false)));
+            return polls;
+        });
+        final CompletableFuture<Void> completion = new CompletableFuture<>();
+        pending.add(completion);
+        final Executor fetcher = getFetcher(context, nodeValuesStream);
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicBoolean fetching = new AtomicBoolean();
+        final ScheduledFuture<?> task = scheduler.scheduleAtFixedRate(() -> {
+            if (completion.isDone()) {
+                return;
+            }
+            if (!fetching.compareAndSet(false, true)) {
+                LOG.debug("Previous poll of " + poll + " still running, skipping this one");
+                return;
+            }
+            try {
+                fetcher.execute(() -> fetch(poll, count.getAndIncrement(), completion, nodeValuesStream, fetching));
+            } catch (RejectedExecutionException ex) {
+                completion.completeExceptionally(ex);
+            }
+        }, 0, poll.periodNanos, TimeUnit.NANOSECONDS);
+        completion.whenComplete((r, ex) -> {
+            task.cancel(false);
+            pending.remove(completion);
+        });
+        return completion;
+    }
+
+    /**
+     * Returns where the resource is fetched: the source executor of the
+     * context, or else the thread that awaits the execution.
+     */
+    private static Executor getFetcher(
+            final Context context,
+            final Consumer<List<List<NodeValue>>> nodeValuesStream) {
+        final ExecutorService executor = ContextUtils.getSourceExecutor(context);
+        if (executor != null) {
+            return executor;
+        }
+        if (nodeValuesStream instanceof IteratorEmitter.Stream) {
+            return ((IteratorEmitter.Stream) nodeValuesStream).getEmitter();
+        }
+        LOG.debug("No executor to fetch the resource, it is fetched on the scheduler");
+        return Runnable::run;
+    }
+
+    private static void fetch(
+            final Poll poll,
+            final int i,
+            final CompletableFuture<Void> completion,
+            final Consumer<List<List<NodeValue>>> nodeValuesStream,
+            final AtomicBoolean fetching) {
+        try {
+            if (completion.isDone()) {
+                return;
+            }
+            final List<List<NodeValue>> values = poll.next(i);
+            if (values == null) {
+                LOG.debug("Poll #" + i + " of " + poll + " unchanged");
+            } else {
+                nodeValuesStream.accept(values);
+            }
+            if (i + 1 >= poll.times) {
+                completion.complete(null);
+            }
+        } catch (Exception ex) {
+            completion.completeExceptionally(ex);
+        } finally {
+            fetching.set(false);
+        }
+    }
+
+    /**
+     * A periodic poll of a resource, created for each evaluation of the
+     * iterator. It may hold state between successive polls, such as an entity
+     * tag.
+     */
+    protected static abstract class Poll {
+
+        private final long periodNanos;
+
+        private final int times;
+
+        /**
+         * Constructor.
+         *
+         * @param period the time between the start of successive polls.
+         * @param unit the unit of the period.
+         * @param times the number of polls, or {@link Integer#MAX_VALUE} for
+         * polls that never end.
+         */
+        protected Poll(final long period, final TimeUnit unit, final int times) {
+            this.periodNanos = unit.toNanos(period);
+            this.times = times;
+        }
+
+        /**
+         * Polls the resource.
+         *
+         * @param i the number of the poll.
+         * @return the values to emit, or null if the resource did not change.
+         * @throws ExprEvalException if the poll failed, which stops polling.
+         */
+        protected abstract List<List<NodeValue>> next(int i);
+
+    }
+
+}
@@ -16,8 +16,10 @@
 package fr.mines_stetienne.ci.sparql_generate.iterator;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.apache.jena.query.QueryBuildException;
 import org.apache.jena.sparql.ARQInternalErrorException;
@@ -31,8 +33,14 @@ import org.apache.jena.sparql.util.Context;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+
 /**
  * The base implementation of the {@link IteratorFunction} interface.
+ * <p>
+ * An instance is built once per query plan and shared by all the executions of
+ * the plan, possibly concurrent. The state of an execution, such as its
+ * function environment, is therefore not stored in the instance.
  */
 public abstract class IteratorStreamFunctionBase implements IteratorFunction {
 
@@ -44,9 +52,14 @@ public abstract class IteratorStreamFunctionBase implements IteratorFunction {
     protected ExprList arguments = null;
     
     /**
-     * The function environment.
+     * The function environment of the execution in progress on each thread.
      */
-    private FunctionEnv env;
+    private final ThreadLocal<FunctionEnv> currentEnv = new ThreadLocal<>();
+
+    /**
+     * The positions of the outputs used by the query, or null if they all are.
+     */
+    private BitSet usedOutputs = null;
 
     /**
      * Build a iterator function execution with the given arguments, and operate
@@ -73,14 +86,82 @@ public abstract class IteratorStreamFunctionBase implements IteratorFunction {
      */
     public abstract void checkBuild(ExprList args);
 
+    @Override
+    public final void setUsedOutputs(BitSet usedOutputs) {
+        this.usedOutputs = usedOutputs;
+    }
+
+    /**
+     * Checks if an output is bound to a variable used elsewhere in the query.
+     * Iterators may emit null for the outputs that are not used.
+     *
+     * @param i the position of the output
+     * @return true if the output must be computed
+     */
+    protected final boolean isOutputUsed(int i) {
+        return usedOutputs == null || usedOutputs.get(i);
+    }
+
+    /**
+     * @return the positions of the outputs bound to variables used elsewhere
+     * in the query, or null if they all are.
+     */
+    protected final BitSet getUsedOutputs() {
+        return usedOutputs == null ? null : (BitSet) usedOutputs.clone();
+    }
+
     @Override
     public final void exec(
             final Binding binding,
             final ExprList args,
             final FunctionEnv env,
             final Consumer<List<List<NodeValue>>> collectionListNodeValue) {
+        inEnvironment(env, () -> {
+            exec(evalArgs(binding, args, env), collectionListNodeValue);
+            return null;
+        });
+    }
+
+    /**
+     * Runs a part of an execution in the given function environment, which is
+     * then returned by {@link #getContext()} on the current thread. Nested
+     * executions on the same thread restore the environment of the enclosing
+     * execution when they end.
+     *
+     * @param <T> the type of the result
+     * @param env -
+     * @param execution -
+     * @return the result of the execution
+     */
+    protected final <T> T inEnvironment(
+            final FunctionEnv env,
+            final Supplier<T> execution) {
+        final FunctionEnv previous = currentEnv.get();
+        currentEnv.set(env);
+        try {
+            return execution.get();
+        } finally {
+            if (previous == null) {
+                currentEnv.remove();
+            } else {
+                currentEnv.set(previous);
+            }
+        }
+    }
 
-        this.env = env;
+    /**
+     * Evaluates the arguments on the binding. Arguments that cannot be
+     * evaluated are null.
+     *
+     * @param binding -
+     * @param args -
+     * @param env -
+     * @return the evaluated arguments
+     */
+    protected final List<NodeValue> evalArgs(
+            final Binding binding,
+            final ExprList args,
+            final FunctionEnv env) {
         if (args == null) {
             throw new ARQInternalErrorException("IteratorFunctionBase:"
                     + " Null args list");
@@ -96,18 +177,54 @@ public abstract class IteratorStreamFunctionBase implements IteratorFunction {
                 evalArgs.add(null);
             }
         }
-        exec(evalArgs, collectionListNodeValue);
+        return evalArgs;
     }
 
     /**
-     * Return the Context object for this execution.
+     * Return the Context object for the execution in progress on the current
+     * thread.
      *
      * @return -
+     * @throws ARQInternalErrorException if no execution is in progress on the
+     * current thread.
      */
     public final Context getContext() {
+        final FunctionEnv env = currentEnv.get();
+        if (env == null) {
+            throw new ARQInternalErrorException("IteratorFunctionBase:"
+                    + " No execution in progress on this thread");
+        }
         return (Context) env.getContext();
     }
 
+    /**
+     * Returns the size of the batches of this execution, and where they are
+     * emitted. If a batch latency or memory target is set in the context, the
+     * size adapts to the time and heap growth measured while the rest of the
+     * query processes each batch, starting from the given size. Adaptive sizes
+     * are not used when no size is given, as splitting the document in
+     * batches changes the results of aggregates, solution modifiers and
+     * TEMPLATE separators, nor when a checkpoint is recorded, as resuming
+     * requires the same batches.
+     *
+     * @param rowsInABatch the number of rows per batch given as argument, or
+     * 0 if none.
+     * @param collectionListNodeValue where to emit collections of nodevalues
+     * @return the batch size
+     */
+    protected final BatchSize getBatchSize(
+            final int rowsInABatch,
+            final Consumer<List<List<NodeValue>>> collectionListNodeValue) {
+        final Context context = getContext();
+        final long latencyTarget = ContextUtils.getBatchLatencyTarget(context);
+        final long memoryTarget = ContextUtils.getBatchMemoryTarget(context);
+        if (rowsInABatch > 0 && (latencyTarget > 0 || memoryTarget > 0)
+                && ContextUtils.getCheckpoint(context) == null) {
+            return BatchSize.adaptive(collectionListNodeValue, rowsInABatch, latencyTarget, memoryTarget);
+        }
+        return BatchSize.fixed(collectionListNodeValue, rowsInABatch);
+    }
+
     /**
      * IteratorFunction call to a list of evaluated argument values.
      *
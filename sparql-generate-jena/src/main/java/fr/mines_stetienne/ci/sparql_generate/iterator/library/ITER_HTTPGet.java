@@ -17,9 +17,10 @@ package fr.mines_stetienne.ci.sparql_generate.iterator.library;
 
 import fr.mines_stetienne.ci.sparql_generate.utils.LogUtils;
 import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
-import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorStreamFunctionBase;
+import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorPollingFunctionBase;
 import fr.mines_stetienne.ci.sparql_generate.stream.LookUpRequest;
 import fr.mines_stetienne.ci.sparql_generate.stream.SPARQLExtStreamManager;
+import fr.mines_stetienne.ci.sparql_generate.stream.TypedInputStreamETag;
 import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.sparql.expr.ExprEvalException;
 import org.apache.jena.sparql.expr.ExprList;
@@ -35,7 +36,6 @@ import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
 import org.apache.commons.io.IOUtils;
 import org.apache.jena.atlas.web.TypedInputStream;
 import org.apache.jena.datatypes.RDFDatatype;
@@ -71,7 +71,7 @@ import org.apache.jena.riot.SysRIOT;
  * @author El-Mehdi Khalfi <el-mehdi.khalfi at emse.fr>
  * @since 2018-09-27
  */
-public class ITER_HTTPGet extends IteratorStreamFunctionBase {
+public class ITER_HTTPGet extends IteratorPollingFunctionBase {
 
     /**
      * The logger.
@@ -91,59 +91,83 @@ public class ITER_HTTPGet extends IteratorStreamFunctionBase {
     }
 
     @Override
-    public void exec(
-            final List<NodeValue> args, 
-            final Consumer<List<List<NodeValue>>> listNodeValues) {
-        if (!args.get(0).isString() && !args.get(0).isIRI()) {
+    protected Poll createPoll(final List<NodeValue> args) {
+        if (args.get(0) == null || !args.get(0).isString() && !args.get(0).isIRI()) {
             throw new ExprEvalException("First argument must be a string or a URI, got: " + args.get(0));
         }
         final String url_s = args.get(0).isString() ? args.get(0).asString() : args.get(0).asNode().getURI();
-        final LookUpRequest req = new LookUpRequest(url_s);
 
-        if (!args.get(1).isInteger() || args.get(1).getInteger().intValue() <= 0) {
+        if (args.get(1) == null || !args.get(1).isInteger() || args.get(1).getInteger().intValue() <= 0) {
             throw new ExprEvalException("Second argument must be an integer, got: " + args.get(1));
         }
-        long recurrenceValueNano = (args.get(1).getInteger().longValue() * 1_000_000_000);
+        final long recurrenceValue = args.get(1).getInteger().longValue();
 
-        if (args.size() == 3 && (!args.get(2).isInteger() || args.get(2).getInteger().intValue() <= 0)) {
+        if (args.size() == 3 && (args.get(2) == null || !args.get(2).isInteger() || args.get(2).getInteger().intValue() <= 0)) {
             throw new ExprEvalException("Third argument must be a positive integer, got: " + args.get(2));
         }
-        int times = args.size() == 3 ? args.get(2).getInteger().intValue() : Integer.MAX_VALUE;
+        final int times = args.size() == 3 ? args.get(2).getInteger().intValue() : Integer.MAX_VALUE;
 
         final SPARQLExtStreamManager sm = (SPARQLExtStreamManager) getContext().get(SysRIOT.sysStreamManager);
-        for (int i = 0; i < times; i++) {
-            long start = System.nanoTime();
+        return new HTTPGetPoll(sm, url_s, recurrenceValue, times);
+    }
+
+    /**
+     * Polls a URL, with conditional requests once the server has returned an
+     * entity tag.
+     */
+    private static class HTTPGetPoll extends Poll {
+
+        private final SPARQLExtStreamManager sm;
+
+        private final String url_s;
+
+        private final LookUpRequest req;
+
+        private String etag = null;
+
+        HTTPGetPoll(final SPARQLExtStreamManager sm, final String url_s, final long recurrenceValue, final int times) {
+            super(recurrenceValue, TimeUnit.SECONDS, times);
+            this.sm = sm;
+            this.url_s = url_s;
+            this.req = new LookUpRequest(url_s);
+        }
+
+        @Override
+        protected List<List<NodeValue>> next(final int i) {
             LOG.info("Call HTTPGet #" + i + " to " + url_s);
-            String message;
-            final TypedInputStream tin = sm.open(req);
-            if(tin != null) {
-                tin.getMediaType().toHeaderString();
-                try (InputStream in = tin.getInputStream()) {
-                    message = IOUtils.toString(in, StandardCharsets.UTF_8);
-                    String datatypeUri = "https://www.iana.org/assignments/media-types/application" + tin.getMediaType().toHeaderString();
-                    RDFDatatype dt = TypeMapper.getInstance().getSafeTypeByName(datatypeUri);
-                    NodeValue outNode = new NodeValueNode(NodeFactory.createLiteral(message, dt));
-
-                    if (LOG.isDebugEnabled()) {
-                        String compressed = LogUtils.compress(message);
-                        LOG.debug("Message retrieved: \"\"\"" + compressed + "\"\"\"^^<" + datatypeUri + ">");
-                    }
-
-                    listNodeValues.accept(Collections.singletonList(Collections.singletonList(outNode)));
-
-                } catch (IOException ex) {
-                    throw new ExprEvalException("An IOException occurred", ex);
+            final TypedInputStream tin = sm.open(req, etag);
+            if (tin == null) {
+                return null;
+            }
+            if (tin instanceof TypedInputStreamETag) {
+                final TypedInputStreamETag tinETag = (TypedInputStreamETag) tin;
+                if (tinETag.isNotModified()) {
+                    LOG.debug("Call HTTPGet #" + i + " to " + url_s + " not modified");
+                    return null;
                 }
+                etag = tinETag.getETag();
             }
-            long end = System.nanoTime();
-            try {
-                LOG.debug("Will sleep  " + recurrenceValueNano + " - " + (end - start )+ " = " + (recurrenceValueNano - (end - start)));
-                TimeUnit.NANOSECONDS.sleep(recurrenceValueNano - (end - start));
-            } catch (InterruptedException ex) {
-                LOG.debug("Call HTTPGET to " + url_s + " Interrupted");
-                throw new ExprEvalException("Call HTTPGET to " + url_s + " Interrupted");
+            try (InputStream in = tin.getInputStream()) {
+                final String message = IOUtils.toString(in, StandardCharsets.UTF_8);
+                String datatypeUri = "https://www.iana.org/assignments/media-types/application" + tin.getMediaType().toHeaderString();
+                RDFDatatype dt = TypeMapper.getInstance().getSafeTypeByName(datatypeUri);
+                NodeValue outNode = new NodeValueNode(NodeFactory.createLiteral(message, dt));
+
+                if (LOG.isDebugEnabled()) {
+                    String compressed = LogUtils.compress(message);
+                    LOG.debug("Message retrieved: \"\"\"" + compressed + "\"\"\"^^<" + datatypeUri + ">");
+                }
+                return Collections.singletonList(Collections.singletonList(outNode));
+            } catch (IOException ex) {
+                throw new ExprEvalException("An IOException occurred", ex);
             }
         }
+
+        @Override
+        public String toString() {
+            return "HTTPGet " + url_s;
+        }
+
     }
 
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.normalizer.xexpr;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.expr.E_BNode;
+import org.apache.jena.sparql.expr.E_Bound;
+import org.apache.jena.sparql.expr.E_Coalesce;
+import org.apache.jena.sparql.expr.E_Conditional;
+import org.apache.jena.sparql.expr.E_Function;
+import org.apache.jena.sparql.expr.E_LogicalAnd;
+import org.apache.jena.sparql.expr.E_LogicalOr;
+import org.apache.jena.sparql.expr.E_Now;
+import org.apache.jena.sparql.expr.E_Random;
+import org.apache.jena.sparql.expr.E_StrUUID;
+import org.apache.jena.sparql.expr.E_UUID;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprAggregator;
+import org.apache.jena.sparql.expr.ExprFunction1;
+import org.apache.jena.sparql.expr.ExprFunction2;
+import org.apache.jena.sparql.expr.ExprFunction3;
+import org.apache.jena.sparql.expr.ExprFunctionN;
+import org.apache.jena.sparql.expr.ExprList;
+import org.apache.jena.sparql.expr.ExprVar;
+import org.apache.jena.sparql.syntax.ElementBind;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import fr.mines_stetienne.ci.sparql_generate.function.library.FUN_Log;
+import fr.mines_stetienne.ci.sparql_generate.function.library.FUN_Select_Call_Template;
+import fr.mines_stetienne.ci.sparql_generate.utils.ST;
+import fr.mines_stetienne.ci.sparql_generate.utils.VarUtils;
+
+/**
+ * Class used to eliminate common sub-expressions, i.e., take as input a set of
+ * normalized expressions, bind each sub-expression that occurs more than once
+ * to a new variable, and output the expressions where these sub-expressions
+ * are replaced by their variable.
+ * <p>
+ * Only function calls that return the same value every time they are evaluated
+ * are bound. Calls to SPARQL-Template functions and to fun:log have side
+ * effects and are never bound. The arguments of conditional forms such as IF,
+ * COALESCE, || and &amp;&amp; are not bound either, as they may not be
+ * evaluated at all.
+ *
+ * @author Maxime Lefrançois
+ */
+public class CommonExprEliminator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CommonExprEliminator.class);
+
+    /**
+     * Number of occurrences of the candidate sub-expressions
+     */
+    private final Map<Expr, Integer> counts = new HashMap<>();
+
+    /**
+     * Variables of the sub-expressions already bound
+     */
+    private final Map<Expr, Var> vars = new HashMap<>();
+
+    /**
+     * Bindings of the common sub-expressions, in evaluation order
+     */
+    private final List<ElementBind> bindings = new ArrayList<>();
+
+    /**
+     * Counts the sub-expressions of an expression. All the expressions must be
+     * counted before any is rewritten.
+     *
+     * @param expr the expression
+     */
+    public void count(final Expr expr) {
+        if (!isFunctionCall(expr)) {
+            return;
+        }
+        if (isCandidate(expr)) {
+            counts.merge(expr, 1, Integer::sum);
+        }
+        if (isConditional(expr)) {
+            return;
+        }
+        for (Expr arg : expr.getFunction().getArgs()) {
+            count(arg);
+        }
+    }
+
+    /**
+     * Rewrites an expression, replacing its common sub-expressions with their
+     * variable.
+     *
+     * @param expr the expression
+     * @return the rewritten expression
+     */
+    public Expr rewrite(final Expr expr) {
+        final Var var = vars.get(expr);
+        if (var != null) {
+            return new ExprVar(var);
+        }
+        final Expr rewritten = rewriteArgs(expr);
+        if (counts.getOrDefault(expr, 0) < 2) {
+            return rewritten;
+        }
+        final Var newVar = VarUtils.allocVar(UUID.randomUUID().toString().substring(0, 8));
+        LOG.trace("Binding common sub-expression " + expr + " to " + newVar);
+        bindings.add(new ElementBind(newVar, rewritten));
+        vars.put(expr, newVar);
+        return new ExprVar(newVar);
+    }
+
+    private Expr rewriteArgs(final Expr expr) {
+        if (!isFunctionCall(expr) || isConditional(expr)) {
+            return expr;
+        }
+        if (expr instanceof ExprFunction1) {
+            final ExprFunction1 func = (ExprFunction1) expr;
+            return func.copy(rewrite(func.getArg()));
+        } else if (expr instanceof ExprFunction2) {
+            final ExprFunction2 func = (ExprFunction2) expr;
+            return func.copy(rewrite(func.getArg1()), rewrite(func.getArg2()));
+        } else if (expr instanceof ExprFunction3) {
+            final ExprFunction3 func = (ExprFunction3) expr;
+            return func.copy(rewrite(func.getArg1()), rewrite(func.getArg2()), rewrite(func.getArg3()));
+        } else if (expr instanceof ExprFunctionN) {
+            final ExprFunctionN func = (ExprFunctionN) expr;
+            final ExprList args = new ExprList();
+            for (Expr arg : func.getArgs()) {
+                args.add(rewrite(arg));
+            }
+            return func.copy(args);
+        }
+        return expr;
+    }
+
+    /**
+     * Returns the bindings of the common sub-expressions found by the calls to
+     * {@link #rewrite(Expr)} since the previous call to this method. A
+     * sub-expression is bound after the sub-expressions it contains.
+     *
+     * @return the new bindings
+     */
+    public List<ElementBind> pollBindings() {
+        final List<ElementBind> newBindings = new ArrayList<>(bindings);
+        bindings.clear();
+        return newBindings;
+    }
+
+    /**
+     * Checks that an expression is a function call that can be bound to a
+     * variable, i.e., it and all its arguments are deterministic and free of
+     * side effects.
+     */
+    static boolean isCandidate(final Expr expr) {
+        if (!isFunctionCall(expr)
+                || expr instanceof E_BNode
+                || expr instanceof E_Random
+                || expr instanceof E_UUID
+                || expr instanceof E_StrUUID
+                || expr instanceof E_Now) {
+            return false;
+        }
+        if (expr instanceof E_Function) {
+            final String iri = ((E_Function) expr).getFunctionIRI();
+            if (iri.startsWith(ST.NS)
+                    || iri.equals(FUN_Log.URI)
+                    || iri.equals(FUN_Select_Call_Template.URI)) {
+                return false;
+            }
+        }
+        for (Expr arg : expr.getFunction().getArgs()) {
+            if (arg instanceof ExprAggregator || arg.isFunction() && !isCandidate(arg)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks that an expression is a function call whose arguments are
+     * expressions, i.e., not an EXISTS or NOT EXISTS.
+     */
+    private static boolean isFunctionCall(final Expr expr) {
+        return expr instanceof ExprFunction1 || expr instanceof ExprFunction2
+                || expr instanceof ExprFunction3 || expr instanceof ExprFunctionN;
+    }
+
+    private static boolean isConditional(final Expr expr) {
+        return expr instanceof E_Conditional
+                || expr instanceof E_Coalesce
+                || expr instanceof E_LogicalAnd
+                || expr instanceof E_LogicalOr
+                || expr instanceof E_Bound;
+    }
+
+}
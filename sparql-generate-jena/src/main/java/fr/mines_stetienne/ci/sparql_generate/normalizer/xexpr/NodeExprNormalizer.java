@@ -72,6 +72,12 @@ public class NodeExprNormalizer implements SPARQLExtNodeVisitor {
      */
     private final Map<Node, Node> cache = new HashMap<>();
 
+    /**
+     * Variables already bound to deterministic expressions, so that equal
+     * expressions are bound once
+     */
+    private final Map<Expr, Var> boundExprs = new HashMap<>();
+
     /**
      * Expression normalizer
      */
@@ -165,9 +171,8 @@ public class NodeExprNormalizer implements SPARQLExtNodeVisitor {
             result = cache.get(node);
             return null;
         }
-        Var result = Var.alloc(node.getLabel());
         final Expr expr = nzer.normalize(node.getExpr());
-        bindings.add(new ElementBind(result, expr));
+        Var result = bind(Var.alloc(node.getLabel()), expr);
         cache.put(node, result);
         this.result = result;
         return null;
@@ -182,7 +187,6 @@ public class NodeExprNormalizer implements SPARQLExtNodeVisitor {
             result = cache.get(node);
             return null;
         }
-        Var result = Var.alloc(node.getLabel());
         final ExprList args = new ExprList();
         final List<Expr> components = node.getComponents();
         for (Expr e : components) {
@@ -190,16 +194,16 @@ public class NodeExprNormalizer implements SPARQLExtNodeVisitor {
             args.add(n);
         }
         final Expr str = new E_StrConcat(args);
+        final Expr expr;
         if (node.getLang() != null) {
-            Expr expr = new E_StrLang(str, new NodeValueString(node.getLang()));
-            bindings.add(new ElementBind(result, expr));
+            expr = new E_StrLang(str, new NodeValueString(node.getLang()));
         } else if (node.getDatatype() != null) {
             node.getDatatype().visitWith(this);
-            Expr expr = new E_StrDatatype(str, new NodeValueNode(this.result));
-            bindings.add(new ElementBind(result, expr));
+            expr = new E_StrDatatype(str, new NodeValueNode(this.result));
         } else {
-            bindings.add(new ElementBind(result, str));
+            expr = str;
         }
+        Var result = bind(Var.alloc(node.getLabel()), expr);
         cache.put(node, result);
         this.result = result;
         return null;
@@ -214,7 +218,6 @@ public class NodeExprNormalizer implements SPARQLExtNodeVisitor {
             result = cache.get(node);
             return null;
         }
-        Var result = Var.alloc(node.getLabel());
         ExprList args = new ExprList();
         List<Expr> components = node.getComponents();
         for (Expr e : components) {
@@ -227,7 +230,7 @@ public class NodeExprNormalizer implements SPARQLExtNodeVisitor {
         }
         Expr str = new E_StrConcat(args);
         Expr expr = new E_IRI(str);
-        bindings.add(new ElementBind(result, expr));
+        Var result = bind(Var.alloc(node.getLabel()), expr);
         cache.put(node, result);
         this.result = result;
         return null;
@@ -250,6 +253,26 @@ public class NodeExprNormalizer implements SPARQLExtNodeVisitor {
     }
     
 
+    /**
+     * Binds an expression to a variable, unless an equal deterministic
+     * expression is already bound.
+     *
+     * @param var the variable
+     * @param expr the normalized expression
+     * @return the variable bound to the expression
+     */
+    private Var bind(Var var, Expr expr) {
+        final boolean deterministic = CommonExprEliminator.isCandidate(expr);
+        if (deterministic && boundExprs.containsKey(expr)) {
+            return boundExprs.get(expr);
+        }
+        bindings.add(new ElementBind(var, expr));
+        if (deterministic) {
+            boundExprs.put(expr, var);
+        }
+        return var;
+    }
+
     /**
      * {@inheritDoc
      */
@@ -17,10 +17,15 @@ package fr.mines_stetienne.ci.sparql_generate.normalizer.xexpr;
 
 import fr.mines_stetienne.ci.sparql_generate.SPARQLExtException;
 import fr.mines_stetienne.ci.sparql_generate.query.SPARQLExtQuery;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementBox;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementExpr;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementFormat;
 import fr.mines_stetienne.ci.sparql_generate.syntax.ElementIterator;
 import fr.mines_stetienne.ci.sparql_generate.syntax.ElementSource;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementTGroup;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
 import org.apache.jena.graph.Node;
 import org.apache.jena.query.SortCondition;
 import org.apache.jena.sparql.core.Prologue;
@@ -118,7 +123,7 @@ public class QueryXExprNormalizer implements SPARQLExtQueryVisitor {
         }
         if (query.hasTemplateClause()) {
             List<Element> group = normalizeOutput(query.getTemplateClause(), nenzer);
-            query.setTemplateClause(group);
+            query.setTemplateClause(eliminateCommonExprs(query, group));
         }
         if (query.hasTemplateClauseSeparator()) {
             Expr expr = enzer.normalize(query.getTemplateClauseSeparator());
@@ -294,12 +299,83 @@ public class QueryXExprNormalizer implements SPARQLExtQueryVisitor {
         if (!nenzer.hasBindings()) {
             return;
         }
+        final CommonExprEliminator cse = new CommonExprEliminator();
+        final boolean eliminate = !query.hasGroupBy() && !query.hasAggregators();
+        if (eliminate) {
+            for (Element element : nenzer.getBindings()) {
+                if (element instanceof ElementBind) {
+                    cse.count(((ElementBind) element).getExpr());
+                }
+            }
+        }
         for (Element element : nenzer.getBindings()) {
             if (element instanceof ElementBind) {
                 ElementBind b = (ElementBind) element;
-                query.addPostSelect(b.getVar(), b.getExpr());
+                if (!eliminate) {
+                    query.addPostSelect(b.getVar(), b.getExpr());
+                    continue;
+                }
+                // bindings are in dependency order, common sub-expressions are
+                // bound just before the first binding that uses them
+                final Expr expr = cse.rewrite(b.getExpr());
+                for (ElementBind common : cse.pollBindings()) {
+                    query.addPostSelect(common.getVar(), common.getExpr());
+                }
+                query.addPostSelect(b.getVar(), expr);
+            }
+        }
+    }
+
+    /**
+     * Binds the sub-expressions that occur more than once in the template
+     * clause to variables in the post-select. Template clauses with groups are
+     * left unchanged, as their expressions are aggregated.
+     */
+    private List<Element> eliminateCommonExprs(SPARQLExtQuery query, List<Element> elements) {
+        if (query.hasGroupBy() || query.hasAggregators() || hasTGroup(elements)) {
+            return elements;
+        }
+        final CommonExprEliminator cse = new CommonExprEliminator();
+        transformExprs(elements, (expr) -> {
+            cse.count(expr);
+            return expr;
+        });
+        final List<Element> nzed = transformExprs(elements, cse::rewrite);
+        for (ElementBind common : cse.pollBindings()) {
+            query.addPostSelect(common.getVar(), common.getExpr());
+        }
+        return nzed;
+    }
+
+    private boolean hasTGroup(List<Element> elements) {
+        for (Element el : elements) {
+            if (el instanceof ElementTGroup) {
+                return true;
+            } else if (el instanceof ElementBox && hasTGroup(((ElementBox) el).getTExpressions())) {
+                return true;
+            } else if (el instanceof ElementFormat && hasTGroup(((ElementFormat) el).getTExpressions())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Element> transformExprs(List<Element> elements, Function<Expr, Expr> transform) {
+        final List<Element> result = new ArrayList<>();
+        for (Element el : elements) {
+            if (el instanceof ElementExpr) {
+                result.add(new ElementExpr(transform.apply(((ElementExpr) el).getExpr())));
+            } else if (el instanceof ElementBox) {
+                result.add(new ElementBox(transformExprs(((ElementBox) el).getTExpressions(), transform)));
+            } else if (el instanceof ElementFormat) {
+                final ElementFormat format = (ElementFormat) el;
+                final ElementExpr expr = new ElementExpr(transform.apply(format.getExpr().getExpr()));
+                result.add(new ElementFormat(expr, transformExprs(format.getTExpressions(), transform)));
+            } else {
+                result.add(el);
             }
         }
+        return result;
     }
 
     @Override
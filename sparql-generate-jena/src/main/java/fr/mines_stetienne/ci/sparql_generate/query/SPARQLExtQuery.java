@@ -21,6 +21,7 @@ import java.util.List;
 import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryFactory;
 import org.apache.jena.query.QueryVisitor;
+import org.apache.jena.query.SortCondition;
 import org.apache.jena.sparql.core.DatasetDescription;
 import org.apache.jena.sparql.core.Prologue;
 import org.apache.jena.sparql.core.Var;
@@ -28,6 +29,13 @@ import org.apache.jena.sparql.core.VarExprList;
 import org.apache.jena.sparql.expr.Expr;
 import org.apache.jena.sparql.expr.ExprList;
 import org.apache.jena.sparql.syntax.Element;
+import org.apache.jena.sparql.syntax.ElementGroup;
+import org.apache.jena.sparql.syntax.ElementMinus;
+import org.apache.jena.sparql.syntax.ElementNamedGraph;
+import org.apache.jena.sparql.syntax.ElementOptional;
+import org.apache.jena.sparql.syntax.ElementService;
+import org.apache.jena.sparql.syntax.ElementSubQuery;
+import org.apache.jena.sparql.syntax.ElementUnion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,6 +43,7 @@ import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
 import fr.mines_stetienne.ci.sparql_generate.normalizer.aggregates.QueryAggregatesNormalizer;
 import fr.mines_stetienne.ci.sparql_generate.normalizer.bnodes.QueryBNodeNormalizer;
 import fr.mines_stetienne.ci.sparql_generate.normalizer.xexpr.QueryXExprNormalizer;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementSubExtQuery;
 import fr.mines_stetienne.ci.sparql_generate.syntax.FromClause;
 
 /**
@@ -852,6 +861,136 @@ public class SPARQLExtQuery extends Query {
 		return (SPARQLExtQuery) QueryFactory.create(qs, getSyntax());
 	}
 
+	/**
+	 * Copies the query without serializing it. The clauses, the lists that
+	 * hold them and the nested queries are copied, so that normalizing the copy
+	 * leaves this query unchanged. Expressions, nodes and the leaf elements,
+	 * that the normalizers replace instead of modifying, are shared.
+	 *
+	 * @return the copy
+	 */
+	public SPARQLExtQuery copy() {
+		final SPARQLExtQuery copy = new SPARQLExtQuery(this);
+		copy.setSyntax(getSyntax());
+		copy.queryType = queryType;
+		copy.hasEmbeddedExpressions = hasEmbeddedExpressions;
+		copy.isSubQuery = isSubQuery;
+		copy.setQueryResultStar(isQueryResultStar());
+		copy.setDistinct(isDistinct());
+		copy.setReduced(isReduced());
+		final VarExprList project = getProject();
+		for (Var var : project.getVars()) {
+			if (project.hasExpr(var)) {
+				copy.addResultVar(var, project.getExpr(var));
+			} else {
+				copy.addResultVar(var);
+			}
+		}
+		copy.getAggregators().addAll(getAggregators());
+		copy.name = name;
+		copy.signature = signature == null ? null : new ArrayList<>(signature);
+		copy.callParameters = callParameters == null ? null : new ExprList(new ArrayList<>(callParameters.getList()));
+		copy.generateClause = copyElements(generateClause);
+		copy.templateClause = copyElements(templateClause);
+		copy.templateClauseSeparator = templateClauseSeparator;
+		copy.templateClauseBefore = templateClauseBefore;
+		copy.templateClauseAfter = templateClauseAfter;
+		copy.performClause = copyElements(performClause);
+		copy.functionExpression = functionExpression;
+		copy.fromClauses = new ArrayList<>();
+		for (FromClause fromClause : fromClauses) {
+			if (fromClause.getGenerate() == null) {
+				copy.fromClauses.add(fromClause);
+			} else if (fromClause.isNamed()) {
+				copy.fromClauses.add(new FromClause(fromClause.getGenerate().copy(), fromClause.getName()));
+			} else {
+				copy.fromClauses.add(new FromClause(fromClause.getGenerate().copy()));
+			}
+		}
+		copy.bindingClauses = bindingClauses == null ? null : new ArrayList<>(bindingClauses);
+		if (getQueryPattern() != null) {
+			copy.setQueryPattern(copyElement(getQueryPattern()));
+		}
+		if (hasGroupBy()) {
+			final VarExprList groupBy = getGroupBy();
+			for (Var var : groupBy.getVars()) {
+				if (groupBy.hasExpr(var)) {
+					copy.addGroupBy(var, groupBy.getExpr(var));
+				} else {
+					copy.addGroupBy(var);
+				}
+			}
+		}
+		if (hasHaving()) {
+			for (Expr expr : getHavingExprs()) {
+				copy.addHavingCondition(expr);
+			}
+		}
+		if (hasOrderBy()) {
+			for (SortCondition condition : getOrderBy()) {
+				copy.addOrderBy(condition);
+			}
+		}
+		copy.setLimit(getLimit());
+		copy.setOffset(getOffset());
+		if (hasValues()) {
+			copy.setValuesDataBlock(getValuesVariables(), getValuesData());
+		}
+		copy.postSelect.addAll(postSelect);
+		return copy;
+	}
+
+	private static List<Element> copyElements(final List<Element> elements) {
+		if (elements == null) {
+			return null;
+		}
+		final List<Element> copy = new ArrayList<>(elements.size());
+		for (Element element : elements) {
+			copy.add(copyElement(element));
+		}
+		return copy;
+	}
+
+	/**
+	 * Copies the elements that contain nested queries, as the normalizers
+	 * modify nested queries in place.
+	 */
+	private static Element copyElement(final Element element) {
+		if (element instanceof ElementSubExtQuery) {
+			return new ElementSubExtQuery(((ElementSubExtQuery) element).getQuery().copy());
+		} else if (element instanceof ElementSubQuery) {
+			final Query query = ((ElementSubQuery) element).getQuery();
+			if (query instanceof SPARQLExtQuery) {
+				return new ElementSubQuery(((SPARQLExtQuery) query).copy());
+			}
+			return element;
+		} else if (element instanceof ElementGroup) {
+			final ElementGroup group = new ElementGroup();
+			for (Element el : ((ElementGroup) element).getElements()) {
+				group.addElement(copyElement(el));
+			}
+			return group;
+		} else if (element instanceof ElementUnion) {
+			final ElementUnion union = new ElementUnion();
+			for (Element el : ((ElementUnion) element).getElements()) {
+				union.addElement(copyElement(el));
+			}
+			return union;
+		} else if (element instanceof ElementOptional) {
+			return new ElementOptional(copyElement(((ElementOptional) element).getOptionalElement()));
+		} else if (element instanceof ElementMinus) {
+			return new ElementMinus(copyElement(((ElementMinus) element).getMinusElement()));
+		} else if (element instanceof ElementNamedGraph) {
+			final ElementNamedGraph namedGraph = (ElementNamedGraph) element;
+			return new ElementNamedGraph(namedGraph.getGraphNameNode(), copyElement(namedGraph.getElement()));
+		} else if (element instanceof ElementService) {
+			final ElementService service = (ElementService) element;
+			return new ElementService(service.getServiceNode(), copyElement(service.getElement()),
+					service.getSilent());
+		}
+		return element;
+	}
+
 	private int hashcode = -1;
 
 	@Override
@@ -138,6 +138,28 @@ public class LocatorFileAccept extends LocatorAcceptBase {
         return new File(fn).exists();
     }
 
+    /**
+     * Returns the regular file that this locator would open, or null. The
+     * file may then be memory-mapped instead of being read as a stream.
+     */
+    public File getFile(LookUpRequest request) {
+        String filenameIRI = request.getFilenameOrURI();
+        if(filenameIRI.startsWith("http") || filenameIRI.startsWith("coap")) {
+            return null;
+        }
+        String fn = toFileName(filenameIRI);
+        if (fn == null || fn.equals("-")) {
+            return null;
+        }
+        try {
+            File file = new File(fn);
+            return file.isFile() ? file : null;
+        } catch (AccessControlException e) {
+            log.debug("Security problem testing for file", e);
+            return null;
+        }
+    }
+
     /**
      * Open anything that looks a bit like a file name
      */
@@ -16,6 +16,7 @@
 package fr.mines_stetienne.ci.sparql_generate.stream;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -54,6 +55,21 @@ public class LocatorURLAccept extends LocatorAcceptBase {
 
 	@Override
 	public TypedInputStream open(LookUpRequest request) {
+		return open(request, null);
+	}
+
+	/**
+	 * Opens the request, with a conditional request if an entity tag is
+	 * given. If the server replies that the document was not modified, the
+	 * returned {@link TypedInputStreamETag} is empty.
+	 *
+	 * @param request
+	 *            the request
+	 * @param ifNoneMatch
+	 *            the entity tag of the last response, or null
+	 * @return the stream, or null if the request could not be opened
+	 */
+	public TypedInputStream open(LookUpRequest request, String ifNoneMatch) {
 		String acceptHeader = request.getAccept();
 		String source = request.getFilenameOrURI();
 		try {
@@ -61,7 +77,7 @@ public class LocatorURLAccept extends LocatorAcceptBase {
 			URLConnection conn = (URLConnection) url.openConnection();
 //            conn.setConnectTimeout(200);
 //            conn.setReadTimeout(500);
-			return openConnectionCheckRedirects(url, acceptHeader, conn);
+			return openConnectionCheckRedirects(url, acceptHeader, ifNoneMatch, conn);
 		} catch (java.io.FileNotFoundException ex) {
 			log.debug("File not found online: " + source);
 			return null;
@@ -86,7 +102,8 @@ public class LocatorURLAccept extends LocatorAcceptBase {
 		}
 	}
 
-	private TypedInputStream openConnectionCheckRedirects(URL url, String acceptHeader, URLConnection c) throws IOException {
+	private TypedInputStream openConnectionCheckRedirects(URL url, String acceptHeader, String ifNoneMatch,
+			URLConnection c) throws IOException {
 		boolean redir;
 		int redirects = 0;
 		String contentType = null;
@@ -102,6 +119,9 @@ public class LocatorURLAccept extends LocatorAcceptBase {
 			}
 			c.setRequestProperty("Accept", acceptHeader);
 			c.setRequestProperty("Accept-Charset", "utf-8,*");
+			if (ifNoneMatch != null) {
+				c.setRequestProperty("If-None-Match", ifNoneMatch);
+			}
 
 			// We want to open the input stream before getting headers
 			// because getHeaderField() et al swallow IOExceptions.
@@ -134,6 +154,15 @@ public class LocatorURLAccept extends LocatorAcceptBase {
 					if (contentType == null) {
 						contentType = "text/plain";
 					}
+					String etag = http.getHeaderField("ETag");
+					if (stat == HttpURLConnection.HTTP_NOT_MODIFIED) {
+						in.close();
+						return new TypedInputStreamETag(new ByteArrayInputStream(new byte[0]), contentType,
+								etag != null ? etag : ifNoneMatch, true);
+					}
+					if (etag != null) {
+						return new TypedInputStreamETag(in, contentType, etag, false);
+					}
 //					return new TypedInputStream(in, contentType, contentEncoding);
 					return new TypedInputStream(in, contentType);
 				}
@@ -15,6 +15,8 @@
  */
 package fr.mines_stetienne.ci.sparql_generate.stream;
 
+import java.io.File;
+
 import org.apache.jena.atlas.web.TypedInputStream;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.riot.system.stream.LocationMapper;
@@ -81,6 +83,33 @@ public class SPARQLExtStreamManager extends StreamManager {
         return openNoMapOrNull(request);
     }
 
+    /**
+     * Open a file using the locators of this StreamManager, with a conditional
+     * request if an entity tag is given and the file is found online. Returns
+     * null if not found.
+     *
+     * @param _request the request.
+     * @param ifNoneMatch the entity tag of the last response, or null.
+     * @return the stream. It is a {@link TypedInputStreamETag} if the server
+     * returned an entity tag.
+     */
+    public TypedInputStream open(LookUpRequest _request, String ifNoneMatch) {
+        LookUpRequest request = mapRequest(_request);
+        for (Locator loc : locators()) {
+            TypedInputStream in;
+            if (loc instanceof LocatorURLAccept) {
+                in = ((LocatorURLAccept) loc).open(request, ifNoneMatch);
+            } else {
+                in = ((LocatorAccept) loc).open(request);
+            }
+            if (in != null) {
+                LOG.debug("Locator " + loc.getName() + " found: " + request.getFilenameOrURI() + " with accept: " + request.getAccept());
+                return in;
+            }
+        }
+        return null;
+    }
+
     @Deprecated
     public String mapURI(LookUpRequest request) {
         throw new UnsupportedOperationException("Unsupported. Use mapRequest instead");
@@ -137,6 +166,26 @@ public class SPARQLExtStreamManager extends StreamManager {
         return null;
     }
 
+    /**
+     * Returns the local file that would be opened for this request, or null.
+     * Only the leading {@link LocatorFileAccept} locators are considered, as
+     * the other locators cannot tell if they would find the request without
+     * opening it.
+     */
+    public File getLocalFile(LookUpRequest _request) {
+        LookUpRequest request = mapRequest(_request);
+        for (Locator loc : locators()) {
+            if (!(loc instanceof LocatorFileAccept)) {
+                return null;
+            }
+            File file = ((LocatorFileAccept) loc).getFile(request);
+            if (file != null) {
+                return file;
+            }
+        }
+        return null;
+    }
+
     /**
      * Set the location mapping
      */
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.stream;
+
+import java.io.InputStream;
+
+import org.apache.jena.atlas.web.TypedInputStream;
+
+/**
+ * A {@link TypedInputStream} for a HTTP response that has an entity tag.
+ *
+ * @author Maxime Lefrançois
+ */
+public class TypedInputStreamETag extends TypedInputStream {
+
+	private final String etag;
+
+	private final boolean notModified;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param in
+	 *            the input stream
+	 * @param contentType
+	 *            the content type
+	 * @param etag
+	 *            the entity tag of the response
+	 * @param notModified
+	 *            true if the server replied 304 Not Modified to a conditional
+	 *            request
+	 */
+	public TypedInputStreamETag(InputStream in, String contentType, String etag, boolean notModified) {
+		super(in, contentType);
+		this.etag = etag;
+		this.notModified = notModified;
+	}
+
+	/**
+	 * @return the entity tag of the response
+	 */
+	public String getETag() {
+		return etag;
+	}
+
+	/**
+	 * @return true if the document was not modified since the entity tag of
+	 *         the conditional request
+	 */
+	public boolean isNotModified() {
+		return notModified;
+	}
+
+}
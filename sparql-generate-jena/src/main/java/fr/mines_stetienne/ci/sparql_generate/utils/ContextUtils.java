@@ -17,17 +17,25 @@ package fr.mines_stetienne.ci.sparql_generate.utils;
 
 import static fr.mines_stetienne.ci.sparql_generate.SPARQLExt.NS;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.apache.jena.atlas.io.IndentedWriter;
 import org.apache.jena.atlas.web.TypedInputStream;
+import org.apache.jena.graph.Graph;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.query.ARQ;
@@ -53,7 +61,12 @@ import org.apache.jena.vocabulary.RDF;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExtException;
+import fr.mines_stetienne.ci.sparql_generate.engine.Checkpoint;
 import fr.mines_stetienne.ci.sparql_generate.engine.QueryExecutor;
 import fr.mines_stetienne.ci.sparql_generate.function.SPARQLExtFunctionRegistry;
 import fr.mines_stetienne.ci.sparql_generate.graph.Node_List;
@@ -89,6 +102,15 @@ public class ContextUtils {
 
 	private static final Symbol LIST_NODES = SystemARQ.allocSymbol(NS, "list_nodes");
 
+	/**
+	 * The values a fork copies from its parent, rather than reading them
+	 * from the parent at each lookup. A fork therefore does not share the
+	 * list nodes and the current time set by its parent after the fork, and
+	 * finds the outputs in one lookup.
+	 */
+	private static final Symbol[] SNAPSHOT = { LIST_NODES, ARQConstants.sysCurrentTime, OUTPUT_TEMPLATE,
+			OUTPUT_GENERATE, OUTPUT_SELECT };
+
 	private static final Node[] NIL = new Node[] { RDF.nil.asNode() };
 	
 	static { 
@@ -141,11 +163,170 @@ public class ContextUtils {
 		return commons.executor;
 	}
 
+	/**
+	 * Get the executor that runs sibling sub-queries concurrently, when
+	 * parallel sub-queries are enabled. Unless one was set, a pool with one
+	 * thread per processor is created, and shut down when the context is
+	 * closed.
+	 *
+	 * @param context
+	 * @return the executor
+	 */
+	public static ExecutorService getSubQueryExecutor(Context context) {
+		Commons commons = context.get(COMMONS);
+		synchronized (commons) {
+			if (commons.subQueryExecutor == null) {
+				commons.subQueryExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+						(runnable) -> {
+							Thread thread = new Thread(runnable, "sparql-generate-subquery");
+							thread.setDaemon(true);
+							return thread;
+						});
+				commons.closingTasks.add(commons.subQueryExecutor::shutdownNow);
+			}
+			return commons.subQueryExecutor;
+		}
+	}
+
 	public static QueryExecutor getQueryExecutor(Context context) {
 		Commons commons = context.get(COMMONS);
 		return commons.queryExecutor;
 	}
 
+	public static boolean isParallelSubQueries(Context context) {
+		Commons commons = context.get(COMMONS);
+		return commons.parallelSubQueries;
+	}
+
+	public static boolean isPinnedPlans(Context context) {
+		Commons commons = context.get(COMMONS);
+		return commons.pinnedPlans;
+	}
+
+	public static boolean isOrderedSubQueries(Context context) {
+		Commons commons = context.get(COMMONS);
+		return commons.orderedSubQueries;
+	}
+
+	public static int getSourceParallelismPerHost(Context context) {
+		Commons commons = context.get(COMMONS);
+		return commons.sourceParallelismPerHost;
+	}
+
+	public static int getParsingParallelism(Context context) {
+		Commons commons = context.get(COMMONS);
+		return commons.parsingParallelism;
+	}
+
+	/**
+	 * Get the executor that parses chunks of large local documents, or null if
+	 * the parsing parallelism is 1. It is shut down when the context is closed.
+	 *
+	 * @param context
+	 * @return the parsing executor
+	 */
+	public static ExecutorService getParsingExecutor(Context context) {
+		Commons commons = context.get(COMMONS);
+		if (commons.parsingParallelism <= 1) {
+			return null;
+		}
+		synchronized (commons) {
+			if (commons.parsingExecutor == null) {
+				commons.parsingExecutor = Executors.newFixedThreadPool(commons.parsingParallelism, (runnable) -> {
+					Thread thread = new Thread(runnable, "sparql-generate-parsing");
+					thread.setDaemon(true);
+					return thread;
+				});
+				commons.closingTasks.add(commons.parsingExecutor::shutdownNow);
+			}
+			return commons.parsingExecutor;
+		}
+	}
+
+	/**
+	 * Get the executor that fetches the documents of SOURCE clauses, or null
+	 * if they are fetched sequentially.
+	 *
+	 * @param context
+	 * @return the executor, or null
+	 */
+	public static ExecutorService getSourceExecutor(Context context) {
+		Commons commons = context.get(COMMONS);
+		if (commons.sourceParallelism <= 1) {
+			return null;
+		}
+		synchronized (commons) {
+			if (commons.sourceExecutor == null) {
+				commons.sourceExecutor = Executors.newFixedThreadPool(commons.sourceParallelism, (runnable) -> {
+					Thread thread = new Thread(runnable, "sparql-generate-source");
+					thread.setDaemon(true);
+					return thread;
+				});
+				commons.closingTasks.add(commons.sourceExecutor::shutdownNow);
+			}
+			return commons.sourceExecutor;
+		}
+	}
+
+	/**
+	 * Get the scheduler that drives periodic tasks, such as polling iterators.
+	 * Its single thread only triggers the tasks: they must hand any blocking
+	 * or long work over to another executor, or to the thread that awaits
+	 * them. It is shut down when the context is closed.
+	 *
+	 * @param context
+	 * @return the scheduler
+	 */
+	public static ScheduledExecutorService getScheduler(Context context) {
+		Commons commons = context.get(COMMONS);
+		synchronized (commons) {
+			if (commons.scheduler == null) {
+				commons.scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+					Thread thread = new Thread(runnable, "sparql-generate-scheduler");
+					thread.setDaemon(true);
+					return thread;
+				});
+				commons.closingTasks.add(commons.scheduler::shutdownNow);
+			}
+			return commons.scheduler;
+		}
+	}
+
+	public static long getMemoryBudget(Context context) {
+		Commons commons = context.get(COMMONS);
+		return commons.memoryBudget;
+	}
+
+	public static long getBatchLatencyTarget(Context context) {
+		Commons commons = context.get(COMMONS);
+		return commons.batchLatencyTarget;
+	}
+
+	public static long getBatchMemoryTarget(Context context) {
+		Commons commons = context.get(COMMONS);
+		return commons.batchMemoryTarget;
+	}
+
+	public static long getMemoizationBudget(Context context) {
+		Commons commons = context.get(COMMONS);
+		return commons.memoizationBudget;
+	}
+
+	public static int getSubQueryBatchSize(Context context) {
+		Commons commons = context.get(COMMONS);
+		return commons.subQueryBatchSize;
+	}
+
+	public static long getSubQueryBatchDelay(Context context) {
+		Commons commons = context.get(COMMONS);
+		return commons.subQueryBatchDelay;
+	}
+
+	public static Checkpoint getCheckpoint(Context context) {
+		Commons commons = context.get(COMMONS);
+		return commons.checkpoint;
+	}
+
 	public static boolean isRootContext(Context context) {
 		return context.get(PARENT_CONTEXT) == null;
 	}
@@ -168,65 +349,57 @@ public class ContextUtils {
 
 	public static void addTaskOnClose(Context context, final Runnable task) {
 		Commons commons = context.get(COMMONS);
-		commons.closingTasks.add(task);
+		synchronized (commons) {
+			commons.closingTasks.add(task);
+		}
 	}
 
 	public static void close(Context context) {
 		Commons commons = context.get(COMMONS);
 		try {
 			LOG.trace("Closing context");
-			commons.closingTasks.forEach(Runnable::run);
+			final List<Runnable> closingTasks;
+			synchronized (commons) {
+				closingTasks = new ArrayList<>(commons.closingTasks);
+			}
+			closingTasks.forEach(Runnable::run);
 		} catch (Exception ex) {
 			LOG.warn("Exception while closing context:", ex);
 		}
+		commons.executionStates.clear();
 	}
 	
+	/**
+	 * A fork copies the outputs of its parent when it is forked, unless it
+	 * overrides them, so the output is found in one lookup.
+	 */
 	public static IndentedWriter getTemplateOutput(Context context) {
-		IndentedWriter writer = context.get(OUTPUT_TEMPLATE);
-		if(writer != null) {
-			return writer;
-		}
-		if(!isRootContext(context)) {
-			Context parentContext = (Context) context.get(PARENT_CONTEXT);
-			return getTemplateOutput(parentContext);
-		}
-		return null;
+		return context.get(OUTPUT_TEMPLATE);
 	}
 	
 	public static Consumer<ResultSet> getSelectOutput(Context context) {
-		Consumer<ResultSet> output = context.get(OUTPUT_SELECT);
-		if(output != null) {
-			return output;
-		}
-		if(!isRootContext(context)) {
-			Context parentContext = (Context) context.get(PARENT_CONTEXT);
-			return getSelectOutput(parentContext);
-		}
-		return null;
+		return context.get(OUTPUT_SELECT);
 	}
 	
 	public static StreamRDF getGenerateOutput(Context context) {
-		StreamRDF output = context.get(OUTPUT_GENERATE);
-		if(output != null) {
-			return output;
-		}
-		if(!isRootContext(context)) {
-			Context parentContext = (Context) context.get(PARENT_CONTEXT);
-			return getGenerateOutput(parentContext);
-		}
-		return null;
+		return context.get(OUTPUT_GENERATE);
 	}
 
 	public static void loadGraph(Context context, String sourceURI, String baseURI, StreamRDF dest) {
-		if(getDataset(context).containsNamedModel(sourceURI)) {
-			final Model model = getDataset(context).getNamedModel(sourceURI);
-			StreamRDFOps.sendGraphToStream(model.getGraph(), dest);
-			return;
-		}
-		if(!isRootContext(context)) {
-			Context parentContext = (Context) context.get(PARENT_CONTEXT);
-			loadGraph(parentContext, sourceURI, baseURI, dest);
-			return;
+		// forks that do not set a dataset share the one of their parent
+		Dataset checked = null;
+		while (true) {
+			final Dataset dataset = getDataset(context);
+			if (dataset != checked && dataset.containsNamedModel(sourceURI)) {
+				final Model model = dataset.getNamedModel(sourceURI);
+				StreamRDFOps.sendGraphToStream(model.getGraph(), dest);
+				return;
+			}
+			checked = dataset;
+			if (isRootContext(context)) {
+				break;
+			}
+			context = (Context) context.get(PARENT_CONTEXT);
 		}
 		final SPARQLExtStreamManager sm = (SPARQLExtStreamManager) context.get(SysRIOT.sysStreamManager);
 		final String acceptHeader = "text/turtle;q=1.0,application/rdf+xml;q=0.9,*/*;q=0.1";
@@ -244,6 +417,54 @@ public class ContextUtils {
 	}
 
 
+	/**
+	 * Get a graph from the cache of the execution, or loads it.
+	 *
+	 * @param context
+	 * @param key
+	 *            the key that identifies the graph
+	 * @param loader
+	 *            loads the graph if it is not in the cache
+	 * @return the graph
+	 */
+	public static Graph getOrLoadGraph(Context context, Object key, Callable<Graph> loader) {
+		Commons commons = context.get(COMMONS);
+		try {
+			return commons.loadedGraphs.get(key, loader);
+		} catch (ExecutionException ex) {
+			throw new SPARQLExtException("Error while loading graph " + key, ex.getCause());
+		}
+	}
+
+	/**
+	 * Get the state associated to the key in the scope of the execution, or
+	 * creates it.
+	 *
+	 * @param context
+	 * @param key
+	 *            the key that identifies the state
+	 * @param factory
+	 *            creates the state if it does not exist
+	 * @return the state
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T getExecutionState(Context context, Object key, Function<Object, T> factory) {
+		Commons commons = context.get(COMMONS);
+		return (T) commons.executionStates.computeIfAbsent(key, factory);
+	}
+
+	/**
+	 * Removes the state associated to the key in the scope of the execution.
+	 *
+	 * @param context
+	 * @param key
+	 *            the key that identifies the state
+	 */
+	public static void removeExecutionState(Context context, Object key) {
+		Commons commons = context.get(COMMONS);
+		commons.executionStates.remove(key);
+	}
+
 	public static TypedInputStream openStream(Context context, String sourceUri, String acceptHeader) {
 		final LookUpRequest request = new LookUpRequest(sourceUri, acceptHeader);
 		final SPARQLExtStreamManager sm = (SPARQLExtStreamManager) context.get(SysRIOT.sysStreamManager);
@@ -260,7 +481,10 @@ public class ContextUtils {
 	}
 
 	/**
-	 * Forker class is used to create a new context from an existing one.
+	 * Forker class is used to create a new context from an existing one. The
+	 * new context is a layer on top of the existing one, that only holds the
+	 * values set by the forker, and the snapshot of the list nodes, the
+	 * current time and the outputs of the existing one.
 	 */
 	public static class Forker {
 
@@ -272,11 +496,13 @@ public class ContextUtils {
 		 *            the context to fork
 		 */
 		private Forker(Context ctx, boolean isRoot) {
-			context = new Context(ctx);
-			context.set(SysRIOT.sysStreamManager,
-					context.get(SysRIOT.sysStreamManager, SPARQLExtStreamManager.makeStreamManager()));
-			context.set(BASE, context.get(BASE));
-			context.set(PREFIX_MANAGER, context.get(PREFIX_MANAGER, PrefixMapping.Standard));
+			context = new LayeredContext(ctx, SNAPSHOT);
+			if (context.isUndef(SysRIOT.sysStreamManager)) {
+				context.set(SysRIOT.sysStreamManager, SPARQLExtStreamManager.makeStreamManager());
+			}
+			if (context.isUndef(PREFIX_MANAGER)) {
+				context.set(PREFIX_MANAGER, PrefixMapping.Standard);
+			}
 			context.set(SIZE, 0);
 			if(!isRoot) {
 				context.set(PARENT_CONTEXT, ctx);
@@ -446,6 +672,158 @@ public class ContextUtils {
 			commons.queryExecutor = queryExecutor;
 			return this;
 		}
+
+		/**
+		 * The plans of the queries loaded by name are kept by the query
+		 * executor for its whole life, instead of expiring when unused. The
+		 * queries called with a constant IRI are loaded when the execution
+		 * starts.
+		 */
+		public Builder setPinnedPlans(boolean pinnedPlans) {
+			commons.pinnedPlans = pinnedPlans;
+			return this;
+		}
+
+		/**
+		 * The executor that runs sibling sub-queries concurrently. It is not
+		 * shut down when the context is closed, so it may be shared by several
+		 * executions. The executor of {@link #setExecutor(ExecutorService)} is
+		 * left to the iterators, that rely on it to emit their messages one at
+		 * a time.
+		 */
+		public Builder setSubQueryExecutor(ExecutorService subQueryExecutor) {
+			commons.subQueryExecutor = subQueryExecutor;
+			return this;
+		}
+
+		/**
+		 * Sibling sub-queries in a GENERATE clause are executed concurrently on
+		 * the sub-query executor.
+		 */
+		public Builder setParallelSubQueries(boolean parallelSubQueries) {
+			commons.parallelSubQueries = parallelSubQueries;
+			return this;
+		}
+
+		/**
+		 * The output of concurrent sub-queries is emitted in the order of the
+		 * sub-queries.
+		 */
+		public Builder setOrderedSubQueries(boolean orderedSubQueries) {
+			commons.orderedSubQueries = orderedSubQueries;
+			return this;
+		}
+
+		/**
+		 * The maximal number of documents fetched concurrently by SOURCE
+		 * clauses. 1 means sequential fetches.
+		 */
+		public Builder setSourceParallelism(int sourceParallelism) {
+			if (sourceParallelism < 1) {
+				throw new IllegalArgumentException("Source parallelism must be positive, got " + sourceParallelism);
+			}
+			commons.sourceParallelism = sourceParallelism;
+			return this;
+		}
+
+		/**
+		 * The maximal number of documents fetched concurrently from the same
+		 * host by SOURCE clauses.
+		 */
+		public Builder setSourceParallelismPerHost(int sourceParallelismPerHost) {
+			if (sourceParallelismPerHost < 1) {
+				throw new IllegalArgumentException(
+						"Source parallelism per host must be positive, got " + sourceParallelismPerHost);
+			}
+			commons.sourceParallelismPerHost = sourceParallelismPerHost;
+			return this;
+		}
+
+		/**
+		 * The number of threads used by iterators that parse large local
+		 * documents in parallel, such as iter:CSV. 1 means sequential parsing.
+		 */
+		public Builder setParsingParallelism(int parsingParallelism) {
+			if (parsingParallelism < 1) {
+				throw new IllegalArgumentException("Parsing parallelism must be positive, got " + parsingParallelism);
+			}
+			commons.parsingParallelism = parsingParallelism;
+			return this;
+		}
+
+		/**
+		 * The estimated size in bytes above which a batch of bindings is
+		 * processed in chunks. 0 disables chunking, which is the default.
+		 */
+		public Builder setMemoryBudget(long memoryBudget) {
+			commons.memoryBudget = memoryBudget;
+			return this;
+		}
+
+		/**
+		 * The targeted time in milliseconds to process a batch emitted by a
+		 * streaming iterator. If set, the size of the batches of the iterators
+		 * given a batch size adapts to it. 0 disables the target.
+		 */
+		public Builder setBatchLatencyTarget(long batchLatencyTarget) {
+			commons.batchLatencyTarget = batchLatencyTarget;
+			return this;
+		}
+
+		/**
+		 * The targeted heap growth in bytes while processing a batch emitted by
+		 * a streaming iterator. If set, the size of the batches of the iterators
+		 * given a batch size adapts to it. 0 disables the target.
+		 */
+		public Builder setBatchMemoryTarget(long batchMemoryTarget) {
+			commons.batchMemoryTarget = batchMemoryTarget;
+			return this;
+		}
+
+		/**
+		 * The estimated size in bytes of the outputs of TEMPLATE and GENERATE
+		 * sub-calls that are memoized, and reused when the same query is called
+		 * with the same arguments. 0 disables memoization.
+		 */
+		public Builder setMemoizationBudget(long memoizationBudget) {
+			commons.memoizationBudget = memoizationBudget;
+			return this;
+		}
+
+		/**
+		 * The number of calls to a named GENERATE sub-query that are accumulated
+		 * across batches, and executed together. 0 or 1 executes the calls of
+		 * each batch as soon as the batch is processed.
+		 */
+		public Builder setSubQueryBatchSize(int subQueryBatchSize) {
+			commons.subQueryBatchSize = subQueryBatchSize;
+			return this;
+		}
+
+		/**
+		 * The time in milliseconds after which the accumulated calls to a named
+		 * GENERATE sub-query are executed, when the next batch arrives. The
+		 * calls are executed at the end of the execution in any case.
+		 */
+		public Builder setSubQueryBatchDelay(long subQueryBatchDelay) {
+			commons.subQueryBatchDelay = subQueryBatchDelay;
+			return this;
+		}
+
+		/**
+		 * The cache of the graphs loaded by FROM clauses. Executions that are
+		 * given the same cache, and the same input dataset, share the loaded
+		 * graphs.
+		 */
+		public Builder setLoadedGraphs(Cache<Object, Graph> loadedGraphs) {
+			commons.loadedGraphs = loadedGraphs;
+			return this;
+		}
+
+		public Builder setCheckpoint(Checkpoint checkpoint) {
+			commons.checkpoint = checkpoint;
+			return this;
+		}
 		
 		public Context build() {
 			return context;
@@ -458,6 +836,25 @@ public class ContextUtils {
 		private boolean debugTemplate = false;
 		private ExecutorService executor = Executors.newSingleThreadExecutor();
 		private QueryExecutor queryExecutor = new QueryExecutor();
+		private boolean parallelSubQueries = false;
+		private boolean orderedSubQueries = false;
+		private boolean pinnedPlans = false;
+		private int sourceParallelism = 1;
+		private int sourceParallelismPerHost = 2;
+		private ExecutorService sourceExecutor = null;
+		private ExecutorService subQueryExecutor = null;
+		private int parsingParallelism = 1;
+		private ExecutorService parsingExecutor = null;
+		private ScheduledExecutorService scheduler = null;
+		private long memoryBudget = 0;
+		private long batchLatencyTarget = 0;
+		private long batchMemoryTarget = 0;
+		private long memoizationBudget = 0;
+		private int subQueryBatchSize = 0;
+		private long subQueryBatchDelay = 1000;
+		private Checkpoint checkpoint = null;
+		private Cache<Object, Graph> loadedGraphs = CacheBuilder.newBuilder().maximumSize(1_000).softValues().build();
+		private final Map<Object, Object> executionStates = new ConcurrentHashMap<>();
 		private final Set<Runnable> closingTasks = new HashSet<>();
 
 		private Commons() {
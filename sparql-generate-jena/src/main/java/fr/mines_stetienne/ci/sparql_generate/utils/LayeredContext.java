@@ -0,0 +1,193 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.utils;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jena.sparql.util.Context;
+import org.apache.jena.sparql.util.Symbol;
+
+/**
+ * A context that only holds the values set on it, and reads the other values
+ * from the context it was forked from. The cost of forking therefore does not
+ * depend on the number of values in the context.
+ * <p>
+ * Values set on the parent context after the fork are visible in the fork,
+ * unless the fork overrides or removes them, except for the snapshot keys given at fork
+ * time: the fork holds the values these keys have in the parent when it is
+ * forked, or none, and never sees the later changes of the parent. A fork
+ * never changes its parent.
+ * <p>
+ * A lookup walks the layers from the fork to the first one that holds the
+ * key, so its cost grows with the number of nested forks. The snapshot keys
+ * are held by every layer, so they are found in one lookup.
+ *
+ * @author Maxime Lefrançois
+ */
+class LayeredContext extends Context {
+
+	/**
+	 * Marks a value removed from the fork but present in the parent.
+	 */
+	private static final Object REMOVED = new Object();
+
+	/**
+	 * Forks a context.
+	 *
+	 * @param parent the context to fork
+	 * @param snapshot the keys whose values are copied from the parent
+	 */
+	LayeredContext(final Context parent, final Symbol... snapshot) {
+		super();
+		final Layer layer;
+		if (parent instanceof LayeredContext) {
+			layer = new Layer((Layer) ((LayeredContext) parent).context);
+		} else {
+			layer = new Layer(new View(parent));
+		}
+		for (Symbol key : snapshot) {
+			final Object value = parent.get(key);
+			layer.overlay.put(key, value == null ? REMOVED : value);
+		}
+		context = layer;
+	}
+
+	/**
+	 * The values set on a fork, on top of the values of its parent.
+	 */
+	private static class Layer extends AbstractMap<Symbol, Object> {
+
+		private final Map<Symbol, Object> parent;
+
+		private final Map<Symbol, Object> overlay = new ConcurrentHashMap<>();
+
+		private Layer(final Map<Symbol, Object> parent) {
+			this.parent = parent;
+		}
+
+		@Override
+		public Object get(final Object key) {
+			// walk the layers in a loop, deep forks must not overflow the stack
+			Layer layer = this;
+			while (true) {
+				final Object value = layer.overlay.get(key);
+				if (value == REMOVED) {
+					return null;
+				}
+				if (value != null) {
+					return value;
+				}
+				if (!(layer.parent instanceof Layer)) {
+					return layer.parent.get(key);
+				}
+				layer = (Layer) layer.parent;
+			}
+		}
+
+		@Override
+		public boolean containsKey(final Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public Object put(final Symbol key, final Object value) {
+			final Object previous = get(key);
+			overlay.put(key, value);
+			return previous;
+		}
+
+		@Override
+		public Object remove(final Object key) {
+			if (!(key instanceof Symbol)) {
+				return null;
+			}
+			// the key stays removed if the parent sets it later
+			final Object previous = get(key);
+			overlay.put((Symbol) key, REMOVED);
+			return previous;
+		}
+
+		@Override
+		public void clear() {
+			overlay.clear();
+			for (Symbol key : parent.keySet()) {
+				overlay.put(key, REMOVED);
+			}
+		}
+
+		@Override
+		public Set<Entry<Symbol, Object>> entrySet() {
+			return Collections.unmodifiableMap(flatten()).entrySet();
+		}
+
+		private Map<Symbol, Object> flatten() {
+			final Map<Symbol, Object> values = new HashMap<>(parent);
+			overlay.forEach((key, value) -> {
+				if (value == REMOVED) {
+					values.remove(key);
+				} else {
+					values.put(key, value);
+				}
+			});
+			return values;
+		}
+
+	}
+
+	/**
+	 * A read-only view on a context that is not layered.
+	 */
+	private static class View extends AbstractMap<Symbol, Object> {
+
+		private final Context context;
+
+		private View(final Context context) {
+			this.context = context;
+		}
+
+		@Override
+		public Object get(final Object key) {
+			if (!(key instanceof Symbol)) {
+				return null;
+			}
+			return context.get((Symbol) key);
+		}
+
+		@Override
+		public boolean containsKey(final Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public Set<Entry<Symbol, Object>> entrySet() {
+			final Map<Symbol, Object> values = new HashMap<>();
+			for (Symbol key : context.keys()) {
+				final Object value = context.get(key);
+				if (value != null) {
+					values.put(key, value);
+				}
+			}
+			return Collections.unmodifiableMap(values).entrySet();
+		}
+
+	}
+
+}
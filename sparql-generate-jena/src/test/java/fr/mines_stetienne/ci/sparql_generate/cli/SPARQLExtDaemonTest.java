@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.apache.jena.riot.RDFDataMgr;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+
+/**
+ *
+ * @author Maxime Lefrançois
+ */
+public class SPARQLExtDaemonTest {
+
+	private static final String EX = "http://example.org/";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void init() {
+		SPARQLExt.init();
+	}
+
+	@Test
+	public void twoJobsAreExecutedAndReported() throws Exception {
+		final File dir = folder.getRoot();
+		Files.write(new File(dir, "query.rqg").toPath(),
+				("GENERATE { <" + EX + "s> <" + EX + "p> ?param } WHERE { }").getBytes(StandardCharsets.UTF_8));
+		final String jobs = job("1", "out1.ttl", "a") + "\n" + job("2", "out2.ttl", "b") + "\n";
+
+		final Map<String, JsonObject> reports = run(dir, jobs);
+
+		assertEquals(2, reports.size());
+		assertEquals("ok", reports.get("1").get("status").getAsString());
+		assertEquals("ok", reports.get("2").get("status").getAsString());
+		assertOutput(new File(dir, "out1.ttl"), "a");
+		assertOutput(new File(dir, "out2.ttl"), "b");
+	}
+
+	@Test
+	public void nullJobIsReported() throws Exception {
+		final Map<String, JsonObject> reports = run(folder.getRoot(), "null\n");
+
+		assertEquals(1, reports.size());
+		assertEquals("error", reports.get(null).get("status").getAsString());
+	}
+
+	private static String job(final String id, final String output, final String value) {
+		return "{\"id\": \"" + id + "\", \"query\": \"query.rqg\", \"output\": \"" + output
+				+ "\", \"bindings\": {\"param\": \"<" + EX + value + ">\"}}";
+	}
+
+	/**
+	 * Runs the daemon on the jobs, and returns the reports by job id.
+	 */
+	private static Map<String, JsonObject> run(final File dir, final String jobs) throws Exception {
+		final SPARQLExtDaemon daemon = new SPARQLExtDaemon(
+				CMDConfigurations.parseArguments(new String[] { "-d", dir.getAbsolutePath() }), 2);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		daemon.run(new ByteArrayInputStream(jobs.getBytes(StandardCharsets.UTF_8)),
+				new PrintStream(out, true, "UTF-8"));
+		final Map<String, JsonObject> reports = new HashMap<>();
+		for (String line : new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+			final JsonObject report = new JsonParser().parse(line).getAsJsonObject();
+			reports.put(report.has("id") ? report.get("id").getAsString() : null, report);
+		}
+		return reports;
+	}
+
+	private static void assertOutput(final File output, final String value) throws IOException {
+		final Model model = RDFDataMgr.loadModel(output.getAbsolutePath());
+		assertEquals(1, model.size());
+		assertTrue(model.contains(ResourceFactory.createResource(EX + "s"),
+				ResourceFactory.createProperty(EX + "p"), ResourceFactory.createResource(EX + value)));
+	}
+
+}
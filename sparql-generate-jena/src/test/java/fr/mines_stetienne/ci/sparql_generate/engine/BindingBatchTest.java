@@ -0,0 +1,130 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.expr.E_Str;
+import org.apache.jena.sparql.expr.ExprVar;
+import org.apache.jena.sparql.util.Context;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+
+/**
+ *
+ * @author Maxime Lefrançois
+ */
+public class BindingBatchTest {
+
+	private static final Var P = Var.alloc("p");
+
+	private static final Var A = Var.alloc("a");
+
+	private static final Var B = Var.alloc("b");
+
+	private static final Var S = Var.alloc("s");
+
+	@BeforeClass
+	public static void init() {
+		SPARQLExt.init();
+	}
+
+	@Test
+	public void rowsExtendTheirParent() {
+		final Binding parent = BindingFactory.binding(P, uri("p"));
+		final BindingBatch batch = new BindingBatch(parent, Arrays.asList(A, B),
+				new Node[][] { { uri("a1"), uri("a2") }, { uri("b1"), null } });
+		assertEquals(2, batch.size());
+		assertEquals(uri("p"), batch.get(1).get(P));
+		assertEquals(uri("a2"), batch.get(1).get(A));
+		assertNull(batch.get(1).get(B));
+		assertEquals(3, batch.get(0).size());
+		assertEquals(2, batch.get(1).size());
+		assertSame(batch.get(0), batch.get(0));
+	}
+
+	@Test
+	public void concatKeepsTheOrderAndTheParents() {
+		final List<Var> vars = Collections.singletonList(A);
+		final BindingBatch first = new BindingBatch(BindingFactory.binding(P, uri("p1")), vars,
+				new Node[][] { { uri("a1") } });
+		final BindingBatch second = new BindingBatch(BindingFactory.binding(P, uri("p2")), vars,
+				new Node[][] { { uri("a2"), uri("a3") } });
+		final BindingBatch batch = BindingBatch.concat(vars, Arrays.asList(first, second));
+		assertEquals(3, batch.size());
+		assertEquals(uri("a1"), batch.get(0).get(A));
+		assertEquals(uri("p1"), batch.get(0).get(P));
+		assertEquals(uri("a3"), batch.get(2).get(A));
+		assertEquals(uri("p2"), batch.get(2).get(P));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void concatRejectsOtherVariables() {
+		final BindingBatch batch = new BindingBatch(BindingFactory.binding(), Collections.singletonList(B),
+				new Node[][] { { uri("b1") } });
+		BindingBatch.concat(Collections.singletonList(A), Collections.singletonList(batch));
+	}
+
+	@Test
+	public void bindExtendsTheBatch() {
+		final BindingBatch batch = new BindingBatch(BindingFactory.binding(), Collections.singletonList(A),
+				new Node[][] { { uri("a1"), null } });
+		final Context context = ContextUtils.build().build();
+		final List<Binding> values = new BindPlan(new E_Str(new ExprVar(A)), S).exec(batch, context);
+		assertTrue(values instanceof BindingBatch);
+		assertEquals(2, values.size());
+		assertEquals(NodeFactory.createLiteral("http://example.org/a1"), values.get(0).get(S));
+		assertEquals(uri("a1"), values.get(0).get(A));
+		assertNull(values.get(1).get(S));
+	}
+
+	@Test
+	public void bindOnOtherListsCreatesBindings() {
+		final List<Binding> list = Collections.singletonList(BindingFactory.binding(A, uri("a1")));
+		final Context context = ContextUtils.build().build();
+		final List<Binding> values = new BindPlan(new E_Str(new ExprVar(A)), S).exec(list, context);
+		assertEquals(1, values.size());
+		assertEquals(NodeFactory.createLiteral("http://example.org/a1"), values.get(0).get(S));
+	}
+
+	@Test
+	public void iteratorAndBindBindEveryRow() {
+		final RootPlan plan = PlanFactory.create("PREFIX iter: <http://w3id.org/sparql-generate/iter/>\n"
+				+ "GENERATE { <http://example.org/s> <http://example.org/p> ?s . }\n"
+				+ "ITERATOR iter:for(1, 1, 4) AS ?i\n"
+				+ "BIND(STR(?i) AS ?s)");
+		assertEquals(3, plan.execGenerate(ContextUtils.build().build()).size());
+	}
+
+	private static Node uri(String name) {
+		return NodeFactory.createURI("http://example.org/" + name);
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.apache.jena.rdf.model.Model;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+
+/**
+ *
+ * @author Maxime Lefrançois
+ */
+public class CheckpointTest {
+
+	private static final String QUERY = "PREFIX iter: <http://w3id.org/sparql-generate/iter/>\n"
+			+ "GENERATE { <http://example.org/s> <http://example.org/p> ?i . }\n"
+			+ "ITERATOR iter:for(1, 1, 4) AS ?i";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void init() {
+		SPARQLExt.init();
+	}
+
+	@Test
+	public void savesEveryIntervalBatches() throws IOException {
+		final File file = new File(folder.getRoot(), "checkpoint");
+		final Checkpoint checkpoint = Checkpoint.create(file, 2, false);
+		checkpoint.setOutput(() -> 42);
+		checkpoint.batchCompleted();
+		assertFalse(file.exists());
+		checkpoint.batchCompleted();
+		assertTrue(file.exists());
+		final Properties properties = load(file);
+		assertEquals("2", properties.getProperty("batches"));
+		assertEquals("42", properties.getProperty("output.offset"));
+	}
+
+	@Test
+	public void resumeSkipsProcessedBatches() throws IOException {
+		final File file = new File(folder.getRoot(), "checkpoint");
+		final Checkpoint first = Checkpoint.create(file, 1, false);
+		first.setOutput(() -> 17);
+		first.batchCompleted();
+		first.batchCompleted();
+
+		final Checkpoint resumed = Checkpoint.create(file, 1, true);
+		assertTrue(resumed.isResumed());
+		assertEquals(17, resumed.getResumedOutputOffset());
+		assertTrue(resumed.isReplayed());
+		assertTrue(resumed.isReplayed());
+		assertFalse(resumed.isReplayed());
+	}
+
+	@Test
+	public void resumeWithoutFileStartsOver() {
+		final File file = new File(folder.getRoot(), "missing");
+		final Checkpoint checkpoint = Checkpoint.create(file, 1, true);
+		assertFalse(checkpoint.isResumed());
+		assertFalse(checkpoint.isReplayed());
+	}
+
+	@Test
+	public void finishDeletesTheCheckpoint() {
+		final File file = new File(folder.getRoot(), "checkpoint");
+		final Checkpoint checkpoint = Checkpoint.create(file, 1, false);
+		checkpoint.batchCompleted();
+		assertTrue(file.exists());
+		checkpoint.finish();
+		assertFalse(file.exists());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void intervalMustBePositive() {
+		Checkpoint.create(new File(folder.getRoot(), "checkpoint"), 0, false);
+	}
+
+	@Test
+	public void checkpointedExecutionGeneratesEverything() {
+		final File file = new File(folder.getRoot(), "checkpoint");
+		final Checkpoint checkpoint = Checkpoint.create(file, 1, false);
+		final RootPlan plan = PlanFactory.create(QUERY);
+		final Model model = plan.execGenerate(ContextUtils.build().setCheckpoint(checkpoint).build());
+		assertEquals(3, model.size());
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void resumedExecutionSkipsProcessedBatches() throws IOException {
+		final File file = new File(folder.getRoot(), "checkpoint");
+		final Properties properties = new Properties();
+		properties.setProperty("batches", "1");
+		properties.setProperty("output.offset", "0");
+		try (OutputStream out = new FileOutputStream(file)) {
+			properties.store(out, null);
+		}
+		final Checkpoint checkpoint = Checkpoint.create(file, 1, true);
+		final RootPlan plan = PlanFactory.create(QUERY);
+		final Model model = plan.execGenerate(ContextUtils.build().setCheckpoint(checkpoint).build());
+		// iter:for emits its values in a single batch, which was processed
+		assertEquals(0, model.size());
+		assertFalse(file.exists());
+	}
+
+	private static Properties load(final File file) throws IOException {
+		final Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+		}
+		return properties;
+	}
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+
+/**
+ *
+ * @author Maxime Lefrançois
+ */
+public class ChunkingTest {
+
+	private static final String PREFIX = "PREFIX iter: <http://w3id.org/sparql-generate/iter/>\n";
+
+	/**
+	 * A budget that every batch of the tests exceeds.
+	 */
+	private static final long BUDGET = 1;
+
+	@BeforeClass
+	public static void init() {
+		SPARQLExt.init();
+	}
+
+	@Test
+	public void chunkedBatchGeneratesTheSameTriples() {
+		final String query = PREFIX
+				+ "GENERATE { <http://example.org/{STR(?i)}> <http://example.org/p> ?j . }\n"
+				+ "ITERATOR iter:for(1, 1, 5001) AS ?i\n"
+				+ "BIND(?i + 1 AS ?j)";
+		final Model expected = exec(query, 0);
+		final Model chunked = exec(query, BUDGET);
+		assertEquals(5000, expected.size());
+		assertTrue(chunked.isIsomorphicWith(expected));
+	}
+
+	@Test
+	public void listsAreNotChunked() {
+		final String query = PREFIX
+				+ "GENERATE { <http://example.org/s> <http://example.org/p> LIST( ?i ) . }\n"
+				+ "ITERATOR iter:for(1, 1, 5001) AS ?i";
+		final Model expected = exec(query, 0);
+		final Model chunked = exec(query, BUDGET);
+		assertEquals(1, chunked.listObjectsOfProperty(chunked.createProperty("http://example.org/p")).toList().size());
+		assertEquals(1, chunked.listSubjectsWithProperty(RDF.rest, RDF.nil).toList().size());
+		assertTrue(chunked.isIsomorphicWith(expected));
+	}
+
+	private static Model exec(final String query, final long budget) {
+		return PlanFactory.create(query).execGenerate(ContextUtils.build().setMemoryBudget(budget).build());
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.rdf.model.ResourceFactory;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+
+/**
+ *
+ * @author Maxime Lefrançois
+ */
+public class DatasetDeclarationPlanTest {
+
+	private static final String EX = "http://example.org/";
+
+	private static final Resource G1 = ResourceFactory.createResource(EX + "g1");
+
+	private static final Resource G2 = ResourceFactory.createResource(EX + "g2");
+
+	private Dataset dataset;
+
+	@BeforeClass
+	public static void init() {
+		SPARQLExt.init();
+	}
+
+	@Before
+	public void setUp() {
+		dataset = DatasetFactory.create();
+		dataset.addNamedModel(G1.getURI(), graph("a"));
+		dataset.addNamedModel(G2.getURI(), graph("b"));
+	}
+
+	@Test
+	public void defaultGraphIsTheUnionOfTheFromGraphs() {
+		final Model output = exec("GENERATE { ?s ?p ?o . }\n"
+				+ "FROM <http://example.org/g1> FROM <http://example.org/g2>\n"
+				+ "WHERE { ?s ?p ?o }");
+		final Model expected = graph("a").add(graph("b"));
+		assertTrue(output.isIsomorphicWith(expected));
+	}
+
+	@Test
+	public void namedGraphsAreExposedUnderTheirName() {
+		final Model output = exec("GENERATE { ?s <http://example.org/in> ?g . }\n"
+				+ "FROM NAMED <http://example.org/g1>\n"
+				+ "WHERE { GRAPH ?g { ?s ?p ?o } }");
+		assertEquals(1, output.size());
+		assertTrue(output.contains(resource("a"), ResourceFactory.createProperty(EX + "in"), G1));
+	}
+
+	@Test
+	public void inputDatasetIsLeftUnchanged() {
+		exec("GENERATE { ?s ?p ?o . }\n"
+				+ "FROM <http://example.org/g1> FROM NAMED <http://example.org/g2>\n"
+				+ "WHERE { ?s ?p ?o }");
+		assertTrue(dataset.getDefaultModel().isEmpty());
+		assertTrue(dataset.getNamedModel(G1.getURI()).isIsomorphicWith(graph("a")));
+		assertTrue(dataset.getNamedModel(G2.getURI()).isIsomorphicWith(graph("b")));
+	}
+
+	private Model exec(String query) {
+		final RootPlan plan = PlanFactory.create(query);
+		return plan.execGenerate(ContextUtils.build().setInputDataset(dataset).build());
+	}
+
+	private static Model graph(String name) {
+		final Model model = ModelFactory.createDefaultModel();
+		model.add(resource(name), ResourceFactory.createProperty(EX + "p"), name);
+		return model;
+	}
+
+	private static Resource resource(String name) {
+		return ResourceFactory.createResource(EX + name);
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.query.ResultSetFormatter;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorFunctionBase1;
+import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorFunctionRegistry;
+import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+
+/**
+ *
+ * @author Maxime Lefrançois
+ */
+public class FilterPushdownTest {
+
+	private static final String RECORD = "http://example.org/record";
+
+	private static final String PREFIX = "PREFIX iter: <http://w3id.org/sparql-generate/iter/>\n"
+			+ "PREFIX ex: <http://example.org/>\n";
+
+	private static final AtomicInteger calls = new AtomicInteger();
+
+	private static volatile BitSet usedOutputs;
+
+	/**
+	 * Emits its argument and its lexical form, and records its calls and the
+	 * outputs the query uses.
+	 */
+	public static class Record extends IteratorFunctionBase1 {
+
+		@Override
+		public List<List<NodeValue>> exec(NodeValue v) {
+			calls.incrementAndGet();
+			usedOutputs = getUsedOutputs();
+			return Collections.singletonList(Arrays.asList(v, NodeValue.makeString(v.asUnquotedString())));
+		}
+
+	}
+
+	@BeforeClass
+	public static void init() {
+		SPARQLExt.init();
+		IteratorFunctionRegistry.get().put(RECORD, Record.class);
+	}
+
+	@Before
+	public void setUp() {
+		calls.set(0);
+		usedOutputs = null;
+	}
+
+	@Test
+	public void filterIsEvaluatedBeforeTheNextIterator() {
+		final Model model = generate("GENERATE { <http://example.org/{?b}> ex:p ?a . }\n"
+				+ "ITERATOR iter:for(1, 1, 11) AS ?i\n"
+				+ "ITERATOR ex:record(?i) AS ?a ?b\n"
+				+ "WHERE { FILTER(?i > 5) }");
+		assertEquals(5, model.size());
+		assertEquals(5, calls.get());
+	}
+
+	@Test
+	public void filterOnPatternVariableIsNotMoved() {
+		final Model model = generate("GENERATE { <http://example.org/{?b}> ex:p ?a . }\n"
+				+ "ITERATOR iter:for(1, 1, 11) AS ?i\n"
+				+ "ITERATOR ex:record(?i) AS ?a ?b\n"
+				+ "WHERE { BIND(?i AS ?k) FILTER(?k > 5) }");
+		assertEquals(5, model.size());
+		assertEquals(10, calls.get());
+	}
+
+	@Test
+	public void nonDeterministicFilterIsNotMoved() {
+		generate("GENERATE { <http://example.org/{?b}> ex:p ?a . }\n"
+				+ "ITERATOR iter:for(1, 1, 11) AS ?i\n"
+				+ "ITERATOR ex:record(?i) AS ?a ?b\n"
+				+ "WHERE { FILTER(?i > 5 && RAND() < 2) }");
+		assertEquals(10, calls.get());
+	}
+
+	@Test
+	public void filterIsNotMovedBeforeAnIteratorOfASelectQuery() {
+		final int size = ResultSetFormatter.consume(PlanFactory.create(PREFIX
+				+ "SELECT ?a\n"
+				+ "ITERATOR iter:for(1, 1, 11) AS ?i\n"
+				+ "ITERATOR ex:record(?i) AS ?a ?b\n"
+				+ "WHERE { FILTER(?i > 5) }").execSelect(ContextUtils.build().build()));
+		assertEquals(5, size);
+		assertEquals(10, calls.get());
+	}
+
+	@Test
+	public void filterIsMovedInASelectQuery() {
+		final int size = ResultSetFormatter.consume(PlanFactory.create(PREFIX
+				+ "SELECT ?i\n"
+				+ "ITERATOR iter:for(1, 1, 11) AS ?i\n"
+				+ "WHERE { FILTER(?i > 5) }").execSelect(ContextUtils.build().build()));
+		assertEquals(5, size);
+	}
+
+	@Test
+	public void unusedOutputsAreReported() {
+		final Model model = generate("GENERATE { ex:s ex:p ?a, \"?b\" . }\n"
+				+ "ITERATOR iter:for(1, 1, 3) AS ?i\n"
+				+ "ITERATOR ex:record(?i) AS ?a ?b");
+		assertEquals(3, model.size());
+		final BitSet expected = new BitSet();
+		expected.set(0);
+		assertEquals(expected, usedOutputs);
+	}
+
+	@Test
+	public void outputsUsedInSubQueriesAreReported() {
+		generate("GENERATE { GENERATE { ex:s ex:p ?b . } . }\n"
+				+ "ITERATOR iter:for(1, 1, 3) AS ?i\n"
+				+ "ITERATOR ex:record(?i) AS ?a ?b");
+		assertNull(usedOutputs);
+		generate("GENERATE { ex:s ex:p ?a . }\n"
+				+ "ITERATOR iter:for(1, 1, 3) AS ?i\n"
+				+ "ITERATOR ex:record(?i) AS ?a ?b\n"
+				+ "WHERE { FILTER(BOUND(?b)) }");
+		assertNull(usedOutputs);
+	}
+
+	private static Model generate(final String query) {
+		return PlanFactory.create(PREFIX + query).execGenerate(ContextUtils.build().build());
+	}
+}
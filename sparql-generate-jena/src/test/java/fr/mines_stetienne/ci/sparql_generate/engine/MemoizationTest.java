@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.function.FunctionBase1;
+import org.apache.jena.sparql.function.FunctionRegistry;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.stream.LocatorStringMap;
+import fr.mines_stetienne.ci.sparql_generate.stream.SPARQLExtStreamManager;
+import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+
+/**
+ *
+ * @author Maxime Lefrançois
+ */
+public class MemoizationTest {
+
+	private static final String PREFIX = "PREFIX iter: <http://w3id.org/sparql-generate/iter/>\n"
+			+ "PREFIX st: <http://ns.inria.fr/sparql-template/>\n"
+			+ "PREFIX ex: <http://example.org/>\n";
+
+	private static final long BUDGET = 10_000_000;
+
+	private static final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns its argument, and counts its calls per argument.
+	 */
+	public static class Count extends FunctionBase1 {
+
+		@Override
+		public NodeValue exec(NodeValue v) {
+			calls.computeIfAbsent(v.asString(), (k) -> new AtomicInteger()).incrementAndGet();
+			return v;
+		}
+
+	}
+
+	private SPARQLExtStreamManager streamManager;
+
+	private QueryExecutor queryExecutor;
+
+	/**
+	 * Memoized calls are keyed by dataset.
+	 */
+	private Dataset dataset;
+
+	@BeforeClass
+	public static void init() {
+		SPARQLExt.init();
+		FunctionRegistry.get().put("http://example.org/count", Count.class);
+	}
+
+	@Before
+	public void setUp() {
+		calls.clear();
+		final LocatorStringMap locator = new LocatorStringMap();
+		put(locator, "GENERATE ex:pure(?x) { ex:s ex:p ?y . }\n"
+				+ "WHERE { BIND(ex:count(?x) AS ?y) }");
+		put(locator, "GENERATE ex:source(?x) { ex:s ex:p ?y . }\n"
+				+ "SOURCE <http://example.org/doc.csv> AS ?doc\n"
+				+ "WHERE { BIND(ex:count(?x) AS ?y) }");
+		put(locator, "GENERATE ex:document(?x) { ex:s ex:p ?y . }\n"
+				+ "ITERATOR iter:CSV(<http://example.org/doc.csv>) AS ?a\n"
+				+ "WHERE { BIND(ex:count(?x) AS ?y) }");
+		put(locator, "GENERATE ex:outer(?x) { ex:s ex:p ?y . GENERATE ex:now(?x) . }\n"
+				+ "WHERE { BIND(ex:count(?x) AS ?y) }");
+		put(locator, "GENERATE ex:now(?x) { ex:s ex:time ?t . }\n"
+				+ "WHERE { BIND(NOW() AS ?t) }");
+		put(locator, "GENERATE ex:dynamic(?x) { ex:s ex:p ?y ; ex:q ?z . }\n"
+				+ "WHERE { BIND(ex:count(?x) AS ?y) BIND(st:call-template(IRI(CONCAT(STR(ex:), \"text\")), ?x) AS ?z) }");
+		put(locator, "TEMPLATE ex:text(?x) { \"text\" }\n"
+				+ "WHERE { }");
+		locator.put("http://example.org/doc.csv", "a\n1\n", "text/csv");
+		streamManager = SPARQLExtStreamManager.makeStreamManager(locator);
+		queryExecutor = new QueryExecutor();
+		dataset = DatasetFactory.create();
+	}
+
+	@Test
+	public void callsOfAPureQueryAreMemoized() {
+		final Model first = call("pure", BUDGET);
+		final Model second = call("pure", BUDGET);
+		assertEquals(1, calls.get("pure").get());
+		assertTrue(second.isIsomorphicWith(first));
+	}
+
+	@Test
+	public void callsAreNotMemoizedWithoutBudget() {
+		call("pure", 0);
+		call("pure", 0);
+		assertEquals(2, calls.get("pure").get());
+	}
+
+	@Test
+	public void memoIsKeptWhenTheBudgetChanges() {
+		call("pure", BUDGET);
+		call("pure", 2 * BUDGET);
+		assertEquals(1, calls.get("pure").get());
+	}
+
+	@Test
+	public void callsOfAQueryWithSourceAreNotMemoized() {
+		call("source", BUDGET);
+		call("source", BUDGET);
+		assertEquals(2, calls.get("source").get());
+	}
+
+	@Test
+	public void callsOfAQueryParsingADocumentIRIAreNotMemoized() {
+		call("document", BUDGET);
+		call("document", BUDGET);
+		assertEquals(2, calls.get("document").get());
+	}
+
+	@Test
+	public void callsOfAQueryCallingANonDeterministicQueryAreNotMemoized() {
+		call("outer", BUDGET);
+		call("outer", BUDGET);
+		assertEquals(2, calls.get("outer").get());
+	}
+
+	@Test
+	public void callsOfAQueryCallingAComputedNameAreNotMemoized() {
+		call("dynamic", BUDGET);
+		call("dynamic", BUDGET);
+		assertEquals(2, calls.get("dynamic").get());
+	}
+
+	private Model call(final String name, final long budget) {
+		return PlanFactory.create(PREFIX + "GENERATE { GENERATE ex:" + name + "(\"" + name + "\") . } WHERE { }")
+				.execGenerate(ContextUtils.build()
+						.setStreamManager(streamManager)
+						.setQueryExecutor(queryExecutor)
+						.setInputDataset(dataset)
+						.setMemoizationBudget(budget)
+						.build());
+	}
+
+	private static void put(final LocatorStringMap locator, final String query) {
+		final String name = query.substring(query.indexOf("ex:") + 3, query.indexOf('('));
+		locator.put("http://example.org/" + name, PREFIX + query, SPARQLExt.MEDIA_TYPE);
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.engine;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.stream.LocatorStringMap;
+import fr.mines_stetienne.ci.sparql_generate.stream.SPARQLExtStreamManager;
+import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+
+/**
+ *
+ * @author Maxime Lefrançois
+ */
+public class NestedTemplateTest {
+
+	private static final String PREFIX = "PREFIX st: <http://ns.inria.fr/sparql-template/>\n"
+			+ "PREFIX ex: <http://example.org/>\n";
+
+	private SPARQLExtStreamManager streamManager;
+
+	@BeforeClass
+	public static void init() {
+		SPARQLExt.init();
+	}
+
+	@Before
+	public void setUp() {
+		final LocatorStringMap locator = new LocatorStringMap();
+		locator.put("http://example.org/item", PREFIX
+				+ "TEMPLATE ex:item(?i) { \"item \" ?i BOX { \"\\nx\" } } WHERE { }", SPARQLExt.MEDIA_TYPE);
+		locator.put("http://example.org/incr", PREFIX
+				+ "TEMPLATE ex:incr(?i) { \"a\" st:incr() } WHERE { }", SPARQLExt.MEDIA_TYPE);
+		streamManager = SPARQLExtStreamManager.makeStreamManager(locator);
+	}
+
+	@Test
+	public void nestedTemplateIsIndentedByTheEnclosingBox() {
+		assertEquals("[\n  item 1\n    x\n]", exec("TEMPLATE {\n"
+				+ "  \"[\" BOX { \"\\n\" st:call-template(ex:item, 1) } \"\\n]\"\n"
+				+ "} WHERE { }"));
+	}
+
+	@Test
+	public void printedAndBoundTemplatesAreEqual() {
+		final String printed = exec("TEMPLATE {\n"
+				+ "  \"[\" BOX { \"\\n\" st:call-template(ex:item, ?i) } \"\\n]\" ; separator = \",\"\n"
+				+ "} WHERE { VALUES ?i { 1 2 3 } }");
+		final String bound = exec("TEMPLATE {\n"
+				+ "  \"[\" BOX { \"\\n\" ?s } \"\\n]\" ; separator = \",\"\n"
+				+ "} WHERE { VALUES ?i { 1 2 3 } BIND(st:call-template(ex:item, ?i) AS ?s) }");
+		assertEquals(bound, printed);
+	}
+
+	@Test
+	public void nestedIndentationDoesNotLeak() {
+		assertEquals("a\nb", exec("TEMPLATE {\n"
+				+ "  st:call-template(ex:incr, 1) \"\\nb\"\n"
+				+ "} WHERE { }"));
+	}
+
+	private String exec(final String query) {
+		return PlanFactory.create(PREFIX + query)
+				.execTemplate(ContextUtils.build().setStreamManager(streamManager).build());
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.engine;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+
+/**
+ *
+ * @author Maxime Lefrançois
+ */
+public class ParallelSubQueriesTest {
+
+	private static final String QUERY = "PREFIX iter: <http://w3id.org/sparql-generate/iter/>\n"
+			+ "GENERATE {\n"
+			+ "  GENERATE { <http://example.org/a> <http://example.org/p> ?i . } ITERATOR iter:for(1, 1, 50) AS ?i .\n"
+			+ "  GENERATE { <http://example.org/b> <http://example.org/p> ?i . } ITERATOR iter:for(1, 1, 50) AS ?i .\n"
+			+ "  GENERATE { <http://example.org/c> <http://example.org/p> ?i . } ITERATOR iter:for(1, 1, 50) AS ?i .\n"
+			+ "}";
+
+	@BeforeClass
+	public static void init() {
+		SPARQLExt.init();
+	}
+
+	@Test
+	public void orderedOutputEqualsSequentialOutput() {
+		final List<Triple> sequential = exec(ContextUtils.build());
+		assertEquals(150, sequential.size());
+		for (int i = 0; i < 10; i++) {
+			final List<Triple> parallel = exec(
+					ContextUtils.build().setParallelSubQueries(true).setOrderedSubQueries(true));
+			assertEquals(sequential, parallel);
+		}
+	}
+
+	@Test
+	public void unorderedOutputHasTheSameTriples() {
+		final List<String> sequential = sorted(exec(ContextUtils.build()));
+		for (int i = 0; i < 10; i++) {
+			final List<String> parallel = sorted(
+					exec(ContextUtils.build().setParallelSubQueries(true).setOrderedSubQueries(false)));
+			assertEquals(sequential, parallel);
+		}
+	}
+
+	private static List<Triple> exec(final ContextUtils.Builder builder) {
+		final List<Triple> triples = Collections.synchronizedList(new ArrayList<>());
+		PlanFactory.create(QUERY).execGenerateStream(builder.setGenerateOutput(new StreamRDFBase() {
+			@Override
+			public void triple(Triple triple) {
+				triples.add(triple);
+			}
+		}).build());
+		return new ArrayList<>(triples);
+	}
+
+	private static List<String> sorted(final List<Triple> triples) {
+		final List<String> strings = new ArrayList<>();
+		triples.forEach((triple) -> strings.add(triple.toString()));
+		Collections.sort(strings);
+		return strings;
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.function;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.jena.query.QueryBuildException;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.function.FunctionBase0;
+import org.apache.jena.sparql.function.FunctionFactory;
+import org.apache.jena.sparql.function.FunctionRegistry;
+import org.apache.jena.sparql.util.Context;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.function.library.ST_Incr;
+
+/**
+ *
+ * @author Maxime Lefrançois
+ */
+public class SPARQLExtFunctionRegistryTest {
+
+	private static final String URI = "http://example.org/lazy";
+
+	private static boolean initialized = false;
+
+	@BeforeClass
+	public static void init() {
+		SPARQLExt.init();
+	}
+
+	@Test
+	public void classIsInitializedOnFirstCreation() {
+		final SPARQLExtFunctionRegistry registry = new SPARQLExtFunctionRegistry(new FunctionRegistry(),
+				new Context());
+		registry.put(URI, "fr.mines_stetienne.ci.sparql_generate.function.SPARQLExtFunctionRegistryTest$Lazy");
+		assertTrue(registry.isRegistered(URI));
+		final FunctionFactory factory = registry.get(URI);
+		assertNotNull(factory);
+		assertFalse(initialized);
+		assertTrue(factory.create(URI) instanceof Lazy);
+		assertTrue(initialized);
+	}
+
+	@Test(expected = QueryBuildException.class)
+	public void unknownClassIsReportedOnCreation() {
+		final SPARQLExtFunctionRegistry registry = new SPARQLExtFunctionRegistry(new FunctionRegistry(),
+				new Context());
+		registry.put(URI, "fr.mines_stetienne.ci.sparql_generate.function.DoesNotExist");
+		assertTrue(registry.isRegistered(URI));
+		registry.get(URI).create(URI);
+	}
+
+	@Test
+	public void overlayDoesNotChangeParent() {
+		final FunctionRegistry parent = FunctionRegistry.get();
+		final FunctionFactory incrFactory = parent.get(ST_Incr.URI);
+		assertTrue(incrFactory instanceof LazyFunctionFactory);
+		final SPARQLExtFunctionRegistry registry = new SPARQLExtFunctionRegistry(parent, new Context());
+		assertSame(incrFactory, registry.get(ST_Incr.URI));
+
+		registry.put(URI, "fr.mines_stetienne.ci.sparql_generate.function.SPARQLExtFunctionRegistryTest$Lazy");
+		registry.remove(ST_Incr.URI);
+		assertTrue(registry.isRegistered(URI));
+		assertFalse(registry.isRegistered(ST_Incr.URI));
+		assertFalse(parent.isRegistered(URI));
+		assertSame(incrFactory, parent.get(ST_Incr.URI));
+	}
+
+	public static class Lazy extends FunctionBase0 {
+
+		static {
+			initialized = true;
+		}
+
+		@Override
+		public NodeValue exec() {
+			return NodeValue.TRUE;
+		}
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.iterator;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.jena.query.QueryBuildException;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.util.Context;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.iterator.library.ITER_for;
+
+/**
+ *
+ * @author Maxime Lefrançois
+ */
+public class IteratorFunctionRegistryTest {
+
+	private static final String URI = "http://example.org/lazy";
+
+	private static boolean initialized = false;
+
+	@BeforeClass
+	public static void init() {
+		SPARQLExt.init();
+	}
+
+	@Test
+	public void classIsInitializedOnFirstCreation() {
+		final IteratorFunctionRegistry registry = new IteratorFunctionRegistry(new Context());
+		registry.put(URI, "fr.mines_stetienne.ci.sparql_generate.iterator.IteratorFunctionRegistryTest$Lazy");
+		assertTrue(registry.isRegistered(URI));
+		final IteratorFunctionFactory factory = registry.get(URI);
+		assertNotNull(factory);
+		assertFalse(initialized);
+		assertTrue(factory.create(URI) instanceof Lazy);
+		assertTrue(initialized);
+	}
+
+	@Test(expected = QueryBuildException.class)
+	public void unknownClassIsReportedOnCreation() {
+		final IteratorFunctionRegistry registry = new IteratorFunctionRegistry(new Context());
+		registry.put(URI, "fr.mines_stetienne.ci.sparql_generate.iterator.DoesNotExist");
+		assertTrue(registry.isRegistered(URI));
+		registry.get(URI).create(URI);
+	}
+
+	@Test
+	public void overlayDoesNotChangeParent() {
+		final IteratorFunctionRegistry parent = IteratorFunctionRegistry.get();
+		final IteratorFunctionFactory forFactory = parent.get(ITER_for.URI);
+		assertTrue(forFactory instanceof IteratorFunctionFactoryLazy);
+		final IteratorFunctionRegistry registry = new IteratorFunctionRegistry(parent, new Context());
+		assertSame(forFactory, registry.get(ITER_for.URI));
+
+		registry.put(URI, "fr.mines_stetienne.ci.sparql_generate.iterator.IteratorFunctionRegistryTest$Lazy");
+		registry.remove(ITER_for.URI);
+		assertTrue(registry.isRegistered(URI));
+		assertFalse(registry.isRegistered(ITER_for.URI));
+		assertFalse(keys(registry).contains(ITER_for.URI));
+		assertFalse(parent.isRegistered(URI));
+		assertSame(forFactory, parent.get(ITER_for.URI));
+
+		registry.put(ITER_for.URI, forFactory);
+		assertSame(forFactory, registry.get(ITER_for.URI));
+	}
+
+	private static List<String> keys(final IteratorFunctionRegistry registry) {
+		final List<String> keys = new ArrayList<>();
+		registry.keys().forEachRemaining(keys::add);
+		return keys;
+	}
+
+	public static class Lazy extends IteratorFunctionBase0 {
+
+		static {
+			initialized = true;
+		}
+
+		@Override
+		public List<List<NodeValue>> exec() {
+			return Collections.emptyList();
+		}
+	}
+
+}
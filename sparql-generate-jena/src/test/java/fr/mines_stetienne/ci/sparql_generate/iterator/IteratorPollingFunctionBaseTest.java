@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.jena.atlas.web.TypedInputStream;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.engine.PlanFactory;
+import fr.mines_stetienne.ci.sparql_generate.stream.LocatorStringMap;
+import fr.mines_stetienne.ci.sparql_generate.stream.LookUpRequest;
+import fr.mines_stetienne.ci.sparql_generate.stream.SPARQLExtStreamManager;
+import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+
+/**
+ *
+ * @author Maxime Lefrançois
+ */
+public class IteratorPollingFunctionBaseTest {
+
+	private static final String PREFIX = "PREFIX iter: <http://w3id.org/sparql-generate/iter/>\n";
+
+	/**
+	 * The names of the threads that fetched the documents.
+	 */
+	private final Set<String> fetchingThreads = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The names of the threads that emitted the triples.
+	 */
+	private final Set<String> emittingThreads = ConcurrentHashMap.newKeySet();
+
+	private SPARQLExtStreamManager streamManager;
+
+	@BeforeClass
+	public static void init() {
+		SPARQLExt.init();
+	}
+
+	@Before
+	public void setUp() {
+		final LocatorStringMap locator = new LocatorStringMap() {
+			@Override
+			public TypedInputStream open(LookUpRequest request) {
+				fetchingThreads.add(Thread.currentThread().getName());
+				return super.open(request);
+			}
+		};
+		locator.put("http://example.org/outer", "outer", "text/plain");
+		locator.put("http://example.org/inner", "inner", "text/plain");
+		streamManager = SPARQLExtStreamManager.makeStreamManager(locator);
+	}
+
+	@Test(timeout = 60000)
+	public void nestedPollsDoNotDeadlock() {
+		// more concurrent outer polls than there are processors
+		final int executions = 2 * Runtime.getRuntime().availableProcessors() + 1;
+		final String query = PREFIX
+				+ "GENERATE {\n"
+				+ "  GENERATE { <http://example.org/{STR(?i)}> <http://example.org/p> ?inner . }\n"
+				+ "  ITERATOR iter:HTTPGet(<http://example.org/inner>, 1, 1) AS ?inner .\n"
+				+ "}\n"
+				+ "ITERATOR iter:for(1, 1, " + (executions + 1) + ") AS ?i\n"
+				+ "ITERATOR iter:HTTPGet(<http://example.org/outer>, 1, 1) AS ?outer";
+		assertEquals(executions, exec(query, ContextUtils.build()));
+	}
+
+	@Test(timeout = 60000)
+	public void valuesAreEmittedOnTheAwaitingThread() {
+		final String query = PREFIX
+				+ "GENERATE { <http://example.org/s> <http://example.org/p> ?outer . }\n"
+				+ "ITERATOR iter:HTTPGet(<http://example.org/outer>, 1, 2) AS ?outer";
+		exec(query, ContextUtils.build().setSourceParallelism(2));
+		assertEquals(1, emittingThreads.size());
+		assertTrue(emittingThreads.contains(Thread.currentThread().getName()));
+	}
+
+	@Test(timeout = 60000)
+	public void resourcesAreFetchedOnTheSourceExecutor() {
+		final String query = PREFIX
+				+ "GENERATE { <http://example.org/s> <http://example.org/p> ?outer . }\n"
+				+ "ITERATOR iter:HTTPGet(<http://example.org/outer>, 1, 2) AS ?outer";
+		exec(query, ContextUtils.build().setSourceParallelism(2));
+		assertTrue(!fetchingThreads.isEmpty());
+		fetchingThreads.forEach((name) -> assertTrue(name, name.startsWith("sparql-generate-source")));
+	}
+
+	@Test(timeout = 60000)
+	public void resourcesAreFetchedOnTheAwaitingThreadWithoutSourceExecutor() {
+		final String query = PREFIX
+				+ "GENERATE { <http://example.org/s> <http://example.org/p> ?outer . }\n"
+				+ "ITERATOR iter:HTTPGet(<http://example.org/outer>, 1, 2) AS ?outer";
+		exec(query, ContextUtils.build());
+		assertEquals(1, fetchingThreads.size());
+		assertTrue(fetchingThreads.contains(Thread.currentThread().getName()));
+	}
+
+	private int exec(final String query, final ContextUtils.Builder builder) {
+		final Set<Triple> triples = ConcurrentHashMap.newKeySet();
+		PlanFactory.create(query).execGenerateStream(builder.setStreamManager(streamManager)
+				.setGenerateOutput(new StreamRDFBase() {
+					@Override
+					public void triple(Triple triple) {
+						emittingThreads.add(Thread.currentThread().getName());
+						triples.add(triple);
+					}
+				}).build());
+		return triples.size();
+	}
+}
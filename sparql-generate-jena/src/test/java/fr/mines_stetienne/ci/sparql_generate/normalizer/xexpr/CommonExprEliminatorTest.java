@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.normalizer.xexpr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.sparql.expr.E_StrUpperCase;
+import org.apache.jena.sparql.expr.Expr;
+import org.apache.jena.sparql.expr.ExprVar;
+import org.apache.jena.sparql.syntax.ElementBind;
+import org.apache.jena.sparql.util.ExprUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.engine.PlanFactory;
+import fr.mines_stetienne.ci.sparql_generate.utils.ContextUtils;
+
+/**
+ *
+ * @author Maxime Lefrançois
+ */
+public class CommonExprEliminatorTest {
+
+	@BeforeClass
+	public static void init() {
+		SPARQLExt.init();
+	}
+
+	@Test
+	public void commonSubExpressionsAreBoundOnce() {
+		final Expr first = ExprUtils.parse("CONCAT(STR(?a), \"x\")");
+		final Expr second = ExprUtils.parse("UCASE(CONCAT(STR(?a), \"x\"))");
+		final CommonExprEliminator eliminator = new CommonExprEliminator();
+		eliminator.count(first);
+		eliminator.count(second);
+		final Expr newFirst = eliminator.rewrite(first);
+		final Expr newSecond = eliminator.rewrite(second);
+		final List<ElementBind> bindings = eliminator.pollBindings();
+		// STR(?a), then CONCAT(?str, "x")
+		assertEquals(2, bindings.size());
+		assertEquals(ExprUtils.parse("STR(?a)"), bindings.get(0).getExpr());
+		final ExprVar concat = new ExprVar(bindings.get(1).getVar());
+		assertEquals(concat, newFirst);
+		assertEquals(new E_StrUpperCase(concat), newSecond);
+		assertTrue(eliminator.pollBindings().isEmpty());
+	}
+
+	@Test
+	public void nonDeterministicExpressionsAreNotBound() {
+		final Expr expr = ExprUtils.parse("CONCAT(STRUUID(), \"x\")");
+		final CommonExprEliminator eliminator = new CommonExprEliminator();
+		eliminator.count(expr);
+		eliminator.count(expr);
+		assertEquals(expr, eliminator.rewrite(expr));
+		assertEquals(expr, eliminator.rewrite(expr));
+		assertTrue(eliminator.pollBindings().isEmpty());
+	}
+
+	@Test
+	public void conditionalArgumentsAreNotBound() {
+		final Expr conditional = ExprUtils.parse("IF(BOUND(?a), STR(?a), \"\")");
+		final Expr str = ExprUtils.parse("STR(?a)");
+		final CommonExprEliminator eliminator = new CommonExprEliminator();
+		eliminator.count(conditional);
+		eliminator.count(str);
+		assertEquals(conditional, eliminator.rewrite(conditional));
+		assertEquals(str, eliminator.rewrite(str));
+		assertTrue(eliminator.pollBindings().isEmpty());
+	}
+
+	@Test
+	public void generatedTriplesAreUnchanged() {
+		final Model model = exec("GENERATE {\n"
+				+ "  <http://example.org/{STR(?i)}> <http://example.org/p> ?{CONCAT(STR(?i), \"x\")} ;\n"
+				+ "    <http://example.org/q> ?{UCASE(CONCAT(STR(?i), \"x\"))} .\n"
+				+ "}\n"
+				+ "ITERATOR iter:for(1, 1, 4) AS ?i");
+		assertEquals(6, model.size());
+		for (int i = 1; i <= 3; i++) {
+			final Resource s = model.createResource("http://example.org/" + i);
+			assertEquals(i + "x", s.getProperty(model.createProperty("http://example.org/p")).getString());
+			assertEquals(i + "X", s.getProperty(model.createProperty("http://example.org/q")).getString());
+		}
+	}
+
+	@Test
+	public void nonDeterministicTemplateExpressionsAreEvaluatedEachTime() {
+		final Model model = exec("GENERATE {\n"
+				+ "  <http://example.org/s> <http://example.org/p> ?{STRUUID()} ;\n"
+				+ "    <http://example.org/q> ?{STRUUID()} .\n"
+				+ "}\n"
+				+ "ITERATOR iter:for(1, 1, 2) AS ?i");
+		final Resource s = model.createResource("http://example.org/s");
+		final Property p = model.createProperty("http://example.org/p");
+		final Property q = model.createProperty("http://example.org/q");
+		assertNotEquals(s.getProperty(p).getString(), s.getProperty(q).getString());
+	}
+
+	private static Model exec(final String query) {
+		return PlanFactory.create("PREFIX iter: <http://w3id.org/sparql-generate/iter/>\n" + query)
+				.execGenerate(ContextUtils.build().build());
+	}
+}
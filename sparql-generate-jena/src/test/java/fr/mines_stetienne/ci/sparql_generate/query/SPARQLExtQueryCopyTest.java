@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.jena.query.QueryFactory;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.lang.ParserSPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.syntax.ElementSubExtQuery;
+
+/**
+ * Checks that normalizing a copy of a query gives the same query as
+ * normalizing the query serialized and parsed again.
+ *
+ * @author Maxime Lefrançois
+ */
+public class SPARQLExtQueryCopyTest {
+
+	/**
+	 * The variables and blank nodes the normalizers allocate have random
+	 * names, they are renamed in the order they appear.
+	 */
+	private static final Pattern ALLOCATED = Pattern.compile("(\\?|\\$|_:)[0-9a-f]{8}\\b");
+
+	private static final String PREFIX = "PREFIX ex: <http://example.org/>\n";
+
+	@BeforeClass
+	public static void init() {
+		SPARQLExt.init();
+	}
+
+	@Test
+	public void copyOfTestQueriesIsNormalizedAsReparsedQueries() throws IOException, URISyntaxException {
+		final Path root = Paths.get(SPARQLExtQueryCopyTest.class.getClassLoader().getResource("generate").toURI());
+		final List<Path> files;
+		try (Stream<Path> paths = Files.walk(root)) {
+			files = paths.filter((p) -> p.toString().endsWith(".rqg")).sorted().collect(Collectors.toList());
+		}
+		assertTrue(files.size() > 0);
+		for (Path file : files) {
+			final String queryString = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+			final SPARQLExtQuery query = (SPARQLExtQuery) QueryFactory.create(queryString,
+					file.toUri().toString(), SPARQLExt.SYNTAX);
+			if (!query.hasEmbeddedExpressions()) {
+				continue;
+			}
+			final String original = query.toString();
+			assertEquals(root.relativize(file).toString(), canonical(reparseAndNormalize(query)),
+					canonical(copyAndNormalize(query)));
+			assertEquals(root.relativize(file).toString(), original, query.toString());
+		}
+	}
+
+	@Test
+	public void copyOfSubQueryIsNormalizedAsReparsedSubQuery() {
+		final SPARQLExtQuery query = parse("GENERATE {\n"
+				+ "  GENERATE { ex:s ex:p \"x{ ?i }y\" } WHERE { BIND(?i + 1 AS ?j) } .\n"
+				+ "} WHERE { VALUES ?i { 1 2 } }");
+		final SPARQLExtQuery subQuery = ((ElementSubExtQuery) query.getGenerateClause().get(0)).getQuery();
+		assertTrue(subQuery.isSubQuery());
+		final String original = subQuery.toString();
+		assertEquals(canonical(reparseAndNormalize(subQuery)), canonical(copyAndNormalize(subQuery)));
+		assertEquals(original, subQuery.toString());
+	}
+
+	@Test
+	public void normalizingCopyLeavesNestedQueriesUnchanged() {
+		final SPARQLExtQuery query = parse("GENERATE {\n"
+				+ "  GENERATE { ex:s ex:p \"{ ?i }\" } WHERE { } .\n"
+				+ "} WHERE { { SELECT ?i WHERE { VALUES ?i { 1 } } } }");
+		final String original = query.toString();
+		final SPARQLExtQuery copy = query.copy();
+		assertNotSame(query.getGenerateClause(), copy.getGenerateClause());
+		assertNotSame(((ElementSubExtQuery) query.getGenerateClause().get(0)).getQuery(),
+				((ElementSubExtQuery) copy.getGenerateClause().get(0)).getQuery());
+		assertEquals(original, copy.toString());
+		copyAndNormalize(query);
+		assertEquals(original, query.toString());
+	}
+
+	private static SPARQLExtQuery parse(final String query) {
+		return (SPARQLExtQuery) QueryFactory.create(PREFIX + query, SPARQLExt.SYNTAX);
+	}
+
+	/**
+	 * Normalizes the query as the plan factory does.
+	 */
+	private static SPARQLExtQuery copyAndNormalize(final SPARQLExtQuery query) {
+		final SPARQLExtQuery query2 = query.copy();
+		query2.normalizeXExpr();
+		if (!query.isSubQuery()) {
+			query2.normalizeBNode();
+		}
+		query2.normalizeAggregates();
+		return query2;
+	}
+
+	/**
+	 * Normalizes the query as the plan factory did before it copied queries.
+	 */
+	private static SPARQLExtQuery reparseAndNormalize(final SPARQLExtQuery query) {
+		final String qs = query.toString();
+		final SPARQLExtQuery query2;
+		if (query.isSubQuery()) {
+			query2 = ParserSPARQLExt.parseSubQuery(query, qs);
+			query2.normalizeXExpr();
+		} else {
+			query2 = (SPARQLExtQuery) QueryFactory.create(qs, SPARQLExt.SYNTAX);
+			query2.normalizeXExpr();
+			query2.normalizeBNode();
+		}
+		query2.normalizeAggregates();
+		return query2;
+	}
+
+	private static String canonical(final SPARQLExtQuery query) {
+		final Map<String, String> names = new HashMap<>();
+		final Matcher matcher = ALLOCATED.matcher(query.toString());
+		final StringBuffer sb = new StringBuffer();
+		while (matcher.find()) {
+			final String name = names.computeIfAbsent(matcher.group(),
+					(n) -> matcher.group(1) + "allocated" + names.size());
+			matcher.appendReplacement(sb, Matcher.quoteReplacement(name));
+		}
+		matcher.appendTail(sb);
+		return sb.toString();
+	}
+
+}
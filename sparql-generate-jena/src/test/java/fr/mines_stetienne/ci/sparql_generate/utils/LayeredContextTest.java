@@ -0,0 +1,120 @@
+/*
+ * Copyright 2020 MINES Saint-Étienne
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fr.mines_stetienne.ci.sparql_generate.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.sparql.ARQConstants;
+import org.apache.jena.sparql.expr.ExprVar;
+import org.apache.jena.sparql.util.Context;
+import org.apache.jena.sparql.util.NodeFactoryExtra;
+import org.apache.jena.sparql.util.Symbol;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.graph.Node_List;
+
+/**
+ *
+ * @author Maxime Lefrançois
+ */
+public class LayeredContextTest {
+
+	private static final Symbol LIVE = Symbol.create("http://example.org/live");
+
+	private static final Symbol SNAPSHOT = Symbol.create("http://example.org/snapshot");
+
+	@BeforeClass
+	public static void init() {
+		SPARQLExt.init();
+	}
+
+	@Test
+	public void forkReadsLaterValuesOfItsParent() {
+		final Context parent = new Context();
+		final Context fork = new LayeredContext(new LayeredContext(parent));
+		parent.set(LIVE, "a");
+		assertEquals("a", fork.get(LIVE));
+		fork.set(LIVE, "b");
+		assertEquals("a", parent.get(LIVE));
+		assertEquals("b", fork.get(LIVE));
+	}
+
+	@Test
+	public void removedValueStaysRemoved() {
+		final Context parent = new Context();
+		parent.set(LIVE, "a");
+		final Context fork = new LayeredContext(parent);
+		fork.remove(LIVE);
+		assertNull(fork.get(LIVE));
+		parent.set(LIVE, "b");
+		assertNull(fork.get(LIVE));
+		assertEquals("b", parent.get(LIVE));
+	}
+
+	@Test
+	public void forkDoesNotReadLaterSnapshotValuesOfItsParent() {
+		final Context parent = new Context();
+		parent.set(SNAPSHOT, "a");
+		final Context fork = new LayeredContext(parent, SNAPSHOT);
+		final Context empty = new LayeredContext(new Context(), SNAPSHOT);
+		parent.set(SNAPSHOT, "b");
+		assertEquals("a", fork.get(SNAPSHOT));
+		assertNull(empty.get(SNAPSHOT));
+		final Context nested = new LayeredContext(fork, SNAPSHOT);
+		fork.set(SNAPSHOT, "c");
+		assertEquals("a", nested.get(SNAPSHOT));
+	}
+
+	@Test
+	public void forkDoesNotReadLaterTimeOfItsParent() {
+		final Context parent = ContextUtils.build().build();
+		final Node before = NodeFactoryExtra.nowAsDateTime();
+		parent.set(ARQConstants.sysCurrentTime, before);
+		final Context fork = ContextUtils.fork(parent, false).fork();
+		parent.set(ARQConstants.sysCurrentTime, NodeFactoryExtra.parseNode("\"2000-01-01T00:00:00Z\"^^<http://www.w3.org/2001/XMLSchema#dateTime>"));
+		assertEquals(before, fork.get(ARQConstants.sysCurrentTime));
+	}
+
+	@Test
+	public void forkDoesNotShareLaterListNodesOfItsParent() {
+		final Context parent = ContextUtils.fork(ContextUtils.build().build(), false).setSize(2).fork();
+		final Context fork = ContextUtils.fork(parent, false).setSize(2).fork();
+		final Node_List list = new Node_List(new ExprVar("x"));
+		final Node inParent = ContextUtils.getNode(parent, list, 0);
+		assertNotEquals(inParent, ContextUtils.getNode(fork, list, 0));
+		assertEquals(inParent, ContextUtils.getNode(parent, list, 0));
+	}
+
+	@Test
+	public void forkReadsTheOutputsOfItsParent() {
+		final StreamRDF output = new StreamRDFBase();
+		final Context parent = ContextUtils.build(output).build();
+		final Context fork = ContextUtils.fork(ContextUtils.fork(parent, false).fork(), false).fork();
+		assertSame(output, ContextUtils.getGenerateOutput(fork));
+		final StreamRDF other = new StreamRDFBase();
+		final Context overriding = ContextUtils.fork(fork, false).setGenerateOutput(other).fork();
+		assertSame(other, ContextUtils.getGenerateOutput(overriding));
+		assertSame(output, ContextUtils.getGenerateOutput(fork));
+	}
+}
@@ -16,6 +16,7 @@
 package fr.mines_stetienne.ci.sparql_generate.json;
 
 import fr.mines_stetienne.ci.sparql_generate.function.FunctionLoader;
+import fr.mines_stetienne.ci.sparql_generate.function.LazyFunctionFactory;
 import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorFunctionRegistry;
 import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorFunctionLoader;
 import org.apache.jena.sparql.function.FunctionRegistry;
@@ -25,19 +26,19 @@ import org.apache.jena.sparql.function.FunctionRegistry;
  * @author Maxime Lefrançois
  */
 public class FunctionsLoader implements FunctionLoader, IteratorFunctionLoader {
-    
+
     @Override
     public void load(FunctionRegistry fnreg) {
-        fnreg.put(FUN_JSONPath.URI, FUN_JSONPath.class);
-        fnreg.put(FUN_CBOR.URI, FUN_CBOR.class);
+        fnreg.put(FUN_JSONPath.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.json.FUN_JSONPath"));
+        fnreg.put(FUN_CBOR.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.json.FUN_CBOR"));
     }
     
     @Override
     public void load(IteratorFunctionRegistry itereg) {
-        itereg.put(ITER_JSONPath.URI, ITER_JSONPath.class);
-        itereg.put(ITER_JSONListKeys.URI, ITER_JSONListKeys.class);
-        itereg.put(ITER_CBOR.URI, ITER_CBOR.class);
-        itereg.put(ITER_JSONSurfer.URI, ITER_JSONSurfer.class);
+        itereg.put(ITER_JSONPath.URI, "fr.mines_stetienne.ci.sparql_generate.json.ITER_JSONPath");
+        itereg.put(ITER_JSONListKeys.URI, "fr.mines_stetienne.ci.sparql_generate.json.ITER_JSONListKeys");
+        itereg.put(ITER_CBOR.URI, "fr.mines_stetienne.ci.sparql_generate.json.ITER_CBOR");
+        itereg.put(ITER_JSONSurfer.URI, "fr.mines_stetienne.ci.sparql_generate.json.ITER_JSONSurfer");
     }
     
 }
@@ -180,11 +180,13 @@ public class ITER_JSONPath extends IteratorFunctionBase {
             for (int i = 0; i < size; i++) {
                 Object value = values.get(i);
                 List<NodeValue> nodeValues = new ArrayList<>(args.size() + 1);
-                nodeValues.add(function.nodeForObject(value));
+                nodeValues.add(isOutputUsed(0) ? function.nodeForObject(value) : null);
                 DocumentContext context = JsonPath.parse(value);
-                for (JsonPath subquery : subqueries) {
-                	if(subquery == null) {
+                for (int j = 0; j < subqueries.length; j++) {
+                    final JsonPath subquery = subqueries[j];
+                	if(subquery == null || !isOutputUsed(j + 1)) {
                         nodeValues.add(null);
+                        continue;
                 	}
                     try {
                         Object subvalue = context.limit(1).read(subquery);
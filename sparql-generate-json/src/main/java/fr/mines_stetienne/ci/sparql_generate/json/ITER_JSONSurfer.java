@@ -32,6 +32,7 @@ import com.jayway.jsonpath.spi.json.JsonSmartJsonProvider;
 import com.jayway.jsonpath.spi.mapper.GsonMappingProvider;
 
 import fr.mines_stetienne.ci.sparql_generate.SPARQLExt;
+import fr.mines_stetienne.ci.sparql_generate.iterator.BatchSize;
 import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorStreamFunctionBase;
 import fr.mines_stetienne.ci.sparql_generate.stream.LookUpRequest;
 import fr.mines_stetienne.ci.sparql_generate.stream.SPARQLExtStreamManager;
@@ -86,7 +87,9 @@ import org.slf4j.Logger;
  * document itself (a String)</li>
  * <li>Param 2: the JSONPath query</li>
  * <li>Param 3: (integer: batch) Optional number of rows per batch (by default,
- * all the JSON document is processed as one batch);</li>
+ * all the JSON document is processed as one batch). If a batch latency or
+ * memory target is set, the size of the batches adapts to it, starting from
+ * this number;</li>
  * <li>Param 4 .. N : (auxJsonPath ... ) other JSONPath queries, which will be
  * executed over the results of the execution of jsonPath, and provide one
  * result each.</li>
@@ -124,10 +127,10 @@ public class ITER_JSONSurfer extends IteratorStreamFunctionBase {
 		try (InputStream jsonInput = getInputStream(json)) {
 
 			final JsonPath compiledPath = getCompiledPath(jsonquery);
-			final int rowsInABatch = getRowsInABatch(args);
+			final BatchSize batchSize = getBatchSize(getRowsInABatch(args), collectionListNodeValue);
 			final com.jayway.jsonpath.JsonPath[] subqueries = getSubQueries(args);
 
-			final Listener listener = new Listener(collectionListNodeValue, rowsInABatch, jsonquery, subqueries);
+			final Listener listener = new Listener(batchSize, jsonquery, subqueries);
 
 			surfer.configBuilder().bind(compiledPath, listener).buildAndSurf(jsonInput);
 
@@ -216,14 +219,12 @@ public class ITER_JSONSurfer extends IteratorStreamFunctionBase {
 
 	private class Listener implements JsonPathListener {
 
-		private final Consumer<List<List<NodeValue>>> collectionListNodeValue;
-		private final int rowsInABatch;
+		private final BatchSize batchSize;
 		private final com.jayway.jsonpath.JsonPath[] subqueries;
 
-		public Listener(final Consumer<List<List<NodeValue>>> collectionListNodeValue, int rowsInABatch,
+		public Listener(final BatchSize batchSize,
 				NodeValue jsonquery, final com.jayway.jsonpath.JsonPath[] subqueries) {
-			this.collectionListNodeValue = collectionListNodeValue;
-			this.rowsInABatch = rowsInABatch;
+			this.batchSize = batchSize;
 			this.subqueries = subqueries;
 
 		}
@@ -247,14 +248,18 @@ public class ITER_JSONSurfer extends IteratorStreamFunctionBase {
 
 			List<NodeValue> nodeValues = new ArrayList<>(subqueries.length);
 
-			NodeValue node = function.nodeForObject(value);
+			NodeValue node = isOutputUsed(0) ? function.nodeForObject(value) : null;
 
 			nodeValues.add(node);
 
 			com.jayway.jsonpath.DocumentContext doc = com.jayway.jsonpath.JsonPath.using(config).parse(value);
 
-			for (com.jayway.jsonpath.JsonPath subquery : subqueries) {
-
+			for (int i = 0; i < subqueries.length; i++) {
+				final com.jayway.jsonpath.JsonPath subquery = subqueries[i];
+				if (!isOutputUsed(i + 1)) {
+					nodeValues.add(null);
+					continue;
+				}
 				try {
 					Object subvalue = doc.limit(1).read(subquery);
 					NodeValue subnode = function.nodeForObject(subvalue);
@@ -269,7 +274,7 @@ public class ITER_JSONSurfer extends IteratorStreamFunctionBase {
 			rowsInThisBatch++;
 			total++;
 
-			if (rowsInABatch > 0 && rowsInThisBatch >= rowsInABatch) {
+			if (batchSize.isFull(rowsInThisBatch)) {
 				LOG.trace("New batch of " + rowsInThisBatch + " rows, " + total + " total");
 				send();
 				rowsInThisBatch = 0;
@@ -278,7 +283,7 @@ public class ITER_JSONSurfer extends IteratorStreamFunctionBase {
 		}
 
 		private void send() {
-			collectionListNodeValue.accept(listNodeValues);
+			batchSize.emit(listNodeValues);
 			listNodeValues = new ArrayList<>();
 		}
 
@@ -18,16 +18,17 @@ package fr.mines_stetienne.ci.sparql_generate.md;
 import org.apache.jena.sparql.function.FunctionRegistry;
 
 import fr.mines_stetienne.ci.sparql_generate.function.FunctionLoader;
+import fr.mines_stetienne.ci.sparql_generate.function.LazyFunctionFactory;
 
 /**
  *
  * @author Maxime Lefrançois
  */
 public class FunctionsLoader implements FunctionLoader {
-    
+
     @Override
     public void load(FunctionRegistry fnreg) {
-        fnreg.put(FUN_Markdown.URI, FUN_Markdown.class);
+        fnreg.put(FUN_Markdown.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.md.FUN_Markdown"));
     }
     
 }
@@ -23,10 +23,10 @@ import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorFunctionLoader;
  * @author Maxime Lefrançois
  */
 public class FunctionsLoader implements IteratorFunctionLoader {
-    
+
     @Override
     public void load(IteratorFunctionRegistry itereg) {
-        itereg.put(ITER_MQTTSubscribe.URI, ITER_MQTTSubscribe.class);
+        itereg.put(ITER_MQTTSubscribe.URI, "fr.mines_stetienne.ci.sparql_generate.mqtt.ITER_MQTTSubscribe");
     }
     
 }
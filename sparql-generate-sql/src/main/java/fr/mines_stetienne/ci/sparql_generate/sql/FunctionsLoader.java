@@ -24,10 +24,10 @@ import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorFunctionLoader;
  * @organization Ecole des Mines de Saint Etienne
  */
 public class FunctionsLoader implements IteratorFunctionLoader {
-    
+
     @Override
     public void load(IteratorFunctionRegistry itereg) {
-        itereg.put(ITER_SQL.URI, ITER_SQL.class);
+        itereg.put(ITER_SQL.URI, "fr.mines_stetienne.ci.sparql_generate.sql.ITER_SQL");
     }
     
 }
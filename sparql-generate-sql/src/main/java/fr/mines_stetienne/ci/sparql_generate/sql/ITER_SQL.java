@@ -28,6 +28,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.function.IntPredicate;
 
 import org.apache.jena.datatypes.xsd.XSDDatatype;
 import org.apache.jena.datatypes.xsd.XSDDateTime;
@@ -107,7 +108,7 @@ public class ITER_SQL extends IteratorFunctionBase2 {
 		LOG.trace("Executing SQL with variables: the data base at URI: " + nodeSQL + "\t with query:\t" + querySQL);
 		try (Connection connectionSQL = getConnection(nodeSQL)){
 			LOG.trace("Connected successfuly to " + nodeSQL);
-			return getListSQL(connectionSQL, querySQL);
+			return getListSQL(connectionSQL, querySQL, this::isOutputUsed);
 		} catch (Exception ex) {
 			LOG.warn("Can not connect to the data base", ex);
 			throw new ExprEvalException("Can not connect to the data base", ex);
@@ -134,6 +135,19 @@ public class ITER_SQL extends IteratorFunctionBase2 {
 	}
 
 	public static List<List<NodeValue>> getListSQL(Connection conn, NodeValue querySQL) {
+		return getListSQL(conn, querySQL, (i) -> true);
+	}
+
+	/**
+	 * Executes the SQL query, and only converts the cells of the used columns.
+	 * The cells of the other columns are null.
+	 *
+	 * @param conn the connection to the data base
+	 * @param querySQL the SQL query
+	 * @param usedColumns the positions of the used columns, starting at 0
+	 * @return the rows
+	 */
+	public static List<List<NodeValue>> getListSQL(Connection conn, NodeValue querySQL, IntPredicate usedColumns) {
 		List<List<NodeValue>> nodeValuesAllRows = new ArrayList<>();
 		if (!querySQL.isString()) {
 			String message = String.format("Second argument (the query) must be a String");
@@ -145,11 +159,12 @@ public class ITER_SQL extends IteratorFunctionBase2 {
 				ResultSetMetaData rsmd = rs.getMetaData();
 				int columnCount = rsmd.getColumnCount();
 				while (rs.next()) {
-					List<NodeValue> listRow = new ArrayList<>();
+					List<NodeValue> listRow = new ArrayList<>(columnCount);
 					int i = 1;
 					while (i <= columnCount) {
-						NodeValue nv = getNodeValueForCell(rs, rsmd, i++);
+						NodeValue nv = usedColumns.test(i - 1) ? getNodeValueForCell(rs, rsmd, i) : null;
 						listRow.add(nv);
+						i++;
 					}
 					nodeValuesAllRows.add(listRow);
 
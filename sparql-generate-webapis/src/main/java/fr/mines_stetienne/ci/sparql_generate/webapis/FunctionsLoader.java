@@ -19,6 +19,7 @@ package fr.mines_stetienne.ci.sparql_generate.webapis;
 import org.apache.jena.sparql.function.FunctionRegistry;
 
 import fr.mines_stetienne.ci.sparql_generate.function.FunctionLoader;
+import fr.mines_stetienne.ci.sparql_generate.function.LazyFunctionFactory;
 
 
 /**
@@ -26,18 +27,19 @@ import fr.mines_stetienne.ci.sparql_generate.function.FunctionLoader;
  * @author Maxime Lefrançois
  */
 public class FunctionsLoader implements FunctionLoader{
+
 	@Override
     public void load(FunctionRegistry fnreg) {
-        fnreg.put(FUN_HTTPGet.URI, FUN_HTTPGet.class);
-        fnreg.put(FUN_HTTPPost.URI, FUN_HTTPPost.class);
-        fnreg.put(FUN_HTTPPut.URI, FUN_HTTPPut.class);
-        fnreg.put(FUN_HTTPDelete.URI, FUN_HTTPDelete.class);
-        fnreg.put(FUN_HTTPHead.URI, FUN_HTTPHead.class);
-        fnreg.put(FUN_HTTPExtractHeader.URI, FUN_HTTPExtractHeader.class);
-        fnreg.put(FUN_HTTPExtractResponseCode.URI, FUN_HTTPExtractResponseCode.class);
-        fnreg.put(FUN_HTTPExtractBody.URI, FUN_HTTPExtractBody.class);
-        fnreg.put(FUN_Turtle.URI, FUN_Turtle.class);
-        fnreg.put(FUN_RDFXML.URI, FUN_RDFXML.class);
+        fnreg.put(FUN_HTTPGet.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.webapis.FUN_HTTPGet"));
+        fnreg.put(FUN_HTTPPost.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.webapis.FUN_HTTPPost"));
+        fnreg.put(FUN_HTTPPut.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.webapis.FUN_HTTPPut"));
+        fnreg.put(FUN_HTTPDelete.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.webapis.FUN_HTTPDelete"));
+        fnreg.put(FUN_HTTPHead.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.webapis.FUN_HTTPHead"));
+        fnreg.put(FUN_HTTPExtractHeader.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.webapis.FUN_HTTPExtractHeader"));
+        fnreg.put(FUN_HTTPExtractResponseCode.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.webapis.FUN_HTTPExtractResponseCode"));
+        fnreg.put(FUN_HTTPExtractBody.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.webapis.FUN_HTTPExtractBody"));
+        fnreg.put(FUN_Turtle.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.webapis.FUN_Turtle"));
+        fnreg.put(FUN_RDFXML.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.webapis.FUN_RDFXML"));
     }
 
     
@@ -16,6 +16,7 @@
 package fr.mines_stetienne.ci.sparql_generate.xml;
 
 import fr.mines_stetienne.ci.sparql_generate.function.FunctionLoader;
+import fr.mines_stetienne.ci.sparql_generate.function.LazyFunctionFactory;
 import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorFunctionRegistry;
 import fr.mines_stetienne.ci.sparql_generate.iterator.IteratorFunctionLoader;
 import org.apache.jena.sparql.function.FunctionRegistry;
@@ -25,18 +26,18 @@ import org.apache.jena.sparql.function.FunctionRegistry;
  * @author Maxime Lefrançois
  */
 public class FunctionsLoader implements FunctionLoader, IteratorFunctionLoader {
-    
+
     @Override
     public void load(FunctionRegistry fnreg) {
-        fnreg.put(FUN_XPath.URI, FUN_XPath.class);
-        fnreg.put(FUN_CSSPath.URI, FUN_CSSPath.class);
-        fnreg.put(FUN_HTMLtoXML.URI, FUN_HTMLtoXML.class);
+        fnreg.put(FUN_XPath.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.xml.FUN_XPath"));
+        fnreg.put(FUN_CSSPath.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.xml.FUN_CSSPath"));
+        fnreg.put(FUN_HTMLtoXML.URI, new LazyFunctionFactory("fr.mines_stetienne.ci.sparql_generate.xml.FUN_HTMLtoXML"));
     }
     
     @Override
     public void load(IteratorFunctionRegistry itereg) {
-        itereg.put(ITER_XPath.URI, ITER_XPath.class);
-        itereg.put(ITER_CSSPath.URI, ITER_CSSPath.class);
+        itereg.put(ITER_XPath.URI, "fr.mines_stetienne.ci.sparql_generate.xml.ITER_XPath");
+        itereg.put(ITER_CSSPath.URI, "fr.mines_stetienne.ci.sparql_generate.xml.ITER_CSSPath");
     }
     
 }